@@ -0,0 +1,47 @@
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tresys.jalop.jnl;
+
+/**
+ * A {@link SubscribeRequest} for a "journal-resume" that also carries the
+ * {@link DigestCheckpoint} saved with the partial record.
+ *
+ * If the checkpoint was taken at the offset returned by
+ * {@link SubscribeRequest#getResumeOffset()}, the library carries on with the
+ * digest from it and does not read
+ * {@link SubscribeRequest#getResumeInputStream()}. Otherwise the checkpoint
+ * is ignored and the input stream is read, as for any other
+ * {@link SubscribeRequest}. The input stream is closed by the library
+ * either way.
+ */
+public interface CheckpointedSubscribeRequest extends SubscribeRequest {
+
+	/**
+	 * @return the checkpoint from {@link DigestCheckpoint#getDigestCheckpoint()}
+	 *         saved with the partial record, or <tt>null</tt> if there is
+	 *         none.
+	 */
+	byte[] getResumeDigestCheckpoint();
+}
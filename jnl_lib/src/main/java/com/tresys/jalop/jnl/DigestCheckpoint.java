@@ -0,0 +1,50 @@
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tresys.jalop.jnl;
+
+/**
+ * Implemented by the {@link RecordInfo} handed to the {@link Subscriber} for
+ * a journal record when the library can save how far it has got with the
+ * digest of the record.
+ *
+ * A {@link Subscriber} that keeps partial journal records to resume later
+ * may save the checkpoint along with the payload it has written, and return
+ * it from {@link CheckpointedSubscribeRequest#getResumeDigestCheckpoint()}.
+ * The library can then carry on with the digest from the checkpoint, rather
+ * than reading all of the payload already received from
+ * {@link SubscribeRequest#getResumeInputStream()}.
+ */
+public interface DigestCheckpoint {
+
+	/**
+	 * Save the state of the digest of the record. The checkpoint covers the
+	 * payload read so far, so it should be taken only once everything read
+	 * has been written. The contents are private to the library.
+	 *
+	 * @return the checkpoint, or <tt>null</tt> if none can be taken for
+	 *         this record.
+	 */
+	byte[] getDigestCheckpoint();
+}
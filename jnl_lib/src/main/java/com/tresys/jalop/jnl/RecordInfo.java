@@ -26,6 +26,9 @@ package com.tresys.jalop.jnl;
 
 /**
  * A {@link RecordInfo} provides information about a specific JAL record.
+ * The instance handed to a {@link Subscriber} is only valid while the
+ * library is delivering that record; it is reused for later records of the
+ * session, so any values needed afterwards must be copied.
  */
 public interface RecordInfo {
 	/**
@@ -0,0 +1,135 @@
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tresys.jalop.jnl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A push style alternative to the <tt>InputStream</tt> based delivery of
+ * {@link Subscriber#notifySysMetadata}, {@link Subscriber#notifyAppMetadata}
+ * and {@link Subscriber#notifyPayload}.
+ *
+ * When the {@link Subscriber} registered with the library also implements
+ * this interface, the library reads each segment of a record itself and
+ * hands the data to the application in chunks, instead of calling the three
+ * <tt>notify</tt> methods above. For every record the calls are:
+ * <pre>
+ *   onSegmentStart(SysMetadata), onChunk(SysMetadata)*, onSegmentEnd(SysMetadata)
+ *   onSegmentStart(AppMetadata), onChunk(AppMetadata)*, onSegmentEnd(AppMetadata)
+ *   onSegmentStart(Payload), onChunk(Payload)*, onSegmentEnd(Payload)
+ *   onRecordEnd
+ * </pre>
+ * followed by {@link Subscriber#notifyDigest} if digests are enabled for the
+ * session. Meta-data is decoded as described for the <tt>notify</tt>
+ * methods.
+ *
+ * The library owns the buffers: the chunk handed to
+ * {@link #onChunk(SubscriberSession, RecordInfo, Segment, ByteBuffer, Subscriber)}
+ * is only valid until that call returns, and is then reused. No more data
+ * is read from the publisher until the call returns, so a slow application
+ * pushes back on the publisher rather than on memory.
+ *
+ * Returning <tt>false</tt> from any method stops delivery of the record,
+ * which is then treated as failed in the same way as when a <tt>notify</tt>
+ * method returns <tt>false</tt>.
+ */
+public interface RecordSink {
+
+	/**
+	 * The sections of a JAL record, in the order they are delivered.
+	 */
+	enum Segment {
+		SysMetadata, AppMetadata, Payload
+	}
+
+	/**
+	 * Called before the first chunk of each segment, including segments that
+	 * are empty.
+	 *
+	 * @param sess
+	 *            The {@link SubscriberSession} that received the data.
+	 * @param recordInfo
+	 *            Details of the record, such as the size of each segment.
+	 * @param segment
+	 *            The segment about to be delivered.
+	 * @param subscriber
+	 *            {@SubscriberImpl} for the current session.
+	 * @return true to continue receiving the record, false otherwise.
+	 */
+	boolean onSegmentStart(SubscriberSession sess, RecordInfo recordInfo,
+			Segment segment, Subscriber subscriber);
+
+	/**
+	 * Called with the next chunk of a segment.
+	 *
+	 * @param sess
+	 *            The {@link SubscriberSession} that received the data.
+	 * @param recordInfo
+	 *            Details of the record, such as the size of each segment.
+	 * @param segment
+	 *            The segment the data belongs to.
+	 * @param chunk
+	 *            The data, between the buffer's position and limit. The
+	 *            application may consume it in place; the buffer must not be
+	 *            retained after this method returns.
+	 * @param subscriber
+	 *            {@SubscriberImpl} for the current session.
+	 * @return true to continue receiving the record, false otherwise.
+	 */
+	boolean onChunk(SubscriberSession sess, RecordInfo recordInfo,
+			Segment segment, ByteBuffer chunk, Subscriber subscriber);
+
+	/**
+	 * Called once all the data of a segment has been delivered.
+	 *
+	 * @param sess
+	 *            The {@link SubscriberSession} that received the data.
+	 * @param recordInfo
+	 *            Details of the record, such as the size of each segment.
+	 * @param segment
+	 *            The segment that is complete.
+	 * @param subscriber
+	 *            {@SubscriberImpl} for the current session.
+	 * @return true to continue receiving the record, false otherwise.
+	 */
+	boolean onSegmentEnd(SubscriberSession sess, RecordInfo recordInfo,
+			Segment segment, Subscriber subscriber);
+
+	/**
+	 * Called once every segment of the record has been delivered and the
+	 * record has been checked for trailing data.
+	 *
+	 * @param sess
+	 *            The {@link SubscriberSession} that received the data.
+	 * @param recordInfo
+	 *            Details of the record.
+	 * @param subscriber
+	 *            {@SubscriberImpl} for the current session.
+	 * @return true to continue receiving JAL records on this
+	 *         {@link SubscriberSession}, false otherwise.
+	 */
+	boolean onRecordEnd(SubscriberSession sess, RecordInfo recordInfo,
+			Subscriber subscriber);
+}
@@ -33,6 +33,10 @@ import com.tresys.jalop.jnl.impl.http.SubscriberAndSession;
  * interface if they wish to act as a JALoP Subscriber. Their <tt>Object</tt>
  * must be registered with a {@link Context} prior to initiating, or listening
  * for, connections.
+ * <p>
+ * Implementations that would rather have record data pushed to them in
+ * chunks than read it from an <tt>InputStream</tt> can also implement
+ * {@link RecordSink}.
  *
  * @see Context#registerSubscriber(Subscriber)
  */
@@ -53,8 +57,10 @@ public interface Subscriber {
 
 	/**
 	 * The {@link SubscriberSession} executes this method to deliver the system
-	 * meta-data for a specific record. The meta-data will be encoded (EXI,
-	 * gzip, deflate, etc) as indicated by {@link Session#getXmlEncoding()}.
+	 * meta-data for a specific record. Meta-data sent with the EXI or deflate
+	 * encoding indicated by {@link Session#getXmlEncoding()} is decoded to
+	 * XML by the library. The lengths in <tt>recordInfo</tt> are those of the
+	 * data as sent.
 	 * Applications must read all the data from <tt>sys-metadata</tt> before
 	 * returning from this function. Once control is returned to the library,
 	 * the {@link SubscriberSession} will drain <tt>sysMetaData</tt>, and the
@@ -81,12 +87,14 @@ public interface Subscriber {
 
 	/**
 	 * The {@link SubscriberSession} executes this method to deliver the
-	 * application meta-data for a specific record. The meta-data will be
-	 * encoded (EXI, gzip, deflate, etc) as indicated by
-	 * {@link Session#getXmlEncoding()}. Applications must read all the data
-	 * from <tt>appMetaData</tt> before returning from this function. Once
-	 * control is returned to the library, the {@link SubscriberSession} will
-	 * drain <tt>appMetaData</tt>, and the contents will no longer be available.
+	 * application meta-data for a specific record. Meta-data sent with the
+	 * EXI or deflate encoding indicated by {@link Session#getXmlEncoding()}
+	 * is decoded to XML by the library. The lengths in <tt>recordInfo</tt>
+	 * are those of the data as sent. Applications must
+	 * read all the data from <tt>appMetaData</tt> before returning from this
+	 * function. Once control is returned to the library, the
+	 * {@link SubscriberSession} will drain <tt>appMetaData</tt>, and the
+	 * contents will no longer be available.
 	 *
 	 * @param sess
 	 *            The {@link SubscriberSession} that received the data.
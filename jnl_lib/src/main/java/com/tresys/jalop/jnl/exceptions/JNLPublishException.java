@@ -0,0 +1,47 @@
+package com.tresys.jalop.jnl.exceptions;
+
+import java.io.Serializable;
+
+/**
+ * This class represents that a subscriber refused a message sent by a
+ * publisher, or that a record could not be confirmed.
+ */
+public class JNLPublishException extends JNLException {
+
+    /**
+     * the serial version, because {@link Exception} implements
+     * {@link Serializable}
+     */
+    private static final long serialVersionUID = 1L;
+
+    private String jalId = "";
+    private String errorMessage = "";
+
+    /**
+     * Create an Exception that is specific to the JALoP Network Library and publishing a message
+     *
+     * @param string    The message that describes the exception.
+     */
+    public JNLPublishException(final String string) {
+        super(string);
+    }
+
+    public String getJalId() {
+        return jalId;
+    }
+
+    public void setJalId(String jalId) {
+        this.jalId = jalId;
+    }
+
+    /**
+     * @return The JAL-Error-Message sent by the subscriber, if any.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+}
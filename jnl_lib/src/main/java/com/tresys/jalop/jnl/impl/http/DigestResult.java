@@ -6,6 +6,8 @@ public class DigestResult {
     private boolean performDigest;
     private String jalId;
     private boolean failedDueToSync;
+    private ReadLimits.Violation readLimitViolation;
+    private boolean duplicate;
 
     public String getDigest() {
         return digest;
@@ -38,4 +40,20 @@ public class DigestResult {
     public void setFailedDueToSync(boolean failedDueToSync) {
         this.failedDueToSync = failedDueToSync;
     }
+
+    public ReadLimits.Violation getReadLimitViolation() {
+        return readLimitViolation;
+    }
+
+    public void setReadLimitViolation(ReadLimits.Violation readLimitViolation) {
+        this.readLimitViolation = readLimitViolation;
+    }
+
+    public boolean getDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+        this.duplicate = duplicate;
+    }
 }
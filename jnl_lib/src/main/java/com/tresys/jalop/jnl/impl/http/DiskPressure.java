@@ -0,0 +1,240 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * Watches the volume records are written to, so new sessions and records
+ * can be turned away before their data is sent while it is nearly full or
+ * slow to write, rather than failing part way through.
+ *
+ * The free space of the directory is read, and a small file written to it
+ * and synced to time a write, at most once each sampling interval, by
+ * whichever request asks first. The volume comes under pressure once free
+ * space falls below the minimum or a write takes longer than the maximum,
+ * and only stops being under pressure once free space is back above the
+ * resume level and a write takes no longer than the resume latency, so it
+ * does not flap around a single threshold.
+ *
+ * The directory is created if it does not exist yet, since the subscriber
+ * only creates it once the first session is accepted. If it cannot be
+ * created, the free space of its nearest existing ancestor is read and the
+ * write latency is unknown, which does not count as pressure.
+ */
+public class DiskPressure {
+
+    /** The name of the file written to time a write. */
+    static final String PROBE_FILENAME = ".write_probe";
+
+    private static final byte[] PROBE = new byte[4096];
+
+    private final File directory;
+    private final long minFreeBytes;
+    private final long resumeFreeBytes;
+    private final long maxWriteLatencyMillis;
+    private final long resumeWriteLatencyMillis;
+    private final long sampleIntervalNanos;
+    private JNLLog log = null;
+
+    private final AtomicLong nextSampleNanos = new AtomicLong(System.nanoTime());
+    private volatile boolean underPressure;
+    private volatile long freeBytes = -1;
+    private volatile long writeLatencyMillis = -1;
+    private final AtomicLong episodes = new AtomicLong();
+
+    /**
+     * Create a {@link DiskPressure}.
+     *
+     * @param directory
+     *            The directory records are written to.
+     * @param minFreeBytes
+     *            The free space below which the volume is under pressure, or
+     *            0 to not check free space.
+     * @param resumeFreeBytes
+     *            The free space above which it stops being under pressure.
+     *            Less than <code>minFreeBytes</code> is taken as
+     *            <code>minFreeBytes</code>.
+     * @param maxWriteLatencyMillis
+     *            The write latency above which the volume is under pressure,
+     *            or 0 to not time writes.
+     * @param resumeWriteLatencyMillis
+     *            The write latency at or below which it stops being under
+     *            pressure. 0, or more than <code>maxWriteLatencyMillis</code>,
+     *            is taken as <code>maxWriteLatencyMillis</code>.
+     * @param sampleIntervalMillis
+     *            How often to check the volume.
+     * @param logger
+     *            The logger, or null for the default.
+     */
+    public DiskPressure(final File directory, final long minFreeBytes, final long resumeFreeBytes,
+            final long maxWriteLatencyMillis, final long resumeWriteLatencyMillis,
+            final long sampleIntervalMillis, final JNLLog logger) {
+        if (directory == null) {
+            throw new IllegalArgumentException("'directory' is required.");
+        }
+        if (minFreeBytes < 0) {
+            throw new IllegalArgumentException("'minFreeBytes' must not be negative.");
+        }
+        if (resumeFreeBytes < 0) {
+            throw new IllegalArgumentException("'resumeFreeBytes' must not be negative.");
+        }
+        if (maxWriteLatencyMillis < 0) {
+            throw new IllegalArgumentException("'maxWriteLatencyMillis' must not be negative.");
+        }
+        if (resumeWriteLatencyMillis < 0) {
+            throw new IllegalArgumentException("'resumeWriteLatencyMillis' must not be negative.");
+        }
+        if (sampleIntervalMillis < 0) {
+            throw new IllegalArgumentException("'sampleIntervalMillis' must not be negative.");
+        }
+        this.directory = directory;
+        this.minFreeBytes = minFreeBytes;
+        this.resumeFreeBytes = Math.max(minFreeBytes, resumeFreeBytes);
+        this.maxWriteLatencyMillis = maxWriteLatencyMillis;
+        this.resumeWriteLatencyMillis = resumeWriteLatencyMillis == 0
+                ? maxWriteLatencyMillis : Math.min(maxWriteLatencyMillis, resumeWriteLatencyMillis);
+        this.sampleIntervalNanos = sampleIntervalMillis * 1000000;
+
+        //Sets logger
+        if (logger == null)
+        {
+            this.log = new JNLLogger(Logger.getLogger(DiskPressure.class));
+        }
+        else
+        {
+            this.log = logger;
+        }
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return Whether new sessions and records may be accepted, checking the
+     *         volume first if it is due.
+     */
+    public boolean admit() {
+        final long now = System.nanoTime();
+        final long next = this.nextSampleNanos.get();
+        if (now - next >= 0 && this.nextSampleNanos.compareAndSet(next, now + this.sampleIntervalNanos)) {
+            sample();
+        }
+        return !this.underPressure;
+    }
+
+    public boolean isUnderPressure() {
+        return this.underPressure;
+    }
+
+    /**
+     * @return The free space last read, or -1 if it is not checked or has
+     *         not been read yet.
+     */
+    public long getFreeBytes() {
+        return this.freeBytes;
+    }
+
+    /**
+     * @return The time the last timed write took, or -1 if writes are not
+     *         timed, none has been timed yet or the directory could not be
+     *         created.
+     */
+    public long getWriteLatencyMillis() {
+        return this.writeLatencyMillis;
+    }
+
+    /**
+     * @return The number of times the volume has come under pressure.
+     */
+    public long getPressureEpisodes() {
+        return this.episodes.get();
+    }
+
+    /**
+     * Check the volume now and update whether it is under pressure.
+     */
+    void sample() {
+        final StringBuilder reason = new StringBuilder();
+        boolean over = false;
+        boolean clear = true;
+        final boolean exists = this.directory.isDirectory() || this.directory.mkdirs()
+                || this.directory.isDirectory();
+        if (!exists) {
+            log.warn("Failed to create " + this.directory + ", its write latency is unknown");
+        }
+
+        if (this.minFreeBytes > 0) {
+            final long free = measureFreeBytes();
+            this.freeBytes = free;
+            if (free < this.minFreeBytes) {
+                over = true;
+                reason.append(free).append(" bytes free");
+            }
+            clear = free > this.resumeFreeBytes;
+        }
+
+        if (this.maxWriteLatencyMillis > 0 && !exists) {
+            this.writeLatencyMillis = -1;
+        } else if (this.maxWriteLatencyMillis > 0) {
+            long latency;
+            try {
+                latency = measureWriteLatencyNanos() / 1000000;
+            } catch (final IOException e) {
+                log.error("Failed to write to " + this.directory + ": " + e.getMessage());
+                latency = Long.MAX_VALUE;
+            }
+            this.writeLatencyMillis = latency;
+            if (latency > this.maxWriteLatencyMillis) {
+                over = true;
+                reason.append(reason.length() == 0 ? "" : ", ").append("write took ").append(latency).append(" ms");
+            }
+            clear = clear && latency <= this.resumeWriteLatencyMillis;
+        }
+
+        if (!this.underPressure && over) {
+            this.underPressure = true;
+            this.episodes.incrementAndGet();
+            log.warn(this.directory + " is under pressure (" + reason + "), turning away new sessions and records");
+        } else if (this.underPressure && clear) {
+            this.underPressure = false;
+            log.info(this.directory + " is no longer under pressure, accepting new sessions and records");
+        }
+    }
+
+    /**
+     * @return The free space of the directory, or of its nearest existing
+     *         ancestor if it does not exist.
+     */
+    long measureFreeBytes() {
+        File existing = this.directory.getAbsoluteFile();
+        while (!existing.exists() && existing.getParentFile() != null) {
+            existing = existing.getParentFile();
+        }
+        return existing.getUsableSpace();
+    }
+
+    /**
+     * @return The time taken to write and sync a small file in the
+     *         directory.
+     */
+    long measureWriteLatencyNanos() throws IOException {
+        final File probe = new File(this.directory, PROBE_FILENAME);
+        final long start = System.nanoTime();
+        final FileOutputStream out = new FileOutputStream(probe);
+        try {
+            out.write(PROBE);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return System.nanoTime() - start;
+    }
+}
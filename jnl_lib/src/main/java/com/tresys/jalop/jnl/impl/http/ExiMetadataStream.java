@@ -0,0 +1,219 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+
+/**
+ * Decodes an EXI 1.0 stream into XML text as it is read.
+ *
+ * Decoding is pull based: each time the buffered XML has been read, just
+ * enough EXI events are decoded to refill it. Apart from the string tables
+ * that EXI itself requires, memory use does not grow with the size of the
+ * document, and no extra thread is needed.
+ *
+ * The EXI options are taken from the stream header when the encoder
+ * included them, otherwise the EXI 1.0 defaults (schema-less, bit-packed)
+ * apply.
+ */
+final class ExiMetadataStream extends InputStream {
+
+    /** Decode more events once fewer than this many bytes are buffered. */
+    static final int CHUNK_SIZE = 8192;
+
+    /** Only holds options, so it can be shared by all decoders. */
+    private static final EXIFactory EXI_FACTORY = DefaultEXIFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    static {
+        OUTPUT_FACTORY.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+    }
+
+    /** Exposes the buffer so it can be read without copying. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(CHUNK_SIZE * 2);
+        }
+
+        byte[] bytes() {
+            return this.buf;
+        }
+
+        int length() {
+            return this.count;
+        }
+    }
+
+    private final StAXDecoder reader;
+    private final XMLStreamWriter writer;
+    private final Buffer out = new Buffer();
+    private int pos = 0;
+    private boolean done = false;
+    private boolean closed = false;
+
+    /**
+     * Create an {@link ExiMetadataStream}.
+     *
+     * @param exi
+     *            The EXI stream to decode. It is not closed by
+     *            {@link #close()}.
+     * @throws IOException
+     *             If the EXI header cannot be read.
+     */
+    ExiMetadataStream(final InputStream exi) throws IOException {
+        try {
+            this.reader = new StAXDecoder(EXI_FACTORY);
+            this.reader.setInputStream(exi);
+            synchronized (OUTPUT_FACTORY) {
+                this.writer = OUTPUT_FACTORY.createXMLStreamWriter(this.out, "UTF-8");
+            }
+        } catch (final EXIException e) {
+            throw new IOException("Invalid EXI stream: " + e.getMessage(), e);
+        } catch (final XMLStreamException e) {
+            throw new IOException("Invalid EXI stream: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return this.out.bytes()[this.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, this.out.length() - this.pos);
+        System.arraycopy(this.out.bytes(), this.pos, b, off, n);
+        this.pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.out.length() - this.pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.writer.close();
+            this.reader.close();
+        } catch (final XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Make sure there is buffered XML to read.
+     *
+     * @return <code>false</code> at the end of the document.
+     */
+    private boolean fill() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (this.pos < this.out.length()) {
+            return true;
+        }
+        this.out.reset();
+        this.pos = 0;
+        try {
+            while (!this.done && this.out.size() < CHUNK_SIZE) {
+                copyEvent();
+                if (!this.done) {
+                    this.reader.next();
+                }
+                this.writer.flush();
+            }
+        } catch (final XMLStreamException e) {
+            throw new IOException("Failed to decode EXI: " + e.getMessage(), e);
+        } catch (final RuntimeException e) {
+            // The decoder reports some malformed input this way.
+            throw new IOException("Failed to decode EXI: " + e.getMessage(), e);
+        }
+        return this.out.length() > 0;
+    }
+
+    /**
+     * Write the reader's current event as XML.
+     */
+    private void copyEvent() throws XMLStreamException {
+        switch (this.reader.getEventType()) {
+        case XMLStreamConstants.START_DOCUMENT:
+            this.writer.writeStartDocument("UTF-8", "1.0");
+            break;
+        case XMLStreamConstants.END_DOCUMENT:
+            this.writer.writeEndDocument();
+            this.done = true;
+            break;
+        case XMLStreamConstants.START_ELEMENT:
+            this.writer.writeStartElement(emptyIfNull(this.reader.getPrefix()),
+                    this.reader.getLocalName(), emptyIfNull(this.reader.getNamespaceURI()));
+            for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+                final String prefix = this.reader.getNamespacePrefix(i);
+                if (prefix == null || prefix.isEmpty()) {
+                    this.writer.writeDefaultNamespace(emptyIfNull(this.reader.getNamespaceURI(i)));
+                } else {
+                    this.writer.writeNamespace(prefix, emptyIfNull(this.reader.getNamespaceURI(i)));
+                }
+            }
+            for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                this.writer.writeAttribute(emptyIfNull(this.reader.getAttributePrefix(i)),
+                        emptyIfNull(this.reader.getAttributeNamespace(i)),
+                        this.reader.getAttributeLocalName(i), this.reader.getAttributeValue(i));
+            }
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            this.writer.writeEndElement();
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+            this.writer.writeCharacters(this.reader.getText());
+            break;
+        case XMLStreamConstants.CDATA:
+            this.writer.writeCData(this.reader.getText());
+            break;
+        case XMLStreamConstants.COMMENT:
+            this.writer.writeComment(this.reader.getText());
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            this.writer.writeProcessingInstruction(this.reader.getPITarget(),
+                    emptyIfNull(this.reader.getPIData()));
+            break;
+        case XMLStreamConstants.DTD:
+            this.writer.writeDTD(this.reader.getText());
+            break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+            this.writer.writeEntityRef(this.reader.getLocalName());
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static String emptyIfNull(final String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -1,7 +1,13 @@
 package com.tresys.jalop.jnl.impl.http;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.tresys.jalop.jnl.JNLLog;
@@ -11,6 +17,61 @@ import com.tresys.jalop.jnl.Role;
 
 public class HttpSubscriberConfig {
 
+    /** Durability mode where confirmed records are not explicitly synced to disk. */
+    public static final String DURABILITY_NONE = "none";
+
+    /** Durability mode where confirmed records are synced to disk, in groups, before 'sync' is sent. */
+    public static final String DURABILITY_FSYNC = "fsync";
+
+    /** Default time, in milliseconds, a group commit waits for other confirmations. */
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MILLIS = 2;
+
+    /** Default time, in milliseconds, a record segment may wait for the publisher before its rate is checked. */
+    public static final long DEFAULT_READ_RATE_GRACE_MILLIS = 10000;
+
+    /**
+     * Default time, in milliseconds, a connection may go without any data before it is closed. It is
+     * long, as it was before read limits existed; while a record is read, the wait for its data is cut
+     * short by the read deadline and minimum read rate, when set, so it only bounds idle connections.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 500000;
+
+    /** Default most bytes, 16 MiB, the system or application metadata of a record may decode to. */
+    public static final long DEFAULT_MAX_DECODED_METADATA_BYTES = 16L * 1024 * 1024;
+
+    /** Default time, in seconds, a publisher is told to wait before sending a record turned away for being over its type's limit. */
+    public static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    /** Default time, in milliseconds, between checks of the free space and write latency of the output path. */
+    public static final long DEFAULT_DISK_CHECK_INTERVAL_MILLIS = 1000;
+
+    /** Default time, in milliseconds, records being received get to finish when the subscriber shuts down. */
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    /** The TLS protocols allowed by default. */
+    public static final List<String> DEFAULT_TLS_PROTOCOLS = Collections.unmodifiableList(Arrays.asList("TLSv1.2", "TLSv1.3"));
+
+    /** Default number of TLS sessions kept for publishers to resume. */
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 20480;
+
+    /** Default time, in seconds, a TLS session may be resumed for. */
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT_SECONDS = 86400;
+
+    /** The system property the JDK reads to decide whether to issue TLS session tickets. */
+    public static final String SESSION_TICKET_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+    /** The directory, under the output path, that recently confirmed JAL-Ids are kept in. */
+    public static final String RECENT_JAL_IDS_DIRECTORY = "recent_jal_ids";
+
+    /** Payloads are stored as received. */
+    public static final String PAYLOAD_COMPRESSION_NONE = "none";
+
+    /** Payloads are stored in the LZ4 frame format. */
+    public static final String PAYLOAD_COMPRESSION_LZ4 = "lz4";
+
+    /** Payloads are stored in the gzip format. */
+    public static final String PAYLOAD_COMPRESSION_GZIP = "gzip";
+
     private String keystorePath;
     private String keystorePassword;
     private String trustStorePath;
@@ -28,6 +89,35 @@ public class HttpSubscriberConfig {
     private File outputPath;
     private boolean createConfirmedFile;
     private JNLLog logger;
+    private String durability = DURABILITY_NONE;
+    private long groupCommitWaitMillis = DEFAULT_GROUP_COMMIT_WAIT_MILLIS;
+    private long readDeadlineMillis;
+    private long minReadBytesPerSecond;
+    private long readRateGraceMillis = DEFAULT_READ_RATE_GRACE_MILLIS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private long maxDecodedMetadataBytes = DEFAULT_MAX_DECODED_METADATA_BYTES;
+    private int recentJalIdCapacity;
+    private final Map<RecordType, Integer> maxConcurrentRecords = new EnumMap<RecordType, Integer>(RecordType.class);
+    private int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+    private long minFreeBytes;
+    private long resumeFreeBytes;
+    private long maxWriteLatencyMillis;
+    private long resumeWriteLatencyMillis;
+    private long diskCheckIntervalMillis = DEFAULT_DISK_CHECK_INTERVAL_MILLIS;
+    private final Map<RecordType, Long> publisherBytesPerSecond = new EnumMap<RecordType, Long>(RecordType.class);
+    private long totalBytesPerSecond;
+    private final Map<String, Integer> publisherWeights = new HashMap<String, Integer>();
+    private File unixSocketPath;
+    private String unixSocketPermissions = UnixSocketConnector.DEFAULT_PERMISSIONS;
+    private String unixSocketGroup;
+    private List<String> tlsProtocols = new ArrayList<String>(DEFAULT_TLS_PROTOCOLS);
+    private int tlsSessionCacheSize = DEFAULT_TLS_SESSION_CACHE_SIZE;
+    private int tlsSessionTimeoutSeconds = DEFAULT_TLS_SESSION_TIMEOUT_SECONDS;
+    private boolean tlsSessionTickets = true;
+    private String tlsProvider;
+    private String tlsProviderClass;
+    private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private final Map<RecordType, String> payloadCompression = new EnumMap<RecordType, String>(RecordType.class);
 
     public String getKeystorePath() {
         return keystorePath;
@@ -141,4 +231,235 @@ public class HttpSubscriberConfig {
     public void setLogger(JNLLog logger) {
         this.logger = logger;
     }
+    public String getDurability() {
+        return durability;
+    }
+    public void setDurability(String durability) {
+        if (durability == null)
+        {
+            this.durability = DURABILITY_NONE;
+        }
+        else
+        {
+            this.durability = durability;
+        }
+    }
+    public boolean isDurable() {
+        return DURABILITY_FSYNC.equalsIgnoreCase(durability);
+    }
+    public long getGroupCommitWaitMillis() {
+        return groupCommitWaitMillis;
+    }
+    public void setGroupCommitWaitMillis(long groupCommitWaitMillis) {
+        this.groupCommitWaitMillis = groupCommitWaitMillis;
+    }
+    /**
+     * The longest, in milliseconds, each segment of a record may take to arrive, or 0 for no limit.
+     * It applies even while no data arrives at all, by shortening the idle timeout of the connection.
+     */
+    public long getReadDeadlineMillis() {
+        return readDeadlineMillis;
+    }
+    public void setReadDeadlineMillis(long readDeadlineMillis) {
+        this.readDeadlineMillis = readDeadlineMillis;
+    }
+    /** The slowest, in bytes per second, a publisher may send each segment of a record, or 0 for no limit. */
+    public long getMinReadBytesPerSecond() {
+        return minReadBytesPerSecond;
+    }
+    public void setMinReadBytesPerSecond(long minReadBytesPerSecond) {
+        this.minReadBytesPerSecond = minReadBytesPerSecond;
+    }
+    public long getReadRateGraceMillis() {
+        return readRateGraceMillis;
+    }
+    public void setReadRateGraceMillis(long readRateGraceMillis) {
+        this.readRateGraceMillis = readRateGraceMillis;
+    }
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+    /**
+     * The most bytes the deflate or EXI compressed system or application metadata of a record may decode to,
+     * or 0 for no limit. A record whose metadata decodes to more is failed and thrown away.
+     */
+    public long getMaxDecodedMetadataBytes() {
+        return maxDecodedMetadataBytes;
+    }
+    public void setMaxDecodedMetadataBytes(long maxDecodedMetadataBytes) {
+        this.maxDecodedMetadataBytes = maxDecodedMetadataBytes;
+    }
+    /** The number of confirmed JAL-Ids kept for each publisher and record type to recognize records sent again, or 0 for none. */
+    public int getRecentJalIdCapacity() {
+        return recentJalIdCapacity;
+    }
+    public void setRecentJalIdCapacity(int recentJalIdCapacity) {
+        this.recentJalIdCapacity = recentJalIdCapacity;
+    }
+    /** The most records of a type received at once, or 0 for no limit. */
+    public int getMaxConcurrentRecords(RecordType recordType) {
+        final Integer max = maxConcurrentRecords.get(recordType);
+        return max == null ? 0 : max;
+    }
+    public void setMaxConcurrentRecords(Map<RecordType, Integer> maxConcurrentRecords) {
+        this.maxConcurrentRecords.clear();
+        if (maxConcurrentRecords != null)
+        {
+            this.maxConcurrentRecords.putAll(maxConcurrentRecords);
+        }
+    }
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    /** The free space of the output path below which new sessions and records are turned away, or 0 to not check it. */
+    public long getMinFreeBytes() {
+        return minFreeBytes;
+    }
+    public void setMinFreeBytes(long minFreeBytes) {
+        this.minFreeBytes = minFreeBytes;
+    }
+    /** The free space of the output path above which they are accepted again. */
+    public long getResumeFreeBytes() {
+        return resumeFreeBytes;
+    }
+    public void setResumeFreeBytes(long resumeFreeBytes) {
+        this.resumeFreeBytes = resumeFreeBytes;
+    }
+    /** The write latency, in milliseconds, of the output path above which new sessions and records are turned away, or 0 to not time writes. */
+    public long getMaxWriteLatencyMillis() {
+        return maxWriteLatencyMillis;
+    }
+    public void setMaxWriteLatencyMillis(long maxWriteLatencyMillis) {
+        this.maxWriteLatencyMillis = maxWriteLatencyMillis;
+    }
+    /** The write latency, in milliseconds, at or below which they are accepted again. */
+    public long getResumeWriteLatencyMillis() {
+        return resumeWriteLatencyMillis;
+    }
+    public void setResumeWriteLatencyMillis(long resumeWriteLatencyMillis) {
+        this.resumeWriteLatencyMillis = resumeWriteLatencyMillis;
+    }
+    public long getDiskCheckIntervalMillis() {
+        return diskCheckIntervalMillis;
+    }
+    public void setDiskCheckIntervalMillis(long diskCheckIntervalMillis) {
+        this.diskCheckIntervalMillis = diskCheckIntervalMillis;
+    }
+    /** The most, in bytes per second, each publisher may send of each record type. Types not in the map are not limited. */
+    public Map<RecordType, Long> getPublisherBytesPerSecond() {
+        return publisherBytesPerSecond;
+    }
+    public void setPublisherBytesPerSecond(Map<RecordType, Long> publisherBytesPerSecond) {
+        this.publisherBytesPerSecond.clear();
+        if (publisherBytesPerSecond != null)
+        {
+            this.publisherBytesPerSecond.putAll(publisherBytesPerSecond);
+        }
+    }
+    /** The most, in bytes per second, all publishers together may send, shared by weight, or 0 for no limit. */
+    public long getTotalBytesPerSecond() {
+        return totalBytesPerSecond;
+    }
+    public void setTotalBytesPerSecond(long totalBytesPerSecond) {
+        this.totalBytesPerSecond = totalBytesPerSecond;
+    }
+    /** The weights of publishers' shares of the total, by publisher ID. Publishers not in the map have a weight of 1. */
+    public Map<String, Integer> getPublisherWeights() {
+        return publisherWeights;
+    }
+    public void setPublisherWeights(Map<String, Integer> publisherWeights) {
+        this.publisherWeights.clear();
+        if (publisherWeights != null)
+        {
+            this.publisherWeights.putAll(publisherWeights);
+        }
+    }
+    /** Where to also accept plain HTTP on a Unix domain socket, for publishers on this host, or null for none. Needs Java 16 or later. */
+    public File getUnixSocketPath() {
+        return unixSocketPath;
+    }
+    public void setUnixSocketPath(File unixSocketPath) {
+        this.unixSocketPath = unixSocketPath;
+    }
+    /** The permissions of the Unix domain socket, such as "rw-rw----". Publishers that can write to it are not asked for a TLS client certificate. */
+    public String getUnixSocketPermissions() {
+        return unixSocketPermissions;
+    }
+    public void setUnixSocketPermissions(String unixSocketPermissions) {
+        this.unixSocketPermissions = unixSocketPermissions;
+    }
+    /** The group of the Unix domain socket, or null for the default group of the process. */
+    public String getUnixSocketGroup() {
+        return unixSocketGroup;
+    }
+    public void setUnixSocketGroup(String unixSocketGroup) {
+        this.unixSocketGroup = unixSocketGroup;
+    }
+    /** The TLS protocols publishers may use. Protocols older than TLS 1.2 are never allowed. */
+    public List<String> getTlsProtocols() {
+        return tlsProtocols;
+    }
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+    }
+    /** The number of TLS sessions kept for publishers to resume, or 0 for no limit. */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+    }
+    /** Whether sessions are resumed from tickets kept by publishers, rather than only from the session cache. */
+    public boolean getTlsSessionTickets() {
+        return tlsSessionTickets;
+    }
+    public void setTlsSessionTickets(boolean tlsSessionTickets) {
+        this.tlsSessionTickets = tlsSessionTickets;
+    }
+    /** The name of the JSSE provider for TLS, or null for the JDK default. */
+    public String getTlsProvider() {
+        return tlsProvider;
+    }
+    public void setTlsProvider(String tlsProvider) {
+        this.tlsProvider = tlsProvider;
+    }
+    /** The class of a JSSE provider to register at startup, or null if it is already registered. */
+    public String getTlsProviderClass() {
+        return tlsProviderClass;
+    }
+    public void setTlsProviderClass(String tlsProviderClass) {
+        this.tlsProviderClass = tlsProviderClass;
+    }
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("'drainTimeoutMillis' must not be negative.");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+    public String getPayloadCompression(RecordType recordType) {
+        final String compression = payloadCompression.get(recordType);
+        return compression == null ? PAYLOAD_COMPRESSION_NONE : compression;
+    }
+    public void setPayloadCompression(Map<RecordType, String> payloadCompression) {
+        this.payloadCompression.clear();
+        if (payloadCompression != null)
+        {
+            this.payloadCompression.putAll(payloadCompression);
+        }
+    }
 }
@@ -1,19 +1,27 @@
 package com.tresys.jalop.jnl.impl.http;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
 
 import com.tresys.jalop.jnl.DigestAlgorithms;
 import com.tresys.jalop.jnl.DigestAlgorithms.DigestAlgorithmEnum;
@@ -23,6 +31,7 @@ import com.tresys.jalop.jnl.Mode;
 import com.tresys.jalop.jnl.RecordType;
 import com.tresys.jalop.jnl.Subscriber;
 import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.subscriber.RecentJalIds;
 
 /**
  * Utility class for creating and parsing JALoP/HTTP messages.
@@ -39,6 +48,9 @@ public class HttpUtils {
     private static final int BUFFER_SIZE = 4096;
     public static final int MAX_HEADER_SIZE = 32768;
 
+    /** The status sent for a record turned away for being over its publisher's rate. */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
     public static final String AUDIT = "audit";
     public static final String BINARY = "binary";
     public static final String BREAK = "BREAK";
@@ -106,9 +118,14 @@ public class HttpUtils {
     public static final String HDRS_SYNC_FAILURE = "JAL-Sync-Failure";
     public static final String HDRS_JOURNAL_MISSING_FAILURE = "JAL-Journal-Missing-Failure";
     public static final String HDRS_INVALID_LOG_RECORD = "JAL-Invalid-Log-Record";
+    public static final String HDRS_READ_LIMIT_EXCEEDED = "JAL-Read-Limit-Exceeded";
+    public static final String HDRS_RETRY_AFTER = "Retry-After";
 
     //Additional constants
-    public static final String[] SUPPORTED_XML_COMPRESSIONS = new String[] {"none", "exi-1.0", "deflate"};
+    public static final String XML_COMPRESSION_NONE = "none";
+    public static final String XML_COMPRESSION_EXI = "exi-1.0";
+    public static final String XML_COMPRESSION_DEFLATE = "deflate";
+    public static final String[] SUPPORTED_XML_COMPRESSIONS = new String[] {XML_COMPRESSION_NONE, XML_COMPRESSION_EXI, XML_COMPRESSION_DEFLATE};
     public static final String[] SUPPORTED_VERSIONS = new String[] {"2.0.0.0"};
 
     public static final String DEFAULT_CONTENT_TYPE =
@@ -152,13 +169,89 @@ public class HttpUtils {
     public static String AUDIT_ENDPOINT = "/audit";
     public static String LOG_ENDPOINT = "/log";
 
-    private List<String> allowedConfigureDigests;
-    private List<String> supportedDigestAlgorithms;
+    private volatile List<String> allowedConfigureDigests;
+    private volatile List<String> supportedDigestAlgorithms;
 
     private Subscriber subscriber;
 
+    private volatile ReadLimits readLimits = ReadLimits.NONE;
+
+    private volatile long maxDecodedMetadataBytes = HttpSubscriberConfig.DEFAULT_MAX_DECODED_METADATA_BYTES;
+
+    /** The number of records abandoned for arriving too slowly, by reason. */
+    private final EnumMap<ReadLimits.Violation, AtomicLong> abortedReads =
+            new EnumMap<ReadLimits.Violation, AtomicLong>(ReadLimits.Violation.class);
+
+    private volatile int recentJalIdCapacity;
+    private volatile File recentJalIdDirectory;
+
+    /** The recently confirmed JAL-Ids, by publisher and record type. */
+    private final ConcurrentHashMap<String, RecentJalIds> recentJalIds =
+            new ConcurrentHashMap<String, RecentJalIds>();
+
+    /** The number of records acknowledged again without being stored. */
+    private final AtomicLong duplicateRecords = new AtomicLong();
+
+    /** The limits on the records of each type received at once, for types that have one. */
+    private final ConcurrentHashMap<RecordType, RecordSlots> recordSlots =
+            new ConcurrentHashMap<RecordType, RecordSlots>();
+
+    /** The number of records turned away for being over their type's limit, by type. */
+    private final EnumMap<RecordType, AtomicLong> rejectedRecords =
+            new EnumMap<RecordType, AtomicLong>(RecordType.class);
+
+    private volatile int retryAfterSeconds = 1;
+
+    private volatile DiskPressure diskPressure;
+
+    private volatile PublisherRateLimits publisherRateLimits;
+
+    /** The number of sessions and records turned away while the output volume was under pressure. */
+    private final AtomicLong diskPressureRejections = new AtomicLong();
+
+    /** The most records awaiting a digest response before those too late are dropped. */
+    private static final int MAX_AWAITING_DIGEST_RESPONSE = 1024;
+
+    /** How often a shutdown checks for digest responses, in nanoseconds. */
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Set while the subscriber shuts down, to turn away new sessions and records. */
+    private volatile boolean draining;
+
+    /** The number of messages being handled, guarded by messagesLock. */
+    private final Object messagesLock = new Object();
+    private int messagesInProgress;
+
+    /** Counts the messages from when they arrive until their response is sent. */
+    private final HttpChannel.Listener messageTracker = new HttpChannel.Listener() {
+        @Override
+        public void onRequestBegin(Request request) {
+            beginMessage();
+        }
+
+        @Override
+        public void onComplete(Request request) {
+            endMessage();
+        }
+    };
+
+    /**
+     * The records sent a digest challenge, by session and JAL-Id, with the
+     * {@link System#nanoTime()} to stop waiting for the response at.
+     */
+    private final ConcurrentHashMap<String, Long> awaitingDigestResponse = new ConcurrentHashMap<String, Long>();
+
     public HttpUtils(JNLLog currLogger)
     {
+        for (final ReadLimits.Violation violation : ReadLimits.Violation.values())
+        {
+            abortedReads.put(violation, new AtomicLong());
+        }
+        for (final RecordType recordType : RecordType.values())
+        {
+            rejectedRecords.put(recordType, new AtomicLong());
+        }
+
         if (currLogger == null)
         {
             logger = new JNLLogger(Logger.getLogger(HttpUtils.class));
@@ -570,6 +663,401 @@ public class HttpUtils {
         this.subscriber = subscriber;
     }
 
+    /**
+     * @return The limits on how long the records of new sessions may take to
+     *         arrive.
+     */
+    public ReadLimits getReadLimits() {
+        return readLimits;
+    }
+
+    public void setReadLimits(ReadLimits readLimits) {
+        if (readLimits == null) {
+            throw new IllegalArgumentException("'readLimits' is required.");
+        }
+        this.readLimits = readLimits;
+    }
+
+    /**
+     * @return The most bytes the system or application metadata of each
+     *         record of new sessions may decode to, or 0 for no limit.
+     */
+    public long getMaxDecodedMetadataBytes() {
+        return maxDecodedMetadataBytes;
+    }
+
+    public void setMaxDecodedMetadataBytes(long maxDecodedMetadataBytes) {
+        if (maxDecodedMetadataBytes < 0) {
+            throw new IllegalArgumentException("'maxDecodedMetadataBytes' must not be negative.");
+        }
+        this.maxDecodedMetadataBytes = maxDecodedMetadataBytes;
+    }
+
+    /**
+     * @return The number of records abandoned because they did not arrive
+     *         within the {@link ReadLimits} for <code>violation</code>.
+     */
+    public long getAbortedReads(ReadLimits.Violation violation) {
+        return abortedReads.get(violation).get();
+    }
+
+    void countAbortedRead(ReadLimits.Violation violation) {
+        abortedReads.get(violation).incrementAndGet();
+    }
+
+    /**
+     * Keep the last <code>capacity</code> JAL-Ids confirmed from each
+     * publisher, for each record type, so records sent again can be
+     * acknowledged without storing them twice.
+     *
+     * @param capacity
+     *            The number of JAL-Ids to keep, or 0 to not keep any.
+     * @param directory
+     *            The directory to keep them in across restarts, or null to
+     *            only keep them in memory.
+     */
+    public void setRecentJalIds(int capacity, File directory) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("'capacity' must not be negative.");
+        }
+        this.recentJalIdCapacity = capacity;
+        this.recentJalIdDirectory = directory;
+    }
+
+    /**
+     * @return The recently confirmed JAL-Ids of a publisher, or null if they
+     *         are not kept.
+     */
+    public RecentJalIds getRecentJalIds(String publisherId, RecordType recordType) {
+        final int capacity = recentJalIdCapacity;
+        if (capacity <= 0 || publisherId == null) {
+            return null;
+        }
+        final String key = publisherId + "-" + recordType.toString().toLowerCase();
+        RecentJalIds ids = recentJalIds.get(key);
+        if (ids == null) {
+            final File directory = recentJalIdDirectory;
+            ids = new RecentJalIds(capacity, directory == null ? null : new File(directory, key), logger);
+            final RecentJalIds existing = recentJalIds.putIfAbsent(key, ids);
+            if (existing != null) {
+                ids = existing;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Close the files the recently confirmed JAL-Ids are kept in. They are
+     * opened again if more JAL-Ids are confirmed.
+     */
+    public void closeRecentJalIds() {
+        for (final RecentJalIds ids : recentJalIds.values()) {
+            ids.close();
+        }
+    }
+
+    /**
+     * @return The number of records acknowledged without being stored
+     *         because they had already been confirmed.
+     */
+    public long getDuplicateRecords() {
+        return duplicateRecords.get();
+    }
+
+    void countDuplicateRecord() {
+        duplicateRecords.incrementAndGet();
+    }
+
+    /**
+     * Limit how many records of one type are received at once, so one type
+     * cannot take every request thread. Records over the limit are turned
+     * away at once with 503 (Service Unavailable) and a Retry-After of
+     * {@link #getRetryAfterSeconds()}, rather than waiting for a thread.
+     * Records already being received when the limit changes count against
+     * the old limit.
+     *
+     * @param recordType
+     *            The type of record.
+     * @param limit
+     *            The most records of the type received at once, or 0 for no
+     *            limit.
+     */
+    public void setRecordConcurrencyLimit(RecordType recordType, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("'limit' must not be negative.");
+        }
+        if (limit == 0) {
+            recordSlots.remove(recordType);
+        } else {
+            recordSlots.put(recordType, new RecordSlots(limit));
+        }
+    }
+
+    /**
+     * @return The most records of the type received at once, or 0 if there
+     *         is no limit.
+     */
+    public int getRecordConcurrencyLimit(RecordType recordType) {
+        final RecordSlots slots = recordSlots.get(recordType);
+        return slots == null ? 0 : slots.limit;
+    }
+
+    /**
+     * @return The number of records of the type being received now, if the
+     *         type has a limit, otherwise 0.
+     */
+    public int getRecordsInProgress(RecordType recordType) {
+        final RecordSlots slots = recordSlots.get(recordType);
+        return slots == null ? 0 : slots.limit - slots.semaphore.availablePermits();
+    }
+
+    /**
+     * @return The number of records of the type turned away for being over
+     *         its limit.
+     */
+    public long getRejectedRecords(RecordType recordType) {
+        return rejectedRecords.get(recordType).get();
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("'retryAfterSeconds' must not be negative.");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Take a place for a record of the type.
+     *
+     * @return The semaphore to release once the record is done, null if the
+     *         type has no limit, or {@link #NO_RECORD_SLOT} if it is full.
+     */
+    Semaphore acquireRecordSlot(RecordType recordType) {
+        final RecordSlots slots = recordSlots.get(recordType);
+        if (slots == null) {
+            return null;
+        }
+        if (!slots.semaphore.tryAcquire()) {
+            rejectedRecords.get(recordType).incrementAndGet();
+            return NO_RECORD_SLOT;
+        }
+        return slots.semaphore;
+    }
+
+    /**
+     * @return What watches the volume records are written to, or null if it
+     *         is not watched.
+     */
+    public DiskPressure getDiskPressure() {
+        return diskPressure;
+    }
+
+    /**
+     * Turn away new sessions and records, with 503 (Service Unavailable)
+     * and a Retry-After of {@link #getRetryAfterSeconds()}, while the
+     * volume records are written to is under pressure. Records already
+     * being received, and the messages that finish them, are not affected.
+     *
+     * @param diskPressure
+     *            What watches the volume, or null to not watch it.
+     */
+    public void setDiskPressure(DiskPressure diskPressure) {
+        this.diskPressure = diskPressure;
+    }
+
+    /**
+     * @return The number of sessions and records turned away while the
+     *         volume records are written to was under pressure.
+     */
+    public long getDiskPressureRejections() {
+        return diskPressureRejections.get();
+    }
+
+    /**
+     * @return Whether a new session or record may be accepted given the
+     *         state of the volume records are written to.
+     */
+    boolean admitUnderDiskPressure() {
+        final DiskPressure pressure = diskPressure;
+        if (pressure == null || pressure.admit()) {
+            return true;
+        }
+        diskPressureRejections.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return How the bandwidth is shared between publishers, or null if it
+     *         is not limited.
+     */
+    public PublisherRateLimits getPublisherRateLimits() {
+        return publisherRateLimits;
+    }
+
+    /**
+     * Limit how fast publishers may send records. Records over their
+     * publisher's rate or share are turned away, before their body is read,
+     * with 429 (Too Many Requests) and a Retry-After of how long until they
+     * would be accepted.
+     *
+     * @param publisherRateLimits
+     *            The limits, or null to not limit publishers.
+     */
+    public void setPublisherRateLimits(PublisherRateLimits publisherRateLimits) {
+        this.publisherRateLimits = publisherRateLimits;
+    }
+
+    /**
+     * @return 0 if the publisher may send a record of <code>bytes</code> now,
+     *         otherwise how long, in milliseconds, it should wait.
+     */
+    long admitPublisherRecord(String publisherId, RecordType recordType, long bytes) {
+        final PublisherRateLimits limits = publisherRateLimits;
+        if (limits == null) {
+            return 0;
+        }
+        return limits.admit(publisherId, recordType, bytes, System.nanoTime());
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Turn away new sessions and records, with 503 (Service Unavailable)
+     * and a Retry-After of {@link #getRetryAfterSeconds()}, while the
+     * subscriber shuts down. Records already being received, and the
+     * messages that finish them, are not affected.
+     *
+     * @param draining
+     *            Whether the subscriber is shutting down.
+     */
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    /**
+     * @return The number of messages being handled now.
+     */
+    public int getMessagesInProgress() {
+        synchronized (messagesLock) {
+            return messagesInProgress;
+        }
+    }
+
+    /**
+     * @return The listener to add to each connector, as a bean, so
+     *         {@link #getMessagesInProgress()} counts its messages until
+     *         their response is sent.
+     */
+    HttpChannel.Listener getMessageTracker() {
+        return messageTracker;
+    }
+
+    /**
+     * @return The number of records sent a digest challenge whose publisher
+     *         has not answered it yet, leaving out those it is too late for.
+     */
+    public int getRecordsAwaitingDigestResponse() {
+        final long now = System.nanoTime();
+        final Iterator<Long> deadlines = awaitingDigestResponse.values().iterator();
+        while (deadlines.hasNext()) {
+            if (now - deadlines.next() > 0) {
+                deadlines.remove();
+            }
+        }
+        return awaitingDigestResponse.size();
+    }
+
+    void awaitDigestResponse(String sessionId, String jalId, long timeoutSeconds) {
+        awaitingDigestResponse.put(sessionId + "/" + jalId, System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds));
+        if (awaitingDigestResponse.size() > MAX_AWAITING_DIGEST_RESPONSE) {
+            getRecordsAwaitingDigestResponse();
+        }
+    }
+
+    void digestResponseReceived(String sessionId, String jalId) {
+        if (jalId != null) {
+            awaitingDigestResponse.remove(sessionId + "/" + jalId);
+        }
+    }
+
+    void beginMessage() {
+        synchronized (messagesLock) {
+            messagesInProgress++;
+        }
+    }
+
+    void endMessage() {
+        synchronized (messagesLock) {
+            if (--messagesInProgress == 0) {
+                messagesLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until no message is being handled.
+     *
+     * @param deadlineNanos
+     *            The {@link System#nanoTime()} to give up at.
+     * @return Whether every message was done by the deadline.
+     */
+    boolean awaitNoMessagesInProgress(long deadlineNanos) throws InterruptedException {
+        synchronized (messagesLock) {
+            while (messagesInProgress > 0) {
+                final long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(messagesLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wait until no message is being handled and no record is waiting for
+     * the answer to its digest challenge.
+     *
+     * @param deadlineNanos
+     *            The {@link System#nanoTime()} to give up at.
+     * @return Whether every record was done by the deadline.
+     */
+    boolean awaitRecordsDone(long deadlineNanos) throws InterruptedException {
+        while (true) {
+            //A record is awaited before its message is done, so check the messages first
+            if (!awaitNoMessagesInProgress(deadlineNanos)) {
+                return false;
+            }
+            if (getRecordsAwaitingDigestResponse() == 0) {
+                return true;
+            }
+            final long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, DRAIN_POLL_NANOS));
+        }
+    }
+
+    /** Returned by {@link #acquireRecordSlot(RecordType)} when the type is full. */
+    static final Semaphore NO_RECORD_SLOT = new Semaphore(0);
+
+    private static final class RecordSlots {
+        final int limit;
+        final Semaphore semaphore;
+
+        RecordSlots(final int limit) {
+            this.limit = limit;
+            this.semaphore = new Semaphore(limit);
+        }
+    }
+
     public static RecordType getRecordType(String recordTypeStr)
     {
         RecordType recordType = RecordType.Unset;
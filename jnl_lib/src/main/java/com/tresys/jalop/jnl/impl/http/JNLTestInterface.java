@@ -1,6 +1,9 @@
 package com.tresys.jalop.jnl.impl.http;
 
 import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
 
 public interface JNLTestInterface {
     /**
@@ -34,4 +37,24 @@ public interface JNLTestInterface {
      * @return the latestJournalNONCE
      */
     public long getLatestJournalNONCE();
+
+    /**
+     * @param recordType the type of record to allocate local nonces for
+     * @return the allocator for local nonces of <code>recordType</code>
+     */
+    public NonceAllocator getNonceAllocator(final RecordType recordType);
+
+    /**
+     * @return the {@link GroupCommitter} used to make confirmed records
+     *         durable, or <code>null</code> if they are not explicitly synced
+     */
+    public GroupCommitter getGroupCommitter();
+
+    /**
+     * @param recordType the type of record being stored
+     * @return the compression used to store payloads of <code>recordType</code>,
+     *         one of the <code>PAYLOAD_COMPRESSION_*</code> values of
+     *         {@link HttpSubscriberConfig}
+     */
+    public String getPayloadCompression(final RecordType recordType);
 }
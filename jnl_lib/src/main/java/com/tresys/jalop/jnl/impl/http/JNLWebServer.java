@@ -3,8 +3,13 @@ package com.tresys.jalop.jnl.impl.http;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Provider;
+import java.security.Security;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.net.ssl.SSLEngine;
 
@@ -37,12 +42,20 @@ public class JNLWebServer
 
 
     /**
-     * Configuration for this instance of JNLTest.
+     * Configuration for this instance of JNLTest, replaced by
+     * {@link #reload(HttpSubscriberConfig)}.
      */
-    private final HttpSubscriberConfig config;
+    private volatile HttpSubscriberConfig config;
 
     private HttpUtils httpUtils;
 
+    /** The running server and its TLS context, for reloading them. */
+    private Server server;
+    private SslContextFactory.Server sslContextFactory;
+
+    /** What the TLS context was last loaded from, to tell if it needs reloading. */
+    private List<Object> tlsSources;
+
 
     /**
      * Create a JNLTest object based on the specified configuration.
@@ -70,9 +83,36 @@ public class JNLWebServer
         httpUtils = new HttpUtils(config.getLogger());
     }
 
+    /**
+     * Start the subscriber and wait until it stops.
+     *
+     * @param subscriber
+     *            The {@link Subscriber} to hand records to.
+     */
     public void start(Subscriber subscriber) throws Exception{
 
+        if (this.config.getRole() != Role.Subscriber)
+        {
+            logger.error("Invalid configuration, only subscriber mode is supported");
+            return;
+        }
+        startServer(subscriber).join();
+    }
+
+    /**
+     * Start the subscriber without waiting for it to stop.
+     *
+     * @param subscriber
+     *            The {@link Subscriber} to hand records to.
+     * @return The handle to stop the subscriber with.
+     * @throws JNLException
+     *             If the configuration is not for a subscriber, or is
+     *             invalid.
+     */
+    public WebServerHandle startServer(Subscriber subscriber) throws Exception{
+
         httpUtils.requestCount.set(0);
+        httpUtils.setDraining(false);
 
         if (this.config.getRole() == Role.Subscriber)
         {
@@ -91,70 +131,11 @@ public class JNLWebServer
             // This handler then needs to be registered with the Server object.
             ServletContextHandler handler =  new ServletContextHandler(server, "/");
             server.setHandler(handler);
-            org.eclipse.jetty.util.ssl.SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+            SslContextFactory.Server sslContextFactory = null;
 
             if (config.getTlsConfiguration().equals(HttpUtils.MSG_ON))
             {
-                String keystorePath = config.getKeystorePath();
-                File keystoreFile = new File(keystorePath);
-                if (!keystoreFile.exists())
-                {
-                    logger.error("The keystore file specified in the 'Key Store' setting in the configuration file does not exist: " + keystoreFile.getAbsolutePath() + "\nThis file must exist and be a valid keystore for the subscriber to successfully start.");
-                    throw new FileNotFoundException(keystoreFile.getAbsolutePath());
-                }
-
-                // Configure the Trust Store
-                // This is an optional configuration setting that will require separate
-                // keystores for the server and remote keys.
-                // If it is missing from the configuration file, all keys are expected
-                // to be in a single keystore specified by the 'Key Store' setting.
-                String trustStorePath = config.getTrustStorePath();
-                if (trustStorePath != null)
-                {
-                    File trustStoreFile = new File(trustStorePath);
-                    if (!trustStoreFile.exists())
-                    {
-                        logger.error("The Trust Store file specified in the 'Trust Store' setting in the configuration file does not exist: " + trustStoreFile.getAbsolutePath() + "\nThis file must exist and be a valid trust store for the subscriber to successfully start.");
-                        throw new FileNotFoundException(trustStoreFile.getAbsolutePath());
-                    }
-
-                    sslContextFactory.setTrustStorePath(trustStoreFile.getAbsolutePath());
-                    sslContextFactory.setTrustStorePassword(config.getTrustStorePassword());
-                }
-
-                // SSL Context Factory for HTTPS
-                // SSL requires a certificate so we configure a factory for ssl contents
-                // with information pointing to what keystore the ssl connection needs
-                // to know about. Much more configuration is available the ssl context,
-                // including things like choosing the particular certificate out of a
-                // keystore to be used.
-                sslContextFactory.setKeyStorePath(keystoreFile.getAbsolutePath());
-                sslContextFactory.setKeyStorePassword(config.getKeystorePassword());
-                sslContextFactory.setKeyManagerPassword(config.getKeystorePassword());
-
-                //Exclude all weak ciphers
-                sslContextFactory.setExcludeCipherSuites("^.*_(MD5|SHA|SHA1)$");
-                // Exclude ciphers that don't support forward secrecy
-                sslContextFactory.addExcludeCipherSuites("^TLS_RSA_.*$");
-                // Exclude SSL ciphers (that are accidentally present due to Include patterns)
-                sslContextFactory.addExcludeCipherSuites("^SSL_.*$");
-                // Exclude NULL ciphers (that are accidentally present due to Include patterns)
-                sslContextFactory.addExcludeCipherSuites("^.*_NULL_.*$");
-                // Exclude anon ciphers (that are accidentally present due to Include patterns)
-                sslContextFactory.addExcludeCipherSuites("^.*_anon_.*$");
-
-                //Exclude CBC ciphers
-                sslContextFactory.addExcludeCipherSuites("^.*_CBC_.*$");
-
-                sslContextFactory.addExcludeCipherSuites("TLS_DHE_RSA_WITH_AES_128_GCM_SHA256");
-
-
-                //Disable all protocols except for tls 1.2
-                String[] excludedProtocols = new String[]{"SSLv2Hello", "SSLv3", "TLSv1", "TLSv1.1"};
-                sslContextFactory.setExcludeProtocols(excludedProtocols);
-
-                //This forces client certificate to be required
-                sslContextFactory.setNeedClientAuth(true);
+                sslContextFactory = newSslContextFactory();
 
                 // HTTPS Configuration
                 // A new HttpConfiguration object is needed for the next connector and
@@ -179,7 +160,7 @@ public class JNLWebServer
                         new SslConnectionFactory(sslContextFactory,HttpVersion.HTTP_1_1.asString()),
                         new HttpConnectionFactory(https_config));
                 https.setPort(config.getPort());
-                https.setIdleTimeout(500000);
+                https.setIdleTimeout(config.getIdleTimeoutMillis());
                 https.setHost(config.getAddress());
 
                 // Here you see the server having multiple connectors registered with
@@ -205,7 +186,7 @@ public class JNLWebServer
                 ServerConnector http = new ServerConnector(server,
                         new HttpConnectionFactory(http_config));
                 http.setPort(config.getPort());
-                http.setIdleTimeout(500000);
+                http.setIdleTimeout(config.getIdleTimeoutMillis());
                 http.setHost(config.getAddress());
 
                 // Here you see the server having multiple connectors registered with
@@ -223,6 +204,22 @@ public class JNLWebServer
                 throw new JNLException("Cannot subscribe without configuring TLS on/off");
             }
 
+            //Publishers on this host may also connect through a Unix domain socket, skipping TCP and TLS,
+            //so the socket's permissions are all that stands in for client certificates there
+            if (config.getUnixSocketPath() != null)
+            {
+                HttpConfiguration uds_config = new HttpConfiguration();
+                uds_config.setRequestHeaderSize(HttpUtils.MAX_HEADER_SIZE);
+
+                UnixSocketConnector uds = new UnixSocketConnector(server, config.getUnixSocketPath(),
+                        new HttpConnectionFactory(uds_config));
+                uds.setPermissions(PosixFilePermissions.fromString(config.getUnixSocketPermissions()));
+                uds.setGroup(config.getUnixSocketGroup());
+                uds.setIdleTimeout(config.getIdleTimeoutMillis());
+                server.addConnector(uds);
+                logger.info("Also listening on Unix domain socket " + config.getUnixSocketPath().getAbsolutePath());
+            }
+
             // Passing in the class for the Servlet allows jetty to instantiate an
             // instance of that Servlet and mount it on a given context path.
 
@@ -230,11 +227,12 @@ public class JNLWebServer
             // This is a raw Servlet, not a Servlet that has been configured
             // through a web.xml @WebServlet annotation, or anything similar.
 
-            //Sets allowed configure digest values from config
-            httpUtils.setAllowedConfigureDigests(config.getAllowedConfigureDigests());
+            //Sets how many confirmed JAL-Ids are kept to recognize records sent again
+            httpUtils.setRecentJalIds(config.getRecentJalIdCapacity(), config.getOutputPath() == null ? null
+                    : new File(config.getOutputPath(), HttpSubscriberConfig.RECENT_JAL_IDS_DIRECTORY));
 
-            //Sets supported digests
-            httpUtils.setSupportedDigestAlgorithms(config.getSupportedDigestAlgorithms());
+            //Sets the digests, limits and other tunables that can be reloaded
+            applyTunables(config, null);
 
             //Separate endpoints/servlets for audit,journal,log
             //Only sets up endpoints as allowed in the configuration file.
@@ -271,6 +269,12 @@ public class JNLWebServer
                 handler.addServlet(servletHolder, HttpUtils.JOURNAL_ENDPOINT);
             }
 
+            //Counts the messages in progress, until their responses are sent, so a shutdown can wait for them
+            for (Connector connector : server.getConnectors())
+            {
+                ((ServerConnector) connector).addBean(httpUtils.getMessageTracker());
+            }
+
             try
             {
                 // Start things up!
@@ -299,18 +303,417 @@ public class JNLWebServer
                 logger.info("JALoP Jetty Server only supports the following ciphers: " + Arrays.toString(enabledCiphers));
             }
 
-            // The use of server.join() the will make the current thread join and
-            // wait until the server is done executing.
-            // See
-            // http://docs.oracle.com/javase/7/docs/api/java/lang/Thread.html#join()
-            server.join();
+            synchronized (this)
+            {
+                this.server = server;
+                this.sslContextFactory = sslContextFactory;
+                this.tlsSources = sslContextFactory == null ? null : tlsSources(config);
+            }
+
+            return new WebServerHandle(server, httpUtils, subscriber, logger);
         } else {
             logger.error("Invalid configuration, only subscriber mode is supported");
+            throw new JNLException("Only subscriber mode is supported");
+        }
+    }
+
+
+
+
+    /**
+     * Apply the settings that can change while the subscriber runs. Each
+     * takes effect for the next message that uses it; a limit that did not
+     * change is left alone, so the records and publishers it is counting
+     * are not forgotten.
+     *
+     * @param config
+     *            The configuration to apply.
+     * @param previous
+     *            The configuration applied before, or null if there was none.
+     */
+    private void applyTunables(HttpSubscriberConfig config, HttpSubscriberConfig previous)
+    {
+        //Sets allowed configure digest values from config
+        httpUtils.setAllowedConfigureDigests(config.getAllowedConfigureDigests());
+
+        //Sets supported digests
+        httpUtils.setSupportedDigestAlgorithms(config.getSupportedDigestAlgorithms());
+
+        //Sets how long publishers may take to send each record
+        httpUtils.setReadLimits(new ReadLimits(config.getReadDeadlineMillis(),
+                config.getMinReadBytesPerSecond(), config.getReadRateGraceMillis()));
+
+        //Sets how much the metadata of each record may decode to
+        httpUtils.setMaxDecodedMetadataBytes(config.getMaxDecodedMetadataBytes());
+
+        //Sets how many records of each type may be received at once
+        for (final RecordType recordType : config.getRecordTypes())
+        {
+            if (previous == null || previous.getMaxConcurrentRecords(recordType) != config.getMaxConcurrentRecords(recordType))
+            {
+                httpUtils.setRecordConcurrencyLimit(recordType, config.getMaxConcurrentRecords(recordType));
+            }
+        }
+        httpUtils.setRetryAfterSeconds(config.getRetryAfterSeconds());
+
+        //Sets when the output path is too full or slow to take new sessions and records
+        if (previous == null || previous.getMinFreeBytes() != config.getMinFreeBytes()
+                || previous.getResumeFreeBytes() != config.getResumeFreeBytes()
+                || previous.getMaxWriteLatencyMillis() != config.getMaxWriteLatencyMillis()
+                || previous.getResumeWriteLatencyMillis() != config.getResumeWriteLatencyMillis()
+                || previous.getDiskCheckIntervalMillis() != config.getDiskCheckIntervalMillis())
+        {
+            if (config.getOutputPath() != null && (config.getMinFreeBytes() > 0 || config.getMaxWriteLatencyMillis() > 0))
+            {
+                httpUtils.setDiskPressure(new DiskPressure(config.getOutputPath(), config.getMinFreeBytes(),
+                        config.getResumeFreeBytes(), config.getMaxWriteLatencyMillis(),
+                        config.getResumeWriteLatencyMillis(), config.getDiskCheckIntervalMillis(), config.getLogger()));
+            }
+            else
+            {
+                httpUtils.setDiskPressure(null);
+            }
+        }
+
+        //Sets how fast each publisher may send records
+        if (previous == null || !previous.getPublisherBytesPerSecond().equals(config.getPublisherBytesPerSecond())
+                || previous.getTotalBytesPerSecond() != config.getTotalBytesPerSecond()
+                || !previous.getPublisherWeights().equals(config.getPublisherWeights()))
+        {
+            final PublisherRateLimits publisherRateLimits = new PublisherRateLimits(config.getPublisherBytesPerSecond(),
+                    config.getTotalBytesPerSecond(), config.getPublisherWeights());
+            httpUtils.setPublisherRateLimits(publisherRateLimits.isEnabled() ? publisherRateLimits : null);
+        }
+    }
+
+    /**
+     * Apply a changed configuration to the running subscriber, without
+     * dropping any connection.
+     *
+     * Digests, limits, timeouts and the other tunables take effect for the
+     * next message; the session limit and buffer size for the next session.
+     * The TLS context is reloaded in place if its settings, key store or
+     * trust store changed, so new connections get the new certificates
+     * while established ones carry on. Settings that need a restart, such
+     * as the address, port and record types, keep their running values,
+     * with a warning.
+     *
+     * Nothing is applied if the new TLS settings cannot be loaded.
+     *
+     * @param updated
+     *            The new configuration. Its restart only settings are set
+     *            to the running ones, and it becomes {@link #getConfig()}.
+     * @throws Exception
+     *             If the new TLS settings cannot be loaded.
+     */
+    public synchronized void reload(final HttpSubscriberConfig updated) throws Exception
+    {
+        if (updated == null)
+        {
+            throw new IllegalArgumentException("'updated' is required.");
+        }
+
+        final HttpSubscriberConfig previous = this.config;
+        keepRestartOnlySettings(previous, updated);
+
+        //Loaded aside first, so a bad key store leaves the running context alone
+        final List<Object> updatedTlsSources = this.sslContextFactory == null ? null : tlsSources(updated);
+        final boolean reloadTls = updatedTlsSources != null && !updatedTlsSources.equals(this.tlsSources);
+        if (reloadTls)
+        {
+            final SslContextFactory.Server candidate = newSslContextFactory(updated);
+            candidate.start();
+            candidate.stop();
+        }
+
+        applyTunables(updated, previous);
+        if (this.server != null)
+        {
+            for (Connector connector : this.server.getConnectors())
+            {
+                ((ServerConnector) connector).setIdleTimeout(updated.getIdleTimeoutMillis());
+            }
+        }
+
+        if (reloadTls)
+        {
+            reloadSslContextFactory(this.sslContextFactory, updated);
+            this.tlsSources = updatedTlsSources;
+            logger.info("Reloaded the TLS key store and settings");
+        }
+
+        this.config = updated;
+        logger.info("Reloaded the configuration");
+    }
+
+    /**
+     * Reconfigure a running {@link SslContextFactory} from the configuration.
+     * Connections already established keep the context they were made with.
+     */
+    void reloadSslContextFactory(final SslContextFactory.Server sslContextFactory, final HttpSubscriberConfig config) throws Exception
+    {
+        final Exception[] failure = new Exception[1];
+        sslContextFactory.reload(new Consumer<SslContextFactory>() {
+            @Override
+            public void accept(SslContextFactory factory)
+            {
+                try
+                {
+                    configureSslContextFactory((SslContextFactory.Server) factory, config);
+                }
+                catch (final Exception e)
+                {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Warn about, and undo, changes to settings that only take effect when
+     * the subscriber is restarted.
+     */
+    private void keepRestartOnlySettings(final HttpSubscriberConfig running, final HttpSubscriberConfig updated)
+    {
+        if (changed("role", running.getRole(), updated.getRole()))
+        {
+            updated.setRole(running.getRole());
+        }
+        if (changed("address", running.getAddress(), updated.getAddress()))
+        {
+            updated.setAddress(running.getAddress());
+        }
+        if (changed("port", running.getPort(), updated.getPort()))
+        {
+            updated.setPort(running.getPort());
+        }
+        if (changed("TLS on/off", running.getTlsConfiguration(), updated.getTlsConfiguration()))
+        {
+            updated.setTlsConfiguration(running.getTlsConfiguration());
+        }
+        if (changed("record types", running.getRecordTypes(), updated.getRecordTypes()))
+        {
+            updated.setRecordTypes(running.getRecordTypes());
+        }
+        if (changed("output path", running.getOutputPath(), updated.getOutputPath()))
+        {
+            updated.setOutputPath(running.getOutputPath());
+        }
+        if (changed("recent JAL-Id capacity", running.getRecentJalIdCapacity(), updated.getRecentJalIdCapacity()))
+        {
+            updated.setRecentJalIdCapacity(running.getRecentJalIdCapacity());
         }
+        if (changed("Unix domain socket", running.getUnixSocketPath(), updated.getUnixSocketPath()))
+        {
+            updated.setUnixSocketPath(running.getUnixSocketPath());
+        }
+        if (changed("Unix domain socket permissions", running.getUnixSocketPermissions(), updated.getUnixSocketPermissions()))
+        {
+            updated.setUnixSocketPermissions(running.getUnixSocketPermissions());
+        }
+        if (changed("Unix domain socket group", running.getUnixSocketGroup(), updated.getUnixSocketGroup()))
+        {
+            updated.setUnixSocketGroup(running.getUnixSocketGroup());
+        }
+        if (changed("TLS session tickets", running.getTlsSessionTickets(), updated.getTlsSessionTickets()))
+        {
+            updated.setTlsSessionTickets(running.getTlsSessionTickets());
+        }
+        if (changed("JSSE provider", running.getTlsProvider(), updated.getTlsProvider()))
+        {
+            updated.setTlsProvider(running.getTlsProvider());
+        }
+        if (changed("JSSE provider class", running.getTlsProviderClass(), updated.getTlsProviderClass()))
+        {
+            updated.setTlsProviderClass(running.getTlsProviderClass());
+        }
+        updated.setLogger(running.getLogger());
+    }
+
+    private boolean changed(final String setting, final Object running, final Object updated)
+    {
+        if (running == null ? updated == null : running.equals(updated))
+        {
+            return false;
+        }
+        logger.warn("The " + setting + " setting changed, restart the subscriber to apply it");
+        return true;
+    }
+
+    /**
+     * @return The settings and files the TLS context is loaded from, with
+     *         when the files were last changed.
+     */
+    private static List<Object> tlsSources(final HttpSubscriberConfig config)
+    {
+        final File keystore = new File(config.getKeystorePath());
+        final File trustStore = config.getTrustStorePath() == null ? null : new File(config.getTrustStorePath());
+        return Arrays.<Object>asList(keystore, keystore.lastModified(), keystore.length(),
+                config.getKeystorePassword(), trustStore, trustStore == null ? 0 : trustStore.lastModified(),
+                trustStore == null ? 0 : trustStore.length(), config.getTrustStorePassword(),
+                config.getTlsProtocols(), config.getTlsSessionCacheSize(), config.getTlsSessionTimeoutSeconds());
+    }
+
+    /**
+     * Create the {@link SslContextFactory} for the TLS connector from the
+     * configuration.
+     *
+     * @throws FileNotFoundException
+     *             If the key store or trust store does not exist.
+     */
+    SslContextFactory.Server newSslContextFactory() throws FileNotFoundException, JNLException
+    {
+        return newSslContextFactory(this.config);
+    }
+
+    private SslContextFactory.Server newSslContextFactory(HttpSubscriberConfig config) throws FileNotFoundException, JNLException
+    {
+        SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+        configureSslContextFactory(sslContextFactory, config);
+        return sslContextFactory;
     }
 
+    private void configureSslContextFactory(SslContextFactory.Server sslContextFactory, HttpSubscriberConfig config) throws FileNotFoundException, JNLException
+    {
+        //Session tickets are a JVM wide setting, read when TLS is first used, so
+        //one given on the command line is left alone
+        if (System.getProperty(HttpSubscriberConfig.SESSION_TICKET_PROPERTY) == null)
+        {
+            System.setProperty(HttpSubscriberConfig.SESSION_TICKET_PROPERTY, Boolean.toString(config.getTlsSessionTickets()));
+        }
+
+        String keystorePath = config.getKeystorePath();
+        File keystoreFile = new File(keystorePath);
+        if (!keystoreFile.exists())
+        {
+            logger.error("The keystore file specified in the 'Key Store' setting in the configuration file does not exist: " + keystoreFile.getAbsolutePath() + "\nThis file must exist and be a valid keystore for the subscriber to successfully start.");
+            throw new FileNotFoundException(keystoreFile.getAbsolutePath());
+        }
+
+        // Configure the Trust Store
+        // This is an optional configuration setting that will require separate
+        // keystores for the server and remote keys.
+        // If it is missing from the configuration file, all keys are expected
+        // to be in a single keystore specified by the 'Key Store' setting.
+        String trustStorePath = config.getTrustStorePath();
+        if (trustStorePath != null)
+        {
+            File trustStoreFile = new File(trustStorePath);
+            if (!trustStoreFile.exists())
+            {
+                logger.error("The Trust Store file specified in the 'Trust Store' setting in the configuration file does not exist: " + trustStoreFile.getAbsolutePath() + "\nThis file must exist and be a valid trust store for the subscriber to successfully start.");
+                throw new FileNotFoundException(trustStoreFile.getAbsolutePath());
+            }
 
+            sslContextFactory.setTrustStorePath(trustStoreFile.getAbsolutePath());
+            sslContextFactory.setTrustStorePassword(config.getTrustStorePassword());
+        }
+        else
+        {
+            sslContextFactory.setTrustStoreResource(null);
+        }
 
+        // SSL Context Factory for HTTPS
+        // SSL requires a certificate so we configure a factory for ssl contents
+        // with information pointing to what keystore the ssl connection needs
+        // to know about. Much more configuration is available the ssl context,
+        // including things like choosing the particular certificate out of a
+        // keystore to be used.
+        sslContextFactory.setKeyStorePath(keystoreFile.getAbsolutePath());
+        sslContextFactory.setKeyStorePassword(config.getKeystorePassword());
+        sslContextFactory.setKeyManagerPassword(config.getKeystorePassword());
+
+        //Exclude all weak ciphers
+        sslContextFactory.setExcludeCipherSuites("^.*_(MD5|SHA|SHA1)$");
+        // Exclude ciphers that don't support forward secrecy
+        sslContextFactory.addExcludeCipherSuites("^TLS_RSA_.*$");
+        // Exclude SSL ciphers (that are accidentally present due to Include patterns)
+        sslContextFactory.addExcludeCipherSuites("^SSL_.*$");
+        // Exclude NULL ciphers (that are accidentally present due to Include patterns)
+        sslContextFactory.addExcludeCipherSuites("^.*_NULL_.*$");
+        // Exclude anon ciphers (that are accidentally present due to Include patterns)
+        sslContextFactory.addExcludeCipherSuites("^.*_anon_.*$");
+
+        //Exclude CBC ciphers
+        sslContextFactory.addExcludeCipherSuites("^.*_CBC_.*$");
+
+        sslContextFactory.addExcludeCipherSuites("TLS_DHE_RSA_WITH_AES_128_GCM_SHA256");
+
+
+        //Only allows the configured protocols, and never anything older than tls 1.2
+        sslContextFactory.setIncludeProtocols(config.getTlsProtocols().toArray(new String[0]));
+        String[] excludedProtocols = new String[]{"SSLv2Hello", "SSLv3", "TLSv1", "TLSv1.1"};
+        sslContextFactory.setExcludeProtocols(excludedProtocols);
+
+        //Keeps sessions so reconnecting publishers can resume them rather than
+        //repeating the full mutually authenticated handshake
+        sslContextFactory.setSslSessionCacheSize(config.getTlsSessionCacheSize());
+        sslContextFactory.setSslSessionTimeout(config.getTlsSessionTimeoutSeconds());
+
+        //An alternative JSSE provider, such as Conscrypt, can take over the
+        //record encryption that dominates the cost of busy tls connections
+        String tlsProvider = config.getTlsProvider();
+        if (config.getTlsProviderClass() != null)
+        {
+            Provider provider = registerTlsProvider(config.getTlsProviderClass());
+            if (tlsProvider == null)
+            {
+                tlsProvider = provider.getName();
+            }
+        }
+        if (tlsProvider != null)
+        {
+            if (Security.getProvider(tlsProvider) == null)
+            {
+                logger.error("The JSSE provider '" + tlsProvider + "' is not registered. Register it in the java.security file or give its class in the configuration file.");
+                throw new JNLException("Unknown JSSE provider: " + tlsProvider);
+            }
+            sslContextFactory.setProvider(tlsProvider);
+        }
+
+        //This forces client certificate to be required
+        sslContextFactory.setNeedClientAuth(true);
+    }
+
+    /**
+     * Register the JSSE provider of the class, unless one of the same name
+     * already is.
+     *
+     * @param className
+     *            The class of the provider, which must have a public no
+     *            argument constructor.
+     * @return The registered provider.
+     * @throws JNLException
+     *             If the class cannot be loaded or is not a provider.
+     */
+    static synchronized Provider registerTlsProvider(final String className) throws JNLException
+    {
+        final Provider provider;
+        try
+        {
+            provider = (Provider) Class.forName(className).getConstructor().newInstance();
+        }
+        catch (final ReflectiveOperationException e)
+        {
+            throw new JNLException("Cannot create the JSSE provider " + className, e);
+        }
+        catch (final ClassCastException e)
+        {
+            throw new JNLException(className + " is not a security provider", e);
+        }
+
+        final Provider registered = Security.getProvider(provider.getName());
+        if (registered != null)
+        {
+            return registered;
+        }
+        Security.addProvider(provider);
+        return provider;
+    }
 
     public HttpSubscriberConfig getConfig()
     {
@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -19,8 +20,11 @@ import javax.servlet.http.HttpServletResponse;
 //import javax.xml.crypto.dsig.DigestMethod;
 
 import org.apache.log4j.Logger;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Request;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.tresys.jalop.jnl.CheckpointedSubscribeRequest;
 import com.tresys.jalop.jnl.DigestStatus;
 import com.tresys.jalop.jnl.JNLLog;
 import com.tresys.jalop.jnl.Mode;
@@ -29,6 +33,8 @@ import com.tresys.jalop.jnl.SubscribeRequest;
 import com.tresys.jalop.jnl.Subscriber;
 import com.tresys.jalop.jnl.exceptions.JNLSessionInvalidException;
 import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.subscriber.RecentJalIds;
+import com.tresys.jalop.jnl.impl.subscriber.ResumableDigest;
 import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
 import com.tresys.jalop.jnl.DigestAlgorithms;
 
@@ -281,6 +287,9 @@ public class MessageProcessor {
         final SubscriberHttpSessionImpl sessionImpl = new SubscriberHttpSessionImpl(publisherIdStr, sessionId,
                 supportedRecType, HttpUtils.getMode(modeStr), subscriber, selectedDigest,
                 selectedXmlCompression, 1, 1, performDigest, httpUtils.getExternalLogger());
+        sessionImpl.setReadLimits(httpUtils.getReadLimits());
+        sessionImpl.setMaxDecodedMetadataBytes(httpUtils.getMaxDecodedMetadataBytes());
+        sessionImpl.setRecentJalIds(httpUtils.getRecentJalIds(publisherIdStr, supportedRecType));
 
         final SubscribeRequest subRequest = subscriber.getSubscribeRequest(sessionImpl, subscriber.getCreateConfirmedFile());
 
@@ -299,6 +308,15 @@ public class MessageProcessor {
             //Sets the input stream to the current partial record being resumed to the session
             sessionImpl.setJournalResumeIS(subRequest.getResumeInputStream());
 
+            //Sets the JAL-Id of the partial record, only that record is resumed
+            sessionImpl.setJournalResumeJalId(subRequest.getNonce());
+
+            //Sets the digest checkpoint saved with the partial record, if any
+            if (subRequest instanceof CheckpointedSubscribeRequest) {
+                sessionImpl.setJournalResumeDigestCheckpoint(
+                        ((CheckpointedSubscribeRequest) subRequest).getResumeDigestCheckpoint());
+            }
+
             //Adds journal resume header
             if (!setJournalResumeMessage(subRequest.getNonce(), subRequest.getResumeOffset(), successResponseHeaders, logger, errorMessages))
             {
@@ -415,6 +433,7 @@ public class MessageProcessor {
                 errorMessages.add(HttpUtils.HDRS_INVALID_DIGEST);
                 return false;
             }
+            rememberConfirmed(sess, jalId);
         }
         else {
             logger.error("notifyDigestResponse failure: " + jalId + ", " + digestStatus);
@@ -428,6 +447,17 @@ public class MessageProcessor {
 
     @VisibleForTesting
     static boolean processJALRecordMessage(final TreeMap<String, String> requestHeaders, final InputStream requestInputStream, final RecordType supportedRecType, final SubscriberAndSession subscriberAndSession, DigestResult digestResult, final Subscriber subscriber, final JNLLog currLogger, List<String> errorMessages)
+    {
+        return processJALRecordMessage(requestHeaders, requestInputStream, null, supportedRecType, subscriberAndSession, digestResult, subscriber, currLogger, errorMessages);
+    }
+
+    /**
+     * Process a JAL record message whose data is read from
+     * <code>requestInputStream</code>. The timeout of the connection, if
+     * given, is shortened to the read limits of the session while the record
+     * is read, so a publisher that stops sending is caught in time.
+     */
+    static boolean processJALRecordMessage(final TreeMap<String, String> requestHeaders, final InputStream requestInputStream, final ReadTimeout readTimeout, final RecordType supportedRecType, final SubscriberAndSession subscriberAndSession, DigestResult digestResult, final Subscriber subscriber, final JNLLog currLogger, List<String> errorMessages)
     {
         if (digestResult == null)
         {
@@ -616,13 +646,69 @@ public class MessageProcessor {
             return false;
         }
 
+        //A record that was already confirmed is only being sent again because its sync was lost,
+        //so it is acknowledged again without reading or storing it
+        final RecentJalIds recentJalIds = sess.getRecentJalIds();
+        if (recentJalIds != null && recentJalIds.contains(jalId))
+        {
+            logger.info("Record " + jalId + " was already confirmed, sending sync");
+            digestResult.setDuplicate(true);
+            digestResult.setPerformDigest(false);
+            return true;
+        }
+
         //Process the JAL record
         try {
-            MessageDigest md = MessageDigest
-                    .getInstance(sess.getDigestType(sess.getDigestMethod()));
+            //The session keeps its handler, and digest, between records
+            SubscriberHttpANSHandler subscriberHandler = sess.takeRecordHandler();
+            if (subscriberHandler == null)
+            {
+                final String digestType = sess.getDigestType(sess.getDigestMethod());
+                MessageDigest md = null;
+                //Only archived journals are resumed, so only they need a digest that can be checkpointed
+                if (sess.getPerformDigest() && RecordType.Journal.equals(sess.getRecordType())
+                        && Mode.Archive.equals(sess.getMode()))
+                {
+                    md = ResumableDigest.getInstance(digestType);
+                }
+                if (md == null)
+                {
+                    md = MessageDigest.getInstance(digestType);
+                }
+                subscriberHandler = new SubscriberHttpANSHandler(md, sess, sess.getPerformDigest(), currLogger);
+            }
 
-            SubscriberHttpANSHandler subscriberHandler = new SubscriberHttpANSHandler(md, sess, sess.getPerformDigest(), currLogger);
-            String digest = subscriberHandler.handleJALRecord(sysMetadataSize, appMetadataSize, payloadSize, payloadType, recType, jalId, requestInputStream, subscriberAndSession.getSubscriber());
+            String digest;
+            ReadLimitExceededException readLimitFailure;
+            MetadataTooLargeException metadataLimitFailure;
+            try
+            {
+                subscriberHandler.setReadTimeout(readTimeout);
+                digest = subscriberHandler.handleJALRecord(sysMetadataSize, appMetadataSize, payloadSize, payloadType, recType, jalId, requestInputStream, subscriberAndSession.getSubscriber());
+                readLimitFailure = subscriberHandler.getReadLimitFailure();
+                metadataLimitFailure = subscriberHandler.getMetadataLimitFailure();
+            }
+            finally
+            {
+                subscriberHandler.setReadTimeout(null);
+                sess.returnRecordHandler(subscriberHandler);
+            }
+
+            //If the publisher was too slow sending the record, the session is failed
+            if (readLimitFailure != null)
+            {
+                digestResult.setReadLimitViolation(readLimitFailure.getViolation());
+                errorMessages.add(HttpUtils.HDRS_READ_LIMIT_EXCEEDED);
+                return false;
+            }
+
+            //If the metadata decoded to too much, what was stored is thrown away as for an invalid digest
+            if (metadataLimitFailure != null)
+            {
+                subscriber.notifyDigestResponse(sess, jalId, DigestStatus.Invalid, subscriberAndSession.getSubscriber());
+                errorMessages.add(HttpUtils.HDRS_RECORD_FAILURE);
+                return false;
+            }
 
             //If null, then failure occurred
             if (digest == null)
@@ -648,6 +734,7 @@ public class MessageProcessor {
                     errorMessages.add(HttpUtils.HDRS_SYNC_FAILURE);
                     return false;
                 }
+                rememberConfirmed(sess, jalId);
             }
         }
         catch (final NoSuchAlgorithmException e) {
@@ -658,7 +745,45 @@ public class MessageProcessor {
         return true;
     }
 
+    /**
+     * Remember a confirmed record, so it is not stored again if its sync is
+     * lost and it is sent again.
+     */
+    private static void rememberConfirmed(final SubscriberHttpSessionImpl sess, final String jalId)
+    {
+        final RecentJalIds recentJalIds = sess.getRecentJalIds();
+        if (recentJalIds != null)
+        {
+            recentJalIds.add(jalId);
+        }
+    }
+
     @VisibleForTesting
+    /**
+     * @return The timeout of the connection <code>request</code> arrived on,
+     *         or null if it is not a Jetty request.
+     */
+    static ReadTimeout readTimeoutOf(final HttpServletRequest request)
+    {
+        final Request baseRequest = Request.getBaseRequest(request);
+        if (baseRequest == null || baseRequest.getHttpChannel() == null)
+        {
+            return null;
+        }
+        final EndPoint endPoint = baseRequest.getHttpChannel().getEndPoint();
+        return new ReadTimeout() {
+            @Override
+            public long getTimeoutMillis() {
+                return endPoint.getIdleTimeout();
+            }
+
+            @Override
+            public void setTimeoutMillis(final long timeoutMillis) {
+                endPoint.setIdleTimeout(timeoutMillis);
+            }
+        };
+    }
+
     static void setInitializeNackResponse(final List<String> errorMessages, final HttpServletResponse response)
     {
         response.setHeader(HttpUtils.HDRS_MESSAGE, HttpUtils.MSG_INIT_NACK);
@@ -810,6 +935,53 @@ public class MessageProcessor {
         response.setHeader(HttpUtils.HDRS_ERROR_MESSAGE, HttpUtils.convertListToString(errorMessages));
     }
 
+    /**
+     * @return The length of the record a JAL record message says it carries,
+     *         counting any header that is missing or not a number as 0. The
+     *         headers are checked properly when the record is read.
+     */
+    @VisibleForTesting
+    static long getRecordLength(final Map<String, String> requestHeaders, final RecordType recType)
+    {
+        final String payloadHeader;
+        switch (recType)
+        {
+        case Journal:
+            payloadHeader = HttpUtils.HDRS_JOURNAL_LEN;
+            break;
+        case Audit:
+            payloadHeader = HttpUtils.HDRS_AUDIT_LEN;
+            break;
+        default:
+            payloadHeader = HttpUtils.HDRS_LOG_LEN;
+            break;
+        }
+
+        long length = 0;
+        for (final String header : new String[] { HttpUtils.HDRS_SYS_META_LEN, HttpUtils.HDRS_APP_META_LEN, payloadHeader })
+        {
+            try
+            {
+                length += Math.max(0, Long.parseLong(requestHeaders.get(header)));
+            }
+            catch (NumberFormatException e)
+            {
+                //Reported when the record is read
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Turn a message away for now, telling the publisher when to try again.
+     */
+    @VisibleForTesting
+    static void setServiceUnavailableResponse(HttpServletResponse response, HttpUtils httpUtils)
+    {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpUtils.HDRS_RETRY_AFTER, Integer.toString(httpUtils.getRetryAfterSeconds()));
+    }
+
     public static void handleRequest(HttpServletRequest request, HttpServletResponse response, RecordType supportedRecType, HttpUtils httpUtils)
     {
         // Set the Content-Type header in response message.
@@ -854,6 +1026,24 @@ public class MessageProcessor {
             String messageType = request.getHeader(HttpUtils.HDRS_MESSAGE);
             if (messageType.equalsIgnoreCase(HttpUtils.MSG_INIT))
             {
+                //No new sessions while shutting down, publishers come back once it is running again
+                if (httpUtils.isDraining())
+                {
+                    logger.info("Shutting down, sending " + HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                            + " for " + supportedRecType + " initialize");
+                    setServiceUnavailableResponse(response, httpUtils);
+                    return;
+                }
+
+                //No new sessions while the output volume is nearly full or slow
+                if (!httpUtils.admitUnderDiskPressure())
+                {
+                    logger.warn("Output volume is under pressure, sending " + HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                            + " for " + supportedRecType + " initialize");
+                    setServiceUnavailableResponse(response, httpUtils);
+                    return;
+                }
+
                 HashMap<String, String> successResponseHeaders = new HashMap<String, String>();
                 if (!MessageProcessor.processInitializeMessage(currHeaders, supportedRecType, successResponseHeaders, httpUtils, errorMessages))
                 {
@@ -891,38 +1081,109 @@ public class MessageProcessor {
                     // binary if jal
                     // record data
                 {
-                    DigestResult digestResult = new DigestResult();
+                    //Records not yet started are turned away while shutting down, so only
+                    //those in progress hold it up
+                    if (httpUtils.isDraining())
+                    {
+                        logger.info("Shutting down, sending " + HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                                + " for " + currHeaders.get(HttpUtils.HDRS_NONCE));
+                        setServiceUnavailableResponse(response, httpUtils);
+                        return;
+                    }
 
-                    updateSessionTimestamp(currSession);
-                    if (!MessageProcessor.processJALRecordMessage(currHeaders, request.getInputStream(),
-                            supportedRecType, subscriberAndSession, digestResult, httpUtils.getSubscriber(), httpUtils.getExternalLogger(), errorMessages))
+                    //Records are turned away before their body is read while the output volume
+                    //is nearly full or slow, rather than failing part way through
+                    if (!httpUtils.admitUnderDiskPressure())
                     {
-                        updateSessionTimestamp(currSession);
+                        logger.warn("Output volume is under pressure, sending " + HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                                + " for " + currHeaders.get(HttpUtils.HDRS_NONCE));
+                        setServiceUnavailableResponse(response, httpUtils);
+                        return;
+                    }
+
+                    //Records over their publisher's rate or share are turned away, so one publisher
+                    //cannot starve the rest
+                    final long waitMillis = httpUtils.admitPublisherRecord(currSession.getPublisherId(),
+                            supportedRecType, getRecordLength(currHeaders, supportedRecType));
+                    if (waitMillis > 0)
+                    {
+                        logger.debug("Publisher " + currSession.getPublisherId() + " is over its rate, sending "
+                                + HttpUtils.SC_TOO_MANY_REQUESTS + " for " + currHeaders.get(HttpUtils.HDRS_NONCE));
+                        response.setStatus(HttpUtils.SC_TOO_MANY_REQUESTS);
+                        response.setHeader(HttpUtils.HDRS_RETRY_AFTER, Long.toString((waitMillis + 999) / 1000));
+                        return;
+                    }
 
-                        //If digest was performed send digest-challenge-failed, otherwise send sync-failed
-                        if (!digestResult.getFailedDueToSync())
+                    //Records of a type over its limit are turned away rather than waiting, so one type
+                    //cannot take every request thread
+                    final Semaphore recordSlot = httpUtils.acquireRecordSlot(supportedRecType);
+                    if (recordSlot == HttpUtils.NO_RECORD_SLOT)
+                    {
+                        logger.warn("Too many " + supportedRecType + " records in progress, sending "
+                                + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " for " + currHeaders.get(HttpUtils.HDRS_NONCE));
+                        setServiceUnavailableResponse(response, httpUtils);
+                        return;
+                    }
+
+                    try
+                    {
+                        DigestResult digestResult = new DigestResult();
+
+                        updateSessionTimestamp(currSession);
+                        if (!MessageProcessor.processJALRecordMessage(currHeaders, request.getInputStream(), readTimeoutOf(request),
+                                supportedRecType, subscriberAndSession, digestResult, httpUtils.getSubscriber(), httpUtils.getExternalLogger(), errorMessages))
                         {
-                            MessageProcessor.setRecordFailureResponse(digestResult.getJalId(), errorMessages, response, logger);
+                            updateSessionTimestamp(currSession);
+
+                            //A publisher too slow to send a record loses its session, and the connection
+                            //is closed rather than reading the rest of the record
+                            if (digestResult.getReadLimitViolation() != null)
+                            {
+                                httpUtils.countAbortedRead(digestResult.getReadLimitViolation());
+                                httpUtils.getSubscriber().removeSession(sessionIdStr);
+                                response.setHeader("Connection", "close");
+                                MessageProcessor.setSessionFailureResponse(errorMessages, response, sessionIdStr, logger, digestResult.getJalId());
+                            }
+                            //If digest was performed send digest-challenge-failed, otherwise send sync-failed
+                            else if (!digestResult.getFailedDueToSync())
+                            {
+                                MessageProcessor.setRecordFailureResponse(digestResult.getJalId(), errorMessages, response, logger);
+                            }
+                            else
+                            {
+                                MessageProcessor.setSyncFailureResponse(digestResult.getJalId(), errorMessages, response, logger);
+                            }
                         }
                         else
                         {
-                            MessageProcessor.setSyncFailureResponse(digestResult.getJalId(), errorMessages, response, logger);
+                            updateSessionTimestamp(currSession);
+
+                            if (digestResult.getDuplicate())
+                            {
+                                httpUtils.countDuplicateRecord();
+                            }
+
+                            //If digest was performed send digest challenge otherwise send sync
+                            if (digestResult.getPerformDigest())
+                            {
+                                //The record is not done until the publisher answers the challenge
+                                httpUtils.awaitDigestResponse(sessionIdStr, digestResult.getJalId(), currSession.getPendingDigestTimeoutSeconds());
+
+                                // Set digest-challenge response
+                                MessageProcessor.setDigestChallengeResponse(digestResult.getJalId(), digestResult, response, logger);
+                            }
+                            else
+                            {
+                                //Send sync message
+                                MessageProcessor.setSyncResponse(digestResult.getJalId(), response, logger);
+                            }
                         }
                     }
-                    else
+                    finally
                     {
-                        updateSessionTimestamp(currSession);
-
-                        //If digest was performed send digest challenge otherwise send sync
-                        if (digestResult.getPerformDigest())
-                        {
-                            // Set digest-challenge response
-                            MessageProcessor.setDigestChallengeResponse(digestResult.getJalId(), digestResult, response, logger);
-                        }
-                        else
+                        if (recordSlot != null)
                         {
-                            //Send sync message
-                            MessageProcessor.setSyncResponse(digestResult.getJalId(), response, logger);
+                            recordSlot.release();
                         }
                     }
                 }
@@ -946,6 +1207,7 @@ public class MessageProcessor {
                 }
                 else if (messageType.equalsIgnoreCase(HttpUtils.MSG_DIGEST_RESP))
                 {
+                    httpUtils.digestResponseReceived(sessionIdStr, currHeaders.get(HttpUtils.HDRS_NONCE));
                     DigestResult digestResult = new DigestResult();
 
                     updateSessionTimestamp(currSession);
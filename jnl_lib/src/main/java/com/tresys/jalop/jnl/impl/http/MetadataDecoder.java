@@ -0,0 +1,192 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes system and application metadata according to the XML compression
+ * negotiated for a session (see {@link HttpUtils#SUPPORTED_XML_COMPRESSIONS}).
+ *
+ * Decoding is a streaming stage between the wire and the {@link
+ * com.tresys.jalop.jnl.Subscriber}: the lengths in the record headers and the
+ * JALoP digest both cover the bytes as sent, while the subscriber reads the
+ * decoded XML. Since the lengths only bound the data on the wire, the decoded
+ * data is bounded separately, so a small amount of compressed metadata cannot
+ * fill the output volume.
+ */
+final class MetadataDecoder {
+
+    /** Size of the buffer handed to the {@link Inflater}. */
+    static final int INFLATE_BUFFER_SIZE = 8192;
+
+    private MetadataDecoder() {
+    }
+
+    /**
+     * Wrap <code>wire</code> so it yields decoded metadata.
+     *
+     * @param xmlEncoding
+     *            The XML compression selected for the session.
+     * @param wire
+     *            The metadata as received.
+     * @param wireLength
+     *            The number of bytes of metadata on the wire.
+     * @param maxDecodedBytes
+     *            The most bytes the metadata may decode to, or 0 for no
+     *            limit.
+     * @return A stream of decoded metadata, or <code>wire</code> itself if
+     *         no decoding is needed. Streams other than <code>wire</code>
+     *         must be closed by the caller; closing them does not close
+     *         <code>wire</code>. Reading more than
+     *         <code>maxDecodedBytes</code> from them fails with a
+     *         {@link MetadataTooLargeException}.
+     * @throws IOException
+     *             If the start of the metadata cannot be read.
+     */
+    static InputStream decode(final String xmlEncoding, final InputStream wire, final long wireLength,
+            final long maxDecodedBytes) throws IOException {
+        if (wireLength == 0) {
+            return wire;
+        }
+        if (isDeflate(xmlEncoding)) {
+            return limit(inflate(wire), maxDecodedBytes);
+        }
+        if (isExi(xmlEncoding)) {
+            return limit(new ExiMetadataStream(wire), maxDecodedBytes);
+        }
+        return wire;
+    }
+
+    /**
+     * @return The {@link MetadataTooLargeException} reading
+     *         <code>decoded</code> failed with, even if the reader did not
+     *         pass it on, or null.
+     */
+    static MetadataTooLargeException getLimitFailure(final InputStream decoded) {
+        return decoded instanceof LimitedStream ? ((LimitedStream) decoded).failure : null;
+    }
+
+    private static InputStream limit(final InputStream decoded, final long maxDecodedBytes) {
+        return maxDecodedBytes > 0 ? new LimitedStream(decoded, maxDecodedBytes) : decoded;
+    }
+
+    /**
+     * @return <code>true</code> if <code>xmlEncoding</code> is the deflate
+     *         compression.
+     */
+    static boolean isDeflate(final String xmlEncoding) {
+        return xmlEncoding != null
+                && HttpUtils.XML_COMPRESSION_DEFLATE.equalsIgnoreCase(xmlEncoding.trim());
+    }
+
+    /**
+     * @return <code>true</code> if <code>xmlEncoding</code> is EXI 1.0.
+     */
+    static boolean isExi(final String xmlEncoding) {
+        return xmlEncoding != null
+                && HttpUtils.XML_COMPRESSION_EXI.equalsIgnoreCase(xmlEncoding.trim());
+    }
+
+    /**
+     * Inflate deflate compressed data. Publishers differ in whether they
+     * send a zlib (RFC 1950) stream or raw deflate (RFC 1951) data, as with
+     * HTTP's deflate content coding, so the zlib header is detected rather
+     * than assumed.
+     */
+    private static InputStream inflate(final InputStream wire) throws IOException {
+        final PushbackInputStream in = new PushbackInputStream(wire, 2);
+        final byte[] header = new byte[2];
+        int n = 0;
+        while (n < header.length) {
+            final int r = in.read(header, n, header.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        in.unread(header, 0, n);
+
+        final boolean zlib = n == 2
+                && (header[0] & 0x0f) == 8
+                && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        return new InflatingStream(in, new Inflater(!zlib));
+    }
+
+    /**
+     * Fails once more than the most decoded bytes allowed have been read.
+     */
+    private static final class LimitedStream extends FilterInputStream {
+        private final long maxDecodedBytes;
+        private long count = 0;
+        private MetadataTooLargeException failure;
+
+        LimitedStream(final InputStream in, final long maxDecodedBytes) {
+            super(in);
+            this.maxDecodedBytes = maxDecodedBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                counted(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            counted(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void counted(final long n) throws MetadataTooLargeException {
+            this.count += n;
+            if (this.count > this.maxDecodedBytes) {
+                if (this.failure == null) {
+                    this.failure = new MetadataTooLargeException(this.maxDecodedBytes);
+                }
+                throw this.failure;
+            }
+        }
+    }
+
+    /**
+     * Releases the native {@link Inflater} on close without closing the
+     * underlying stream, which the caller still needs to drain.
+     */
+    private static final class InflatingStream extends InflaterInputStream {
+        private boolean closed = false;
+
+        InflatingStream(final InputStream in, final Inflater inflater) {
+            super(in, inflater, INFLATE_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when system or application metadata decodes to more than the most
+ * a session allows, such as deflate data that expands many times over.
+ */
+class MetadataTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    MetadataTooLargeException(final long maxDecodedBytes) {
+        super("Decoded metadata is larger than " + maxDecodedBytes + " bytes");
+    }
+}
@@ -0,0 +1,264 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tresys.jalop.jnl.RecordType;
+
+/**
+ * Shares the bandwidth of the subscriber between publishers, so one
+ * publisher sending a flood of records cannot starve the rest.
+ *
+ * Each publisher has a token bucket for each record type, filled at the
+ * rate for that type, so it cannot send more than that however quiet the
+ * others are. All records also draw on one bucket filled at the total rate.
+ * While that bucket is less than half full, the bandwidth is contended and
+ * a publisher that has recently sent more than its weighted share of what
+ * the active publishers sent is turned away, leaving the tokens as they
+ * come in to the others.
+ *
+ * Buckets hold one second of their rate, except that a record larger than
+ * that is let through once the bucket is full and leaves it in debt, so a
+ * large record is slowed but never refused forever.
+ */
+public final class PublisherRateLimits {
+
+    /** How long, in nanoseconds, sent bytes take to count for 1/e as much towards a publisher's share. */
+    private static final long USAGE_DECAY_NANOS = 1000000000L;
+
+    /** How long, in nanoseconds, since a publisher last sent a record it still counts as active. */
+    private static final long ACTIVE_NANOS = 5 * USAGE_DECAY_NANOS;
+
+    private final EnumMap<RecordType, Long> bytesPerSecond;
+    private final long totalBytesPerSecond;
+    private final Map<String, Integer> weights;
+
+    private final TokenBucket total;
+    private final Map<String, PublisherState> publishers = new HashMap<String, PublisherState>();
+    private long throttledRecords;
+
+    /**
+     * Create a {@link PublisherRateLimits}.
+     *
+     * @param bytesPerSecond
+     *            The most each publisher may send of each record type, or
+     *            null. Types without an entry, or with 0, are not limited.
+     * @param totalBytesPerSecond
+     *            The most all publishers together may send, or 0 for no
+     *            limit.
+     * @param weights
+     *            The weights of publishers' shares of the total, by
+     *            publisher ID, or null. Publishers without an entry have a
+     *            weight of 1.
+     */
+    public PublisherRateLimits(final Map<RecordType, Long> bytesPerSecond, final long totalBytesPerSecond,
+            final Map<String, Integer> weights) {
+        this.bytesPerSecond = new EnumMap<RecordType, Long>(RecordType.class);
+        if (bytesPerSecond != null) {
+            for (final Map.Entry<RecordType, Long> entry : bytesPerSecond.entrySet()) {
+                if (entry.getValue() == null || entry.getValue() < 0) {
+                    throw new IllegalArgumentException("'bytesPerSecond' must not be negative.");
+                }
+                if (entry.getValue() > 0) {
+                    this.bytesPerSecond.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (totalBytesPerSecond < 0) {
+            throw new IllegalArgumentException("'totalBytesPerSecond' must not be negative.");
+        }
+        this.totalBytesPerSecond = totalBytesPerSecond;
+        this.weights = new HashMap<String, Integer>();
+        if (weights != null) {
+            for (final Map.Entry<String, Integer> entry : weights.entrySet()) {
+                if (entry.getValue() == null || entry.getValue() <= 0) {
+                    throw new IllegalArgumentException("'weights' must be positive, non-zero values.");
+                }
+                this.weights.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.total = totalBytesPerSecond > 0 ? new TokenBucket(totalBytesPerSecond, System.nanoTime()) : null;
+    }
+
+    /**
+     * @return The most each publisher may send of the type, in bytes per
+     *         second, or 0 if it is not limited.
+     */
+    public long getBytesPerSecond(final RecordType recordType) {
+        final Long rate = this.bytesPerSecond.get(recordType);
+        return rate == null ? 0 : rate;
+    }
+
+    public long getTotalBytesPerSecond() {
+        return this.totalBytesPerSecond;
+    }
+
+    public int getWeight(final String publisherId) {
+        final Integer weight = this.weights.get(publisherId);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     * @return Whether there is any limit to enforce.
+     */
+    public boolean isEnabled() {
+        return this.totalBytesPerSecond > 0 || !this.bytesPerSecond.isEmpty();
+    }
+
+    /**
+     * @return The number of records turned away from all publishers.
+     */
+    public synchronized long getThrottledRecords() {
+        return this.throttledRecords;
+    }
+
+    /**
+     * @return The number of records turned away from the publisher.
+     */
+    public synchronized long getThrottledRecords(final String publisherId) {
+        final PublisherState state = this.publishers.get(publisherId);
+        return state == null ? 0 : state.throttled;
+    }
+
+    /**
+     * Take the tokens for a record if the publisher may send it now.
+     *
+     * @param publisherId
+     *            The publisher sending the record.
+     * @param recordType
+     *            The type of the record.
+     * @param bytes
+     *            The size of the record.
+     * @param nowNanos
+     *            The current {@link System#nanoTime()}.
+     * @return 0 if the record may be sent, otherwise roughly how long, in
+     *         milliseconds, the publisher should wait before sending it
+     *         again.
+     */
+    synchronized long admit(final String publisherId, final RecordType recordType, final long bytes,
+            final long nowNanos) {
+        PublisherState state = this.publishers.get(publisherId);
+        if (state == null) {
+            state = new PublisherState(getWeight(publisherId), nowNanos);
+            this.publishers.put(publisherId, state);
+        }
+
+        long waitMillis = 0;
+        TokenBucket bucket = null;
+        final Long rate = this.bytesPerSecond.get(recordType);
+        if (rate != null) {
+            bucket = state.buckets.get(recordType);
+            if (bucket == null) {
+                bucket = new TokenBucket(rate, nowNanos);
+                state.buckets.put(recordType, bucket);
+            }
+            waitMillis = bucket.waitMillis(bytes, nowNanos);
+        }
+
+        if (waitMillis == 0 && this.total != null) {
+            waitMillis = this.total.waitMillis(bytes, nowNanos);
+            if (waitMillis == 0 && this.total.isContended() && overShare(state, nowNanos)) {
+                // The others are due what comes in next.
+                waitMillis = Math.max(1, bytes * 1000 / this.totalBytesPerSecond);
+            }
+        }
+
+        if (waitMillis > 0) {
+            state.throttled++;
+            this.throttledRecords++;
+            return waitMillis;
+        }
+
+        if (bucket != null) {
+            bucket.take(bytes);
+        }
+        if (this.total != null) {
+            this.total.take(bytes);
+        }
+        state.use(bytes, nowNanos);
+        return 0;
+    }
+
+    /**
+     * @return Whether the publisher has recently sent more than its
+     *         weighted share of what the active publishers sent.
+     */
+    private boolean overShare(final PublisherState state, final long nowNanos) {
+        double usage = 0;
+        long weight = 0;
+        for (final PublisherState other : this.publishers.values()) {
+            if (other == state || nowNanos - other.lastNanos < ACTIVE_NANOS) {
+                usage += other.usage(nowNanos);
+                weight += other.weight;
+            }
+        }
+        return usage > 0 && state.usage(nowNanos) / usage > (double) state.weight / weight;
+    }
+
+    private static final class PublisherState {
+        final int weight;
+        final EnumMap<RecordType, TokenBucket> buckets = new EnumMap<RecordType, TokenBucket>(RecordType.class);
+        double usage;
+        long lastNanos;
+        long throttled;
+
+        PublisherState(final int weight, final long nowNanos) {
+            this.weight = weight;
+            this.lastNanos = nowNanos;
+        }
+
+        double usage(final long nowNanos) {
+            return this.usage * Math.exp(-(double) (nowNanos - this.lastNanos) / USAGE_DECAY_NANOS);
+        }
+
+        void use(final long bytes, final long nowNanos) {
+            this.usage = usage(nowNanos) + bytes;
+            this.lastNanos = nowNanos;
+        }
+    }
+
+    /**
+     * Tokens are bytes, filled at the rate up to one second's worth.
+     */
+    static final class TokenBucket {
+        private final long rate;
+        private double tokens;
+        private long lastNanos;
+
+        TokenBucket(final long rate, final long nowNanos) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.lastNanos = nowNanos;
+        }
+
+        /**
+         * @return 0 if there are tokens for <code>bytes</code>, otherwise
+         *         how long, in milliseconds, until there are.
+         */
+        long waitMillis(final long bytes, final long nowNanos) {
+            refill(nowNanos);
+            final double needed = Math.min(bytes, this.rate) - this.tokens;
+            if (needed <= 0) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil(needed * 1000 / this.rate));
+        }
+
+        void take(final long bytes) {
+            this.tokens -= bytes;
+        }
+
+        boolean isContended() {
+            return this.tokens < this.rate / 2.0;
+        }
+
+        private void refill(final long nowNanos) {
+            final long elapsed = nowNanos - this.lastNanos;
+            if (elapsed > 0) {
+                this.tokens = Math.min(this.rate, this.tokens + (double) this.rate * elapsed / 1000000000L);
+                this.lastNanos = nowNanos;
+            }
+        }
+    }
+}
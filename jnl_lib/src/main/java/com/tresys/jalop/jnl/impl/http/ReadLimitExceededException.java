@@ -0,0 +1,23 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a segment of a JAL record message does not arrive within its
+ * {@link ReadLimits}.
+ */
+class ReadLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ReadLimits.Violation violation;
+
+    ReadLimitExceededException(final ReadLimits.Violation violation, final String message) {
+        super(message);
+        this.violation = violation;
+    }
+
+    ReadLimits.Violation getViolation() {
+        return this.violation;
+    }
+}
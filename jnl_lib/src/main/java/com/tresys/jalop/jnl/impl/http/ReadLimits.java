@@ -0,0 +1,148 @@
+package com.tresys.jalop.jnl.impl.http;
+
+/**
+ * Limits on how long each segment of a JAL record message (the system
+ * meta-data, the application meta-data and the payload) may take to arrive,
+ * so a publisher that stalls or trickles its data cannot hold a request
+ * thread indefinitely.
+ *
+ * The limits are checked each time data arrives. So that a publisher that
+ * sends nothing at all is caught too, each read may only wait as long as is
+ * left before a limit would be exceeded, see {@link #deadlineLeftMillis} and
+ * {@link #rateLeftMillis}.
+ */
+public final class ReadLimits {
+
+    /** Why a read was aborted. */
+    public enum Violation {
+        /** The segment took longer than the deadline. */
+        DEADLINE,
+        /** The publisher sent the segment slower than the minimum rate. */
+        THROUGHPUT
+    }
+
+    /** No limits. */
+    public static final ReadLimits NONE = new ReadLimits(0, 0, 0);
+
+    private final long deadlineMillis;
+    private final long minBytesPerSecond;
+    private final long graceMillis;
+
+    /**
+     * Create a {@link ReadLimits}.
+     *
+     * @param deadlineMillis
+     *            The longest a segment may take to arrive, or 0 for no limit.
+     * @param minBytesPerSecond
+     *            The slowest a publisher may send a segment, or 0 for no
+     *            limit. Only time spent waiting for the publisher counts, so
+     *            a slow subscriber does not count against it.
+     * @param graceMillis
+     *            How long a segment may wait for the publisher before its
+     *            rate is checked, so a short stall is not penalized.
+     */
+    public ReadLimits(final long deadlineMillis, final long minBytesPerSecond, final long graceMillis) {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("'deadlineMillis' must not be negative.");
+        }
+        if (minBytesPerSecond < 0) {
+            throw new IllegalArgumentException("'minBytesPerSecond' must not be negative.");
+        }
+        if (graceMillis < 0) {
+            throw new IllegalArgumentException("'graceMillis' must not be negative.");
+        }
+        this.deadlineMillis = deadlineMillis;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.graceMillis = graceMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return this.deadlineMillis;
+    }
+
+    public long getMinBytesPerSecond() {
+        return this.minBytesPerSecond;
+    }
+
+    public long getGraceMillis() {
+        return this.graceMillis;
+    }
+
+    /**
+     * @return Whether there is any limit to check.
+     */
+    public boolean isEnabled() {
+        return this.deadlineMillis > 0 || this.minBytesPerSecond > 0;
+    }
+
+    /**
+     * Check the progress of a segment.
+     *
+     * @param elapsedNanos
+     *            The time since the segment started.
+     * @param waitNanos
+     *            The part of that time spent waiting for the publisher.
+     * @param bytesRead
+     *            The number of bytes of the segment read so far.
+     * @throws ReadLimitExceededException
+     *             If a limit has been exceeded.
+     */
+    void check(final long elapsedNanos, final long waitNanos, final long bytesRead)
+            throws ReadLimitExceededException {
+        if (this.deadlineMillis > 0 && elapsedNanos / 1000000 > this.deadlineMillis) {
+            throw exceeded(Violation.DEADLINE);
+        }
+        final long waitMillis = waitNanos / 1000000;
+        if (this.minBytesPerSecond > 0 && waitMillis > this.graceMillis
+                && bytesRead * 1000 < this.minBytesPerSecond * waitMillis) {
+            throw exceeded(Violation.THROUGHPUT);
+        }
+    }
+
+    /**
+     * How long a segment may yet wait for data before it misses the
+     * deadline.
+     *
+     * @param elapsedNanos
+     *            The time since the segment started.
+     * @return The time in milliseconds, at least 1, or 0 if there is no
+     *         deadline.
+     */
+    long deadlineLeftMillis(final long elapsedNanos) {
+        if (this.deadlineMillis == 0) {
+            return 0;
+        }
+        return Math.max(1, this.deadlineMillis - elapsedNanos / 1000000 + 1);
+    }
+
+    /**
+     * How long a segment may yet wait for data, if none arrives, before it
+     * falls below the minimum rate.
+     *
+     * @param waitNanos
+     *            The time the segment has spent waiting for the publisher.
+     * @param bytesRead
+     *            The number of bytes of the segment read so far.
+     * @return The time in milliseconds, at least 1, or 0 if there is no
+     *         minimum rate.
+     */
+    long rateLeftMillis(final long waitNanos, final long bytesRead) {
+        if (this.minBytesPerSecond == 0) {
+            return 0;
+        }
+        final long allowedMillis = Math.max(this.graceMillis, bytesRead * 1000 / this.minBytesPerSecond);
+        return Math.max(1, allowedMillis - waitNanos / 1000000 + 1);
+    }
+
+    /**
+     * @return The exception reporting that a segment broke the limit.
+     */
+    ReadLimitExceededException exceeded(final Violation violation) {
+        if (violation == Violation.DEADLINE) {
+            return new ReadLimitExceededException(Violation.DEADLINE,
+                    "Segment was not received within " + this.deadlineMillis + " ms");
+        }
+        return new ReadLimitExceededException(Violation.THROUGHPUT,
+                "Segment is being sent at less than " + this.minBytesPerSecond + " bytes per second");
+    }
+}
@@ -0,0 +1,19 @@
+package com.tresys.jalop.jnl.impl.http;
+
+/**
+ * How long a blocking read of a request may wait for data before it fails,
+ * such as the idle timeout of the connection the request arrived on.
+ */
+interface ReadTimeout {
+
+    /**
+     * @return The timeout in milliseconds, or 0 for none.
+     */
+    long getTimeoutMillis();
+
+    /**
+     * @param timeoutMillis
+     *            The timeout in milliseconds, or 0 for none.
+     */
+    void setTimeoutMillis(long timeoutMillis);
+}
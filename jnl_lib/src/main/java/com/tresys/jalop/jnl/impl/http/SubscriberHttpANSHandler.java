@@ -2,19 +2,27 @@ package com.tresys.jalop.jnl.impl.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import com.tresys.jalop.jnl.DigestCheckpoint;
 import com.tresys.jalop.jnl.IncompleteRecordException;
 import com.tresys.jalop.jnl.JNLLog;
 import com.tresys.jalop.jnl.RecordInfo;
+import com.tresys.jalop.jnl.RecordSink;
 import com.tresys.jalop.jnl.RecordType;
 import com.tresys.jalop.jnl.Subscriber;
 import com.tresys.jalop.jnl.exceptions.UnexpectedMimeValueException;
 import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.subscriber.BufferPool;
+import com.tresys.jalop.jnl.impl.subscriber.ResumableDigest;
 import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
 
 public class SubscriberHttpANSHandler {
@@ -22,6 +30,14 @@ public class SubscriberHttpANSHandler {
     static final int BUFFER_SIZE = 4096;
     private static final int LINE_FEED = 10;
 
+    /** The separator that follows each section of a record. */
+    private static final byte[] BREAK = { 'B', 'R', 'E', 'A', 'K' };
+
+    /** Version of the layout of digest checkpoints. */
+    private static final byte CHECKPOINT_VERSION = 1;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * The MessageDigest to use for calculating the JALoP digest.
      */
@@ -35,12 +51,42 @@ public class SubscriberHttpANSHandler {
     private JNLLog log = null;
 
     /**
-     * Create a SubscriberHttpANSHandler for a record using the
+     * The details of the record being handled, and the stream of its data,
+     * reused for every record of the session.
+     */
+    private final HttpRecordInfo recInfo = new HttpRecordInfo();
+    private final JalopHttpDataStream js = new JalopHttpDataStream();
+
+    /** Space to format the digest in, large enough for SHA-512. */
+    private final char[] hexDigest = new char[128];
+
+    /** The limits on reading the record being handled. */
+    private ReadLimits readLimits = ReadLimits.NONE;
+
+    /** Why the last record was abandoned, if it was too slow to arrive. */
+    private ReadLimitExceededException readLimitFailure;
+
+    /** Why the last record was abandoned, if its metadata decoded to too much. */
+    private MetadataTooLargeException metadataLimitFailure;
+
+    /**
+     * The timeout of the connection the record arrives on, which is
+     * shortened to the {@link ReadLimits} while it is read, or null.
+     */
+    private ReadTimeout readTimeout;
 
+    /** The timeout of the connection before it was shortened. */
+    private long idleTimeoutMillis;
+
+    /**
+     * Create a SubscriberHttpANSHandler for the records of a session. The
+     * handler keeps no state between records, so one handler can be reused
+     * for every record of the session, one record at a time.
      *
      * @param md
      *            the {@link MessageDigest} that should be used for digest
      *            calculations.
+     * @see SubscriberHttpSessionImpl#takeRecordHandler()
      */
     public SubscriberHttpANSHandler(final MessageDigest md,
             final SubscriberHttpSessionImpl subsess, boolean performDigest, JNLLog logger) {
@@ -79,99 +125,97 @@ public class SubscriberHttpANSHandler {
     public String handleJALRecord(final long sysMetadataSize, final long appMetadataSize,
             final long payloadSize, final String payloadType, final RecordType recType, final String jalId,  InputStream is, Subscriber subscriber)
     {
-        JalopHttpDataStream js = null;
-
         md.reset();
+        this.payloadCorrect = false;
+        this.payloadComplete = false;
+        this.readLimits = subsess.getReadLimits();
+        this.readLimitFailure = null;
+        this.metadataLimitFailure = null;
+        final long maxDecodedBytes = subsess.getMaxDecodedMetadataBytes();
 
         final Subscriber sub = subsess.getSubscriber();
         try {
-            final RecordInfo recInfo = new RecordInfo() {
-
-                private final long sysMetadataLength = sysMetadataSize;
-                private final long appMetadataLength = appMetadataSize;
-                private final long payloadLength = payloadSize;
-                private final String nonce = jalId;
-                private final RecordType recordType = recType;
-
-                @Override
-                public long getSysMetaLength() {
-                    return this.sysMetadataLength;
-                }
-
-                @Override
-                public String getNonce() {
-                    return this.nonce;
-                }
-
-                @Override
-                public long getOffset() {
-                    return subsess.getJournalResumeOffset();
+            // Only the record the initialize-ack named is resumed, whenever in
+            // the session it arrives; every other record is received whole.
+            long resumeOffset = 0;
+            byte[] resumeCheckpoint = null;
+            if (subsess.claimJournalResume(jalId)) {
+                resumeOffset = subsess.getJournalResumeOffset();
+                resumeCheckpoint = subsess.getJournalResumeDigestCheckpoint();
+                subsess.resetJournalOffset();
+            }
+            recInfo.set(sysMetadataSize, appMetadataSize, payloadSize, jalId, recType, resumeOffset);
+
+            js.reset(sysMetadataSize, is);
+            InputStream metadata = MetadataDecoder.decode(subsess.getXmlEncoding(), js, sysMetadataSize, maxDecodedBytes);
+            try {
+                final boolean delivered = deliver(sub, recInfo, RecordSink.Segment.SysMetadata, metadata, subscriber);
+                checkMetadataLimit(metadata);
+                if (!delivered) {
+                    throw new IOException("Error in notifySysMetadata");
                 }
-
-                @Override
-                public RecordType getRecordType() {
-                    return this.recordType;
+            } finally {
+                if (metadata != js) {
+                    metadata.close();
                 }
+            }
+            js.flush();
 
-                @Override
-                public long getPayloadLength() {
-                    return this.payloadLength;
+            js.reset(appMetadataSize, is);
+            metadata = MetadataDecoder.decode(subsess.getXmlEncoding(), js, appMetadataSize, maxDecodedBytes);
+            try {
+                final boolean delivered = deliver(sub, recInfo, RecordSink.Segment.AppMetadata, metadata, subscriber);
+                checkMetadataLimit(metadata);
+                if (!delivered) {
+                    throw new IOException("Error in notifyAppMetadata");
                 }
-
-                @Override
-                public long getAppMetaLength() {
-                    return this.appMetadataLength;
+            } finally {
+                if (metadata != js) {
+                    metadata.close();
                 }
-            };
-
-            js = new JalopHttpDataStream(sysMetadataSize, is);
-            if (!sub.notifySysMetadata(subsess, recInfo, js, subscriber)) {
-                throw new IOException("Error in notifySysMetadata");
             }
             js.flush();
 
-            js = new JalopHttpDataStream(appMetadataSize, is);
-            if (!sub.notifyAppMetadata(subsess, recInfo, js, subscriber)) {
-                throw new IOException("Error in notifyAppMetadata");
+            // The digest of the meta-data, which checkpoints of the payload
+            // build on.
+            byte[] metadataState = null;
+            if (performDigest && recType == RecordType.Journal && md instanceof ResumableDigest) {
+                metadataState = ((ResumableDigest) md).getState();
             }
-            js.flush();
 
             long payloadSizeToRead = payloadSize;
-            long journalResumeOffset = subsess.getJournalResumeOffset();
-            if(subsess.getJournalResumeOffset() > 0) {
+            if (recInfo.getOffset() > 0) {
 
-                //calculate already received payload before resuming
+                //calculate already received payload before resuming, from the
+                //checkpoint if there is a good one, otherwise by reading it
                 final InputStream resumeInputStream = subsess.getJournalResumeIS();
-                final byte[] buffer =  new byte[BUFFER_SIZE];
-                int bytesRead = 0;
-
-                while((bytesRead = resumeInputStream.read(buffer)) > -1) {
-
-                    if (performDigest == true)
-                    {
-                        md.update(buffer, 0, bytesRead);
+                subsess.setJournalResumeIS(null);
+                try {
+                    if (performDigest == true
+                            && !restoreCheckpoint(resumeCheckpoint, metadataState, recInfo.getOffset())) {
+                        readResumeInputStream(resumeInputStream);
+                    }
+                } finally {
+                    if (resumeInputStream != null) {
+                        resumeInputStream.close();
                     }
                 }
 
                 if(log.isDebugEnabled()) {
-                    log.debug("Updating payloadSize to account for the offset.");
+                    log.debug("Resuming " + jalId + " at offset " + recInfo.getOffset());
                 }
 
                 //NOTE, the old code performed this calculation, but it appears to result in a negative number causing a failure later, so removing for http implementation.
                 //  payloadSizeToRead -= subsess.getJournalResumeOffset();
             }
 
-            // only the first record is a journal resume, subsequent records are normal
-            //TODO - need to determine if this is correct, this is how the java code worked before, however this only handles resuming one record.
-            //if multiple recored resumes are required then this will not work.
-            subsess.setJournalResumeOffset(0);
-            subsess.setJournalResumeIS(null);
-
-            js = new JalopHttpDataStream(payloadSizeToRead, is);
-            if (!sub.notifyPayload(subsess, recInfo, js, subscriber)) {
+            recInfo.setMetadataState(metadataState);
+            js.reset(payloadSizeToRead, is);
+            if (!deliver(sub, recInfo, RecordSink.Segment.Payload, js, subscriber)) {
                 throw new IOException("Error in notifyPayload");
             }
             js.flush();
+            recInfo.setMetadataState(null);
 
             int remainingBytes = is.available();
             if (remainingBytes> 1)
@@ -193,6 +237,10 @@ public class SubscriberHttpANSHandler {
 
             payloadComplete = true;
 
+            if (sub instanceof RecordSink && !((RecordSink) sub).onRecordEnd(subsess, recInfo, subscriber)) {
+                throw new IOException("Error in onRecordEnd");
+            }
+
             //Only perform digest if enabled.
             String hexDgst = "";
             if (performDigest == true)
@@ -203,24 +251,18 @@ public class SubscriberHttpANSHandler {
                     throw new IOException("Error in notifyDigest");
                 }
 
-                for (byte b : digest)
-                {
-                    hexDgst = hexDgst + String.format("%02x",b);
-                }
+                hexDgst = toHex(digest);
             }
             subsess.addDigest(recInfo.getNonce(), hexDgst);
 
             return hexDgst;
-        } catch (final UnexpectedMimeValueException e) {
-            if (log.isErrorEnabled())
-            {
-                log.error(e.getMessage());
-            }
-            return null;
         } catch (final IOException e) {
             if (log.isErrorEnabled())
             {
-                log.error(e.getMessage());
+                // The subscriber may have turned a read limit failure into one of its own.
+                log.error(readLimitFailure != null ? "Abandoning " + jalId + ": " + readLimitFailure.getMessage()
+                        : metadataLimitFailure != null ? "Abandoning " + jalId + ": " + metadataLimitFailure.getMessage()
+                        : e.getMessage());
             }
             return null;
         } catch (final IncompleteRecordException e) {
@@ -232,18 +274,277 @@ public class SubscriberHttpANSHandler {
         }
         finally
         {
-            if (js != null)
-            {
-                try
-                {
-                    js.close();
-                }
-                catch (IOException ioe)
-                {
-                    log.error(ioe.getMessage(), ioe);
+            // Nothing of this record's stream may be used by the next one.
+            js.reset(0, null);
+            if (readTimeout != null) {
+                readTimeout.setTimeoutMillis(idleTimeoutMillis);
+            }
+        }
+    }
+
+    /**
+     * Set the timeout of the connection the next records arrive on, so a
+     * read that gets no data fails once a {@link ReadLimits} would be
+     * exceeded, rather than waiting for the idle timeout. The timeout is put
+     * back as it was after each record.
+     *
+     * @param readTimeout
+     *            The timeout, or null if it cannot be changed.
+     */
+    void setReadTimeout(final ReadTimeout readTimeout) {
+        this.readTimeout = readTimeout;
+        this.idleTimeoutMillis = readTimeout == null ? 0 : readTimeout.getTimeoutMillis();
+    }
+
+    /**
+     * @return The reason the last record was abandoned if it did not arrive
+     *         within the {@link ReadLimits} of the session, otherwise null.
+     */
+    ReadLimitExceededException getReadLimitFailure() {
+        return readLimitFailure;
+    }
+
+    /**
+     * @return The reason the last record was abandoned if its metadata
+     *         decoded to more than the session allows, otherwise null.
+     */
+    MetadataTooLargeException getMetadataLimitFailure() {
+        return metadataLimitFailure;
+    }
+
+    /**
+     * Fail the record if its decoded metadata went over the limit, even if
+     * the subscriber turned that into a failure of its own or ignored it.
+     */
+    private void checkMetadataLimit(final InputStream metadata) throws MetadataTooLargeException {
+        final MetadataTooLargeException failure = MetadataDecoder.getLimitFailure(metadata);
+        if (failure != null) {
+            metadataLimitFailure = failure;
+            throw failure;
+        }
+    }
+
+    private void readResumeInputStream(final InputStream resumeInputStream) throws IOException {
+        if (resumeInputStream == null) {
+            return;
+        }
+        final ByteBuffer pooled = BufferPool.getShared().acquire(BUFFER_SIZE);
+        try {
+            final byte[] buffer = pooled.array();
+            int bytesRead = 0;
+            while ((bytesRead = resumeInputStream.read(buffer)) > -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+        } finally {
+            BufferPool.getShared().release(pooled);
+        }
+    }
+
+    /**
+     * Carry on with the digest from a checkpoint saved with the partial
+     * record, instead of reading the payload already received. The
+     * checkpoint is only used if it was taken at <code>offset</code> on top
+     * of the same meta-data as this record has.
+     *
+     * @return true if the digest now covers the first <code>offset</code>
+     *         bytes of the payload; false if the checkpoint could not be used
+     *         and the digest is unchanged.
+     */
+    private boolean restoreCheckpoint(final byte[] checkpoint, final byte[] metadataState, final long offset) {
+        if (checkpoint == null || metadataState == null) {
+            return false;
+        }
+        final ResumableDigest digest = (ResumableDigest) md;
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(checkpoint);
+            if (in.get() != CHECKPOINT_VERSION) {
+                return false;
+            }
+            final byte[] checkpointMetadataState = readBytes(in);
+            final long checkpointOffset = in.getLong();
+            final byte[] payloadState = readBytes(in);
+            if (in.hasRemaining() || checkpointOffset != offset
+                    || !Arrays.equals(checkpointMetadataState, metadataState)) {
+                return false;
+            }
+
+            final long expectedCount = digest.getCount() + offset;
+            digest.setState(payloadState);
+            if (digest.getCount() != expectedCount) {
+                digest.setState(metadataState);
+                return false;
+            }
+        } catch (final BufferUnderflowException e) {
+            return false;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Resumed digest from checkpoint at offset " + offset);
+        }
+        return true;
+    }
+
+    private static byte[] readBytes(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad checkpoint");
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return Whether a read failed because it timed out. Jetty reports an
+     *         idle timeout as an {@link IOException} caused by a
+     *         {@link TimeoutException}; sockets throw an
+     *         {@link InterruptedIOException}.
+     */
+    private static boolean isTimeout(final IOException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String toHex(final byte[] digest) {
+        int i = 0;
+        for (final byte b : digest) {
+            hexDigest[i++] = HEX_DIGITS[(b >> 4) & 0xf];
+            hexDigest[i++] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(hexDigest, 0, i);
+    }
+
+    /**
+     * The {@link RecordInfo} handed to the {@link Subscriber}, updated for
+     * each record.
+     */
+    private final class HttpRecordInfo implements RecordInfo, DigestCheckpoint {
+        private long sysMetadataLength;
+        private long appMetadataLength;
+        private long payloadLength;
+        private String nonce;
+        private RecordType recordType;
+        private long offset;
+        private byte[] metadataState;
+
+        void set(final long sysMetadataLength, final long appMetadataLength, final long payloadLength,
+                final String nonce, final RecordType recordType, final long offset) {
+            this.metadataState = null;
+            this.sysMetadataLength = sysMetadataLength;
+            this.appMetadataLength = appMetadataLength;
+            this.payloadLength = payloadLength;
+            this.nonce = nonce;
+            this.recordType = recordType;
+            this.offset = offset;
+        }
+
+        @Override
+        public long getSysMetaLength() {
+            return this.sysMetadataLength;
+        }
+
+        @Override
+        public String getNonce() {
+            return this.nonce;
+        }
+
+        @Override
+        public long getOffset() {
+            return this.offset;
+        }
+
+        @Override
+        public RecordType getRecordType() {
+            return this.recordType;
+        }
+
+        @Override
+        public long getPayloadLength() {
+            return this.payloadLength;
+        }
+
+        @Override
+        public long getAppMetaLength() {
+            return this.appMetadataLength;
+        }
+
+        /**
+         * Checkpoints can be taken while the payload is read, once the state
+         * of the digest after the meta-data is set.
+         */
+        void setMetadataState(final byte[] metadataState) {
+            this.metadataState = metadataState;
+        }
+
+        /**
+         * The checkpoint is:
+         * <pre>
+         *   version, digest state after the meta-data, payload offset, digest state
+         * </pre>
+         * where the payload offset counts the payload from the start of the
+         * record, including any part received before a resume.
+         */
+        @Override
+        public byte[] getDigestCheckpoint() {
+            if (this.metadataState == null) {
+                return null;
+            }
+            final byte[] state = ((ResumableDigest) md).getState();
+            final ByteBuffer checkpoint = ByteBuffer.allocate(1 + 4 + this.metadataState.length + 8 + 4 + state.length);
+            checkpoint.put(CHECKPOINT_VERSION);
+            checkpoint.putInt(this.metadataState.length).put(this.metadataState);
+            checkpoint.putLong(this.offset + js.bytesRead);
+            checkpoint.putInt(state.length).put(state);
+            return checkpoint.array();
+        }
+    }
+
+    /**
+     * Hand one segment of a record to the subscriber, either as a stream or,
+     * if it is a {@link RecordSink}, in chunks.
+     *
+     * @return The result from the subscriber.
+     */
+    private boolean deliver(final Subscriber sub, final RecordInfo recInfo, final RecordSink.Segment segment,
+            final InputStream data, final Subscriber subscriber) throws IOException {
+        if (!(sub instanceof RecordSink)) {
+            switch (segment) {
+            case SysMetadata:
+                return sub.notifySysMetadata(subsess, recInfo, data, subscriber);
+            case AppMetadata:
+                return sub.notifyAppMetadata(subsess, recInfo, data, subscriber);
+            default:
+                return sub.notifyPayload(subsess, recInfo, data, subscriber);
+            }
+        }
+
+        final RecordSink sink = (RecordSink) sub;
+        if (!sink.onSegmentStart(subsess, recInfo, segment, subscriber)) {
+            return false;
+        }
+        final ByteBuffer chunk = BufferPool.getShared().acquire(BUFFER_SIZE);
+        try {
+            final byte[] buffer = chunk.array();
+            int cnt = data.read(buffer, 0, BUFFER_SIZE);
+            while (cnt != -1) {
+                if (cnt > 0) {
+                    chunk.clear();
+                    chunk.limit(cnt);
+                    if (!sink.onChunk(subsess, recInfo, segment, chunk, subscriber)) {
+                        return false;
+                    }
                 }
+                cnt = data.read(buffer, 0, BUFFER_SIZE);
             }
+        } finally {
+            BufferPool.getShared().release(chunk);
         }
+        return sink.onSegmentEnd(subsess, recInfo, segment, subscriber);
     }
 
     /*
@@ -254,40 +555,67 @@ public class SubscriberHttpANSHandler {
      */
     JalopHttpDataStream getJalopDataStreamInstance(final long size, final InputStream is)
             throws UnexpectedMimeValueException, IOException {
-        return new JalopHttpDataStream(size, is);
+        final JalopHttpDataStream stream = new JalopHttpDataStream();
+        stream.reset(size, is);
+        return stream;
     }
 
     private class JalopHttpDataStream extends InputStream {
         private boolean finishedReading;
         InputStream is;
 
-        private final long dataSize;
+        private long dataSize;
         private long bytesRead;
 
-        public JalopHttpDataStream(final long dataSize, final InputStream is) throws IOException,
-        UnexpectedMimeValueException {
-            this.finishedReading = false;
-            this.is = is;
+        /** When the section started, and how long was spent waiting on it. */
+        private long startNanos;
+        private long waitNanos;
 
-            this.bytesRead = 0;
+        /** The limit the timeout of the connection is shortened to, if any. */
+        private ReadLimits.Violation waitBound;
+
+        /**
+         * Start reading a new section of <code>dataSize</code> bytes from
+         * <code>is</code>.
+         */
+        void reset(final long dataSize, final InputStream is) {
             if (dataSize < 0) {
                 throw new IllegalArgumentException(
                         "dataSize must be 0 or greater");
             }
+            this.finishedReading = false;
+            this.is = is;
+            this.bytesRead = 0;
             this.dataSize = dataSize;
+            this.startNanos = readLimits.isEnabled() ? System.nanoTime() : 0;
+            this.waitNanos = 0;
+            this.waitBound = null;
         }
 
         @Override
         public int read() throws IOException {
+            if (readLimitFailure != null)
+                throw readLimitFailure;
             if (this.finishedReading == true)
                 return -1;
 
             int ret = 0;
             // only read if data is expected
             if (this.dataSize != 0) {
-                ret = this.is.read();
+                final long start = readLimits.isEnabled() ? startWait() : 0;
+                try {
+                    ret = this.is.read();
+                } catch (final IOException e) {
+                    if (readLimits.isEnabled()) {
+                        readFailed(start, e);
+                    }
+                    throw e;
+                }
                 if (ret == -1) {
-                    throw new IOException();
+                    throw new IOException("Could not read data of requested length");
+                }
+                if (readLimits.isEnabled()) {
+                    checkLimits(start);
                 }
 
                 if (performDigest == true)
@@ -299,15 +627,7 @@ public class SubscriberHttpANSHandler {
 
             if (this.bytesRead == this.dataSize) {
                 // we should be done. Try to read the BREAK string
-                final byte b[] = new byte[5];
-                this.is.read(b, 0, 5);
-                if (!Arrays.equals("BREAK".getBytes("utf-8"), b)) {
-                    payloadCorrect = false;
-                    throw new IOException("BREAK string is not where it is expected");
-                } else {
-                    payloadCorrect = true;
-                }
-                this.finishedReading = true;
+                readBreak();
             }
             return ret;
         }
@@ -319,6 +639,8 @@ public class SubscriberHttpANSHandler {
 
         @Override
         public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (readLimitFailure != null)
+                throw readLimitFailure;
             if (this.finishedReading == true)
                 return -1;
 
@@ -332,19 +654,28 @@ public class SubscriberHttpANSHandler {
                 new_len = (int) (this.dataSize - this.bytesRead);
             }
 
-            // Keep reading until requested amount is finished
+            // Keep reading until requested amount is finished. Each read
+            // blocks until there is data, so running out of data means the
+            // publisher sent less than it said it would.
+            final boolean limited = readLimits.isEnabled();
             while (bytesRead < new_len) {
-                int n = this.is.read(b, off + bytesRead, new_len - bytesRead);
-                if ( n > 0 ) {
-                    bytesRead += n;
-                    this.bytesRead += n;
-                } else if (this.is.available() <= 0) {
-                    // Shouldn't get to state where expecting more data
-                    // but no more data in the stream
+                final long start = limited ? startWait() : 0;
+                int n;
+                try {
+                    n = this.is.read(b, off + bytesRead, new_len - bytesRead);
+                } catch (final IOException e) {
+                    if (limited) {
+                        readFailed(start, e);
+                    }
+                    throw e;
+                }
+                if (n <= 0) {
                     throw new IOException("Could not read data of requested length");
-                } else {
-                    // continue waiting for bytes from InputStream
-                    log.error("InputStream return -1 on read from SubscriberHttpANSHandler");
+                }
+                bytesRead += n;
+                this.bytesRead += n;
+                if (limited) {
+                    checkLimits(start);
                 }
             }
 
@@ -354,17 +685,85 @@ public class SubscriberHttpANSHandler {
             }
             if (this.bytesRead == this.dataSize) {
                 // check for break string
-                final byte brk[] = new byte[5];
-                this.is.read(brk, 0, 5);
-                if (!Arrays.equals("BREAK".getBytes("utf-8"), brk)) {
+                readBreak();
+            }
+            return bytesRead;
+        }
+
+        /**
+         * Shorten the timeout of the connection to how long the next read
+         * may wait before the section breaks its {@link ReadLimits}, so a
+         * publisher that sends nothing is caught as well as one that sends
+         * too little.
+         *
+         * @return The time the read starts.
+         */
+        private long startWait() {
+            final long start = System.nanoTime();
+            if (readTimeout == null) {
+                return start;
+            }
+            long timeoutMillis = idleTimeoutMillis;
+            ReadLimits.Violation bound = null;
+            final long deadlineMillis = readLimits.deadlineLeftMillis(start - this.startNanos);
+            if (deadlineMillis > 0 && (timeoutMillis <= 0 || deadlineMillis < timeoutMillis)) {
+                timeoutMillis = deadlineMillis;
+                bound = ReadLimits.Violation.DEADLINE;
+            }
+            final long rateMillis = readLimits.rateLeftMillis(this.waitNanos, this.bytesRead);
+            if (rateMillis > 0 && (timeoutMillis <= 0 || rateMillis < timeoutMillis)) {
+                timeoutMillis = rateMillis;
+                bound = ReadLimits.Violation.THROUGHPUT;
+            }
+            readTimeout.setTimeoutMillis(timeoutMillis);
+            this.waitBound = bound;
+            return start;
+        }
+
+        /**
+         * Check the limits after a read that began at <code>start</code>
+         * failed. A read that timed out while the timeout was shortened to a
+         * limit broke that limit, even if the connection noticed a little
+         * early.
+         */
+        private void readFailed(final long start, final IOException e) throws ReadLimitExceededException {
+            if (this.waitBound != null && isTimeout(e)) {
+                readLimitFailure = readLimits.exceeded(this.waitBound);
+                throw readLimitFailure;
+            }
+            checkLimits(start);
+        }
+
+        /**
+         * Count the time spent in a read that began at <code>start</code> as
+         * waiting for the publisher, and check the section is still within
+         * its {@link ReadLimits}. Once it is not, every further read fails,
+         * whatever the subscriber does with the first failure.
+         */
+        private void checkLimits(final long start) throws ReadLimitExceededException {
+            final long now = System.nanoTime();
+            this.waitNanos += now - start;
+            try {
+                readLimits.check(now - this.startNanos, this.waitNanos, this.bytesRead);
+            } catch (final ReadLimitExceededException e) {
+                readLimitFailure = e;
+                throw e;
+            }
+        }
+
+        /**
+         * Read the BREAK string that must follow the data, a byte at a time
+         * so nothing past it is consumed.
+         */
+        private void readBreak() throws IOException {
+            for (final byte expected : BREAK) {
+                if (this.is.read() != expected) {
                     payloadCorrect = false;
                     throw new IOException("BREAK string is not where it is expected");
-                } else {
-                    payloadCorrect = true;
                 }
-                this.finishedReading = true;
             }
-            return bytesRead;
+            payloadCorrect = true;
+            this.finishedReading = true;
         }
 
         public void flush() throws IOException {
@@ -0,0 +1,118 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Opens Unix domain socket channels. They were added to the JDK in 16, and
+ * the library is built for 8, so they are reached by reflection; on an
+ * older JDK {@link #isSupported()} is false.
+ */
+public final class UnixDomainSockets {
+
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF;
+    private static final Method OPEN_SERVER;
+    private static final Method OPEN_CLIENT;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null;
+        Method openServer = null;
+        Method openClient = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openClient = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (final IllegalArgumentException e) {
+            unix = null;
+        } catch (final ReflectiveOperationException e) {
+            unix = null;
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER = openServer;
+        OPEN_CLIENT = openClient;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * @return Whether the JDK supports Unix domain sockets.
+     */
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * @return The address of the socket at <code>path</code>.
+     */
+    public static SocketAddress address(final File path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, null, path.toPath());
+    }
+
+    /**
+     * Open a server channel bound to a socket at <code>path</code>. A
+     * socket left at <code>path</code> by an earlier run is replaced; any
+     * other file there is left alone, and the bind fails.
+     *
+     * @param path
+     *            Where to create the socket.
+     * @param backlog
+     *            The most connections waiting to be accepted, or 0 for the
+     *            default.
+     */
+    public static ServerSocketChannel openServerChannel(final File path, final int backlog) throws IOException {
+        if (path.exists() && !path.isFile() && !path.isDirectory()) {
+            path.delete();
+        }
+        final ServerSocketChannel channel = (ServerSocketChannel) invoke(OPEN_SERVER, null, UNIX);
+        try {
+            channel.bind(address(path), backlog);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Open a channel connected to the socket at <code>path</code>.
+     */
+    public static SocketChannel openChannel(final File path) throws IOException {
+        final SocketChannel channel = (SocketChannel) invoke(OPEN_CLIENT, null, UNIX);
+        try {
+            channel.connect(address(path));
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object arg) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later");
+        }
+        try {
+            return method.invoke(target, arg);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
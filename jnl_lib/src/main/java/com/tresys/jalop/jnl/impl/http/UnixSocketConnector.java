@@ -0,0 +1,242 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * A connector that accepts plain HTTP on a Unix domain socket, for
+ * publishers on the same host, so their records skip TCP and TLS.
+ *
+ * Publishers connecting through it are not authenticated with TLS client
+ * certificates, whatever the TLS settings of the subscriber: anyone the
+ * permissions of the socket let open it can publish. By default only its
+ * owner can; use {@link #setPermissions(Set)} and {@link #setGroup(String)}
+ * to let a group of publishers in, e.g. with <code>rw-rw----</code>. The
+ * socket is bound in a new directory only the owner can enter, given its
+ * permissions there, and then renamed into place, so it is never reachable
+ * with the default ones.
+ *
+ * Needs Java 16 or later, see {@link UnixDomainSockets}.
+ */
+public class UnixSocketConnector extends ServerConnector {
+
+    /** The permissions of the socket unless set otherwise. */
+    public static final String DEFAULT_PERMISSIONS = "rw-------";
+
+    private final File path;
+    private Set<PosixFilePermission> permissions = PosixFilePermissions.fromString(DEFAULT_PERMISSIONS);
+    private String group;
+    private volatile ServerSocketChannel acceptChannel;
+
+    /**
+     * Create a {@link UnixSocketConnector}.
+     *
+     * @param server
+     *            The server.
+     * @param path
+     *            Where to create the socket.
+     * @param factories
+     *            The connection factories.
+     */
+    public UnixSocketConnector(final Server server, final File path, final ConnectionFactory... factories) {
+        super(server, 1, -1, factories);
+        if (path == null) {
+            throw new IllegalArgumentException("'path' is required.");
+        }
+        if (!UnixDomainSockets.isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later");
+        }
+        this.path = path;
+    }
+
+    public File getPath() {
+        return this.path;
+    }
+
+    public Set<PosixFilePermission> getPermissions() {
+        return this.permissions;
+    }
+
+    /**
+     * @param permissions
+     *            The permissions the socket is created with. Publishers need
+     *            write permission to connect.
+     */
+    public void setPermissions(final Set<PosixFilePermission> permissions) {
+        if (permissions == null) {
+            throw new IllegalArgumentException("'permissions' is required.");
+        }
+        this.permissions = permissions;
+    }
+
+    public String getGroup() {
+        return this.group;
+    }
+
+    /**
+     * @param group
+     *            The group the socket is created with, or null for the
+     *            default group of the process.
+     */
+    public void setGroup(final String group) {
+        this.group = group;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (this.acceptChannel == null) {
+            final ServerSocketChannel channel = bind();
+            channel.configureBlocking(true);
+            this.acceptChannel = channel;
+            addBean(channel);
+        }
+    }
+
+    /**
+     * Bind the socket in a private directory next to {@link #getPath()},
+     * give it its permissions and group, and rename it into place. A socket
+     * left at the path by an earlier run is replaced; any other file there
+     * is left alone, and this fails.
+     */
+    private ServerSocketChannel bind() throws IOException {
+        final Path target = this.path.getAbsoluteFile().toPath();
+        final Path staging;
+        try {
+            staging = Files.createTempDirectory(target.getParent(), ".jnl",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (final UnsupportedOperationException e) {
+            // Not a POSIX file system; the socket gets its default permissions.
+            return UnixDomainSockets.openServerChannel(this.path, getAcceptQueueSize());
+        }
+        final Path staged = staging.resolve("s");
+        ServerSocketChannel channel = UnixDomainSockets.openServerChannel(staged.toFile(), getAcceptQueueSize());
+        try {
+            Files.setPosixFilePermissions(staged, this.permissions);
+            if (this.group != null) {
+                final GroupPrincipal principal = staged.getFileSystem().getUserPrincipalLookupService()
+                        .lookupPrincipalByGroupName(this.group);
+                Files.getFileAttributeView(staged, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                        .setGroup(principal);
+            }
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && !Files.readAttributes(target,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                throw new FileAlreadyExistsException(target.toString(), null, "Not a socket");
+            }
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+            final ServerSocketChannel bound = channel;
+            channel = null;
+            return bound;
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(staged);
+            Files.delete(staging);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        final ServerSocketChannel channel = this.acceptChannel;
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        final ServerSocketChannel channel = this.acceptChannel;
+        this.acceptChannel = null;
+        if (channel != null) {
+            removeBean(channel);
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                // Closing anyway.
+            }
+            this.path.delete();
+        }
+        super.close();
+    }
+
+    @Override
+    public void accept(final int acceptorID) throws IOException {
+        final ServerSocketChannel channel = this.acceptChannel;
+        if (channel != null && channel.isOpen()) {
+            final SocketChannel accepted = channel.accept();
+            accepted.configureBlocking(false);
+            getSelectorManager().accept(accepted);
+        }
+    }
+
+    @Override
+    public Object getTransport() {
+        return this.acceptChannel;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x{%s}{%s}", getClass().getSimpleName(), hashCode(), getDefaultProtocol(), this.path);
+    }
+
+    @Override
+    protected ChannelEndPoint newEndPoint(final SocketChannel channel, final ManagedSelector selectSet,
+            final SelectionKey key) throws IOException {
+        final UnixSocketEndPoint endPoint = new UnixSocketEndPoint(channel, selectSet, key, getScheduler());
+        endPoint.setIdleTimeout(getIdleTimeout());
+        return endPoint;
+    }
+
+    /**
+     * An end point without the TCP socket a {@link ChannelEndPoint} for a
+     * network connection would have.
+     */
+    private static final class UnixSocketEndPoint extends ChannelEndPoint {
+        private final SocketChannel channel;
+
+        UnixSocketEndPoint(final SocketChannel channel, final ManagedSelector selector, final SelectionKey key,
+                final Scheduler scheduler) {
+            super(channel, selector, key, scheduler);
+            this.channel = channel;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        protected void doShutdownOutput() {
+            try {
+                this.channel.shutdownOutput();
+            } catch (final IOException e) {
+                // The connection is closing anyway.
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.Subscriber;
+
+/**
+ * A running subscriber, from {@link JNLWebServer#startServer(Subscriber)}.
+ *
+ * {@link #stop(long)} shuts it down gracefully. New sessions and records are
+ * turned away with 503 (Service Unavailable) and a Retry-After, so
+ * publishers come back once it is running again, while records already
+ * being received get until the deadline to finish. Records still being
+ * received then are cut off, and their publishers resume them from the
+ * partial records and digest checkpoints saved for them. Last, the
+ * recently confirmed JAL-Ids are closed and the subscriber, if it is
+ * {@link Flushable}, is flushed.
+ */
+public final class WebServerHandle {
+
+    /** How long, in milliseconds, records cut off get to save their partial state. */
+    private static final long CUT_OFF_GRACE_MILLIS = 5000;
+
+    private final Server server;
+    private final HttpUtils httpUtils;
+    private final Subscriber subscriber;
+    private final JNLLog logger;
+
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean drained;
+
+    WebServerHandle(final Server server, final HttpUtils httpUtils, final Subscriber subscriber,
+            final JNLLog logger) {
+        this.server = server;
+        this.httpUtils = httpUtils;
+        this.subscriber = subscriber;
+        this.logger = logger;
+    }
+
+    /**
+     * @return The port the subscriber listens on, or -1 if it only listens
+     *         on a Unix domain socket.
+     */
+    public int getPort() {
+        for (final Connector connector : this.server.getConnectors()) {
+            if (connector instanceof ServerConnector && !(connector instanceof UnixSocketConnector)) {
+                return ((ServerConnector) connector).getLocalPort();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether the subscriber is running and accepting new sessions.
+     */
+    public boolean isRunning() {
+        return this.server.isRunning() && !this.stopping.get();
+    }
+
+    /**
+     * @return The number of messages being handled now.
+     */
+    public int getMessagesInProgress() {
+        return this.httpUtils.getMessagesInProgress();
+    }
+
+    /**
+     * Shut the subscriber down gracefully. Only the first call does so;
+     * others wait for it to finish.
+     *
+     * @param drainMillis
+     *            How long, in milliseconds, records already being received
+     *            get to finish.
+     * @return Whether every record being received finished in time.
+     * @throws Exception
+     *             If the server could not be stopped.
+     */
+    public boolean stop(final long drainMillis) throws Exception {
+        if (drainMillis < 0) {
+            throw new IllegalArgumentException("'drainMillis' must not be negative.");
+        }
+        if (!this.stopping.compareAndSet(false, true)) {
+            this.stopped.await();
+            return this.drained;
+        }
+
+        try {
+            this.logger.info("Shutting down, waiting up to " + drainMillis + " ms for "
+                    + this.httpUtils.getMessagesInProgress() + " messages in progress");
+            this.httpUtils.setDraining(true);
+            this.drained = this.httpUtils.awaitRecordsDone(
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis));
+            if (!this.drained) {
+                this.logger.warn(this.httpUtils.getMessagesInProgress() + " messages in progress and "
+                        + this.httpUtils.getRecordsAwaitingDigestResponse()
+                        + " records awaiting a digest response after " + drainMillis + " ms are cut off");
+            }
+
+            this.server.stop();
+
+            //Records cut off save their partial state on their own threads
+            if (!this.httpUtils.awaitNoMessagesInProgress(
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CUT_OFF_GRACE_MILLIS))) {
+                this.logger.error(this.httpUtils.getMessagesInProgress()
+                        + " messages did not finish after the server stopped");
+            }
+
+            flush();
+            this.logger.info("Shut down");
+            return this.drained;
+        } finally {
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * Wait for the subscriber to stop, and, if {@link #stop(long)} was
+     * called, for it to finish.
+     */
+    public void join() throws InterruptedException {
+        this.server.join();
+        if (this.stopping.get()) {
+            this.stopped.await();
+        }
+    }
+
+    private void flush() {
+        this.httpUtils.closeRecentJalIds();
+        if (this.subscriber instanceof Flushable) {
+            try {
+                ((Flushable) this.subscriber).flush();
+            } catch (final IOException e) {
+                this.logger.error("Failed to flush the subscriber: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.exceptions.JNLPublishException;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+
+/**
+ * Sends JAL records to a JALoP/HTTP subscriber.
+ *
+ * One {@link HttpPublisher} is meant to be shared by everything sending to
+ * the same subscriber. It holds a pool of keep-alive connections, sized by
+ * {@link HttpPublisherConfig#getMaxConnections()}, that every
+ * {@link PublisherSession} it creates sends over, and the threads that
+ * {@link PublisherSession#sendAsync(PublishRecord)} uses to keep that many
+ * records in flight at once.
+ */
+public class HttpPublisher implements Closeable {
+
+    private final HttpPublisherConfig config;
+    private final JNLLog log;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ExecutorService executor;
+
+    /**
+     * Create an {@link HttpPublisher}.
+     *
+     * @param config
+     *            The {@link HttpPublisherConfig}; it must not be changed
+     *            afterwards.
+     */
+    public HttpPublisher(final HttpPublisherConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("'config' is required.");
+        }
+        if (config.getUri() == null || config.getUri().trim().isEmpty()) {
+            throw new IllegalArgumentException("'uri' is required.");
+        }
+        if (!HttpUtils.validatePublisherId(config.getPublisherId(), new ArrayList<String>())) {
+            throw new IllegalArgumentException("'publisherId' must be a UUID.");
+        }
+        if (config.getMode() != Mode.Live && config.getMode() != Mode.Archive) {
+            throw new IllegalArgumentException("'mode' must be live or archive.");
+        }
+        if (config.getMaxConnections() <= 0) {
+            throw new IllegalArgumentException("'maxConnections' must be a positive, non-zero value.");
+        }
+        if (config.getBufferSize() <= 0) {
+            throw new IllegalArgumentException("'bufferSize' must be a positive, non-zero value.");
+        }
+
+        this.config = config;
+
+        //Sets logger
+        if (config.getLogger() == null)
+        {
+            this.log = new JNLLogger(Logger.getLogger(HttpPublisher.class));
+        }
+        else
+        {
+            this.log = config.getLogger();
+        }
+
+        final Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", config.getSslContext() == null
+                        ? SSLConnectionSocketFactory.getSocketFactory()
+                        : new SSLConnectionSocketFactory(config.getSslContext()))
+                .build();
+        this.connectionManager = new PoolingHttpClientConnectionManager(registry);
+        this.connectionManager.setMaxTotal(config.getMaxConnections());
+        this.connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMillis())
+                .setConnectionRequestTimeout(config.getConnectTimeoutMillis())
+                .setSocketTimeout(config.getSocketTimeoutMillis())
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // Records are not idempotent; resending is the caller's call.
+                .disableAutomaticRetries()
+                .build();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.getMaxConnections(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "jnl-publisher-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public HttpPublisherConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * Open a session to send records of one type.
+     *
+     * If the subscriber has part of a journal record from an earlier
+     * session, the returned session says so with
+     * {@link PublisherSession#getResumeJalId()}. Sending that record again
+     * then sends only the part the subscriber does not have.
+     *
+     * @param recordType
+     *            The type of record to send.
+     * @return The session, once the subscriber has sent initialize-ack.
+     * @throws JNLPublishException
+     *             If the subscriber sent initialize-nack.
+     * @throws IOException
+     *             If the subscriber could not be reached, or an
+     *             {@link HttpStatusException} if it turned the session away.
+     */
+    public PublisherSession initialize(final RecordType recordType) throws IOException, JNLPublishException {
+        if (recordType == null || recordType == RecordType.Unset) {
+            throw new IllegalArgumentException("'recordType' must be journal, audit or log.");
+        }
+
+        final HttpPost post = newPost(recordType);
+        post.setHeader(HttpUtils.HDRS_MESSAGE, HttpUtils.MSG_INIT);
+        post.setHeader(HttpUtils.HDRS_PUBLISHER_ID, this.config.getPublisherId());
+        post.setHeader(HttpUtils.HDRS_MODE, this.config.getMode() == Mode.Archive ? HttpUtils.MSG_ARCHIVE : HttpUtils.MSG_LIVE);
+        post.setHeader(HttpUtils.HDRS_ACCEPT_DIGEST, join(this.config.getDigestAlgorithms()));
+        post.setHeader(HttpUtils.HDRS_ACCEPT_XML_COMPRESSION, join(this.config.getXmlCompressions()));
+        post.setHeader(HttpUtils.HDRS_RECORD_TYPE, recordType.toString().toLowerCase());
+        post.setHeader(HttpUtils.HDRS_VERSION, HttpUtils.SUPPORTED_VERSIONS[0]);
+        post.setHeader(HttpUtils.HDRS_ACCEPT_CONFIGURE_DIGEST_CHALLENGE,
+                this.config.getPerformDigest() ? HttpUtils.MSG_ON : HttpUtils.MSG_OFF);
+
+        final TreeMap<String, String> headers = execute(post);
+        final String message = headers.get(HttpUtils.HDRS_MESSAGE);
+        if (!HttpUtils.MSG_INIT_ACK.equalsIgnoreCase(message)) {
+            throw PublisherSession.failure("Initialize failed with '" + message + "'", null, headers);
+        }
+
+        final String sessionId = HttpUtils.checkForEmptyString(headers.get(HttpUtils.HDRS_SESSION_ID));
+        if (sessionId == null) {
+            throw PublisherSession.failure("Initialize-ack has no session ID", null, headers);
+        }
+
+        String resumeJalId = null;
+        long resumeOffset = 0;
+        final String offsetStr = headers.get(HttpUtils.HDRS_JOURNAL_OFFSET);
+        if (recordType == RecordType.Journal && offsetStr != null) {
+            try {
+                resumeOffset = Long.parseLong(offsetStr.trim());
+            } catch (final NumberFormatException e) {
+                throw PublisherSession.failure("Initialize-ack has an invalid journal offset", null, headers);
+            }
+            resumeJalId = HttpUtils.checkForEmptyString(headers.get(HttpUtils.HDRS_NONCE));
+            if (resumeOffset < 0 || resumeJalId == null) {
+                throw PublisherSession.failure("Initialize-ack has an invalid journal resume", null, headers);
+            }
+        }
+
+        final String configureDigest = headers.get(HttpUtils.HDRS_CONFIGURE_DIGEST_CHALLENGE);
+        final boolean performDigest = configureDigest == null
+                ? this.config.getPerformDigest() : HttpUtils.MSG_ON.equalsIgnoreCase(configureDigest.trim());
+
+        String digestMethod = headers.get(HttpUtils.HDRS_DIGEST);
+        if (digestMethod == null) {
+            digestMethod = this.config.getDigestAlgorithms().get(0);
+        }
+
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Session " + sessionId + " opened for " + recordType
+                    + (resumeJalId == null ? "" : ", resuming " + resumeJalId + " at " + resumeOffset));
+        }
+
+        return new PublisherSession(this, recordType, sessionId, digestMethod.trim(), performDigest,
+                headers.get(HttpUtils.HDRS_XML_COMPRESSION), resumeJalId, resumeOffset);
+    }
+
+    /**
+     * Stop the threads and close every connection. Sessions created by this
+     * publisher cannot be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(this.config.getSocketTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.client.close();
+    }
+
+    HttpPost newPost(final RecordType recordType) {
+        final String endpoint;
+        switch (recordType) {
+        case Journal:
+            endpoint = HttpUtils.JOURNAL_ENDPOINT;
+            break;
+        case Audit:
+            endpoint = HttpUtils.AUDIT_ENDPOINT;
+            break;
+        default:
+            endpoint = HttpUtils.LOG_ENDPOINT;
+            break;
+        }
+        String uri = this.config.getUri().trim();
+        if (uri.endsWith("/")) {
+            uri = uri.substring(0, uri.length() - 1);
+        }
+        final HttpPost post = new HttpPost(uri + endpoint);
+        post.setHeader(HttpUtils.HDRS_CONTENT_TYPE, HttpUtils.DEFAULT_CONTENT_TYPE);
+        return post;
+    }
+
+    /**
+     * Send a message and read the JALoP headers of the reply. The connection
+     * goes back to the pool before this returns.
+     *
+     * @throws HttpStatusException
+     *             If the reply was not 200 (OK).
+     */
+    TreeMap<String, String> execute(final HttpPost post) throws IOException {
+        final CloseableHttpResponse response = this.client.execute(post);
+        try {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                final Header retryAfter = response.getFirstHeader(HttpUtils.HDRS_RETRY_AFTER);
+                throw new HttpStatusException(status, HttpStatusException.parseRetryAfter(
+                        retryAfter == null ? null : retryAfter.getValue(), System.currentTimeMillis()));
+            }
+            final TreeMap<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (final Header header : response.getAllHeaders()) {
+                headers.put(header.getName(), header.getValue());
+            }
+            return headers;
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+        }
+    }
+
+    ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    JNLLog getLogger() {
+        return this.log;
+    }
+
+    private static String join(final List<String> values) {
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("At least one value must be offered.");
+        }
+        return String.join(",", values);
+    }
+}
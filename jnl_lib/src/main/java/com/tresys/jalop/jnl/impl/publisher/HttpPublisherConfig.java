@@ -0,0 +1,140 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+import com.tresys.jalop.jnl.DigestAlgorithms;
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+
+public class HttpPublisherConfig {
+
+    /** Default number of connections kept open to the subscriber. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /** Default size, in bytes, of the buffer used to stream each record. */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** Default time, in milliseconds, to wait for a connection or a response. */
+    public static final int DEFAULT_TIMEOUT_MILLIS = 60 * 1000;
+
+    private String uri;
+    private String publisherId;
+    private Mode mode = Mode.Live;
+    private List<String> digestAlgorithms = new ArrayList<String>();
+    private List<String> xmlCompressions = new ArrayList<String>();
+    private boolean performDigest = true;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int connectTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int socketTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private SSLContext sslContext;
+    private JNLLog logger;
+
+    public HttpPublisherConfig() {
+        this.digestAlgorithms.add(DigestAlgorithms.JJNL_DEFAULT_ALGORITHM.toUri());
+        this.xmlCompressions.add(HttpUtils.XML_COMPRESSION_NONE);
+    }
+
+    /**
+     * @return The address of the subscriber, for example
+     *         <code>https://collector:1234</code>. The endpoint of each
+     *         record type is appended to it.
+     */
+    public String getUri() {
+        return uri;
+    }
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+    public String getPublisherId() {
+        return publisherId;
+    }
+    public void setPublisherId(String publisherId) {
+        this.publisherId = publisherId;
+    }
+    public Mode getMode() {
+        return mode;
+    }
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+    /**
+     * @return The digest algorithm URIs offered on initialize, in order of
+     *         preference.
+     */
+    public List<String> getDigestAlgorithms() {
+        return digestAlgorithms;
+    }
+    public void setDigestAlgorithms(List<String> digestAlgorithms) {
+        this.digestAlgorithms = digestAlgorithms;
+    }
+    /**
+     * @return The XML compressions offered on initialize, in order of
+     *         preference. Meta-data is sent as given to the library, so the
+     *         application must encode it with the compression the
+     *         subscriber selects.
+     */
+    public List<String> getXmlCompressions() {
+        return xmlCompressions;
+    }
+    public void setXmlCompressions(List<String> xmlCompressions) {
+        this.xmlCompressions = xmlCompressions;
+    }
+    /**
+     * @return Whether to ask for digest challenges on each record.
+     */
+    public boolean getPerformDigest() {
+        return performDigest;
+    }
+    public void setPerformDigest(boolean performDigest) {
+        this.performDigest = performDigest;
+    }
+    /**
+     * @return The most connections to hold open to the subscriber, which is
+     *         also the most records that can be in flight at once.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+    /**
+     * @return The context to make TLS connections with, or null to use the
+     *         default one.
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+    public JNLLog getLogger() {
+        return logger;
+    }
+    public void setLogger(JNLLog logger) {
+        this.logger = logger;
+    }
+}
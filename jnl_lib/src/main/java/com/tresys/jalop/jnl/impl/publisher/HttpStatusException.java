@@ -0,0 +1,81 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * The subscriber replied to a message with an HTTP status other than 200
+ * (OK), such as 503 (Service Unavailable) while it is overloaded or
+ * shutting down, or 429 (Too Many Requests) while a publisher is over its
+ * rate limit. Nothing in the message was accepted, so it may be sent again,
+ * no sooner than {@link #getRetryAfterSeconds()} when the subscriber said.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterSeconds;
+
+    /**
+     * Create an {@link HttpStatusException}.
+     *
+     * @param statusCode
+     *            The HTTP status the subscriber replied with.
+     * @param retryAfterSeconds
+     *            How many seconds the subscriber asked to wait before
+     *            trying again, or -1 if it did not say.
+     */
+    public HttpStatusException(final int statusCode, final long retryAfterSeconds) {
+        super("Subscriber replied with HTTP status " + statusCode
+                + (retryAfterSeconds < 0 ? "" : ", retry after " + retryAfterSeconds + "s"));
+        this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return The HTTP status the subscriber replied with.
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * @return How many seconds the subscriber asked to wait before trying
+     *         again, or -1 if the reply had no usable Retry-After.
+     */
+    public long getRetryAfterSeconds() {
+        return this.retryAfterSeconds;
+    }
+
+    /**
+     * Parse a Retry-After header, which holds either a number of seconds or
+     * an HTTP date.
+     *
+     * @param value
+     *            The header value, or null.
+     * @param now
+     *            The current time, in milliseconds, for an HTTP date.
+     * @return The number of seconds to wait, or -1 if <code>value</code> is
+     *         missing or not understood.
+     */
+    static long parseRetryAfter(final String value, final long now) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        final String trimmed = value.trim();
+        try {
+            final long seconds = Long.parseLong(trimmed);
+            return seconds < 0 ? -1 : seconds;
+        } catch (final NumberFormatException e) {
+            // Not a number of seconds, try a date.
+        }
+        final Date date = DateUtils.parseDate(trimmed);
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0, (date.getTime() - now + 999) / 1000);
+    }
+}
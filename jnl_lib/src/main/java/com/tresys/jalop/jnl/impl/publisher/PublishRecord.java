@@ -0,0 +1,225 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A JAL record to send with {@link PublisherSession#send(PublishRecord)}.
+ *
+ * The meta-data is held in memory, since it is small. The payload is read
+ * only while the record is sent, from a file or from a channel, so records
+ * of any size can be published without holding them in memory.
+ */
+public final class PublishRecord {
+
+    private final String jalId;
+    private final byte[] sysMetadata;
+    private final byte[] appMetadata;
+    private final byte[] payloadBytes;
+    private final File payloadFile;
+    private final ReadableByteChannel payloadChannel;
+    private final long payloadLength;
+
+    private PublishRecord(final String jalId, final byte[] sysMetadata, final byte[] appMetadata,
+            final byte[] payloadBytes, final File payloadFile, final ReadableByteChannel payloadChannel,
+            final long payloadLength) {
+        if (jalId == null || jalId.trim().isEmpty()) {
+            throw new IllegalArgumentException("'jalId' is required.");
+        }
+        if (sysMetadata == null || sysMetadata.length == 0) {
+            throw new IllegalArgumentException("'sysMetadata' is required.");
+        }
+        if (payloadLength < 0) {
+            throw new IllegalArgumentException("'payloadLength' must be 0 or greater.");
+        }
+        this.jalId = jalId;
+        this.sysMetadata = sysMetadata;
+        this.appMetadata = appMetadata == null ? new byte[0] : appMetadata;
+        this.payloadBytes = payloadBytes;
+        this.payloadFile = payloadFile;
+        this.payloadChannel = payloadChannel;
+        this.payloadLength = payloadLength;
+    }
+
+    /**
+     * Create a record whose payload is held in memory.
+     */
+    public PublishRecord(final String jalId, final byte[] sysMetadata, final byte[] appMetadata,
+            final byte[] payload) {
+        this(jalId, sysMetadata, appMetadata, payload == null ? new byte[0] : payload, null, null,
+                payload == null ? 0 : payload.length);
+    }
+
+    /**
+     * Create a record whose payload is the contents of a file. The file is
+     * opened each time the record is sent, so the record can be sent again.
+     */
+    public PublishRecord(final String jalId, final byte[] sysMetadata, final byte[] appMetadata,
+            final File payload) {
+        this(jalId, sysMetadata, appMetadata, null, checkFile(payload), null, payload.length());
+    }
+
+    /**
+     * Create a record whose payload is read from a channel. The channel is
+     * read once, and is not closed by the library. If it is a
+     * {@link SeekableByteChannel}, a resumed journal skips the data the
+     * subscriber already has rather than reading through it, when digests
+     * are off.
+     *
+     * @param payloadLength
+     *            The number of bytes to read from <code>payload</code>.
+     */
+    public PublishRecord(final String jalId, final byte[] sysMetadata, final byte[] appMetadata,
+            final ReadableByteChannel payload, final long payloadLength) {
+        this(jalId, sysMetadata, appMetadata, null, null, checkChannel(payload), payloadLength);
+    }
+
+    private static File checkFile(final File payload) {
+        if (payload == null || !payload.isFile()) {
+            throw new IllegalArgumentException("'payload' must be an existing file.");
+        }
+        return payload;
+    }
+
+    private static ReadableByteChannel checkChannel(final ReadableByteChannel payload) {
+        if (payload == null) {
+            throw new IllegalArgumentException("'payload' is required.");
+        }
+        return payload;
+    }
+
+    public String getJalId() {
+        return this.jalId;
+    }
+
+    public byte[] getSysMetadata() {
+        return this.sysMetadata;
+    }
+
+    public byte[] getAppMetadata() {
+        return this.appMetadata;
+    }
+
+    public long getPayloadLength() {
+        return this.payloadLength;
+    }
+
+    /**
+     * @return Whether the record can be sent more than once.
+     */
+    boolean isRepeatable() {
+        return this.payloadChannel == null;
+    }
+
+    /**
+     * Open the payload for reading. Closing the channel returned for a
+     * record built from a channel leaves that channel open.
+     */
+    ReadableByteChannel openPayload() throws IOException {
+        if (this.payloadFile != null) {
+            return new FileInputStream(this.payloadFile).getChannel();
+        }
+        if (this.payloadChannel != null) {
+            return new UnclosedChannel(this.payloadChannel);
+        }
+        return new ByteArrayChannel(this.payloadBytes);
+    }
+
+    /** A channel over an array, so every payload is read the same way. */
+    private static final class ByteArrayChannel implements SeekableByteChannel {
+        private final byte[] data;
+        private int position = 0;
+        private boolean open = true;
+
+        ByteArrayChannel(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (this.position >= this.data.length) {
+                return -1;
+            }
+            final int count = Math.min(dst.remaining(), this.data.length - this.position);
+            dst.put(this.data, this.position, count);
+            this.position += count;
+            return count;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            return this.position;
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) {
+            this.position = (int) Math.min(newPosition, this.data.length);
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return this.data.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() {
+            this.open = false;
+        }
+    }
+
+    /** Leaves the application's channel open when the library is done. */
+    private static final class UnclosedChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+
+        UnclosedChannel(final ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        ReadableByteChannel getChannel() {
+            return this.channel;
+        }
+    }
+
+    /**
+     * @return The channel to seek, when <code>channel</code> can be.
+     */
+    static SeekableByteChannel seekable(final ReadableByteChannel channel) {
+        final ReadableByteChannel inner = channel instanceof UnclosedChannel
+                ? ((UnclosedChannel) channel).getChannel() : channel;
+        return inner instanceof SeekableByteChannel ? (SeekableByteChannel) inner : null;
+    }
+}
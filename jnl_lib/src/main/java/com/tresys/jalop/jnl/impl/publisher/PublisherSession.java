@@ -0,0 +1,311 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.methods.HttpPost;
+
+import com.tresys.jalop.jnl.DigestAlgorithms;
+import com.tresys.jalop.jnl.DigestStatus;
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.exceptions.JNLPublishException;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+
+/**
+ * A session opened with {@link HttpPublisher#initialize(RecordType)}, used
+ * to send records of one type to the subscriber.
+ *
+ * Sending a record posts its body, checks the digest the subscriber sends
+ * back in its digest-challenge against the one worked out while the body
+ * was sent, answers with a digest-response, and returns once the
+ * subscriber has sent sync. Records may be sent from any number of
+ * threads, or with {@link #sendAsync(PublishRecord)}, and each is sent on
+ * its own pooled connection.
+ */
+public class PublisherSession {
+
+    private final HttpPublisher publisher;
+    private final RecordType recordType;
+    private final String sessionId;
+    private final String digestMethod;
+    private final String digestName;
+    private final boolean performDigest;
+    private final String xmlCompression;
+    private final JNLLog log;
+
+    private String resumeJalId;
+    private long resumeOffset;
+
+    PublisherSession(final HttpPublisher publisher, final RecordType recordType, final String sessionId,
+            final String digestMethod, final boolean performDigest, final String xmlCompression,
+            final String resumeJalId, final long resumeOffset) throws JNLPublishException {
+        this.publisher = publisher;
+        this.recordType = recordType;
+        this.sessionId = sessionId;
+        this.digestMethod = digestMethod;
+        this.digestName = getDigestType(digestMethod);
+        if (performDigest && this.digestName == null) {
+            throw new JNLPublishException("Unsupported digest method: " + digestMethod);
+        }
+        this.performDigest = performDigest;
+        this.xmlCompression = xmlCompression == null ? HttpUtils.XML_COMPRESSION_NONE : xmlCompression;
+        this.resumeJalId = resumeJalId;
+        this.resumeOffset = resumeOffset;
+        this.log = publisher.getLogger();
+    }
+
+    public RecordType getRecordType() {
+        return this.recordType;
+    }
+
+    public String getSessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * @return The URI of the digest algorithm the subscriber selected.
+     */
+    public String getDigestMethod() {
+        return this.digestMethod;
+    }
+
+    public boolean getPerformDigest() {
+        return this.performDigest;
+    }
+
+    /**
+     * @return The XML compression the subscriber selected, which meta-data
+     *         must be encoded with.
+     */
+    public String getXmlCompression() {
+        return this.xmlCompression;
+    }
+
+    /**
+     * @return The JAL-Id of the journal record the subscriber has part of,
+     *         or null if there is nothing to resume. It should be the first
+     *         record sent; if the publisher no longer has it, use
+     *         {@link #sendJournalMissing(String)} instead.
+     */
+    public synchronized String getResumeJalId() {
+        return this.resumeJalId;
+    }
+
+    /**
+     * @return The number of bytes of the payload of
+     *         {@link #getResumeJalId()} the subscriber already has.
+     */
+    public synchronized long getResumeOffset() {
+        return this.resumeOffset;
+    }
+
+    /**
+     * Send a record and wait for the subscriber to confirm it. If this is
+     * the record to resume, only the rest of its payload is sent.
+     *
+     * @param record
+     *            The record to send.
+     * @return The JAL-Id of the record, once the subscriber has sent sync.
+     * @throws JNLPublishException
+     *             If the subscriber did not accept the record, or the digest
+     *             it calculated does not match.
+     * @throws IOException
+     *             If the record could not be read or sent, or an
+     *             {@link HttpStatusException} if the subscriber turned it
+     *             away.
+     */
+    public String send(final PublishRecord record) throws IOException, JNLPublishException {
+        if (record == null) {
+            throw new IllegalArgumentException("'record' is required.");
+        }
+        final String jalId = record.getJalId();
+        final long offset = takeResumeOffset(jalId);
+
+        final RecordEntity entity;
+        try {
+            entity = new RecordEntity(record, offset,
+                    this.performDigest ? MessageDigest.getInstance(this.digestName) : null,
+                    this.publisher.getConfig().getBufferSize());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final HttpPost post = newPost(getRecordMessage());
+        post.setHeader(HttpUtils.HDRS_NONCE, jalId);
+        post.setHeader(HttpUtils.HDRS_SYS_META_LEN, Integer.toString(record.getSysMetadata().length));
+        post.setHeader(HttpUtils.HDRS_APP_META_LEN, Integer.toString(record.getAppMetadata().length));
+        post.setHeader(getLengthHeader(), Long.toString(entity.getPayloadLengthSent()));
+        if (this.recordType == RecordType.Audit) {
+            post.setHeader(HttpUtils.HDRS_AUDIT_FORMAT, HttpUtils.ENC_XML);
+        }
+        post.setEntity(entity);
+
+        Map<String, String> reply = this.publisher.execute(post);
+        String message = reply.get(HttpUtils.HDRS_MESSAGE);
+
+        if (HttpUtils.MSG_DIGEST_CHALLENGE.equalsIgnoreCase(message)) {
+            final String expected = toHex(entity.getDigest());
+            final String received = reply.get(HttpUtils.HDRS_DIGEST_VALUE);
+            final boolean confirmed = expected != null && expected.equalsIgnoreCase(received);
+
+            if (!confirmed) {
+                this.log.error("Digest mismatch for " + jalId + ": calculated " + expected + ", subscriber sent " + received);
+            }
+            reply = sendDigestResponse(jalId, confirmed ? DigestStatus.Confirmed : DigestStatus.Invalid);
+            message = reply.get(HttpUtils.HDRS_MESSAGE);
+            if (!confirmed) {
+                throw failure("Digest mismatch", jalId, reply);
+            }
+        }
+
+        if (!HttpUtils.MSG_SYNC.equalsIgnoreCase(message)) {
+            throw failure("Record failed with '" + message + "'", jalId, reply);
+        }
+        return jalId;
+    }
+
+    /**
+     * Send a record on one of the publisher's threads. Up to
+     * {@link HttpPublisherConfig#getMaxConnections()} records are sent at
+     * once; the rest wait their turn.
+     *
+     * @return The result of {@link #send(PublishRecord)}.
+     */
+    public Future<String> sendAsync(final PublishRecord record) {
+        if (record == null) {
+            throw new IllegalArgumentException("'record' is required.");
+        }
+        return this.publisher.getExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return send(record);
+            }
+        });
+    }
+
+    /**
+     * Tell the subscriber the journal record it asked to resume no longer
+     * exists, so it discards the part it has.
+     *
+     * @param jalId
+     *            The JAL-Id from {@link #getResumeJalId()}.
+     */
+    public void sendJournalMissing(final String jalId) throws IOException, JNLPublishException {
+        takeResumeOffset(jalId);
+
+        final HttpPost post = newPost(HttpUtils.MSG_JOURNAL_MISSING);
+        post.setHeader(HttpUtils.HDRS_NONCE, jalId);
+        final Map<String, String> reply = this.publisher.execute(post);
+        final String message = reply.get(HttpUtils.HDRS_MESSAGE);
+        if (!HttpUtils.MSG_JOURNAL_MISSING_RESPONSE.equalsIgnoreCase(message)) {
+            throw failure("Journal missing failed with '" + message + "'", jalId, reply);
+        }
+    }
+
+    /**
+     * End the session. Records in flight should be finished first.
+     */
+    public void close() throws IOException, JNLPublishException {
+        final Map<String, String> reply = this.publisher.execute(newPost(HttpUtils.MSG_CLOSE_SESSION));
+        final String message = reply.get(HttpUtils.HDRS_MESSAGE);
+        if (!HttpUtils.MSG_CLOSE_SESSION_RESPONSE.equalsIgnoreCase(message)) {
+            throw failure("Close session failed with '" + message + "'", null, reply);
+        }
+    }
+
+    private Map<String, String> sendDigestResponse(final String jalId, final DigestStatus status) throws IOException {
+        final HttpPost post = newPost(HttpUtils.MSG_DIGEST_RESP);
+        post.setHeader(HttpUtils.HDRS_NONCE, jalId);
+        post.setHeader(HttpUtils.HDRS_DIGEST_STATUS, status.toString().toLowerCase());
+        return this.publisher.execute(post);
+    }
+
+    /**
+     * @return The offset to send <code>jalId</code> from. The resume only
+     *         applies once.
+     */
+    private synchronized long takeResumeOffset(final String jalId) {
+        if (this.resumeJalId == null || !this.resumeJalId.equals(jalId)) {
+            return 0;
+        }
+        final long offset = this.resumeOffset;
+        this.resumeJalId = null;
+        this.resumeOffset = 0;
+        return offset;
+    }
+
+    private HttpPost newPost(final String message) {
+        final HttpPost post = this.publisher.newPost(this.recordType);
+        post.setHeader(HttpUtils.HDRS_MESSAGE, message);
+        post.setHeader(HttpUtils.HDRS_SESSION_ID, this.sessionId);
+        return post;
+    }
+
+    private String getRecordMessage() {
+        switch (this.recordType) {
+        case Journal:
+            return HttpUtils.MSG_JOURNAL;
+        case Audit:
+            return HttpUtils.MSG_AUDIT;
+        default:
+            return HttpUtils.MSG_LOG;
+        }
+    }
+
+    private String getLengthHeader() {
+        switch (this.recordType) {
+        case Journal:
+            return HttpUtils.HDRS_JOURNAL_LEN;
+        case Audit:
+            return HttpUtils.HDRS_AUDIT_LEN;
+        default:
+            return HttpUtils.HDRS_LOG_LEN;
+        }
+    }
+
+    /**
+     * @return The JCA name of a digest algorithm URI, or null if it is not
+     *         one JALoP uses.
+     */
+    static String getDigestType(final String algorithm) {
+        if (DigestAlgorithms.JJNL_SHA256_ALGORITHM_URI.equalsIgnoreCase(algorithm)) {
+            return "SHA-256";
+        } else if (DigestAlgorithms.JJNL_SHA512_ALGORITHM_URI.equalsIgnoreCase(algorithm)) {
+            return "SHA-512";
+        } else if (DigestAlgorithms.JJNL_SHA384_ALGORITHM_URI.equalsIgnoreCase(algorithm)) {
+            return "SHA-384";
+        }
+        return null;
+    }
+
+    static JNLPublishException failure(final String description, final String jalId,
+            final Map<String, String> reply) {
+        final String errorMessage = reply.get(HttpUtils.HDRS_ERROR_MESSAGE);
+        final JNLPublishException e = new JNLPublishException(description
+                + (jalId == null ? "" : " for " + jalId)
+                + (errorMessage == null ? "" : ": " + errorMessage));
+        if (jalId != null) {
+            e.setJalId(jalId);
+        }
+        if (errorMessage != null) {
+            e.setErrorMessage(errorMessage);
+        }
+        return e;
+    }
+
+    private static String toHex(final byte[] digest) {
+        if (digest == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (final byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
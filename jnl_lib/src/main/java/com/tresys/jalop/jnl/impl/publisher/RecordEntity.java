@@ -0,0 +1,181 @@
+package com.tresys.jalop.jnl.impl.publisher;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.subscriber.BufferPool;
+
+/**
+ * The body of a JAL record message:
+ * <pre>
+ *   sys-metadata BREAK app-metadata BREAK payload BREAK
+ * </pre>
+ * streamed from the {@link PublishRecord} as the connection takes it, with
+ * the JALoP digest of the record worked out on the way.
+ *
+ * For a resumed journal, only the payload from the resume offset on is
+ * sent, but the digest still covers the whole payload, as the subscriber's
+ * does.
+ */
+class RecordEntity extends AbstractHttpEntity {
+
+    private static final byte[] BREAK = "BREAK".getBytes();
+
+    private final PublishRecord record;
+    private final long offset;
+    private final MessageDigest md;
+    private final int bufferSize;
+    private byte[] digest;
+
+    /**
+     * @param offset
+     *            The number of bytes of the payload the subscriber already
+     *            has.
+     * @param md
+     *            The digest to calculate, or null if digests are off.
+     */
+    RecordEntity(final PublishRecord record, final long offset, final MessageDigest md, final int bufferSize) {
+        if (offset < 0 || offset > record.getPayloadLength()) {
+            throw new IllegalArgumentException("'offset' must be within the payload.");
+        }
+        this.record = record;
+        this.offset = offset;
+        this.md = md;
+        this.bufferSize = bufferSize;
+        setContentType(HttpUtils.DEFAULT_CONTENT_TYPE);
+    }
+
+    /**
+     * @return The number of payload bytes sent.
+     */
+    long getPayloadLengthSent() {
+        return this.record.getPayloadLength() - this.offset;
+    }
+
+    /**
+     * @return The digest of the record last written, or null if digests are
+     *         off or the record has not been written.
+     */
+    byte[] getDigest() {
+        return this.digest;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return this.record.isRepeatable();
+    }
+
+    @Override
+    public long getContentLength() {
+        return this.record.getSysMetadata().length + this.record.getAppMetadata().length
+                + getPayloadLengthSent() + 3 * BREAK.length;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !this.record.isRepeatable();
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Record bodies can only be written.");
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        this.digest = null;
+        if (this.md != null) {
+            this.md.reset();
+        }
+
+        writeSection(out, this.record.getSysMetadata());
+        writeSection(out, this.record.getAppMetadata());
+
+        final ByteBuffer buffer = BufferPool.getShared().acquire(this.bufferSize);
+        final ReadableByteChannel payload = this.record.openPayload();
+        try {
+            skip(payload, buffer);
+            long remaining = getPayloadLengthSent();
+            while (remaining > 0) {
+                final int count = fill(payload, buffer, remaining);
+                if (this.md != null) {
+                    this.md.update(buffer.array(), 0, count);
+                }
+                out.write(buffer.array(), 0, count);
+                remaining -= count;
+            }
+        } finally {
+            payload.close();
+            BufferPool.getShared().release(buffer);
+        }
+        out.write(BREAK);
+        out.flush();
+
+        if (this.md != null) {
+            this.digest = this.md.digest();
+        }
+    }
+
+    private void writeSection(final OutputStream out, final byte[] data) throws IOException {
+        if (this.md != null) {
+            this.md.update(data);
+        }
+        out.write(data);
+        out.write(BREAK);
+    }
+
+    /**
+     * Move past the part of the payload the subscriber already has. It must
+     * be read for the digest; without one, a seekable payload is skipped.
+     */
+    private void skip(final ReadableByteChannel payload, final ByteBuffer buffer) throws IOException {
+        if (this.offset == 0) {
+            return;
+        }
+        final SeekableByteChannel seekable = PublishRecord.seekable(payload);
+        if (this.md == null && seekable != null) {
+            seekable.position(seekable.position() + this.offset);
+            return;
+        }
+        long remaining = this.offset;
+        while (remaining > 0) {
+            final int count = fill(payload, buffer, remaining);
+            if (this.md != null) {
+                this.md.update(buffer.array(), 0, count);
+            }
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Fill <code>buffer</code> with up to <code>max</code> bytes of the
+     * payload.
+     *
+     * @return The number of bytes read, at the start of the buffer's array.
+     */
+    private static int fill(final ReadableByteChannel payload, final ByteBuffer buffer, final long max)
+            throws IOException {
+        buffer.clear();
+        if (max < buffer.capacity()) {
+            buffer.limit((int) max);
+        }
+        while (buffer.hasRemaining()) {
+            if (payload.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    throw new EOFException("Payload is shorter than its length.");
+                }
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
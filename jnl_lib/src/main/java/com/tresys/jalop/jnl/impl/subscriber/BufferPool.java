@@ -0,0 +1,175 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of byte buffers, shared by the code that moves record data
+ * from the network to disk so that each segment of each record does not
+ * allocate its own buffers.
+ *
+ * Buffers are pooled in power of two size classes from
+ * {@link #MIN_BUFFER_SIZE} up to the pool's largest class. A request is
+ * served from the smallest class that fits, so the buffer returned may be
+ * larger than asked for. Larger requests are allocated on demand and not
+ * kept. Each class keeps at most a fixed number of free buffers; buffers
+ * released to a full class are left to the garbage collector, which bounds
+ * the memory the pool can hold.
+ *
+ * Buffers are either all heap buffers, with an accessible
+ * {@link ByteBuffer#array()}, or all direct buffers. The shared pool
+ * returned by {@link #getShared()} holds heap buffers, since the ingest path
+ * works with streams.
+ *
+ * This class is thread safe.
+ */
+public final class BufferPool {
+
+    /** The smallest size class. */
+    public static final int MIN_BUFFER_SIZE = 512;
+
+    /** The largest size class of the shared pool. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+    /** The most bytes each size class of the shared pool keeps. */
+    public static final int DEFAULT_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    private static final BufferPool SHARED =
+            new BufferPool(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BYTES_PER_CLASS, false);
+
+    /** The free buffers of one size class. */
+    private static final class SizeClass {
+        private final ByteBuffer[] free;
+        private int count = 0;
+
+        SizeClass(final int capacity) {
+            this.free = new ByteBuffer[capacity];
+        }
+
+        synchronized ByteBuffer poll() {
+            if (this.count == 0) {
+                return null;
+            }
+            final ByteBuffer buffer = this.free[--this.count];
+            this.free[this.count] = null;
+            return buffer;
+        }
+
+        synchronized boolean offer(final ByteBuffer buffer) {
+            if (this.count == this.free.length) {
+                return false;
+            }
+            this.free[this.count++] = buffer;
+            return true;
+        }
+    }
+
+    private final SizeClass[] classes;
+    private final int maxBufferSize;
+    private final boolean direct;
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * Create a {@link BufferPool}.
+     *
+     * @param maxBufferSize
+     *            The largest buffer to pool. Rounded up to a power of two.
+     * @param bytesPerClass
+     *            The most bytes of free buffers to keep in each size class.
+     *            Every class keeps at least one buffer.
+     * @param direct
+     *            Whether to allocate direct buffers rather than heap
+     *            buffers.
+     */
+    public BufferPool(final int maxBufferSize, final int bytesPerClass, final boolean direct) {
+        if (maxBufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("'maxBufferSize' must be at least " + MIN_BUFFER_SIZE + ".");
+        }
+        if (bytesPerClass <= 0) {
+            throw new IllegalArgumentException("'bytesPerClass' must be a positive, non-zero value.");
+        }
+        this.classes = new SizeClass[classIndex(maxBufferSize) + 1];
+        for (int i = 0; i < this.classes.length; i++) {
+            this.classes[i] = new SizeClass(Math.max(1, bytesPerClass / classSize(i)));
+        }
+        this.maxBufferSize = classSize(this.classes.length - 1);
+        this.direct = direct;
+    }
+
+    /**
+     * @return The pool shared by the library and subscribers.
+     */
+    public static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Take a buffer from the pool, allocating one if none is free.
+     *
+     * @param minSize
+     *            The smallest capacity needed.
+     * @return A cleared buffer with a capacity of at least
+     *         <code>minSize</code>. It should be given back with
+     *         {@link #release(ByteBuffer)} once no longer used.
+     */
+    public ByteBuffer acquire(final int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("'minSize' must not be negative.");
+        }
+        if (minSize > this.maxBufferSize) {
+            return allocate(minSize);
+        }
+        final int index = classIndex(minSize);
+        final ByteBuffer buffer = this.classes[index].poll();
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+        }
+        return allocate(classSize(index));
+    }
+
+    /**
+     * Give a buffer back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer
+     *            A buffer from {@link #acquire(int)}, or <code>null</code>.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != this.direct) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        if (capacity > this.maxBufferSize || capacity < MIN_BUFFER_SIZE
+                || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        this.classes[classIndex(capacity)].offer(buffer);
+    }
+
+    /**
+     * @return The number of buffers this pool has had to allocate.
+     */
+    public long getAllocationCount() {
+        return this.allocations.get();
+    }
+
+    private ByteBuffer allocate(final int size) {
+        this.allocations.incrementAndGet();
+        return this.direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @return The index of the smallest size class holding <code>size</code>
+     *         bytes.
+     */
+    private static int classIndex(final int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    private static int classSize(final int index) {
+        return MIN_BUFFER_SIZE << index;
+    }
+}
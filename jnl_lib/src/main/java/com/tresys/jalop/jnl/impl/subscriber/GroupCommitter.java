@@ -0,0 +1,252 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * Makes files, directory entries and other {@link Flushable} state durable
+ * for many callers at once.
+ *
+ * Each call to {@link #commit(Collection, Collection)} adds its work to the
+ * pending batch and blocks until a batch containing that work has been
+ * synced. The first caller to find no sync in progress becomes the leader:
+ * it optionally waits a short time for other callers to join, takes the
+ * whole batch and syncs it, while callers that arrive in the meantime queue
+ * up for the next batch. Work that is shared between callers, such as the
+ * directory that all confirmed records are moved into, is synced once per
+ * batch rather than once per caller.
+ */
+public class GroupCommitter {
+
+    private JNLLog log = null;
+
+    /** How long a leader waits for more work before syncing. */
+    private final long maxWaitMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = this.lock.newCondition();
+
+    /** The batch currently accepting work. */
+    private Batch open = new Batch();
+
+    /** Set while a leader is collecting or syncing a batch. */
+    private boolean leaderActive = false;
+
+    /** Statistics, for tuning the wait time. */
+    private long batches = 0;
+    private long commits = 0;
+
+    /**
+     * The work collected from the callers that share one sync.
+     */
+    private static final class Batch {
+        /** Files and directories to sync. */
+        final Set<File> files = new LinkedHashSet<File>();
+        /** Other state to flush, compared by identity. */
+        final Map<Flushable, Boolean> flushables = new IdentityHashMap<Flushable, Boolean>();
+        boolean synced = false;
+        IOException error = null;
+    }
+
+    /**
+     * Create a {@link GroupCommitter}.
+     *
+     * @param maxWaitMillis
+     *            How long, in milliseconds, the leader of a batch waits for
+     *            other callers to add their work. 0 syncs immediately; work
+     *            that arrives during a sync still goes into the next batch.
+     * @param logger
+     *            The logger to use, may be <code>null</code>.
+     */
+    public GroupCommitter(final long maxWaitMillis, final JNLLog logger) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("'maxWaitMillis' cannot be negative.");
+        }
+
+        //Sets logger
+        if (logger == null)
+        {
+            log = new JNLLogger(Logger.getLogger(GroupCommitter.class));
+        }
+        else
+        {
+            log = logger;
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Sync <code>files</code> and flush <code>flushables</code>, sharing the
+     * work with any concurrent callers. Directories in <code>files</code>
+     * are synced so that entries created, renamed or removed in them are
+     * durable.
+     *
+     * @param files
+     *            Files and directories to sync, may be <code>null</code>.
+     * @param flushables
+     *            Other state to flush, may be <code>null</code>.
+     * @throws IOException
+     *            If the batch containing this work could not be synced.
+     */
+    public void commit(final Collection<File> files, final Collection<? extends Flushable> flushables)
+            throws IOException {
+        this.lock.lock();
+        try {
+            final Batch myBatch = this.open;
+            if (files != null) {
+                myBatch.files.addAll(files);
+            }
+            if (flushables != null) {
+                for (final Flushable f : flushables) {
+                    myBatch.flushables.put(f, Boolean.TRUE);
+                }
+            }
+            this.commits++;
+
+            while (!myBatch.synced) {
+                if (!this.leaderActive) {
+                    lead();
+                } else {
+                    this.changed.awaitUninterruptibly();
+                }
+            }
+
+            if (myBatch.error != null) {
+                throw new IOException("Failed to commit: " + myBatch.error.getMessage(), myBatch.error);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of batches synced so far.
+     */
+    public long getBatchCount() {
+        this.lock.lock();
+        try {
+            return this.batches;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of calls to {@link #commit(Collection, Collection)}
+     *         so far.
+     */
+    public long getCommitCount() {
+        this.lock.lock();
+        try {
+            return this.commits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sync the open batch. Called with the lock held; the lock is released
+     * while waiting for more work and while syncing.
+     */
+    private void lead() {
+        this.leaderActive = true;
+        try {
+            if (this.maxWaitMillis > 0) {
+                try {
+                    this.changed.await(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            final Batch batch = this.open;
+            this.open = new Batch();
+
+            IOException error = null;
+            this.lock.unlock();
+            try {
+                syncAll(batch.files, batch.flushables.keySet());
+            } catch (final IOException e) {
+                error = e;
+            } finally {
+                this.lock.lock();
+            }
+
+            this.batches++;
+            if (error != null) {
+                log.error("Group commit of " + batch.files.size() + " files failed: " + error.getMessage());
+            }
+            batch.error = error;
+            batch.synced = true;
+        } finally {
+            this.leaderActive = false;
+            this.changed.signalAll();
+        }
+    }
+
+    private void syncAll(final Set<File> files, final Set<Flushable> flushables)
+            throws IOException {
+        final List<File> dirs = new ArrayList<File>();
+        for (final File f : files) {
+            if (f.isDirectory()) {
+                dirs.add(f);
+            } else if (f.exists()) {
+                syncFile(f);
+            }
+        }
+        for (final Flushable f : flushables) {
+            f.flush();
+        }
+        // Directories last, so entries only become durable once the files
+        // they refer to are.
+        for (final File d : dirs) {
+            syncDirectory(d);
+        }
+    }
+
+    private static void syncFile(final File f) throws IOException {
+        final FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private void syncDirectory(final File d) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(d.toPath(), StandardOpenOption.READ);
+        } catch (final IOException e) {
+            // Not every platform allows opening a directory; there the
+            // file system is responsible for the durability of entries.
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot sync directory " + d.getAbsolutePath() + ": " + e.getMessage());
+            }
+            return;
+        }
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
+    }
+}
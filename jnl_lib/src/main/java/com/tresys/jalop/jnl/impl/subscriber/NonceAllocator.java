@@ -0,0 +1,213 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * Hands out local nonces for a single record type. Allocation is a single
+ * atomic increment, so sessions do not serialize on each other when they
+ * confirm records.
+ *
+ * Nonces are reserved on disk in blocks: the state file holds the highest
+ * nonce that may have been handed out. When allocation crosses the end of the
+ * current block, the next block is reserved (and the state file rewritten)
+ * before the nonce is returned. After a restart allocation continues after
+ * the reserved block, so no nonce is reused and the record store does not
+ * need to be scanned. {@link #close()} records the exact last nonce so a
+ * clean shutdown leaves no gap.
+ */
+public class NonceAllocator implements Closeable {
+
+    /** Default number of nonces reserved each time the state file is written. */
+    public static final long DEFAULT_BLOCK_SIZE = 1024;
+
+    /** Default name of the state file. */
+    public static final String STATE_FILENAME = "nonce.state";
+
+    private JNLLog log = null;
+
+    private final File stateFile;
+    private final long blockSize;
+
+    /** The last nonce that was handed out. */
+    private final AtomicLong last;
+
+    /** Highest nonce covered by the reservation in the state file. */
+    private volatile long reserved;
+
+    /**
+     * Create a {@link NonceAllocator}, picking up where the previous instance
+     * using <code>stateFile</code> left off.
+     *
+     * @param stateFile
+     *            The file to persist reservations to.
+     * @param blockSize
+     *            The number of nonces to reserve at a time.
+     * @param logger
+     *            The logger to use, may be <code>null</code>.
+     * @throws IOException
+     *            If the state file exists but cannot be read.
+     */
+    public NonceAllocator(final File stateFile, final long blockSize, final JNLLog logger)
+            throws IOException {
+        if (stateFile == null) {
+            throw new IllegalArgumentException("'stateFile' is required.");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("'blockSize' must be a positive number.");
+        }
+
+        //Sets logger
+        if (logger == null)
+        {
+            log = new JNLLogger(Logger.getLogger(NonceAllocator.class));
+        }
+        else
+        {
+            log = logger;
+        }
+
+        this.stateFile = stateFile;
+        this.blockSize = blockSize;
+        final long persisted = readState();
+        this.last = new AtomicLong(persisted);
+        this.reserved = persisted;
+    }
+
+    /**
+     * Allocate the next nonce.
+     *
+     * @return A nonce that has not been returned before.
+     */
+    public long next() {
+        final long n = this.last.incrementAndGet();
+        if (n > this.reserved) {
+            reserveThrough(n);
+        }
+        return n;
+    }
+
+    /**
+     * @return The last nonce that was handed out, or 0 if none has been.
+     */
+    public long current() {
+        return this.last.get();
+    }
+
+    /**
+     * Make sure no nonce at or below <code>nonce</code> is handed out.
+     *
+     * @param nonce
+     *            The highest nonce known to be in use.
+     */
+    public void advanceTo(final long nonce) {
+        long cur = this.last.get();
+        while (cur < nonce && !this.last.compareAndSet(cur, nonce)) {
+            cur = this.last.get();
+        }
+    }
+
+    /**
+     * Seed the allocator from the highest nonce found in the record store.
+     * If the record store is empty and the state file is gone too, the store
+     * is taken to have been cleared and allocation restarts from 1.
+     * Otherwise this is the same as {@link #advanceTo(long)}: a missing state
+     * file alone, for example one that could not be written, never makes
+     * allocation go back.
+     *
+     * @param highestInStore
+     *            The highest nonce in use in the record store, or 0 if it is
+     *            empty.
+     */
+    public synchronized void seed(final long highestInStore) {
+        if (highestInStore == 0 && !this.stateFile.exists()) {
+            this.last.set(0);
+            this.reserved = 0;
+        } else {
+            advanceTo(highestInStore);
+        }
+    }
+
+    /**
+     * Set the last nonce handed out, discarding any later reservation.
+     *
+     * @param nonce
+     *            The nonce the next allocation should follow.
+     */
+    public synchronized void set(final long nonce) {
+        this.last.set(nonce);
+        this.reserved = nonce;
+    }
+
+    /**
+     * Record the exact last nonce handed out, so the next instance carries
+     * on without a gap.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        final long cur = this.last.get();
+        writeState(cur);
+        this.reserved = cur;
+    }
+
+    private synchronized void reserveThrough(final long n) {
+        if (n <= this.reserved) {
+            return;
+        }
+        final long limit = n + this.blockSize - 1;
+        try {
+            writeState(limit);
+        } catch (final IOException e) {
+            // The nonce is still unique in this process; after a restart the
+            // record store is used to seed the allocator instead.
+            log.error("Failed to reserve nonces in " + this.stateFile.getAbsolutePath()
+                    + ": " + e.getMessage());
+        }
+        this.reserved = limit;
+    }
+
+    private long readState() throws IOException {
+        if (!this.stateFile.exists()) {
+            return 0;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(this.stateFile, "r");
+        try {
+            if (raf.length() < 8) {
+                log.warn("Ignoring truncated nonce state in " + this.stateFile.getAbsolutePath());
+                return 0;
+            }
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void writeState(final long value) throws IOException {
+        final File dir = this.stateFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        final File tmp = new File(dir, this.stateFile.getName() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.getChannel().write((ByteBuffer) ByteBuffer.allocate(8).putLong(value).flip());
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), this.stateFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,265 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * The JAL-Ids of the records of one type most recently confirmed from one
+ * publisher, so a record sent again after its sync was lost can be
+ * acknowledged without being stored a second time.
+ *
+ * A Bloom filter answers for the great majority of records, which are new,
+ * without touching the exact set; only a possible match is looked up in
+ * the exact set of the last {@link #getCapacity()} JAL-Ids, kept in least
+ * recently used order. The Bloom filter has two generations of
+ * {@link #getCapacity()} JAL-Ids each, so it always covers at least the
+ * exact set.
+ *
+ * If a file is given, each JAL-Id is appended to it as it is confirmed and
+ * the file is read back on creation, so duplicates are still recognized
+ * after a restart. The file is rewritten with just the exact set once it
+ * has grown to twice that. It is not synced: a JAL-Id lost in a crash only
+ * means that record is stored again if it is sent again.
+ */
+public final class RecentJalIds {
+
+    /** Bits of Bloom filter for each JAL-Id, for about 1% false positives. */
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+
+    private final int capacity;
+    private final File file;
+    private JNLLog log = null;
+
+    private final Map<String, Boolean> exact;
+    private long[] current;
+    private long[] previous;
+    private int currentCount;
+
+    private Writer writer;
+    private int fileLines;
+
+    /**
+     * Create a {@link RecentJalIds}, reading back any JAL-Ids already in
+     * <code>file</code>.
+     *
+     * @param capacity
+     *            The number of JAL-Ids to remember.
+     * @param file
+     *            The file to keep the JAL-Ids in, or null to only keep them
+     *            in memory.
+     * @param logger
+     *            The logger, or null for the default.
+     */
+    public RecentJalIds(final int capacity, final File file, final JNLLog logger) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("'capacity' must be a positive, non-zero value.");
+        }
+        this.capacity = capacity;
+        this.file = file;
+
+        //Sets logger
+        if (logger == null)
+        {
+            this.log = new JNLLogger(Logger.getLogger(RecentJalIds.class));
+        }
+        else
+        {
+            this.log = logger;
+        }
+
+        this.exact = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > RecentJalIds.this.capacity;
+            }
+        };
+        this.current = newBloom();
+        this.previous = newBloom();
+
+        if (file != null) {
+            load();
+        }
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return Whether <code>jalId</code> is one of the recently confirmed
+     *         JAL-Ids.
+     */
+    public synchronized boolean contains(final String jalId) {
+        final long hash = hash(jalId);
+        if (!mightContain(this.current, hash) && !mightContain(this.previous, hash)) {
+            return false;
+        }
+        if (this.exact.get(jalId) == null) {
+            return false;
+        }
+        // It is now the most recently used, so must stay in the filter as
+        // long as it stays in the exact set.
+        if (!mightContain(this.current, hash)) {
+            bloomAdd(hash);
+        }
+        return true;
+    }
+
+    /**
+     * Remember that the record <code>jalId</code> has been confirmed.
+     */
+    public synchronized void add(final String jalId) {
+        if (remember(jalId) && this.file != null) {
+            append(jalId);
+        }
+    }
+
+    /**
+     * Close the file. JAL-Ids added afterwards are only kept in memory.
+     */
+    public synchronized void close() {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (final IOException e) {
+                log.error("Failed to close " + this.file + ": " + e.getMessage());
+            }
+            this.writer = null;
+        }
+    }
+
+    /**
+     * @return true if <code>jalId</code> was not already in the exact set.
+     */
+    private boolean remember(final String jalId) {
+        if (this.exact.put(jalId, Boolean.TRUE) != null) {
+            return false;
+        }
+        bloomAdd(hash(jalId));
+        return true;
+    }
+
+    private void bloomAdd(final long hash) {
+        if (this.currentCount == this.capacity) {
+            this.previous = this.current;
+            this.current = newBloom();
+            this.currentCount = 0;
+        }
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        final int bits = this.current.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            this.current[bit >>> 6] |= 1L << bit;
+        }
+        this.currentCount++;
+    }
+
+    private long[] newBloom() {
+        return new long[(int) ((this.capacity * (long) BITS_PER_ID + 63) / 64)];
+    }
+
+    private static boolean mightContain(final long[] bloom, final long hash) {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        final int bits = bloom.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 64-bit FNV-1a, split into the two hashes the filter is probed with. */
+    private static long hash(final String jalId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < jalId.length(); i++) {
+            hash ^= jalId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void load() {
+        if (!this.file.exists()) {
+            return;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        remember(line);
+                        this.fileLines++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final IOException e) {
+            log.error("Failed to read recent JAL-Ids from " + this.file + ": " + e.getMessage());
+        }
+    }
+
+    private void append(final String jalId) {
+        try {
+            if (this.fileLines >= 2 * this.capacity) {
+                compact();
+            }
+            if (this.writer == null) {
+                this.file.getParentFile().mkdirs();
+                this.writer = new OutputStreamWriter(new FileOutputStream(this.file, true), StandardCharsets.UTF_8);
+            }
+            this.writer.write(jalId);
+            this.writer.write('\n');
+            this.writer.flush();
+            this.fileLines++;
+        } catch (final IOException e) {
+            log.error("Failed to save recent JAL-Id to " + this.file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the file with the JAL-Ids in the exact set, least recently
+     * used first.
+     */
+    private void compact() throws IOException {
+        close();
+        final File tmp = new File(this.file.getPath() + ".tmp");
+        final Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+        try {
+            for (final String jalId : this.exact.keySet()) {
+                out.write(jalId);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(this.file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + this.file);
+        }
+        this.fileLines = this.exact.size();
+    }
+}
@@ -0,0 +1,168 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * A SHA-2 {@link MessageDigest} whose state can be saved part way through
+ * the data with {@link #getState()}, and carried on from later, even in
+ * another process, with {@link #setState(byte[])}.
+ *
+ * The JCA digests cannot be saved like this, so a journal that is resumed
+ * would have to have all of the data already received read back through the
+ * digest. With a saved state, resuming costs the same however much of the
+ * journal was received. The hashing is done by the Bouncy Castle digests,
+ * whose encoded state is what is saved. They are slower than the
+ * platform's, so this is only used where a record may be resumed.
+ */
+public final class ResumableDigest extends MessageDigest implements Cloneable {
+
+    /** Version of the layout of the saved state. */
+    private static final byte STATE_VERSION = 2;
+
+    /** The version, digest length and count that precede the encoded state. */
+    private static final int HEADER_LENGTH = 10;
+
+    /** A {@link SHA256Digest}, {@link SHA384Digest} or {@link SHA512Digest}. */
+    private ExtendedDigest digest;
+
+    /** The number of bytes digested. */
+    private long count;
+
+    private ResumableDigest(final String algorithm, final ExtendedDigest digest) {
+        super(algorithm);
+        this.digest = digest;
+    }
+
+    /**
+     * Create a {@link ResumableDigest}.
+     *
+     * @param algorithm
+     *            The JCA name of the algorithm, SHA-256, SHA-384 or SHA-512.
+     * @return The digest, or null if <code>algorithm</code> is not supported.
+     */
+    public static ResumableDigest getInstance(final String algorithm) {
+        if ("SHA-256".equalsIgnoreCase(algorithm)) {
+            return new ResumableDigest("SHA-256", new SHA256Digest());
+        } else if ("SHA-384".equalsIgnoreCase(algorithm)) {
+            return new ResumableDigest("SHA-384", new SHA384Digest());
+        } else if ("SHA-512".equalsIgnoreCase(algorithm)) {
+            return new ResumableDigest("SHA-512", new SHA512Digest());
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of bytes digested since the last reset.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Save the state of the digest. The digest itself is not changed.
+     *
+     * @return The state, to pass to {@link #setState(byte[])}.
+     */
+    public byte[] getState() {
+        final byte[] encoded = ((EncodableDigest) this.digest).getEncodedState();
+        final ByteBuffer state = ByteBuffer.allocate(HEADER_LENGTH + encoded.length);
+        state.put(STATE_VERSION);
+        state.put((byte) this.digest.getDigestSize());
+        state.putLong(this.count);
+        state.put(encoded);
+        return state.array();
+    }
+
+    /**
+     * Carry on from a state saved by {@link #getState()}, as if the data
+     * digested then had been digested by this digest.
+     *
+     * @param state
+     *            The saved state.
+     * @throws IllegalArgumentException
+     *             If <code>state</code> was not saved by a digest of the same
+     *             algorithm, or is damaged. The digest is not changed.
+     */
+    public void setState(final byte[] state) {
+        if (state == null || state.length <= HEADER_LENGTH
+                || state[0] != STATE_VERSION || state[1] != this.digest.getDigestSize()) {
+            throw new IllegalArgumentException("'state' is not a " + getAlgorithm() + " state.");
+        }
+        final ByteBuffer in = ByteBuffer.wrap(state);
+        in.position(2);
+        final long savedCount = in.getLong();
+        final byte[] encoded = new byte[in.remaining()];
+        in.get(encoded);
+
+        final ExtendedDigest restored;
+        try {
+            restored = decode(encoded);
+        } catch (final RuntimeException e) {
+            throw new IllegalArgumentException("'state' is not a " + getAlgorithm() + " state.", e);
+        }
+        // A damaged state may still decode, but would not encode the same again.
+        if (savedCount < 0 || !Arrays.equals(encoded, ((EncodableDigest) restored).getEncodedState())) {
+            throw new IllegalArgumentException("'state' is not a " + getAlgorithm() + " state.");
+        }
+        this.digest = restored;
+        this.count = savedCount;
+    }
+
+    private ExtendedDigest decode(final byte[] encoded) {
+        switch (this.digest.getDigestSize()) {
+        case 32:
+            return new SHA256Digest(encoded);
+        case 48:
+            return new SHA384Digest(encoded);
+        default:
+            return new SHA512Digest(encoded);
+        }
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return this.digest.getDigestSize();
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        this.digest.update(input);
+        this.count++;
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int len) {
+        this.digest.update(input, offset, len);
+        this.count += len;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] out = new byte[this.digest.getDigestSize()];
+        this.digest.doFinal(out, 0);
+        this.count = 0;
+        return out;
+    }
+
+    @Override
+    protected void engineReset() {
+        this.digest.reset();
+        this.count = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final ResumableDigest copy = (ResumableDigest) super.clone();
+        copy.digest = (ExtendedDigest) ((Memoable) this.digest).copy();
+        return copy;
+    }
+}
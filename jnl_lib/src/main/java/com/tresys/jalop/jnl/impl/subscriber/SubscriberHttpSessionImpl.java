@@ -5,6 +5,7 @@ import java.net.InetAddress;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
@@ -16,6 +17,8 @@ import com.tresys.jalop.jnl.Session;
 import com.tresys.jalop.jnl.Subscriber;
 import com.tresys.jalop.jnl.SubscriberSession;
 import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.http.ReadLimits;
+import com.tresys.jalop.jnl.impl.http.SubscriberHttpANSHandler;
 import com.tresys.jalop.jnl.DigestAlgorithms;
 
 public class SubscriberHttpSessionImpl implements SubscriberSession {
@@ -28,17 +31,29 @@ public class SubscriberHttpSessionImpl implements SubscriberSession {
     protected Map<String, String> digestMap;
     private long journalResumeOffset;
     private InputStream journalResumeIS;
+    private String journalResumeJalId;
+    private byte[] journalResumeDigestCheckpoint;
 
     private final RecordType recordType;
     private final Mode mode;
     private final String digestMethod;
     private final String xmlEncoding;
     private volatile boolean errored;
+    private volatile ReadLimits readLimits = ReadLimits.NONE;
+    private volatile long maxDecodedMetadataBytes;
+    private volatile RecentJalIds recentJalIds;
     private String publisherId;
     private String sessionId;
     private boolean performDigest;
     private LocalDateTime lastTouchedTimestamp;
 
+    /**
+     * Handles the records of this session, kept between records so they do
+     * not each create a handler.
+     */
+    private final AtomicReference<SubscriberHttpANSHandler> recordHandler =
+            new AtomicReference<SubscriberHttpANSHandler>();
+
     /**
      * Create a {@link SubscriberHttpSessionImpl} object.
      *
@@ -127,10 +142,36 @@ public class SubscriberHttpSessionImpl implements SubscriberSession {
         this.lastTouchedTimestamp = LocalDateTime.now();
     }
 
+    /**
+     * Take the handler kept for the records of this session. Until it is
+     * given back with {@link #returnRecordHandler(SubscriberHttpANSHandler)}
+     * no other request can take it, so it is never used for two records at
+     * once.
+     *
+     * @return The handler, or <code>null</code> if none has been created yet
+     *         or another request is using it.
+     */
+    public SubscriberHttpANSHandler takeRecordHandler()
+    {
+        return this.recordHandler.getAndSet(null);
+    }
+
+    /**
+     * Keep a handler for the next record of this session.
+     *
+     * @param handler
+     *            A handler for this session that is no longer in use.
+     */
+    public void returnRecordHandler(final SubscriberHttpANSHandler handler)
+    {
+        this.recordHandler.compareAndSet(null, handler);
+    }
+
     @Override
-    public void resetJournalOffset()
+    public synchronized void resetJournalOffset()
     {
         this.journalResumeOffset = 0;
+        this.journalResumeDigestCheckpoint = null;
     }
 
     public String getDigestType(final String algorithm) {
@@ -212,7 +253,7 @@ public class SubscriberHttpSessionImpl implements SubscriberSession {
     /**
      * @return the journalResumeOffset
      */
-    public long getJournalResumeOffset() {
+    public synchronized long getJournalResumeOffset() {
         return this.journalResumeOffset;
     }
 
@@ -236,24 +277,131 @@ public class SubscriberHttpSessionImpl implements SubscriberSession {
     /**
      * @param journalResumeOffset the journalResumeOffset to set
      */
-    public void setJournalResumeOffset(final long journalResumeOffset) {
+    public synchronized void setJournalResumeOffset(final long journalResumeOffset) {
         this.journalResumeOffset = journalResumeOffset;
     }
 
     /**
      * @return the journalResumeIS
      */
-    public InputStream getJournalResumeIS() {
+    public synchronized InputStream getJournalResumeIS() {
         return journalResumeIS;
     }
 
     /**
      * @param journalResumeIS the {@link InputStream} to set
      */
-    public void setJournalResumeIS(final InputStream journalResumeIS) {
+    public synchronized void setJournalResumeIS(final InputStream journalResumeIS) {
         this.journalResumeIS = journalResumeIS;
     }
 
+    /**
+     * @return the digest checkpoint saved with the partial journal record, or
+     *         null if there is none
+     */
+    public synchronized byte[] getJournalResumeDigestCheckpoint() {
+        return this.journalResumeDigestCheckpoint;
+    }
+
+    /**
+     * @param journalResumeDigestCheckpoint the digest checkpoint saved with
+     *        the partial journal record, taken at the resume offset
+     */
+    public synchronized void setJournalResumeDigestCheckpoint(final byte[] journalResumeDigestCheckpoint) {
+        this.journalResumeDigestCheckpoint = journalResumeDigestCheckpoint;
+    }
+
+    /**
+     * @return the limits on how long each record of the session may take to
+     *         arrive
+     */
+    public ReadLimits getReadLimits() {
+        return this.readLimits;
+    }
+
+    /**
+     * @param readLimits the limits on how long each record of the session may
+     *        take to arrive
+     */
+    public void setReadLimits(final ReadLimits readLimits) {
+        if (readLimits == null) {
+            throw new IllegalArgumentException("'readLimits' is required.");
+        }
+        this.readLimits = readLimits;
+    }
+
+    /**
+     * @return the most bytes the system or application metadata of each
+     *         record may decode to, or 0 for no limit
+     */
+    public long getMaxDecodedMetadataBytes() {
+        return this.maxDecodedMetadataBytes;
+    }
+
+    /**
+     * @param maxDecodedMetadataBytes the most bytes the system or
+     *        application metadata of each record may decode to, or 0 for no
+     *        limit
+     */
+    public void setMaxDecodedMetadataBytes(final long maxDecodedMetadataBytes) {
+        if (maxDecodedMetadataBytes < 0) {
+            throw new IllegalArgumentException("'maxDecodedMetadataBytes' must not be negative.");
+        }
+        this.maxDecodedMetadataBytes = maxDecodedMetadataBytes;
+    }
+
+    /**
+     * @return the JAL-Ids recently confirmed from the publisher, or null if
+     *         they are not kept
+     */
+    public RecentJalIds getRecentJalIds() {
+        return this.recentJalIds;
+    }
+
+    /**
+     * @param recentJalIds the JAL-Ids recently confirmed from the publisher,
+     *        or null to not keep them
+     */
+    public void setRecentJalIds(final RecentJalIds recentJalIds) {
+        this.recentJalIds = recentJalIds;
+    }
+
+    /**
+     * @return the JAL-Id of the journal record to resume, or null if there is
+     *         none or it has already been claimed
+     */
+    public synchronized String getJournalResumeJalId() {
+        return this.journalResumeJalId;
+    }
+
+    /**
+     * @param journalResumeJalId the JAL-Id of the journal record the resume
+     *        offset applies to
+     */
+    public synchronized void setJournalResumeJalId(final String journalResumeJalId) {
+        this.journalResumeJalId = journalResumeJalId;
+    }
+
+    /**
+     * Claim the journal resume for a record. The resume only applies to the
+     * record with the JAL-Id sent in the initialize-ack, whenever in the
+     * session it arrives, and only once; other records are received whole.
+     *
+     * @param jalId
+     *            The JAL-Id of the record being received.
+     * @return true if the caller should resume <code>jalId</code> from
+     *         {@link #getJournalResumeOffset()}, reading the data already
+     *         received from {@link #getJournalResumeIS()}.
+     */
+    public synchronized boolean claimJournalResume(final String jalId) {
+        if (this.journalResumeJalId == null || this.journalResumeOffset <= 0
+                || !this.journalResumeJalId.equals(jalId)) {
+            return false;
+        }
+        this.journalResumeJalId = null;
+        return true;
+    }
+
     @Override
     public Role getRole() {
         return Role.Subscriber;
@@ -0,0 +1,152 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests for turning away new sessions and records while the output volume
+ * is nearly full or slow.
+ */
+public class DiskPressureTest {
+
+    private static final long MS = 1000000;
+
+    /** A volume whose free space and write latency are set by the test. */
+    private static class FakeVolume extends DiskPressure {
+        long free;
+        long latencyNanos;
+
+        FakeVolume(final long minFree, final long resumeFree, final long maxLatency, final long resumeLatency) {
+            super(new File("."), minFree, resumeFree, maxLatency, resumeLatency, 0, null);
+        }
+
+        @Override
+        long measureFreeBytes() {
+            return this.free;
+        }
+
+        @Override
+        long measureWriteLatencyNanos() throws IOException {
+            if (this.latencyNanos < 0) {
+                throw new IOException("No space left on device");
+            }
+            return this.latencyNanos;
+        }
+    }
+
+    @Test
+    public void testFreeSpaceHasHysteresis() {
+        final FakeVolume volume = new FakeVolume(1000, 2000, 0, 0);
+        volume.free = 5000;
+        assertTrue(volume.admit());
+
+        volume.free = 999;
+        assertFalse(volume.admit());
+        assertEquals(999, volume.getFreeBytes());
+
+        // Back above the minimum, but not yet above the resume level.
+        volume.free = 1500;
+        assertFalse(volume.admit());
+        volume.free = 2001;
+        assertTrue(volume.admit());
+        assertEquals(1, volume.getPressureEpisodes());
+    }
+
+    @Test
+    public void testWriteLatencyHasHysteresis() {
+        final FakeVolume volume = new FakeVolume(0, 0, 100, 20);
+        volume.latencyNanos = 50 * MS;
+        assertTrue(volume.admit());
+        assertEquals(-1, volume.getFreeBytes());
+
+        volume.latencyNanos = 101 * MS;
+        assertFalse(volume.admit());
+        assertEquals(101, volume.getWriteLatencyMillis());
+
+        volume.latencyNanos = 50 * MS;
+        assertFalse(volume.admit());
+        volume.latencyNanos = 20 * MS;
+        assertTrue(volume.admit());
+    }
+
+    @Test
+    public void testPressureEndsOnlyWhenBothAreClear() {
+        final FakeVolume volume = new FakeVolume(1000, 1000, 100, 100);
+        volume.free = 500;
+        volume.latencyNanos = 10 * MS;
+        assertFalse(volume.admit());
+
+        // Space freed up, but writes are now slow.
+        volume.free = 5000;
+        volume.latencyNanos = 200 * MS;
+        assertFalse(volume.admit());
+
+        volume.latencyNanos = 10 * MS;
+        assertTrue(volume.admit());
+        assertEquals(1, volume.getPressureEpisodes());
+    }
+
+    @Test
+    public void testFailedWriteIsPressure() {
+        final FakeVolume volume = new FakeVolume(0, 0, 100, 0);
+        volume.latencyNanos = -1;
+        assertFalse(volume.admit());
+        assertTrue(volume.isUnderPressure());
+    }
+
+    @Test
+    public void testVolumeIsOnlySampledOnceEachInterval() {
+        final DiskPressure pressure = new DiskPressure(new File("."), Long.MAX_VALUE, 0, 0, 0, 60000, null) {
+            @Override
+            long measureFreeBytes() {
+                return isUnderPressure() ? Long.MAX_VALUE : 0;
+            }
+        };
+        assertFalse(pressure.admit());
+        // The free space now reads as plenty, but is not read again yet.
+        assertFalse(pressure.admit());
+    }
+
+    @Test
+    public void testRealDirectoryIsMeasured() throws IOException {
+        final File directory = new File("./target/disk-pressure-test");
+        directory.mkdirs();
+        final DiskPressure pressure = new DiskPressure(directory, 1, 0, 60000, 0, 0, null);
+        assertTrue(pressure.admit());
+        assertTrue(pressure.getFreeBytes() > 0);
+        assertTrue(pressure.getWriteLatencyMillis() >= 0);
+        assertTrue(new File(directory, DiskPressure.PROBE_FILENAME).exists());
+    }
+
+    @Test
+    public void testMissingDirectoryIsCreated() throws IOException {
+        final File directory = new File("./target/disk-pressure-test-missing/output");
+        FileUtils.deleteDirectory(directory.getParentFile());
+        final DiskPressure pressure = new DiskPressure(directory, 1, 0, 60000, 0, 0, null);
+        assertTrue(pressure.admit());
+        assertTrue(pressure.getFreeBytes() > 0);
+        assertTrue(new File(directory, DiskPressure.PROBE_FILENAME).exists());
+    }
+
+    @Test
+    public void testDirectoryThatCannotBeCreatedIsNotPressure() throws IOException {
+        final File parent = new File("./target/disk-pressure-test-file");
+        FileUtils.writeStringToFile(parent, "not a directory", "UTF-8");
+        final DiskPressure pressure = new DiskPressure(new File(parent, "output"), 1, 0, 60000, 0, 0, null);
+        assertTrue(pressure.admit());
+        assertTrue(pressure.getFreeBytes() > 0);
+        assertEquals(-1, pressure.getWriteLatencyMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThresholdIsRejected() {
+        new DiskPressure(new File("."), -1, 0, 0, 0, 0, null);
+    }
+}
@@ -1,21 +1,30 @@
 package com.tresys.jalop.jnl.impl.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.UUID;
 
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import com.tresys.jalop.jnl.DigestStatus;
+import com.tresys.jalop.jnl.Mode;
 import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.Subscriber;
+import com.tresys.jalop.jnl.SubscriberSession;
+import com.tresys.jalop.jnl.impl.subscriber.RecentJalIds;
+import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
 
 /**
  * Tests for common utility class.
@@ -321,4 +330,62 @@ public class MessageProcessorTest {
         assertEquals(0, headers.size());
         assertEquals(true, errorHeaders.contains(HttpUtils.HDRS_INVALID_JOURNAL_OFFSET));
     }
+
+    @Test
+    public void testConfirmedRecordSentAgainIsAcknowledgedWithoutReading()
+    {
+        final DummySubscriber subscriber = new DummySubscriber() {
+            @Override
+            public boolean notifyDigestResponse(SubscriberSession sess, String nonce, DigestStatus status, Subscriber subscriber) {
+                return true;
+            }
+        };
+        final SubscriberHttpSessionImpl sess = new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, subscriber,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_NONE, 1, 1, true, null);
+        sess.setRecentJalIds(new RecentJalIds(10, null, null));
+        final SubscriberAndSession subscriberAndSession = new SubscriberAndSession(subscriber, sess);
+        final String jalId = UUID.randomUUID().toString();
+
+        final TreeMap<String, String> digestResponse = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        digestResponse.put(HttpUtils.HDRS_NONCE, jalId);
+        digestResponse.put(HttpUtils.HDRS_DIGEST_STATUS, HttpUtils.CONFIRMED);
+        assertTrue(MessageProcessor.processDigestResponseMessage(digestResponse, subscriberAndSession, new DigestResult(),
+                subscriber, null, new ArrayList<String>()));
+
+        final TreeMap<String, String> record = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        record.put(HttpUtils.HDRS_MESSAGE, HttpUtils.MSG_AUDIT);
+        record.put(HttpUtils.HDRS_NONCE, jalId);
+        record.put(HttpUtils.HDRS_SYS_META_LEN, "10");
+        record.put(HttpUtils.HDRS_APP_META_LEN, "0");
+        record.put(HttpUtils.HDRS_AUDIT_LEN, "10");
+        record.put(HttpUtils.HDRS_AUDIT_FORMAT, HttpUtils.ENC_XML);
+        final InputStream unread = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("A record already confirmed should not be read");
+            }
+        };
+
+        final DigestResult digestResult = new DigestResult();
+        assertTrue(MessageProcessor.processJALRecordMessage(record, unread, RecordType.Audit, subscriberAndSession,
+                digestResult, subscriber, null, new ArrayList<String>()));
+        assertTrue(digestResult.getDuplicate());
+        assertFalse(digestResult.getPerformDigest());
+    }
+
+    @Test
+    public void testGetRecordLengthCountsEverySegment()
+    {
+        final TreeMap<String, String> record = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        record.put(HttpUtils.HDRS_SYS_META_LEN, "100");
+        record.put(HttpUtils.HDRS_APP_META_LEN, "20");
+        record.put(HttpUtils.HDRS_JOURNAL_LEN, "3000");
+        assertEquals(3120, MessageProcessor.getRecordLength(record, RecordType.Journal));
+
+        // Headers of other types, and ones that are not numbers, count for nothing.
+        assertEquals(120, MessageProcessor.getRecordLength(record, RecordType.Log));
+        record.put(HttpUtils.HDRS_APP_META_LEN, "junk");
+        assertEquals(3100, MessageProcessor.getRecordLength(record, RecordType.Journal));
+    }
 }
@@ -0,0 +1,107 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.RecordType;
+
+/**
+ * Tests for sharing the subscriber's bandwidth between publishers.
+ */
+public class PublisherRateLimitsTest {
+
+    private static final long MS = 1000000;
+
+    private static Map<RecordType, Long> rate(final RecordType recordType, final long bytesPerSecond) {
+        final Map<RecordType, Long> rates = new EnumMap<RecordType, Long>(RecordType.class);
+        rates.put(recordType, bytesPerSecond);
+        return rates;
+    }
+
+    @Test
+    public void testNoLimitsIsDisabled() {
+        assertFalse(new PublisherRateLimits(null, 0, null).isEnabled());
+        assertFalse(new PublisherRateLimits(rate(RecordType.Log, 0), 0, null).isEnabled());
+        assertTrue(new PublisherRateLimits(rate(RecordType.Log, 1), 0, null).isEnabled());
+        assertTrue(new PublisherRateLimits(null, 1, null).isEnabled());
+    }
+
+    @Test
+    public void testPublisherIsHeldToItsRate() {
+        final PublisherRateLimits limits = new PublisherRateLimits(rate(RecordType.Journal, 1000), 0, null);
+        final long start = System.nanoTime();
+        assertEquals(0, limits.admit("a", RecordType.Journal, 600, start));
+        assertEquals(200, limits.admit("a", RecordType.Journal, 600, start));
+        assertEquals(1, limits.getThrottledRecords("a"));
+
+        // Another publisher, and another type, have buckets of their own.
+        assertEquals(0, limits.admit("b", RecordType.Journal, 600, start));
+        assertEquals(0, limits.admit("a", RecordType.Log, 1000000, start));
+
+        assertEquals(0, limits.admit("a", RecordType.Journal, 600, start + 200 * MS));
+    }
+
+    @Test
+    public void testLargeRecordIsSlowedNotRefused() {
+        final PublisherRateLimits limits = new PublisherRateLimits(rate(RecordType.Journal, 1000), 0, null);
+        final long start = System.nanoTime();
+        assertEquals(0, limits.admit("a", RecordType.Journal, 5000, start));
+        // It left the bucket 4000 bytes in debt.
+        assertEquals(5000, limits.admit("a", RecordType.Journal, 1000, start));
+        assertEquals(0, limits.admit("a", RecordType.Journal, 1000, start + 5000 * MS));
+    }
+
+    @Test
+    public void testBusyPublisherYieldsToOthersWhenContended() {
+        final PublisherRateLimits limits = new PublisherRateLimits(null, 10000, null);
+        final long start = System.nanoTime();
+        assertEquals(0, limits.admit("noisy", RecordType.Log, 3000, start));
+        assertEquals(0, limits.admit("noisy", RecordType.Log, 3000, start));
+        assertEquals(0, limits.admit("quiet", RecordType.Log, 1000, start));
+
+        // Less than half the total is left, and the noisy publisher has sent
+        // more than half of it.
+        assertTrue(limits.admit("noisy", RecordType.Log, 1000, start) > 0);
+        assertEquals(0, limits.admit("quiet", RecordType.Log, 1000, start));
+        assertEquals(1, limits.getThrottledRecords());
+    }
+
+    @Test
+    public void testWeightsSetTheShares() {
+        final Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("heavy", 3);
+        final PublisherRateLimits limits = new PublisherRateLimits(null, 10000, weights);
+        final long start = System.nanoTime();
+        assertEquals(0, limits.admit("heavy", RecordType.Log, 4000, start));
+        assertEquals(0, limits.admit("light", RecordType.Log, 2000, start));
+
+        // Two thirds of what was sent is within a three quarter share.
+        assertEquals(0, limits.admit("heavy", RecordType.Log, 1000, start));
+        // A third is over a one quarter share.
+        assertTrue(limits.admit("light", RecordType.Log, 1000, start) > 0);
+    }
+
+    @Test
+    public void testLonePublisherMayUseTheWholeTotal() {
+        final PublisherRateLimits limits = new PublisherRateLimits(null, 10000, null);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limits.admit("a", RecordType.Log, 1000, start));
+        }
+        assertTrue(limits.admit("a", RecordType.Log, 1000, start) > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWeightIsRejected() {
+        final Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("a", 0);
+        new PublisherRateLimits(null, 1, weights);
+    }
+}
@@ -0,0 +1,79 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for the limits on how long a record may take to arrive.
+ */
+public class ReadLimitsTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testNoneIsDisabled() throws Exception {
+        assertFalse(ReadLimits.NONE.isEnabled());
+        ReadLimits.NONE.check(Long.MAX_VALUE, Long.MAX_VALUE, 0);
+        assertTrue(new ReadLimits(1, 0, 0).isEnabled());
+        assertTrue(new ReadLimits(0, 1, 0).isEnabled());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final ReadLimits limits = new ReadLimits(100, 0, 0);
+        limits.check(100 * MS, 100 * MS, 0);
+        assertViolation(ReadLimits.Violation.DEADLINE, limits, 101 * MS, 0, 1000000);
+    }
+
+    @Test
+    public void testRateIsCheckedAfterGrace() throws Exception {
+        final ReadLimits limits = new ReadLimits(0, 1000, 500);
+        // Nothing yet, but still within the grace period.
+        limits.check(500 * MS, 500 * MS, 0);
+        // 1000 bytes in a second is fast enough.
+        limits.check(1000 * MS, 1000 * MS, 1000);
+        assertViolation(ReadLimits.Violation.THROUGHPUT, limits, 1000 * MS, 1000 * MS, 999);
+    }
+
+    @Test
+    public void testTimeNotSpentWaitingIsNotCounted() throws Exception {
+        // A subscriber slow to take the data does not make the publisher slow.
+        new ReadLimits(0, 1000, 0).check(60000 * MS, 10 * MS, 10);
+    }
+
+    @Test
+    public void testWaitLeftBreaksTheLimit() throws Exception {
+        assertEquals(0, ReadLimits.NONE.deadlineLeftMillis(Long.MAX_VALUE));
+        assertEquals(0, ReadLimits.NONE.rateLeftMillis(Long.MAX_VALUE, 0));
+
+        final ReadLimits limits = new ReadLimits(100, 1000, 500);
+        assertEquals(61, limits.deadlineLeftMillis(40 * MS));
+        assertViolation(ReadLimits.Violation.DEADLINE, limits, 101 * MS, 0, 1000000);
+        assertEquals(1, limits.deadlineLeftMillis(1000 * MS));
+
+        // Within the grace period, then as long as the bytes so far allow.
+        assertEquals(301, limits.rateLeftMillis(200 * MS, 0));
+        assertEquals(801, limits.rateLeftMillis(1000 * MS, 1800));
+        assertViolation(ReadLimits.Violation.THROUGHPUT, limits, 0, 1801 * MS, 1800);
+        assertEquals(1, limits.rateLeftMillis(5000 * MS, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimitIsRejected() {
+        new ReadLimits(0, -1, 0);
+    }
+
+    private static void assertViolation(final ReadLimits.Violation expected, final ReadLimits limits,
+            final long elapsedNanos, final long waitNanos, final long bytesRead) {
+        try {
+            limits.check(elapsedNanos, waitNanos, bytesRead);
+            fail("Limit was not exceeded");
+        } catch (final ReadLimitExceededException e) {
+            assertEquals(expected, e.getViolation());
+        }
+    }
+}
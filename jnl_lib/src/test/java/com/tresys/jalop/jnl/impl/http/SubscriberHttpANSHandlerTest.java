@@ -0,0 +1,1012 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.sax.EXIResult;
+
+import com.tresys.jalop.jnl.DigestCheckpoint;
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordInfo;
+import com.tresys.jalop.jnl.RecordSink;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.Subscriber;
+import com.tresys.jalop.jnl.SubscriberSession;
+import com.tresys.jalop.jnl.impl.subscriber.ResumableDigest;
+import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
+
+/**
+ * Tests for decoding of metadata received in JAL records.
+ */
+public class SubscriberHttpANSHandlerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] BREAK = "BREAK".getBytes();
+
+    private static final byte[] SYS_METADATA = document("JALRecords",
+            "<JALRecord><Hostname>host.example.com</Hostname><ApplicationName>app</ApplicationName></JALRecord>\n", 30);
+    private static final byte[] APP_METADATA = document("ApplicationMetadata",
+            "<Event><EventID>123</EventID></Event>\n", 15);
+    private static final byte[] NAMESPACED_METADATA = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<JALRecord xmlns=\"http://www.dod.mil/jalop-1.0/systemMetadata\" JID=\"UUID-1\">"
+            + "<RecordType>audit</RecordType><Hostname>h\u00f6st</Hostname>"
+            + "<ds:Signature xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">"
+            + "<ds:Reference URI=\"#UUID-1\" ds:Type=\"a &lt; b\"/></ds:Signature>"
+            + "<Timestamp>2012-01-01T00:00:00Z</Timestamp></JALRecord>").getBytes(UTF8);
+    private static final byte[] PAYLOAD = "<payload>data</payload>".getBytes();
+
+    /**
+     * Records the data delivered by the handler.
+     */
+    private static class CapturingSubscriber extends DummySubscriber {
+        byte[] sysMetadata;
+        byte[] appMetadata;
+        byte[] payload;
+        long offset;
+
+        @Override
+        public boolean notifySysMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream sysMetaData, final Subscriber subscriber) {
+            this.sysMetadata = readAll(sysMetaData);
+            return this.sysMetadata != null;
+        }
+
+        @Override
+        public boolean notifyAppMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream appMetaData, final Subscriber subscriber) {
+            this.appMetadata = readAll(appMetaData);
+            return this.appMetadata != null;
+        }
+
+        @Override
+        public boolean notifyPayload(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream payload, final Subscriber subscriber) {
+            this.payload = readAll(payload);
+            this.offset = recordInfo.getOffset();
+            return this.payload != null;
+        }
+
+        @Override
+        public boolean notifyDigest(final SubscriberSession sess, final RecordInfo recordInfo,
+                final byte[] digest, final Subscriber subscriber) {
+            return true;
+        }
+    }
+
+    /**
+     * Takes a digest checkpoint after reading the payload, or after reading
+     * part of it and then failing, as if the connection was lost.
+     */
+    private static class CheckpointingSubscriber extends CapturingSubscriber {
+        int stopAfter = -1;
+        byte[] checkpoint;
+
+        @Override
+        public boolean notifyPayload(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream payload, final Subscriber subscriber) {
+            if (this.stopAfter < 0) {
+                final boolean ret = super.notifyPayload(sess, recordInfo, payload, subscriber);
+                this.checkpoint = ((DigestCheckpoint) recordInfo).getDigestCheckpoint();
+                return ret;
+            }
+            try {
+                for (int i = 0; i < this.stopAfter; i++) {
+                    payload.read();
+                }
+            } catch (final IOException e) {
+                return false;
+            }
+            this.checkpoint = ((DigestCheckpoint) recordInfo).getDigestCheckpoint();
+            return false;
+        }
+    }
+
+    /**
+     * Records the calls and data pushed by the handler.
+     */
+    private static class SinkSubscriber extends DummySubscriber implements RecordSink {
+        final List<String> events = new ArrayList<String>();
+        final Map<Segment, ByteArrayOutputStream> data = new HashMap<Segment, ByteArrayOutputStream>();
+        int largestChunk = 0;
+        Segment failOn = null;
+
+        @Override
+        public boolean notifySysMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream sysMetaData, final Subscriber subscriber) {
+            fail("Streams are not used for a RecordSink");
+            return false;
+        }
+
+        @Override
+        public boolean notifyAppMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream appMetaData, final Subscriber subscriber) {
+            fail("Streams are not used for a RecordSink");
+            return false;
+        }
+
+        @Override
+        public boolean notifyPayload(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream payload, final Subscriber subscriber) {
+            fail("Streams are not used for a RecordSink");
+            return false;
+        }
+
+        @Override
+        public boolean notifyDigest(final SubscriberSession sess, final RecordInfo recordInfo,
+                final byte[] digest, final Subscriber subscriber) {
+            this.events.add("digest");
+            return true;
+        }
+
+        @Override
+        public boolean onSegmentStart(final SubscriberSession sess, final RecordInfo recordInfo,
+                final Segment segment, final Subscriber subscriber) {
+            this.events.add("start " + segment);
+            this.data.put(segment, new ByteArrayOutputStream());
+            return true;
+        }
+
+        @Override
+        public boolean onChunk(final SubscriberSession sess, final RecordInfo recordInfo,
+                final Segment segment, final ByteBuffer chunk, final Subscriber subscriber) {
+            this.largestChunk = Math.max(this.largestChunk, chunk.remaining());
+            while (chunk.hasRemaining()) {
+                this.data.get(segment).write(chunk.get());
+            }
+            return segment != this.failOn;
+        }
+
+        @Override
+        public boolean onSegmentEnd(final SubscriberSession sess, final RecordInfo recordInfo,
+                final Segment segment, final Subscriber subscriber) {
+            this.events.add("end " + segment);
+            return true;
+        }
+
+        @Override
+        public boolean onRecordEnd(final SubscriberSession sess, final RecordInfo recordInfo,
+                final Subscriber subscriber) {
+            this.events.add("record end");
+            return true;
+        }
+
+        byte[] get(final Segment segment) {
+            return this.data.get(segment).toByteArray();
+        }
+    }
+
+    @Test
+    public void testNoCompressionDeliversDataAsSent() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final String digest = ingest(sub, HttpUtils.XML_COMPRESSION_NONE, SYS_METADATA, APP_METADATA);
+
+        assertArrayEquals(SYS_METADATA, sub.sysMetadata);
+        assertArrayEquals(APP_METADATA, sub.appMetadata);
+        assertArrayEquals(PAYLOAD, sub.payload);
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), digest);
+    }
+
+    @Test
+    public void testDeflateMetadataIsInflated() throws Exception {
+        final byte[] sysWire = deflate(SYS_METADATA, false);
+        final byte[] appWire = deflate(APP_METADATA, false);
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final String digest = ingest(sub, "Deflate", sysWire, appWire);
+
+        assertArrayEquals(SYS_METADATA, sub.sysMetadata);
+        assertArrayEquals(APP_METADATA, sub.appMetadata);
+        assertArrayEquals(PAYLOAD, sub.payload);
+        // The digest covers the metadata as sent.
+        assertEquals(sha256(sysWire, appWire, PAYLOAD), digest);
+    }
+
+    @Test
+    public void testRawDeflateMetadataIsInflated() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        ingest(sub, HttpUtils.XML_COMPRESSION_DEFLATE, deflate(SYS_METADATA, true), deflate(APP_METADATA, true));
+
+        assertArrayEquals(SYS_METADATA, sub.sysMetadata);
+        assertArrayEquals(APP_METADATA, sub.appMetadata);
+    }
+
+    @Test
+    public void testEmptyAppMetadataWithDeflate() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        ingest(sub, HttpUtils.XML_COMPRESSION_DEFLATE, deflate(SYS_METADATA, false), new byte[0]);
+
+        assertArrayEquals(SYS_METADATA, sub.sysMetadata);
+        assertEquals(0, sub.appMetadata.length);
+    }
+
+    @Test
+    public void testTruncatedDeflateMetadataFails() throws Exception {
+        final byte[] sysWire = deflate(SYS_METADATA, false);
+        final byte[] truncated = new byte[sysWire.length / 2];
+        System.arraycopy(sysWire, 0, truncated, 0, truncated.length);
+
+        assertNull(ingest(new CapturingSubscriber(), HttpUtils.XML_COMPRESSION_DEFLATE, truncated, deflate(APP_METADATA, false)));
+    }
+
+    @Test
+    public void testMetadataInflatingPastLimitFails() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, sub,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_DEFLATE, 1, 1, true, null);
+        sess.setMaxDecodedMetadataBytes(1024 * 1024);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        // A few KB on the wire that inflate to 4 MB.
+        final byte[] bomb = deflate(new byte[4 * 1024 * 1024], false);
+        assertTrue(bomb.length < 8192);
+        assertNull(ingest(handler, sub, bomb, deflate(APP_METADATA, false), PAYLOAD));
+        assertNull(sub.sysMetadata);
+        assertNotNull(handler.getMetadataLimitFailure());
+
+        // Metadata within the limit is still accepted.
+        assertEquals(sha256(deflate(SYS_METADATA, false), deflate(APP_METADATA, false), PAYLOAD),
+                ingest(handler, sub, deflate(SYS_METADATA, false), deflate(APP_METADATA, false), PAYLOAD));
+        assertNull(handler.getMetadataLimitFailure());
+        assertArrayEquals(SYS_METADATA, sub.sysMetadata);
+    }
+
+    @Test
+    public void testExiMetadataIsDecoded() throws Exception {
+        final byte[] sysWire = exi(NAMESPACED_METADATA);
+        final byte[] appWire = exi(APP_METADATA);
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final String digest = ingest(sub, "EXI-1.0", sysWire, appWire);
+
+        assertSameXml(NAMESPACED_METADATA, sub.sysMetadata);
+        assertSameXml(APP_METADATA, sub.appMetadata);
+        assertArrayEquals(PAYLOAD, sub.payload);
+        // The digest covers the metadata as sent.
+        assertEquals(sha256(sysWire, appWire, PAYLOAD), digest);
+    }
+
+    @Test
+    public void testLargeExiMetadataIsDecodedInChunks() throws Exception {
+        final byte[] doc = document("Entries", "<Entry id=\"1\">value &amp; more</Entry>", 5000);
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        ingest(sub, HttpUtils.XML_COMPRESSION_EXI, exi(doc), exi(APP_METADATA));
+
+        assertTrue(sub.sysMetadata.length > ExiMetadataStream.CHUNK_SIZE);
+        assertSameXml(doc, sub.sysMetadata);
+    }
+
+    @Test
+    public void testInvalidExiMetadataFails() throws Exception {
+        assertNull(ingest(new CapturingSubscriber(), HttpUtils.XML_COMPRESSION_EXI, SYS_METADATA, exi(APP_METADATA)));
+    }
+
+    @Test
+    public void testRecordSinkReceivesSegmentsInOrder() throws Exception {
+        final SinkSubscriber sub = new SinkSubscriber();
+        final String digest = ingest(sub, HttpUtils.XML_COMPRESSION_NONE, SYS_METADATA, new byte[0]);
+
+        assertEquals(Arrays.asList("start SysMetadata", "end SysMetadata",
+                "start AppMetadata", "end AppMetadata",
+                "start Payload", "end Payload",
+                "record end", "digest"), sub.events);
+        assertArrayEquals(SYS_METADATA, sub.get(RecordSink.Segment.SysMetadata));
+        assertEquals(0, sub.get(RecordSink.Segment.AppMetadata).length);
+        assertArrayEquals(PAYLOAD, sub.get(RecordSink.Segment.Payload));
+        assertEquals(sha256(SYS_METADATA, PAYLOAD), digest);
+    }
+
+    @Test
+    public void testRecordSinkReceivesLargeSegmentsInChunks() throws Exception {
+        final byte[] payload = document("Entries", "<Entry>value</Entry>", 2000);
+        final SinkSubscriber sub = new SinkSubscriber();
+        final String digest = ingest(sub, HttpUtils.XML_COMPRESSION_NONE, SYS_METADATA, APP_METADATA, payload);
+
+        assertTrue(payload.length > SubscriberHttpANSHandler.BUFFER_SIZE);
+        assertEquals(SubscriberHttpANSHandler.BUFFER_SIZE, sub.largestChunk);
+        assertArrayEquals(payload, sub.get(RecordSink.Segment.Payload));
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, payload), digest);
+    }
+
+    @Test
+    public void testRecordSinkReceivesDecodedMetadata() throws Exception {
+        final SinkSubscriber sub = new SinkSubscriber();
+        ingest(sub, HttpUtils.XML_COMPRESSION_DEFLATE, deflate(SYS_METADATA, false), deflate(APP_METADATA, true));
+
+        assertArrayEquals(SYS_METADATA, sub.get(RecordSink.Segment.SysMetadata));
+        assertArrayEquals(APP_METADATA, sub.get(RecordSink.Segment.AppMetadata));
+    }
+
+    @Test
+    public void testRecordSinkCanRejectRecord() throws Exception {
+        final SinkSubscriber sub = new SinkSubscriber();
+        sub.failOn = RecordSink.Segment.AppMetadata;
+
+        assertNull(ingest(sub, HttpUtils.XML_COMPRESSION_NONE, SYS_METADATA, APP_METADATA));
+        assertEquals(Arrays.asList("start SysMetadata", "end SysMetadata", "start AppMetadata"), sub.events);
+    }
+
+    @Test
+    public void testHandlerIsReusedForEveryRecordOfASession() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, SYS_METADATA, APP_METADATA, PAYLOAD));
+
+        final byte[] payload = document("Entries", "<Entry>value</Entry>", 500);
+        assertEquals(sha256(SYS_METADATA, new byte[0], payload), ingest(handler, sub, SYS_METADATA, new byte[0], payload));
+        assertArrayEquals(payload, sub.payload);
+        assertEquals(0, sub.appMetadata.length);
+    }
+
+    @Test
+    public void testHandlerRecoversFromFailedRecord() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        // The BREAK after the system metadata is missing.
+        final byte[] bad = "no break here".getBytes();
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, 0, 1, "audit", RecordType.Audit,
+                UUID.randomUUID().toString(), new ByteArrayInputStream(bad), sub));
+
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertArrayEquals(PAYLOAD, sub.payload);
+    }
+
+    @Test
+    public void testSessionLendsItsHandlerToOneRequestAtATime() throws Exception {
+        final SubscriberHttpSessionImpl sess = session(new CapturingSubscriber());
+        assertNull(sess.takeRecordHandler());
+
+        final SubscriberHttpANSHandler first = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        final SubscriberHttpANSHandler second = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        sess.returnRecordHandler(first);
+        // Only one handler is kept.
+        sess.returnRecordHandler(second);
+
+        assertSame(first, sess.takeRecordHandler());
+        assertNull(sess.takeRecordHandler());
+    }
+
+    @Test
+    public void testJournalResumeAppliesOnlyToItsJalId() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        final String resumeJalId = UUID.randomUUID().toString();
+        final byte[] rest = Arrays.copyOfRange(PAYLOAD, 10, PAYLOAD.length);
+        sess.setJournalResumeOffset(10);
+        sess.setJournalResumeIS(new ByteArrayInputStream(Arrays.copyOf(PAYLOAD, 10)));
+        sess.setJournalResumeJalId(resumeJalId);
+
+        // A record sent before the resumed one is received whole.
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD),
+                ingest(handler, sub, UUID.randomUUID().toString(), SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertEquals(0, sub.offset);
+
+        // The digest of the resumed record covers the part already received.
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD),
+                ingest(handler, sub, resumeJalId, SYS_METADATA, APP_METADATA, rest));
+        assertEquals(10, sub.offset);
+        assertArrayEquals(rest, sub.payload);
+
+        // The resume only applies once.
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD),
+                ingest(handler, sub, resumeJalId, SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertEquals(0, sub.offset);
+        assertEquals(0, sess.getJournalResumeOffset());
+    }
+
+    @Test
+    public void testJournalResumesFromDigestCheckpoint() throws Exception {
+        final CheckpointingSubscriber sub = new CheckpointingSubscriber();
+        final SubscriberHttpSessionImpl sess = journalSession(sub);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                ResumableDigest.getInstance("SHA-256"), sess, true, null);
+        final String jalId = UUID.randomUUID().toString();
+
+        sub.stopAfter = 10;
+        assertNull(ingest(handler, sub, RecordType.Journal, jalId, SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertTrue(sub.checkpoint != null);
+
+        // The part already received is not read again.
+        sub.stopAfter = -1;
+        sess.setJournalResumeOffset(10);
+        sess.setJournalResumeIS(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("The checkpoint should have been used");
+            }
+        });
+        sess.setJournalResumeJalId(jalId);
+        sess.setJournalResumeDigestCheckpoint(sub.checkpoint);
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, RecordType.Journal, jalId,
+                SYS_METADATA, APP_METADATA, Arrays.copyOfRange(PAYLOAD, 10, PAYLOAD.length)));
+        assertEquals(10, sub.offset);
+        assertNull(sess.getJournalResumeDigestCheckpoint());
+    }
+
+    @Test
+    public void testDigestCheckpointAtOtherOffsetIsNotUsed() throws Exception {
+        final CheckpointingSubscriber sub = new CheckpointingSubscriber();
+        final SubscriberHttpSessionImpl sess = journalSession(sub);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                ResumableDigest.getInstance("SHA-256"), sess, true, null);
+        final String jalId = UUID.randomUUID().toString();
+
+        sub.stopAfter = 12;
+        assertNull(ingest(handler, sub, RecordType.Journal, jalId, SYS_METADATA, APP_METADATA, PAYLOAD));
+
+        // Only 10 bytes were kept, so the checkpoint at 12 does not apply.
+        sub.stopAfter = -1;
+        sess.setJournalResumeOffset(10);
+        sess.setJournalResumeIS(new ByteArrayInputStream(Arrays.copyOf(PAYLOAD, 10)));
+        sess.setJournalResumeJalId(jalId);
+        sess.setJournalResumeDigestCheckpoint(sub.checkpoint);
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, RecordType.Journal, jalId,
+                SYS_METADATA, APP_METADATA, Arrays.copyOfRange(PAYLOAD, 10, PAYLOAD.length)));
+
+        // Nor does one taken over different meta-data.
+        final byte[] otherSys = "<sys>other</sys>".getBytes();
+        sub.stopAfter = 10;
+        assertNull(ingest(handler, sub, RecordType.Journal, jalId, otherSys, APP_METADATA, PAYLOAD));
+        sub.stopAfter = -1;
+        sess.setJournalResumeOffset(10);
+        sess.setJournalResumeIS(new ByteArrayInputStream(Arrays.copyOf(PAYLOAD, 10)));
+        sess.setJournalResumeJalId(jalId);
+        sess.setJournalResumeDigestCheckpoint(sub.checkpoint);
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, RecordType.Journal, jalId,
+                SYS_METADATA, APP_METADATA, Arrays.copyOfRange(PAYLOAD, 10, PAYLOAD.length)));
+    }
+
+    @Test
+    public void testShortRecordFailsWithoutWaiting() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), session(sub), true, null);
+
+        // The stream ends early but claims there is more to read.
+        final InputStream truncated = new ByteArrayInputStream(Arrays.copyOf(record(SYS_METADATA, APP_METADATA, PAYLOAD), 10)) {
+            @Override
+            public synchronized int available() {
+                return 1;
+            }
+        };
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, PAYLOAD.length, "audit",
+                RecordType.Audit, UUID.randomUUID().toString(), truncated, sub));
+        assertNull(handler.getReadLimitFailure());
+    }
+
+    @Test
+    public void testRecordPastDeadlineIsAbandoned() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        sess.setReadLimits(new ReadLimits(50, 0, 0));
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        final byte[] payload = new byte[1000];
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, payload.length, "audit",
+                RecordType.Audit, UUID.randomUUID().toString(), trickle(record(SYS_METADATA, APP_METADATA, payload), 10), sub));
+        assertEquals(ReadLimits.Violation.DEADLINE, handler.getReadLimitFailure().getViolation());
+
+        // The next record starts afresh.
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertNull(handler.getReadLimitFailure());
+    }
+
+    @Test
+    public void testRecordBelowMinimumRateIsAbandoned() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        sess.setReadLimits(new ReadLimits(0, 1000, 20));
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        // About 200 bytes a second.
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, PAYLOAD.length, "audit",
+                RecordType.Audit, UUID.randomUUID().toString(), trickle(record(SYS_METADATA, APP_METADATA, PAYLOAD), 5), sub));
+        assertEquals(ReadLimits.Violation.THROUGHPUT, handler.getReadLimitFailure().getViolation());
+    }
+
+    @Test
+    public void testStalledRecordIsAbandonedAtDeadline() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        sess.setReadLimits(new ReadLimits(100, 0, 0));
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        final StallingTimeout timeout = new StallingTimeout(500000);
+        handler.setReadTimeout(timeout);
+
+        // No data at all ever arrives for the payload.
+        final byte[] record = record(SYS_METADATA, APP_METADATA, PAYLOAD);
+        final long start = System.nanoTime();
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, PAYLOAD.length, "audit",
+                RecordType.Audit, UUID.randomUUID().toString(),
+                timeout.stall(Arrays.copyOf(record, record.length - PAYLOAD.length - 5)), sub));
+        assertEquals(ReadLimits.Violation.DEADLINE, handler.getReadLimitFailure().getViolation());
+        assertTrue(timeout.waitedMillis <= 101);
+        assertTrue(System.nanoTime() - start < 10000000000L);
+        assertEquals(500000, timeout.getTimeoutMillis());
+    }
+
+    @Test
+    public void testStalledRecordIsAbandonedBelowMinimumRate() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        sess.setReadLimits(new ReadLimits(0, 1000, 50));
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        final StallingTimeout timeout = new StallingTimeout(0);
+        handler.setReadTimeout(timeout);
+
+        assertNull(handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, PAYLOAD.length, "audit",
+                RecordType.Audit, UUID.randomUUID().toString(), timeout.stall(new byte[0]), sub));
+        assertEquals(ReadLimits.Violation.THROUGHPUT, handler.getReadLimitFailure().getViolation());
+        assertTrue(timeout.waitedMillis > 0 && timeout.waitedMillis <= 51);
+        assertEquals(0, timeout.getTimeoutMillis());
+    }
+
+    @Test
+    public void testReadLimitsAllowPromptRecord() throws Exception {
+        final CapturingSubscriber sub = new CapturingSubscriber();
+        final SubscriberHttpSessionImpl sess = session(sub);
+        sess.setReadLimits(new ReadLimits(60000, 1000, 0));
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+
+        assertEquals(sha256(SYS_METADATA, APP_METADATA, PAYLOAD), ingest(handler, sub, SYS_METADATA, APP_METADATA, PAYLOAD));
+        assertNull(handler.getReadLimitFailure());
+    }
+
+    /**
+     * The timeout of a connection whose publisher stops sending. A read with
+     * no data left fails, as the connection would, once the timeout passes.
+     */
+    private static class StallingTimeout implements ReadTimeout {
+        private long timeoutMillis;
+        long waitedMillis;
+
+        StallingTimeout(final long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public long getTimeoutMillis() {
+            return this.timeoutMillis;
+        }
+
+        @Override
+        public void setTimeoutMillis(final long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * @return A stream of <code>data</code>, after which reads wait out
+         *         the timeout.
+         */
+        InputStream stall(final byte[] data) {
+            return new FilterInputStream(new ByteArrayInputStream(data)) {
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    if (available() == 0) {
+                        timeOut();
+                    }
+                    return super.read(b, off, len);
+                }
+
+                @Override
+                public int read() throws IOException {
+                    if (available() == 0) {
+                        timeOut();
+                    }
+                    return super.read();
+                }
+            };
+        }
+
+        private void timeOut() throws IOException {
+            if (this.timeoutMillis <= 0 || this.timeoutMillis > 10000) {
+                fail("Read would wait for " + this.timeoutMillis + " ms");
+            }
+            try {
+                Thread.sleep(this.timeoutMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.waitedMillis = this.timeoutMillis;
+            throw new SocketTimeoutException("Idle timeout expired: " + this.timeoutMillis);
+        }
+    }
+
+    /**
+     * @return A stream of <code>data</code> that gives one byte per read,
+     *         <code>delayMillis</code> apart.
+     */
+    private static InputStream trickle(final byte[] data, final long delayMillis) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                pause();
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public synchronized int read() {
+                pause();
+                return super.read();
+            }
+
+            private void pause() {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static SubscriberHttpSessionImpl journalSession(final DummySubscriber sub) {
+        return new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Journal, Mode.Archive, sub,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_NONE, 1, 1, true, null);
+    }
+
+    private static SubscriberHttpSessionImpl session(final DummySubscriber sub) {
+        return new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, sub,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_NONE, 1, 1, true, null);
+    }
+
+    /**
+     * Compares ingest throughput with and without deflate compressed
+     * metadata. Only runs with -Dbenchmark=true, for example:
+     * mvn test -Dtest=SubscriberHttpANSHandlerTest -Dbenchmark=true
+     */
+    @Test
+    public void benchmarkDeflateIngest() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        final int records = Integer.getInteger("benchmarkRecords", 20000);
+        final byte[] sysWire = deflate(SYS_METADATA, false);
+        final byte[] appWire = deflate(APP_METADATA, false);
+        final byte[] sysExi = exi(SYS_METADATA);
+        final byte[] appExi = exi(APP_METADATA);
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            final long plain = time(HttpUtils.XML_COMPRESSION_NONE, SYS_METADATA, APP_METADATA, records);
+            final long deflated = time(HttpUtils.XML_COMPRESSION_DEFLATE, sysWire, appWire, records);
+            final long exi = time(HttpUtils.XML_COMPRESSION_EXI, sysExi, appExi, records);
+            if (round == 1) {
+                report("none", plain, records, SYS_METADATA.length + APP_METADATA.length);
+                report("deflate", deflated, records, sysWire.length + appWire.length);
+                report("exi-1.0", exi, records, sysExi.length + appExi.length);
+            }
+        }
+    }
+
+    /**
+     * Discards the data, without allocating, so that only the library's
+     * allocations are measured.
+     */
+    private static class DrainingSubscriber extends DummySubscriber {
+        private final byte[] buffer = new byte[SubscriberHttpANSHandler.BUFFER_SIZE];
+
+        private boolean drain(final InputStream in) {
+            try {
+                while (in.read(this.buffer, 0, this.buffer.length) != -1) {
+                    // discard
+                }
+                return true;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean notifySysMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream sysMetaData, final Subscriber subscriber) {
+            return drain(sysMetaData);
+        }
+
+        @Override
+        public boolean notifyAppMetadata(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream appMetaData, final Subscriber subscriber) {
+            return drain(appMetaData);
+        }
+
+        @Override
+        public boolean notifyPayload(final SubscriberSession sess, final RecordInfo recordInfo,
+                final InputStream payload, final Subscriber subscriber) {
+            return drain(payload);
+        }
+
+        @Override
+        public boolean notifyDigest(final SubscriberSession sess, final RecordInfo recordInfo,
+                final byte[] digest, final Subscriber subscriber) {
+            return true;
+        }
+    }
+
+    /**
+     * Reports the bytes the library allocates per record in a long running
+     * session, as the HTTP layer drives it. Only runs with -Dbenchmark=true,
+     * for example:
+     * mvn test -Dtest=SubscriberHttpANSHandlerTest#benchmarkRecordAllocation -Dbenchmark=true
+     */
+    @Test
+    public void benchmarkRecordAllocation() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        final int records = Integer.getInteger("benchmarkRecords", 200000);
+        final DrainingSubscriber sub = new DrainingSubscriber();
+        final SubscriberHttpSessionImpl sess = new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, sub,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_NONE, 1, 1, true, null);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] section : new byte[][] { SYS_METADATA, APP_METADATA, PAYLOAD }) {
+            out.write(section, 0, section.length);
+            out.write(BREAK, 0, BREAK.length);
+        }
+        final ByteArrayInputStream record = new ByteArrayInputStream(out.toByteArray());
+        final String jalId = UUID.randomUUID().toString();
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                record.reset();
+                assertTrue(process(sess, record, jalId, sub) != null);
+            }
+            final long nanos = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+            if (round == 1) {
+                System.out.println(String.format("%8.0f records/s, %6d bytes allocated/record",
+                        records / (nanos / 1e9), allocated / records));
+            }
+        }
+    }
+
+    /**
+     * Handles a record the way {@link MessageProcessor} does.
+     */
+    private static String process(final SubscriberHttpSessionImpl sess, final InputStream record,
+            final String jalId, final Subscriber sub) throws NoSuchAlgorithmException {
+        SubscriberHttpANSHandler handler = sess.takeRecordHandler();
+        if (handler == null) {
+            final MessageDigest md = MessageDigest.getInstance(sess.getDigestType(sess.getDigestMethod()));
+            handler = new SubscriberHttpANSHandler(md, sess, sess.getPerformDigest(), null);
+        }
+        try {
+            return handler.handleJALRecord(SYS_METADATA.length, APP_METADATA.length, PAYLOAD.length, "audit",
+                    RecordType.Audit, jalId, record, sub);
+        } finally {
+            sess.returnRecordHandler(handler);
+        }
+    }
+
+    private static long time(final String xmlEncoding, final byte[] sys, final byte[] app, final int records)
+            throws Exception {
+        final DummySubscriber sub = new CapturingSubscriber();
+        final long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            ingest(sub, xmlEncoding, sys, app);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(final String xmlEncoding, final long nanos, final int records, final int metadataWireBytes) {
+        final double seconds = nanos / 1e9;
+        System.out.println(String.format("%-8s %8.0f records/s, %6d metadata bytes/record on the wire, %7.1f MB/s of metadata on the wire",
+                xmlEncoding, records / seconds, metadataWireBytes, records * (double) metadataWireBytes / seconds / 1e6));
+    }
+
+    private static String ingest(final DummySubscriber sub, final String xmlEncoding, final byte[] sys, final byte[] app)
+            throws NoSuchAlgorithmException {
+        return ingest(sub, xmlEncoding, sys, app, PAYLOAD);
+    }
+
+    private static String ingest(final DummySubscriber sub, final String xmlEncoding, final byte[] sys, final byte[] app,
+            final byte[] payload) throws NoSuchAlgorithmException {
+        final SubscriberHttpSessionImpl sess = new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, sub,
+                "http://www.w3.org/2001/04/xmlenc#sha256", xmlEncoding, 1, 1, true, null);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        return ingest(handler, sub, sys, app, payload);
+    }
+
+    private static String ingest(final SubscriberHttpANSHandler handler, final DummySubscriber sub,
+            final byte[] sys, final byte[] app, final byte[] payload) {
+        return ingest(handler, sub, UUID.randomUUID().toString(), sys, app, payload);
+    }
+
+    private static String ingest(final SubscriberHttpANSHandler handler, final DummySubscriber sub,
+            final String jalId, final byte[] sys, final byte[] app, final byte[] payload) {
+        return ingest(handler, sub, RecordType.Audit, jalId, sys, app, payload);
+    }
+
+    private static String ingest(final SubscriberHttpANSHandler handler, final DummySubscriber sub,
+            final RecordType recordType, final String jalId, final byte[] sys, final byte[] app,
+            final byte[] payload) {
+        return handler.handleJALRecord(sys.length, app.length, payload.length,
+                recordType.toString().toLowerCase(), recordType, jalId, new ByteArrayInputStream(record(sys, app, payload)), sub);
+    }
+
+    private static byte[] record(final byte[] sys, final byte[] app, final byte[] payload) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(sys, 0, sys.length);
+        record.write(BREAK, 0, BREAK.length);
+        record.write(app, 0, app.length);
+        record.write(BREAK, 0, BREAK.length);
+        record.write(payload, 0, payload.length);
+        record.write(BREAK, 0, BREAK.length);
+        return record.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] data, final boolean raw) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] exi(final byte[] xml) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EXIResult result = new EXIResult(DefaultEXIFactory.newInstance());
+        result.setOutputStream(out);
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(result.getHandler());
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+        return out.toByteArray();
+    }
+
+    /**
+     * Compare two documents by their namespace URIs, names, attributes and
+     * text, ignoring the choice of namespace prefixes.
+     */
+    private static void assertSameXml(final byte[] expected, final byte[] actual) throws Exception {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        final Element e = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(expected)).getDocumentElement();
+        final Element a = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(actual)).getDocumentElement();
+        assertSameElement(e, a);
+    }
+
+    private static void assertSameElement(final Element expected, final Element actual) {
+        assertEquals(expected.getNamespaceURI(), actual.getNamespaceURI());
+        assertEquals(expected.getLocalName(), actual.getLocalName());
+        assertEquals(attributes(expected), attributes(actual));
+
+        // The EXI encoder drops whitespace-only text, which is not significant here.
+        final List<Node> e = children(expected);
+        final List<Node> a = children(actual);
+        assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(e.get(i).getNodeType(), a.get(i).getNodeType());
+            if (e.get(i).getNodeType() == Node.ELEMENT_NODE) {
+                assertSameElement((Element) e.get(i), (Element) a.get(i));
+            } else {
+                assertEquals(e.get(i).getNodeValue(), a.get(i).getNodeValue());
+            }
+        }
+    }
+
+    private static List<Node> children(final Element element) {
+        final List<Node> children = new ArrayList<Node>();
+        final NodeList nodes = element.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final Node n = nodes.item(i);
+            if (n.getNodeType() != Node.TEXT_NODE || !n.getNodeValue().trim().isEmpty()) {
+                children.add(n);
+            }
+        }
+        return children;
+    }
+
+    private static Map<String, String> attributes(final Element element) {
+        final Map<String, String> attrs = new HashMap<String, String>();
+        final NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            final Node attr = map.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                attrs.put("{" + attr.getNamespaceURI() + "}" + attr.getLocalName(), attr.getNodeValue());
+            }
+        }
+        return attrs;
+    }
+
+    private static String sha256(final byte[]... parts) throws NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (final byte[] p : parts) {
+            md.update(p);
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] readAll(final InputStream in) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[512];
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (final IOException e) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] document(final String root, final String element, final int count) {
+        final StringBuilder sb = new StringBuilder("<" + root + ">");
+        for (int i = 0; i < count; i++) {
+            sb.append(element);
+        }
+        return sb.append("</" + root + ">").toString().getBytes(UTF8);
+    }
+}
@@ -0,0 +1,455 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.exceptions.JNLException;
+
+/**
+ * Tests for the TLS settings of the subscriber. The benchmarks, of full
+ * against resumed handshakes and of AES-GCM record encryption for each JSSE
+ * provider, only run with -Dbenchmark=true, for example:
+ * mvn test -Dtest=TlsHandshakeTest -Dbenchmark=true -DfailIfNoTests=false
+ */
+public class TlsHandshakeTest {
+
+    /**
+     * A provider registered by class name, as one from another jar would
+     * be; it hands out the JDK's own TLS implementation.
+     */
+    public static class TestJsseProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        // Provider(String, String, String) is not available on Java 8.
+        @SuppressWarnings("deprecation")
+        public TestJsseProvider() {
+            super("JnlTestJsse", 1.0, "SunJSSE under another name");
+            put("SSLContext.TLS", "sun.security.ssl.SSLContextImpl$TLSContext");
+            put("KeyManagerFactory.SunX509", "sun.security.ssl.KeyManagerFactoryImpl$SunX509");
+            put("TrustManagerFactory.SunX509", "sun.security.ssl.TrustManagerFactoryImpl$SimpleFactory");
+        }
+    }
+
+    private static final String PASSWORD = "changeit";
+    private static final File DIR = new File("./target/tls-handshake-test");
+
+    private Server server;
+    private ServerConnector connector;
+    private SslContextFactory.Server sslContextFactory;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        DIR.mkdirs();
+        for (final String name : new String[] { "server", "rotated", "publisher" }) {
+            new File(DIR, name + ".p12").delete();
+            new File(DIR, name + "-trust.p12").delete();
+            keytool("-genkeypair", "-alias", name, "-keyalg", "RSA", "-keysize", "2048", "-validity", "2",
+                    "-dname", "CN=" + name, "-keystore", name + ".p12");
+            keytool("-exportcert", "-alias", name, "-keystore", name + ".p12", "-file", name + ".crt");
+        }
+        keytool("-importcert", "-noprompt", "-alias", "publisher", "-file", "publisher.crt", "-keystore",
+                "server-trust.p12");
+        keytool("-importcert", "-noprompt", "-alias", "server", "-file", "server.crt", "-keystore",
+                "publisher-trust.p12");
+        keytool("-importcert", "-noprompt", "-alias", "rotated", "-file", "rotated.crt", "-keystore",
+                "publisher-trust.p12");
+    }
+
+    private static void keytool(final String... args) throws Exception {
+        final String[] command = new String[args.length + 5];
+        command[0] = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        System.arraycopy(args, 0, command, 1, args.length);
+        command[args.length + 1] = "-storetype";
+        command[args.length + 2] = "PKCS12";
+        command[args.length + 3] = "-storepass";
+        command[args.length + 4] = PASSWORD;
+        final Process process = new ProcessBuilder(command).directory(DIR).redirectErrorStream(true).start();
+        final InputStream out = process.getInputStream();
+        while (out.read() != -1) {
+            // Only drained so keytool cannot block on a full pipe.
+        }
+        assertEquals(Arrays.toString(args), 0, process.waitFor());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void startServer(final HttpSubscriberConfig config) throws Exception {
+        config.setKeystorePath(new File(DIR, "server.p12").getPath());
+        config.setKeystorePassword(PASSWORD);
+        config.setTrustStorePath(new File(DIR, "server-trust.p12").getPath());
+        config.setTrustStorePassword(PASSWORD);
+
+        server = new Server();
+        sslContextFactory = new JNLWebServer(config).newSslContextFactory();
+        connector = new ServerConnector(server,
+                new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.asString()),
+                new HttpConnectionFactory());
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+    }
+
+    private static SSLContext publisherContext() throws Exception {
+        return publisherContext(null);
+    }
+
+    /**
+     * @param provider
+     *            The JSSE provider to use, or null for the default.
+     */
+    private static SSLContext publisherContext(final String provider) throws Exception {
+        final KeyStore keys = KeyStore.getInstance("PKCS12");
+        final KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (FileInputStream in = new FileInputStream(new File(DIR, "publisher.p12"))) {
+            keys.load(in, PASSWORD.toCharArray());
+        }
+        try (FileInputStream in = new FileInputStream(new File(DIR, "publisher-trust.p12"))) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keys, PASSWORD.toCharArray());
+        final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        final SSLContext context = provider == null ? SSLContext.getInstance("TLS")
+                : SSLContext.getInstance("TLS", provider);
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Connect, send a request and read the response, so any session ticket
+     * the server sends after the handshake is taken in too.
+     *
+     * @return The session the connection used.
+     */
+    private SSLSession connect(final SSLContext context, final String protocol) throws IOException {
+        final SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("127.0.0.1",
+                connector.getLocalPort());
+        try {
+            socket.setTcpNoDelay(true);
+            if (protocol != null) {
+                socket.setEnabledProtocols(new String[] { protocol });
+            }
+            final OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final InputStream in = socket.getInputStream();
+            final byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // The response itself does not matter.
+            }
+            return socket.getSession();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testTls13IsNegotiatedByDefault() throws Exception {
+        Assume.assumeTrue(Arrays.asList(SSLContext.getDefault().getSupportedSSLParameters().getProtocols())
+                .contains("TLSv1.3"));
+        startServer(new HttpSubscriberConfig());
+        assertEquals("TLSv1.3", connect(publisherContext(), null).getProtocol());
+    }
+
+    @Test
+    public void testOnlyConfiguredProtocolsAreAllowed() throws Exception {
+        final HttpSubscriberConfig config = new HttpSubscriberConfig();
+        config.setTlsProtocols(Arrays.asList("TLSv1.2"));
+        startServer(config);
+        final SSLContext context = publisherContext();
+        assertEquals("TLSv1.2", connect(context, null).getProtocol());
+        try {
+            connect(context, "TLSv1.3");
+            fail("TLSv1.3 should have been refused");
+        } catch (final IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testTls12SessionIsResumed() throws Exception {
+        startServer(new HttpSubscriberConfig());
+        final SSLContext context = publisherContext();
+        final SSLSession first = connect(context, "TLSv1.2");
+        final SSLSession second = connect(context, "TLSv1.2");
+        assertArrayEquals(first.getId(), second.getId());
+        assertEquals(first.getCreationTime(), second.getCreationTime());
+
+        second.invalidate();
+        assertFalse(Arrays.equals(first.getId(), connect(context, "TLSv1.2").getId()));
+    }
+
+    @Test
+    public void testKeyStoreIsReloadedInPlace() throws Exception {
+        startServer(new HttpSubscriberConfig());
+        final SSLSocket established = (SSLSocket) publisherContext().getSocketFactory().createSocket("127.0.0.1",
+                connector.getLocalPort());
+        try {
+            established.startHandshake();
+            assertEquals("CN=server", established.getSession().getPeerPrincipal().getName());
+
+            final HttpSubscriberConfig rotated = new HttpSubscriberConfig();
+            rotated.setKeystorePath(new File(DIR, "rotated.p12").getPath());
+            rotated.setKeystorePassword(PASSWORD);
+            rotated.setTrustStorePath(new File(DIR, "server-trust.p12").getPath());
+            rotated.setTrustStorePassword(PASSWORD);
+            new JNLWebServer(rotated).reloadSslContextFactory(sslContextFactory, rotated);
+            assertEquals("CN=rotated", connect(publisherContext(), null).getPeerPrincipal().getName());
+
+            //The connection made before carries on with the old certificate
+            final OutputStream out = established.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final byte[] status = new byte[8];
+            assertEquals(status.length, established.getInputStream().read(status));
+            assertEquals("HTTP/1.1", new String(status, StandardCharsets.US_ASCII));
+        } finally {
+            established.close();
+        }
+    }
+
+    @Test
+    public void testConfiguredProviderIsUsed() throws Exception {
+        final HttpSubscriberConfig config = new HttpSubscriberConfig();
+        config.setTlsProvider("SunJSSE");
+        startServer(config);
+        assertEquals("SunJSSE", sslContextFactory.getSslContext().getProvider().getName());
+        assertEquals("TLSv1.3", connect(publisherContext(), null).getProtocol());
+    }
+
+    @Test
+    public void testProviderClassIsRegistered() throws Exception {
+        final HttpSubscriberConfig config = new HttpSubscriberConfig();
+        config.setTlsProviderClass(TestJsseProvider.class.getName());
+        try {
+            startServer(config);
+            assertEquals("JnlTestJsse", sslContextFactory.getSslContext().getProvider().getName());
+            connect(publisherContext(), "TLSv1.2");
+
+            // Registering it again finds the one already registered.
+            assertSame(Security.getProvider("JnlTestJsse"),
+                    JNLWebServer.registerTlsProvider(TestJsseProvider.class.getName()));
+        } finally {
+            Security.removeProvider("JnlTestJsse");
+        }
+    }
+
+    @Test(expected = JNLException.class)
+    public void testUnknownProviderIsRejected() throws Exception {
+        final HttpSubscriberConfig config = new HttpSubscriberConfig();
+        config.setTlsProvider("NoSuchProvider");
+        startServer(config);
+    }
+
+    @Test(expected = JNLException.class)
+    public void testProviderClassMustBeAProvider() throws Exception {
+        JNLWebServer.registerTlsProvider(String.class.getName());
+    }
+
+    /**
+     * Reports the handshakes per second for TLS 1.2 and 1.3, with every
+     * session thrown away so each handshake is a full one, and with
+     * sessions kept so publishers reconnecting resume them.
+     */
+    @Test
+    public void benchmarkHandshakes() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final int handshakes = Integer.getInteger("benchmarkHandshakes", 2000);
+        startServer(new HttpSubscriberConfig());
+        for (final String protocol : new String[] { "TLSv1.2", "TLSv1.3" }) {
+            final double full = rate(protocol, false, handshakes);
+            final double resumed = rate(protocol, true, handshakes);
+            System.out.println(String.format(Locale.ROOT,
+                    "%s: full %6.0f handshakes/s, resumed %6.0f handshakes/s (%+.0f%%)",
+                    protocol, full, resumed, (resumed / full - 1) * 100));
+        }
+    }
+
+    private double rate(final String protocol, final boolean resume, final int handshakes) throws Exception {
+        final SSLContext context = publisherContext();
+        // The first round warms up the JIT.
+        for (int i = 0; i < handshakes / 10; i++) {
+            handshake(context, protocol, resume);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < handshakes; i++) {
+            handshake(context, protocol, resume);
+        }
+        return handshakes / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private void handshake(final SSLContext context, final String protocol, final boolean resume) throws IOException {
+        final SSLSession session = connect(context, protocol);
+        assertEquals(protocol, session.getProtocol());
+        if (!resume) {
+            session.invalidate();
+        }
+    }
+
+    /**
+     * Reports how many MB a second of records one core encrypts and
+     * decrypts, with each AES-GCM suite the subscriber allows, for each
+     * JSSE provider. Add providers from other jars, such as Conscrypt, to
+     * the test class path and name their classes in
+     * -DbenchmarkTlsProviderClasses, separated by commas.
+     */
+    @Test
+    public void benchmarkGcmThroughput() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final long bytes = Long.getLong("benchmarkMegabytes", 1000) * 1000000;
+        final List<String> providers = new ArrayList<String>();
+        providers.add(SSLContext.getDefault().getProvider().getName());
+        for (final String className : System.getProperty("benchmarkTlsProviderClasses", "").split(",")) {
+            if (!className.trim().isEmpty()) {
+                providers.add(JNLWebServer.registerTlsProvider(className.trim()).getName());
+            }
+        }
+
+        for (final String provider : providers) {
+            final HttpSubscriberConfig config = new HttpSubscriberConfig();
+            config.setTlsProvider(provider);
+            startServer(config);
+            final SSLContext publisher = publisherContext(provider);
+            for (final String suite : sslContextFactory.newSSLEngine().getEnabledCipherSuites()) {
+                // The test keys are RSA, so only suites signing with RSA, and
+                // those of TLS 1.3, can be used.
+                if (!suite.contains("_GCM_") || !(suite.startsWith("TLS_AES_") || suite.contains("HE_RSA_"))) {
+                    continue;
+                }
+                final SSLEngine server = sslContextFactory.newSSLEngine();
+                server.setUseClientMode(false);
+                final SSLEngine client = publisher.createSSLEngine();
+                client.setUseClientMode(true);
+                client.setEnabledProtocols(new String[] { suite.startsWith("TLS_AES_") ? "TLSv1.3" : "TLSv1.2" });
+                client.setEnabledCipherSuites(new String[] { suite });
+                handshake(client, server);
+                final double[] rates = gcmRates(client, server, bytes);
+                System.out.println(String.format(Locale.ROOT, "%-12s %-40s encrypt %7.0f MB/s, decrypt %7.0f MB/s",
+                        provider, suite, rates[0], rates[1]));
+            }
+            server.stop();
+        }
+    }
+
+    /**
+     * Run the handshake between two engines in memory.
+     */
+    private static void handshake(final SSLEngine client, final SSLEngine server) throws SSLException {
+        final ByteBuffer toServer = ByteBuffer.allocate(1 << 16);
+        final ByteBuffer toClient = ByteBuffer.allocate(1 << 16);
+        final ByteBuffer plain = ByteBuffer.allocate(1 << 16);
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int i = 0; handshaking(client) || handshaking(server); i++) {
+            assertTrue("The handshake did not finish", i < 1000);
+            step(client, toServer, toClient, plain);
+            step(server, toClient, toServer, plain);
+        }
+    }
+
+    private static boolean handshaking(final SSLEngine engine) {
+        final HandshakeStatus status = engine.getHandshakeStatus();
+        return status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED;
+    }
+
+    private static void step(final SSLEngine engine, final ByteBuffer out, final ByteBuffer in, final ByteBuffer plain)
+            throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+        case NEED_WRAP:
+            engine.wrap(ByteBuffer.allocate(0), out);
+            break;
+        case NEED_UNWRAP:
+            in.flip();
+            plain.clear();
+            engine.unwrap(in, plain);
+            in.compact();
+            break;
+        case NEED_TASK:
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return The MB a second the client encrypted and the server
+     *         decrypted, in full sized records.
+     */
+    private static double[] gcmRates(final SSLEngine client, final SSLEngine server, final long bytes)
+            throws SSLException {
+        final ByteBuffer data = ByteBuffer.wrap(new byte[16384]);
+        final ByteBuffer net = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        final ByteBuffer plain = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        long encryptNanos = 0;
+        long decryptNanos = 0;
+        long sent = 0;
+        // The first tenth warms up the JIT.
+        for (long i = -bytes / 10; i < bytes; i += data.capacity()) {
+            data.clear();
+            net.clear();
+            final long start = System.nanoTime();
+            assertEquals(SSLEngineResult.Status.OK, client.wrap(data, net).getStatus());
+            final long encrypted = System.nanoTime();
+            net.flip();
+            plain.clear();
+            assertEquals(SSLEngineResult.Status.OK, server.unwrap(net, plain).getStatus());
+            if (i >= 0) {
+                encryptNanos += encrypted - start;
+                decryptNanos += System.nanoTime() - encrypted;
+                sent += data.capacity();
+            }
+        }
+        return new double[] { sent / 1e6 / (encryptNanos / 1e9), sent / 1e6 / (decryptNanos / 1e9) };
+    }
+}
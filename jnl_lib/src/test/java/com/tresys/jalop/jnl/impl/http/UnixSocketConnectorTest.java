@@ -0,0 +1,226 @@
+package com.tresys.jalop.jnl.impl.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for accepting HTTP on a Unix domain socket. The benchmark against
+ * loopback TCP only runs with -Dbenchmark=true, for example:
+ * mvn test -Dtest=UnixSocketConnectorTest -Dbenchmark=true -DfailIfNoTests=false
+ */
+public class UnixSocketConnectorTest {
+
+    private File socketFile;
+    private Server server;
+    private ServerConnector tcp;
+    private UnixSocketConnector uds;
+
+    /** Reads the whole body, as the record servlets do, and says how much there was. */
+    public static class DrainServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+            final InputStream in = request.getInputStream();
+            final byte[] buffer = new byte[8192];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+            response.setHeader("X-Received", Long.toString(total));
+            response.setContentLength(0);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(UnixDomainSockets.isSupported());
+        socketFile = new File("./target/unix-socket-test.sock");
+
+        server = new Server();
+        tcp = new ServerConnector(server, new HttpConnectionFactory());
+        tcp.setHost("127.0.0.1");
+        tcp.setPort(0);
+        uds = new UnixSocketConnector(server, socketFile, new HttpConnectionFactory());
+        server.setConnectors(new Connector[] { tcp, uds });
+
+        final ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(new ServletHolder(new DrainServlet()), "/drain");
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRequestOverUnixSocket() throws Exception {
+        assertTrue(socketFile.exists());
+        final SocketChannel channel = UnixDomainSockets.openChannel(socketFile);
+        try {
+            // Twice, to check the connection is kept alive.
+            assertEquals("5000", post(channel, new byte[5000]));
+            assertEquals("10", post(channel, new byte[10]));
+        } finally {
+            channel.close();
+        }
+
+        server.stop();
+        assertFalse(socketFile.exists());
+    }
+
+    @Test
+    public void testStaleSocketIsReplaced() throws Exception {
+        server.stop();
+        // Left behind as if the subscriber had been killed.
+        UnixDomainSockets.openServerChannel(socketFile, 0).close();
+        assertTrue(socketFile.exists());
+
+        server.start();
+        final SocketChannel channel = UnixDomainSockets.openChannel(socketFile);
+        try {
+            assertEquals("1", post(channel, new byte[1]));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testSocketIsCreatedWithItsPermissionsAndGroup() throws Exception {
+        final PosixFileAttributes defaults = Files.readAttributes(socketFile.toPath(), PosixFileAttributes.class);
+        assertEquals(PosixFilePermissions.fromString("rw-------"), defaults.permissions());
+
+        server.stop();
+        final String group = Files.readAttributes(new File("./target").toPath(), PosixFileAttributes.class).group().getName();
+        uds.setPermissions(PosixFilePermissions.fromString("rw-rw----"));
+        uds.setGroup(group);
+        server.start();
+
+        final PosixFileAttributes attributes = Files.readAttributes(socketFile.toPath(), PosixFileAttributes.class);
+        assertEquals(PosixFilePermissions.fromString("rw-rw----"), attributes.permissions());
+        assertEquals(group, attributes.group().getName());
+        // Nothing left of the directory it was bound in.
+        assertEquals(0, new File("./target").listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(".jnl");
+            }
+        }).length);
+    }
+
+    @Test
+    public void testOtherFileIsLeftAlone() throws Exception {
+        server.stop();
+        Files.write(socketFile.toPath(), new byte[] { 1 });
+        try {
+            server.start();
+            fail("A file that is not a socket was replaced");
+        } catch (final IOException e) {
+            // Expected.
+        } finally {
+            assertTrue(socketFile.isFile());
+            socketFile.delete();
+        }
+    }
+
+    /**
+     * Reports the records per second sent over one connection through the
+     * Unix domain socket and through loopback TCP, with the same client and
+     * servlet, for a few record sizes.
+     */
+    @Test
+    public void benchmarkUnixSocketAgainstLoopback() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final int records = Integer.getInteger("benchmarkRecords", 20000);
+        for (final int size : new int[] { 1024, 16384, 262144 }) {
+            final byte[] body = new byte[size];
+            final double tcpRate = rate(SocketChannel.open(new InetSocketAddress("127.0.0.1", tcp.getLocalPort())),
+                    body, records);
+            final double udsRate = rate(UnixDomainSockets.openChannel(socketFile), body, records);
+            System.out.println(String.format(Locale.ROOT,
+                    "%7d byte records: loopback TCP %8.0f records/s, Unix socket %8.0f records/s (%+.0f%%)",
+                    size, tcpRate, udsRate, (udsRate / tcpRate - 1) * 100));
+        }
+    }
+
+    private static double rate(final SocketChannel channel, final byte[] body, final int records) throws IOException {
+        try {
+            // The first round warms up the JIT.
+            for (int i = 0; i < records / 10; i++) {
+                post(channel, body);
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                post(channel, body);
+            }
+            return records / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Post <code>body</code> to the drain servlet over a kept alive
+     * connection.
+     *
+     * @return The number of bytes the servlet said it received.
+     */
+    private static String post(final SocketChannel channel, final byte[] body) throws IOException {
+        final byte[] head = ("POST /drain HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer[] request = { ByteBuffer.wrap(head), ByteBuffer.wrap(body) };
+        while (request[1].hasRemaining()) {
+            channel.write(request);
+        }
+
+        // The servlet sends no body, so the response ends with its headers.
+        final StringBuilder response = new StringBuilder();
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (!response.toString().endsWith("\r\n\r\n")) {
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed after: " + response);
+            }
+            response.append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+        }
+        final String text = response.toString();
+        assertTrue(text, text.startsWith("HTTP/1.1 200"));
+        final int start = text.indexOf("X-Received: ") + "X-Received: ".length();
+        return text.substring(start, text.indexOf("\r\n", start));
+    }
+}
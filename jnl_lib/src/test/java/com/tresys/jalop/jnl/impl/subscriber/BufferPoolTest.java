@@ -0,0 +1,137 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the pool of buffers used on the ingest path.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testRequestsAreRoundedUpToSizeClasses() {
+        final BufferPool pool = new BufferPool(8192, 65536, false);
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(0).capacity());
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(1).capacity());
+        assertEquals(512, pool.acquire(512).capacity());
+        assertEquals(1024, pool.acquire(513).capacity());
+        assertEquals(4096, pool.acquire(4096).capacity());
+        assertEquals(8192, pool.acquire(4097).capacity());
+    }
+
+    @Test
+    public void testReleasedBufferIsReusedCleared() {
+        final BufferPool pool = new BufferPool(8192, 65536, false);
+        final ByteBuffer buffer = pool.acquire(4096);
+        buffer.put((byte) 1).flip();
+        pool.release(buffer);
+
+        final ByteBuffer again = pool.acquire(3000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testOversizedBuffersAreNotPooled() {
+        final BufferPool pool = new BufferPool(8192, 65536, false);
+        final ByteBuffer buffer = pool.acquire(10000);
+        assertEquals(10000, buffer.capacity());
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(10000));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testEachClassIsBounded() {
+        // Room for two 4096 byte buffers.
+        final BufferPool pool = new BufferPool(8192, 8192, false);
+        final ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(4096);
+        }
+        for (final ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            pool.acquire(4096);
+        }
+        assertEquals(4, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testForeignBuffersAreIgnored() {
+        final BufferPool pool = new BufferPool(8192, 65536, false);
+        pool.release(null);
+        pool.release(ByteBuffer.allocate(1000));
+        pool.release(ByteBuffer.allocateDirect(1024));
+        pool.acquire(1000);
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testDirectPool() {
+        final BufferPool pool = new BufferPool(8192, 65536, true);
+        final ByteBuffer buffer = pool.acquire(100);
+        assertTrue(buffer.isDirect());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void testSharedPoolIsHeap() {
+        final ByteBuffer buffer = BufferPool.getShared().acquire(4096);
+        try {
+            assertFalse(buffer.isDirect());
+            assertTrue(buffer.hasArray());
+        } finally {
+            BufferPool.getShared().release(buffer);
+        }
+    }
+
+    @Test
+    public void testConcurrentUseNeverSharesABuffer() throws Exception {
+        final BufferPool pool = new BufferPool(8192, 65536, false);
+        // Identity, since buffers with equal contents compare equal.
+        final Set<ByteBuffer> inUse = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final boolean[] shared = new boolean[1];
+        for (int t = 0; t < 8; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        final ByteBuffer buffer = pool.acquire(4096);
+                        synchronized (inUse) {
+                            if (!inUse.add(buffer)) {
+                                shared[0] = true;
+                            }
+                        }
+                        synchronized (inUse) {
+                            inUse.remove(buffer);
+                        }
+                        pool.release(buffer);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertFalse(shared[0]);
+        assertTrue(pool.getAllocationCount() <= 8);
+    }
+}
@@ -0,0 +1,136 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for group commit of confirmed records.
+ */
+public class GroupCommitterTest {
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("./output-commit-test");
+        FileUtils.deleteDirectory(dir);
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testNegativeWait() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("'maxWaitMillis' cannot be negative.");
+        new GroupCommitter(-1, null);
+    }
+
+    @Test
+    public void testCommitSyncsFilesAndFlushables() throws IOException {
+        final File f = new File(dir, "payload");
+        FileUtils.writeStringToFile(f, "data");
+        final AtomicInteger flushes = new AtomicInteger();
+        final Flushable flushable = new Flushable() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        final GroupCommitter committer = new GroupCommitter(0, null);
+        committer.commit(Arrays.asList(f, dir, new File(dir, "missing")),
+                Collections.singleton(flushable));
+
+        assertEquals(1, flushes.get());
+        assertEquals(1, committer.getBatchCount());
+        assertEquals(1, committer.getCommitCount());
+    }
+
+    @Test
+    public void testConcurrentCommitsShareBatches() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(5, null);
+        final int threads = 16;
+        final AtomicInteger flushes = new AtomicInteger();
+        final Flushable shared = new Flushable() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final File f = new File(dir, "record" + t);
+            FileUtils.writeStringToFile(f, "record " + t);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10; i++) {
+                            committer.commit(Arrays.asList(f, dir), Collections.singleton(shared));
+                        }
+                    } catch (final Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(0, failures.get());
+        assertEquals(threads * 10, committer.getCommitCount());
+        assertTrue(committer.getBatchCount() < committer.getCommitCount());
+        // The shared state is flushed once per batch, not once per commit.
+        assertEquals(committer.getBatchCount(), flushes.get());
+    }
+
+    @Test
+    public void testFailedBatchIsReported() throws IOException {
+        final GroupCommitter committer = new GroupCommitter(0, null);
+        final Flushable failing = new Flushable() {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("disk gone");
+            }
+        };
+        try {
+            committer.commit(null, Collections.singleton(failing));
+            fail("Expected the commit to fail");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("disk gone"));
+        }
+
+        // A later batch is not affected by the earlier failure.
+        committer.commit(Collections.singleton(dir), null);
+    }
+}
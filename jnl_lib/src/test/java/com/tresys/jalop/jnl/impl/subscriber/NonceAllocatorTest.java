@@ -0,0 +1,136 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for the persisted local nonce allocator.
+ */
+public class NonceAllocatorTest {
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    private File dir;
+    private File stateFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("./output-nonce-test");
+        FileUtils.deleteDirectory(dir);
+        stateFile = new File(dir, NonceAllocator.STATE_FILENAME);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testNullStateFile() throws IOException {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("'stateFile' is required.");
+        new NonceAllocator(null, 10, null);
+    }
+
+    @Test
+    public void testStartsAtOne() throws IOException {
+        final NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        assertEquals(0, allocator.current());
+        assertEquals(1, allocator.next());
+        assertEquals(2, allocator.next());
+        assertEquals(2, allocator.current());
+        assertTrue(stateFile.exists());
+    }
+
+    @Test
+    public void testRestartSkipsReservedBlock() throws IOException {
+        NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        assertEquals(1, allocator.next());
+
+        // No close(), as if the process died.
+        allocator = new NonceAllocator(stateFile, 10, null);
+        assertEquals(11, allocator.next());
+    }
+
+    @Test
+    public void testCloseRecordsExactValue() throws IOException {
+        NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        allocator.next();
+        allocator.next();
+        allocator.close();
+
+        allocator = new NonceAllocator(stateFile, 10, null);
+        assertEquals(3, allocator.next());
+    }
+
+    @Test
+    public void testSeedAdvancesButNeverGoesBack() throws IOException {
+        final NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        allocator.next();
+        allocator.seed(5);
+        assertEquals(6, allocator.next());
+        allocator.seed(2);
+        assertEquals(7, allocator.next());
+    }
+
+    @Test
+    public void testSeedResetsWhenStateIsGone() throws IOException {
+        final NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        allocator.next();
+        allocator.next();
+        FileUtils.deleteDirectory(dir);
+
+        allocator.seed(0);
+        assertEquals(1, allocator.next());
+    }
+
+    @Test
+    public void testSeedDoesNotGoBackWhenOnlyStateIsGone() throws IOException {
+        final NonceAllocator allocator = new NonceAllocator(stateFile, 10, null);
+        for (int i = 0; i < 5; i++) {
+            allocator.next();
+        }
+        assertTrue(stateFile.delete());
+
+        // Records 4 and 5 are still being moved into the store.
+        allocator.seed(3);
+        assertEquals(6, allocator.next());
+    }
+
+    @Test
+    public void testConcurrentAllocationIsUnique() throws Exception {
+        final NonceAllocator allocator = new NonceAllocator(stateFile, 7, null);
+        final Set<Long> seen = ConcurrentHashMap.<Long>newKeySet();
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        seen.add(allocator.next());
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(8000, seen.size());
+        assertEquals(8000, allocator.current());
+    }
+}
@@ -0,0 +1,118 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for remembering recently confirmed JAL-Ids.
+ */
+public class RecentJalIdsTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("recent-jal-ids").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (final File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testOnlyLastCapacityJalIdsAreKept() {
+        final RecentJalIds ids = new RecentJalIds(100, null, null);
+        for (int i = 0; i < 1000; i++) {
+            ids.add("jal-" + i);
+        }
+        for (int i = 0; i < 900; i++) {
+            assertFalse("jal-" + i, ids.contains("jal-" + i));
+        }
+        for (int i = 900; i < 1000; i++) {
+            assertTrue("jal-" + i, ids.contains("jal-" + i));
+        }
+    }
+
+    @Test
+    public void testJalIdSentAgainIsKeptLongest() {
+        final RecentJalIds ids = new RecentJalIds(10, null, null);
+        ids.add("retried");
+        // Seen again each time ten more are confirmed, it outlives them all.
+        for (int i = 0; i < 100; i++) {
+            ids.add("jal-" + i);
+            if (i % 9 == 0) {
+                assertTrue(ids.contains("retried"));
+            }
+        }
+        assertTrue(ids.contains("retried"));
+        assertFalse(ids.contains("jal-0"));
+    }
+
+    @Test
+    public void testJalIdsAreKeptAcrossRestarts() {
+        final File file = new File(dir, "publisher-audit");
+        final RecentJalIds ids = new RecentJalIds(10, file, null);
+        for (int i = 0; i < 15; i++) {
+            ids.add("jal-" + i);
+        }
+        ids.close();
+
+        final RecentJalIds reopened = new RecentJalIds(10, file, null);
+        assertFalse(reopened.contains("jal-4"));
+        for (int i = 5; i < 15; i++) {
+            assertTrue("jal-" + i, reopened.contains("jal-" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testFileIsCompacted() throws IOException {
+        final File file = new File(dir, "publisher-journal");
+        final RecentJalIds ids = new RecentJalIds(10, file, null);
+        for (int i = 0; i < 1000; i++) {
+            ids.add("jal-" + i);
+        }
+        ids.close();
+        assertTrue(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() <= 20);
+
+        final RecentJalIds reopened = new RecentJalIds(10, file, null);
+        assertTrue(reopened.contains("jal-999"));
+        assertTrue(reopened.contains("jal-990"));
+        assertFalse(reopened.contains("jal-989"));
+        reopened.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityIsRequired() {
+        new RecentJalIds(0, null, null);
+    }
+
+    @Test
+    public void testUnknownJalIdIsNotContained() {
+        final RecentJalIds ids = new RecentJalIds(1000, null, null);
+        for (int i = 0; i < 1000; i++) {
+            ids.add("jal-" + i);
+        }
+        int found = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (ids.contains("other-" + i)) {
+                found++;
+            }
+        }
+        assertEquals(0, found);
+    }
+}
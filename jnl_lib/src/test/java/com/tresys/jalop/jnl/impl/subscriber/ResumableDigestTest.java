@@ -0,0 +1,184 @@
+package com.tresys.jalop.jnl.impl.subscriber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SHA-2 digest whose state can be saved and restored.
+ */
+public class ResumableDigestTest {
+
+    private static final String[] ALGORITHMS = { "SHA-256", "SHA-384", "SHA-512" };
+
+    private static final String ABC = "abc";
+    private static final String TWO_BLOCK_256 = "abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq";
+    private static final String TWO_BLOCK_512 = "abcdefghbcdefghicdefghijdefghijkefghijklfghijklmghijklmn"
+            + "hijklmnoijklmnopjklmnopqklmnopqrlmnopqrsmnopqrstnopqrstu";
+
+    /**
+     * The examples from the NIST Cryptographic Standards and Guidelines
+     * for FIPS 180-4: each algorithm, message and expected digest, with
+     * null standing for one million repetitions of 'a'.
+     */
+    private static final String[][] NIST_VECTORS = {
+        { "SHA-256", ABC, "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad" },
+        { "SHA-256", TWO_BLOCK_256, "248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1" },
+        { "SHA-256", null, "cdc76e5c9914fb9281a1c7e284d73e67f1809a48a497200e046d39ccc7112cd0" },
+        { "SHA-384", ABC, "cb00753f45a35e8bb5a03d699ac65007272c32ab0eded1631a8b605a43ff5bed"
+                + "8086072ba1e7cc2358baeca134c825a7" },
+        { "SHA-384", TWO_BLOCK_512, "09330c33f71147e83d192fc782cd1b4753111b173b3b05d22fa08086e3b0f712"
+                + "fcc7c71a557e2db966c3e9fa91746039" },
+        { "SHA-384", null, "9d0e1809716474cb086e834e310a4a1ced149e9c00f248527972cec5704c2a5b"
+                + "07b8b3dc38ecc4ebae97ddd87f3d8985" },
+        { "SHA-512", ABC, "ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+                + "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f" },
+        { "SHA-512", TWO_BLOCK_512, "8e959b75dae313da8cf4f72814fc143f8f7779c6eb9f7fa17299aeadb6889018"
+                + "501d289e4900f7e4331b99dec4b5433ac7d329eeb6dd26545e96e55b874be909" },
+        { "SHA-512", null, "e718483d0ce769644e2e42c7bc15b4638e1f98b13b2044285632a803afa973eb"
+                + "de0ff244877ea60a4cb0432ce577c31beb009c5c2c49aa2e4eadb217ad8cc09b" },
+    };
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testUnsupportedAlgorithmReturnsNull() {
+        assertNull(ResumableDigest.getInstance("MD5"));
+        assertNull(ResumableDigest.getInstance(null));
+    }
+
+    @Test
+    public void testNistVectors() throws Exception {
+        for (final String[] vector : NIST_VECTORS) {
+            final byte[] message;
+            if (vector[1] == null) {
+                message = new byte[1000000];
+                Arrays.fill(message, (byte) 'a');
+            } else {
+                message = vector[1].getBytes(StandardCharsets.US_ASCII);
+            }
+            final String name = vector[0] + " of " + message.length + " bytes";
+            assertEquals(name, vector[2], hex(ResumableDigest.getInstance(vector[0]).digest(message)));
+
+            // And with the state saved and carried on from half way.
+            final ResumableDigest first = ResumableDigest.getInstance(vector[0]);
+            first.update(message, 0, message.length / 2);
+            final ResumableDigest second = ResumableDigest.getInstance(vector[0]);
+            second.setState(first.getState());
+            second.update(message, message.length / 2, message.length - message.length / 2);
+            assertEquals(name + " resumed", vector[2], hex(second.digest()));
+        }
+    }
+
+    @Test
+    public void testDigestMatchesPlatform() throws Exception {
+        // Lengths either side of the block and padding boundaries.
+        final int[] lengths = { 0, 1, 55, 56, 63, 64, 65, 111, 112, 127, 128, 129, 1000, 65537 };
+        for (final String algorithm : ALGORITHMS) {
+            final MessageDigest expected = MessageDigest.getInstance(algorithm);
+            final ResumableDigest md = ResumableDigest.getInstance(algorithm);
+            for (final int length : lengths) {
+                final byte[] data = randomBytes(length);
+                assertArrayEquals(algorithm + " of " + length + " bytes",
+                        expected.digest(data), md.digest(data));
+
+                // Fed a byte at a time and in odd pieces.
+                int i = 0;
+                while (i < length) {
+                    if (i % 3 == 0) {
+                        md.update(data[i++]);
+                    } else {
+                        final int n = Math.min(length - i, 37);
+                        md.update(data, i, n);
+                        i += n;
+                    }
+                }
+                assertArrayEquals(algorithm + " of " + length + " bytes in pieces",
+                        expected.digest(data), md.digest());
+            }
+        }
+    }
+
+    @Test
+    public void testStateCarriesOnInNewDigest() throws Exception {
+        final byte[] data = randomBytes(10000);
+        for (final String algorithm : ALGORITHMS) {
+            final byte[] expected = MessageDigest.getInstance(algorithm).digest(data);
+            for (final int split : new int[] { 0, 1, 64, 100, 128, 4097, 10000 }) {
+                final ResumableDigest first = ResumableDigest.getInstance(algorithm);
+                first.update(data, 0, split);
+                final byte[] state = first.getState();
+
+                final ResumableDigest second = ResumableDigest.getInstance(algorithm);
+                second.update(randomBytes(7));
+                second.setState(state);
+                assertEquals(split, second.getCount());
+                second.update(data, split, data.length - split);
+                assertArrayEquals(algorithm + " split at " + split, expected, second.digest());
+
+                // Saving the state does not disturb the digest.
+                first.update(data, split, data.length - split);
+                assertArrayEquals(expected, first.digest());
+            }
+        }
+    }
+
+    @Test
+    public void testStateOfOtherAlgorithmIsRejected() {
+        final ResumableDigest sha256 = ResumableDigest.getInstance("SHA-256");
+        sha256.update(randomBytes(10));
+        final byte[] state = sha256.getState();
+
+        final ResumableDigest sha512 = ResumableDigest.getInstance("SHA-512");
+        sha512.update(randomBytes(10));
+        final byte[] before = sha512.getState();
+        try {
+            sha512.setState(state);
+            fail("SHA-256 state was accepted by SHA-512");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertArrayEquals(before, sha512.getState());
+
+        final byte[] truncated = new byte[state.length - 1];
+        System.arraycopy(state, 0, truncated, 0, truncated.length);
+        try {
+            sha256.setState(truncated);
+            fail("Truncated state was accepted");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCloneIsIndependent() throws Exception {
+        final byte[] data = randomBytes(300);
+        final ResumableDigest md = ResumableDigest.getInstance("SHA-256");
+        md.update(data, 0, 100);
+        final ResumableDigest copy = (ResumableDigest) md.clone();
+        md.update(data, 100, 200);
+        copy.update(data, 100, 200);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), copy.digest());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), md.digest());
+    }
+}
@@ -0,0 +1,151 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the temporary record directories under one publisher's output
+ * directory that a session is using, from when a record is first written
+ * to it until the record is confirmed or abandoned, or while the session
+ * has offered to resume the partial journal in it. Every session from the
+ * same publisher shares the same directories, so a session must not reuse,
+ * resume or remove a directory another session is using.
+ */
+final class ActiveRecordDirs {
+
+    /** The session using a directory. */
+    interface Owner {
+        /**
+         * Give up a directory another session wants, if the record in it
+         * has been received and only waits for its digest response, which
+         * a publisher that has started a new session will not send.
+         *
+         * @param nonce
+         *          The local nonce of the record directory.
+         * @return <code>true</code> if the directory was released.
+         */
+        boolean giveUp(long nonce);
+    }
+
+    /**
+     * The instances, keyed by the canonical path of the directory, shared by
+     * every {@link SubscriberImpl} writing to it.
+     */
+    private static final Map<String, ActiveRecordDirs> INSTANCES =
+            new HashMap<String, ActiveRecordDirs>();
+
+    /** The sessions using the record directories, by local nonce. */
+    private final Map<Long, Owner> active = new HashMap<Long, Owner>();
+
+    private ActiveRecordDirs() {
+    }
+
+    /**
+     * Get the instance for the temporary record directories of one
+     * publisher and record type.
+     *
+     * @param outputIpRoot
+     *          The directory holding the record directories.
+     * @return The instance.
+     * @throws IOException
+     *          If the canonical path of the directory cannot be worked out.
+     */
+    static ActiveRecordDirs forDir(final File outputIpRoot) throws IOException {
+        final String key = outputIpRoot.getCanonicalPath();
+        synchronized (INSTANCES) {
+            ActiveRecordDirs dirs = INSTANCES.get(key);
+            if (dirs == null) {
+                dirs = new ActiveRecordDirs();
+                INSTANCES.put(key, dirs);
+            }
+            return dirs;
+        }
+    }
+
+    /**
+     * Mark a record directory as in use.
+     *
+     * @param nonce
+     *          The local nonce of the record directory.
+     * @param owner
+     *          The session that will use it.
+     * @return <code>true</code> if the directory was not already in use.
+     */
+    synchronized boolean acquire(final long nonce, final Owner owner) {
+        if (this.active.containsKey(nonce)) {
+            return false;
+        }
+        this.active.put(nonce, owner);
+        return true;
+    }
+
+    /**
+     * Mark a record directory as no longer in use.
+     *
+     * @param nonce
+     *          The local nonce of the record directory.
+     */
+    synchronized void release(final long nonce) {
+        this.active.remove(nonce);
+    }
+
+    /**
+     * @param nonce
+     *          The local nonce of a record directory.
+     * @return <code>true</code> if a session is using the directory.
+     */
+    synchronized boolean isActive(final long nonce) {
+        return this.active.containsKey(nonce);
+    }
+
+    /**
+     * Ask the session using a record directory to give it up, see
+     * {@link Owner#giveUp(long)}. The owner is asked without holding this
+     * lock, as it releases the directory under its own.
+     *
+     * @param nonce
+     *          The local nonce of the record directory.
+     * @param claimant
+     *          The session that wants the directory.
+     * @return <code>true</code> if the directory is not, or is no longer,
+     *         in use.
+     */
+    boolean reclaim(final long nonce, final Owner claimant) {
+        final Owner owner;
+        synchronized (this) {
+            owner = this.active.get(nonce);
+        }
+        if (owner == null) {
+            return true;
+        }
+        return owner != claimant && owner.giveUp(nonce);
+    }
+}
@@ -0,0 +1,235 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A list of hashes of a journal payload as it is received, one for each
+ * {@link #CHUNK_SIZE} bytes, stored in {@link #FILENAME} next to the
+ * payload. The chunk being written is covered by a tail hash, which is kept
+ * in the status file with the payload progress it was taken at.
+ *
+ * Before a partial journal is resumed, the end of the payload is checked
+ * against the list with {@link #verify(File, File, long, byte[])}, and only
+ * the chunks that do not match are discarded, rather than the whole
+ * record.
+ */
+final class ChunkHashList {
+
+    /** The name of the file the chunk hashes are stored in. */
+    static final String FILENAME = "payload_chunks";
+
+    /** The number of payload bytes each hash covers. */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int HASH_SIZE = 32;
+
+    private final MessageDigest md;
+    private final OutputStream out;
+
+    /** The number of bytes hashed in the chunk in progress. */
+    private int chunkLength;
+
+    private ChunkHashList(final MessageDigest md, final OutputStream out, final int chunkLength) {
+        this.md = md;
+        this.out = out;
+        this.chunkLength = chunkLength;
+    }
+
+    /**
+     * Start, or carry on with, the chunk hashes of a payload that is written
+     * from <code>offset</code> on. The hashes of chunks past
+     * <code>offset</code> are dropped, and the part of the chunk in progress
+     * already in the payload file is read back, which is never more than
+     * {@link #CHUNK_SIZE} bytes.
+     *
+     * @param recordDir The directory of the record.
+     * @param payloadFile The payload, which must be <code>offset</code>
+     *          bytes long.
+     * @param offset The number of bytes of the payload already received.
+     * @return The list, or <code>null</code> if the payload was started
+     *          without one, so it cannot be checked.
+     * @throws IOException If the list could not be opened.
+     */
+    static ChunkHashList open(final File recordDir, final File payloadFile, final long offset)
+            throws IOException {
+        final File file = new File(recordDir, FILENAME);
+        final long chunks = offset / CHUNK_SIZE;
+        final int chunkLength = (int) (offset % CHUNK_SIZE);
+        if (offset > 0) {
+            if (file.length() < chunks * HASH_SIZE) {
+                file.delete();
+                return null;
+            }
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(chunks * HASH_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+
+        final MessageDigest md = newDigest();
+        if (chunkLength > 0) {
+            final RandomAccessFile raf = new RandomAccessFile(payloadFile, "r");
+            try {
+                final byte[] tail = new byte[chunkLength];
+                raf.seek(chunks * CHUNK_SIZE);
+                raf.readFully(tail);
+                md.update(tail);
+            } finally {
+                raf.close();
+            }
+        }
+        return new ChunkHashList(md, new FileOutputStream(file, offset > 0), chunkLength);
+    }
+
+    /**
+     * Hash the next bytes of the payload, as they are written.
+     */
+    void update(final byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = Math.min(len, CHUNK_SIZE - this.chunkLength);
+            this.md.update(b, off, n);
+            this.chunkLength += n;
+            off += n;
+            len -= n;
+            if (this.chunkLength == CHUNK_SIZE) {
+                this.out.write(this.md.digest());
+                this.out.flush();
+                this.chunkLength = 0;
+            }
+        }
+    }
+
+    /**
+     * @return The hash of the chunk in progress, to store with the payload
+     *          progress.
+     */
+    byte[] getTailHash() {
+        try {
+            return ((MessageDigest) this.md.clone()).digest();
+        } catch (final CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Check a partial payload against its chunk hashes. A crash or a dropped
+     * connection only damages what was written last, so the check starts
+     * from the end: the last whole chunk and the tail are read, and earlier
+     * chunks only while the one after them does not match. Resuming an
+     * intact payload reads at most two chunks, however long it is.
+     *
+     * @param recordDir The directory of the record.
+     * @param payloadFile The partial payload.
+     * @param progress The payload progress from the status file.
+     * @param tailHash The tail hash stored with <code>progress</code>, or
+     *          <code>null</code> if there is none, in which case the
+     *          incomplete chunk is not checked.
+     * @return The number of bytes at the start of the payload that are
+     *          kept, at most <code>progress</code>, or <code>progress</code>
+     *          if the payload has no chunk hashes to check it against.
+     * @throws IOException If the payload could not be read.
+     */
+    static long verify(final File recordDir, final File payloadFile, final long progress,
+            final byte[] tailHash) throws IOException {
+        final File file = new File(recordDir, FILENAME);
+        if (!file.exists()) {
+            return progress;
+        }
+        final long wholeChunks = progress / CHUNK_SIZE;
+        final int tailLength = (int) (progress % CHUNK_SIZE);
+        final MessageDigest md = newDigest();
+        final byte[] chunk = new byte[CHUNK_SIZE];
+
+        final RandomAccessFile hashes = new RandomAccessFile(file, "r");
+        final RandomAccessFile in = new RandomAccessFile(payloadFile, "r");
+        try {
+            final byte[] expected = new byte[HASH_SIZE];
+            long matching = wholeChunks;
+            while (matching > 0) {
+                final long index = matching - 1;
+                if (hashes.length() >= (index + 1) * HASH_SIZE) {
+                    hashes.seek(index * HASH_SIZE);
+                    hashes.readFully(expected);
+                    if (matches(md, in, index * CHUNK_SIZE, chunk, CHUNK_SIZE, expected)) {
+                        break;
+                    }
+                }
+                matching--;
+            }
+            if (matching < wholeChunks) {
+                return matching * CHUNK_SIZE;
+            }
+            if (tailLength == 0 || tailHash == null) {
+                // A tail written before tail hashes were kept is trusted.
+                return progress;
+            }
+            final long tailStart = wholeChunks * CHUNK_SIZE;
+            return matches(md, in, tailStart, chunk, tailLength, tailHash) ? progress : tailStart;
+        } finally {
+            in.close();
+            hashes.close();
+        }
+    }
+
+    /**
+     * @return Whether the <code>length</code> bytes of the payload at
+     *          <code>position</code> are there and hash to
+     *          <code>expected</code>.
+     */
+    private static boolean matches(final MessageDigest md, final RandomAccessFile in, final long position,
+            final byte[] buffer, final int length, final byte[] expected) throws IOException {
+        if (in.length() < position + length) {
+            return false;
+        }
+        in.seek(position);
+        in.readFully(buffer, 0, length);
+        md.update(buffer, 0, length);
+        return MessageDigest.isEqual(expected, md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
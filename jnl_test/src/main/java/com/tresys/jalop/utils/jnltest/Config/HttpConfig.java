@@ -17,11 +17,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -38,6 +40,8 @@ import com.tresys.jalop.jnl.RecordType;
 import com.tresys.jalop.jnl.Role;
 import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
 import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.http.UnixSocketConnector;
+import com.tresys.jalop.utils.jnltest.ConfigReloader;
 
 /**
  * The {@link HttpConfig} class is used to to parse a configuration file, and
@@ -69,6 +73,36 @@ public class HttpConfig {
     private static final String RECORD_TYPE = "recordType";
     protected static final String SUBSCRIBER = "subscriber";
     private static final String BUFFER_SIZE = "bufferSize";
+    private static final String DURABILITY = "durability";
+    private static final String GROUP_COMMIT_WAIT_MILLIS = "groupCommitWaitMillis";
+    private static final String PAYLOAD_COMPRESSION = "payloadCompression";
+    private static final String READ_DEADLINE_MILLIS = "readDeadlineMillis";
+    private static final String MIN_READ_BYTES_PER_SECOND = "minReadBytesPerSecond";
+    private static final String READ_RATE_GRACE_MILLIS = "readRateGraceMillis";
+    private static final String IDLE_TIMEOUT_MILLIS = "idleTimeoutMillis";
+    private static final String MAX_DECODED_METADATA_BYTES = "maxDecodedMetadataBytes";
+    private static final String RECENT_JAL_ID_CAPACITY = "recentJalIdCapacity";
+    private static final String MAX_CONCURRENT_RECORDS = "maxConcurrentRecords";
+    private static final String RETRY_AFTER_SECONDS = "retryAfterSeconds";
+    private static final String MIN_FREE_BYTES = "minFreeBytes";
+    private static final String RESUME_FREE_BYTES = "resumeFreeBytes";
+    private static final String MAX_WRITE_LATENCY_MILLIS = "maxWriteLatencyMillis";
+    private static final String RESUME_WRITE_LATENCY_MILLIS = "resumeWriteLatencyMillis";
+    private static final String DISK_CHECK_INTERVAL_MILLIS = "diskCheckIntervalMillis";
+    private static final String PUBLISHER_BYTES_PER_SECOND = "publisherBytesPerSecond";
+    private static final String TOTAL_BYTES_PER_SECOND = "totalBytesPerSecond";
+    private static final String PUBLISHER_WEIGHTS = "publisherWeights";
+    private static final String UNIX_SOCKET = "unixSocket";
+    private static final String UNIX_SOCKET_PERMISSIONS = "unixSocketPermissions";
+    private static final String UNIX_SOCKET_GROUP = "unixSocketGroup";
+    private static final String TLS_PROTOCOLS = "tlsProtocols";
+    private static final String TLS_SESSION_CACHE_SIZE = "tlsSessionCacheSize";
+    private static final String TLS_SESSION_TIMEOUT_SECONDS = "tlsSessionTimeoutSeconds";
+    private static final String TLS_SESSION_TICKETS = "tlsSessionTickets";
+    private static final String TLS_PROVIDER = "tlsProvider";
+    private static final String TLS_PROVIDER_CLASS = "tlsProviderClass";
+    private static final String DRAIN_TIMEOUT_MILLIS = "drainTimeoutMillis";
+    private static final String CONFIG_RELOAD_INTERVAL_MILLIS = "configReloadIntervalMillis";
 
     protected InetAddress address;
     private List<String> configureDigests; // "configureDigest": [ "on", "off"],
@@ -84,6 +118,36 @@ public class HttpConfig {
     protected final String source;
     private HashMap<String, String> sslConfig;
     private int bufferSize;
+    private String durability = HttpSubscriberConfig.DURABILITY_NONE;
+    private long groupCommitWaitMillis = HttpSubscriberConfig.DEFAULT_GROUP_COMMIT_WAIT_MILLIS;
+    private long readDeadlineMillis;
+    private long minReadBytesPerSecond;
+    private long readRateGraceMillis = HttpSubscriberConfig.DEFAULT_READ_RATE_GRACE_MILLIS;
+    private long idleTimeoutMillis = HttpSubscriberConfig.DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private long maxDecodedMetadataBytes = HttpSubscriberConfig.DEFAULT_MAX_DECODED_METADATA_BYTES;
+    private int recentJalIdCapacity;
+    private final Map<RecordType, Integer> maxConcurrentRecords = new HashMap<RecordType, Integer>(); // "maxConcurrentRecords": { "journal": 4 },
+    private int retryAfterSeconds = HttpSubscriberConfig.DEFAULT_RETRY_AFTER_SECONDS;
+    private long minFreeBytes;
+    private long resumeFreeBytes;
+    private long maxWriteLatencyMillis;
+    private long resumeWriteLatencyMillis;
+    private long diskCheckIntervalMillis = HttpSubscriberConfig.DEFAULT_DISK_CHECK_INTERVAL_MILLIS;
+    private final Map<RecordType, Long> publisherBytesPerSecond = new HashMap<RecordType, Long>(); // "publisherBytesPerSecond": { "journal": 10485760 },
+    private long totalBytesPerSecond;
+    private final Map<String, Integer> publisherWeights = new HashMap<String, Integer>(); // "publisherWeights": { "<publisher id>": 2 },
+    private File unixSocketPath; // "unixSocket": "/run/jalop/subscriber.sock",
+    private String unixSocketPermissions = UnixSocketConnector.DEFAULT_PERMISSIONS; // "unixSocketPermissions": "rw-rw----",
+    private String unixSocketGroup; // "unixSocketGroup": "jalop",
+    private List<String> tlsProtocols = new ArrayList<String>(HttpSubscriberConfig.DEFAULT_TLS_PROTOCOLS); // "tlsProtocols": [ "TLSv1.3" ],
+    private int tlsSessionCacheSize = HttpSubscriberConfig.DEFAULT_TLS_SESSION_CACHE_SIZE;
+    private int tlsSessionTimeoutSeconds = HttpSubscriberConfig.DEFAULT_TLS_SESSION_TIMEOUT_SECONDS;
+    private String tlsSessionTickets = HttpUtils.MSG_ON;
+    private String tlsProvider; // "tlsProvider": "Conscrypt",
+    private String tlsProviderClass; // "tlsProviderClass": "org.conscrypt.OpenSSLProvider",
+    private long drainTimeoutMillis = HttpSubscriberConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private long configReloadIntervalMillis = ConfigReloader.DEFAULT_INTERVAL_MILLIS; // "configReloadIntervalMillis": 0,
+    private final Map<RecordType, String> payloadCompression = new HashMap<RecordType, String>(); // "payloadCompression": { "audit": "lz4" },
 
     /**
      * Parses a configuration file for use by the JNLTest program.
@@ -153,6 +217,18 @@ public class HttpConfig {
         handleRecordType(subscriber);
         handleMaxSessionLimit(subscriber);
         handleBufferSize(subscriber);
+        handleDurability(subscriber);
+        handlePayloadCompression(subscriber);
+        handleReadLimits(subscriber);
+        handleRecentJalIdCapacity(subscriber);
+        handleMaxConcurrentRecords(subscriber);
+        handleDiskPressure(subscriber);
+        handlePublisherRateLimits(subscriber);
+        handleUnixSocket(subscriber);
+        handleTlsSessions(subscriber);
+        handleTlsProvider(subscriber);
+        handleDrainTimeout(subscriber);
+        handleConfigReloadInterval(subscriber);
     }
 
 
@@ -400,6 +476,361 @@ public class HttpConfig {
         }
     }
 
+    public void handleDurability(final JSONObject obj) throws ConfigurationException {
+        final String durabilityString = itemAsString(DURABILITY, obj, false);
+        if (durabilityString != null) {
+            if (!durabilityString.equals(HttpSubscriberConfig.DURABILITY_NONE) && !durabilityString.equals(HttpSubscriberConfig.DURABILITY_FSYNC)) {
+                throw new ConfigurationException (this.source, HttpConfig.DURABILITY + " must only contain " + HttpSubscriberConfig.DURABILITY_NONE + " or " + HttpSubscriberConfig.DURABILITY_FSYNC);
+            }
+            this.durability = durabilityString;
+        }
+
+        final Number waitMillis = itemAsNumber(GROUP_COMMIT_WAIT_MILLIS, obj, false);
+        if (waitMillis != null) {
+            this.groupCommitWaitMillis = waitMillis.longValue();
+            if (this.groupCommitWaitMillis < 0) {
+                throw new ConfigurationException (this.source, HttpConfig.GROUP_COMMIT_WAIT_MILLIS + " must not be negative.");
+            }
+        }
+    }
+
+    public void handleReadLimits(final JSONObject obj) throws ConfigurationException {
+        this.readDeadlineMillis = nonNegativeLong(READ_DEADLINE_MILLIS, obj, this.readDeadlineMillis);
+        this.minReadBytesPerSecond = nonNegativeLong(MIN_READ_BYTES_PER_SECOND, obj, this.minReadBytesPerSecond);
+        this.readRateGraceMillis = nonNegativeLong(READ_RATE_GRACE_MILLIS, obj, this.readRateGraceMillis);
+        this.idleTimeoutMillis = nonNegativeLong(IDLE_TIMEOUT_MILLIS, obj, this.idleTimeoutMillis);
+        this.maxDecodedMetadataBytes = nonNegativeLong(MAX_DECODED_METADATA_BYTES, obj, this.maxDecodedMetadataBytes);
+    }
+
+    public void handleRecentJalIdCapacity(final JSONObject obj) throws ConfigurationException {
+        final long capacity = nonNegativeLong(RECENT_JAL_ID_CAPACITY, obj, this.recentJalIdCapacity);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new ConfigurationException (this.source, HttpConfig.RECENT_JAL_ID_CAPACITY + " is too large.");
+        }
+        this.recentJalIdCapacity = (int) capacity;
+    }
+
+    public void handleMaxConcurrentRecords(final JSONObject obj) throws ConfigurationException {
+        final JSONObject limits = asJsonObject(this.source, MAX_CONCURRENT_RECORDS, obj.get(MAX_CONCURRENT_RECORDS), false);
+        if (limits != null) {
+            for (final Object key : limits.keySet()) {
+                final RecordType recordType = objectToRecordType(key);
+                final long limit = asNumberValue(this.source, MAX_CONCURRENT_RECORDS, limits.get(key)).longValue();
+                if (limit < 0 || limit > Integer.MAX_VALUE) {
+                    throw new ConfigurationException (this.source, HttpConfig.MAX_CONCURRENT_RECORDS + " must only contain values from 0 to " + Integer.MAX_VALUE);
+                }
+                this.maxConcurrentRecords.put(recordType, (int) limit);
+            }
+        }
+
+        final long retryAfter = nonNegativeLong(RETRY_AFTER_SECONDS, obj, this.retryAfterSeconds);
+        if (retryAfter > Integer.MAX_VALUE) {
+            throw new ConfigurationException (this.source, HttpConfig.RETRY_AFTER_SECONDS + " is too large.");
+        }
+        this.retryAfterSeconds = (int) retryAfter;
+    }
+
+    public void handleDiskPressure(final JSONObject obj) throws ConfigurationException {
+        this.minFreeBytes = nonNegativeLong(MIN_FREE_BYTES, obj, this.minFreeBytes);
+        this.resumeFreeBytes = nonNegativeLong(RESUME_FREE_BYTES, obj, this.resumeFreeBytes);
+        this.maxWriteLatencyMillis = nonNegativeLong(MAX_WRITE_LATENCY_MILLIS, obj, this.maxWriteLatencyMillis);
+        this.resumeWriteLatencyMillis = nonNegativeLong(RESUME_WRITE_LATENCY_MILLIS, obj, this.resumeWriteLatencyMillis);
+        this.diskCheckIntervalMillis = nonNegativeLong(DISK_CHECK_INTERVAL_MILLIS, obj, this.diskCheckIntervalMillis);
+    }
+
+    public void handlePublisherRateLimits(final JSONObject obj) throws ConfigurationException {
+        final JSONObject rates = asJsonObject(this.source, PUBLISHER_BYTES_PER_SECOND, obj.get(PUBLISHER_BYTES_PER_SECOND), false);
+        if (rates != null) {
+            for (final Object key : rates.keySet()) {
+                final RecordType recordType = objectToRecordType(key);
+                final long rate = asNumberValue(this.source, PUBLISHER_BYTES_PER_SECOND, rates.get(key)).longValue();
+                if (rate < 0) {
+                    throw new ConfigurationException (this.source, HttpConfig.PUBLISHER_BYTES_PER_SECOND + " must not contain negative values.");
+                }
+                this.publisherBytesPerSecond.put(recordType, rate);
+            }
+        }
+
+        this.totalBytesPerSecond = nonNegativeLong(TOTAL_BYTES_PER_SECOND, obj, this.totalBytesPerSecond);
+
+        final JSONObject weights = asJsonObject(this.source, PUBLISHER_WEIGHTS, obj.get(PUBLISHER_WEIGHTS), false);
+        if (weights != null) {
+            for (final Object key : weights.keySet()) {
+                final long weight = asNumberValue(this.source, PUBLISHER_WEIGHTS, weights.get(key)).longValue();
+                if (weight <= 0 || weight > Integer.MAX_VALUE) {
+                    throw new ConfigurationException (this.source, HttpConfig.PUBLISHER_WEIGHTS + " must only contain values from 1 to " + Integer.MAX_VALUE);
+                }
+                this.publisherWeights.put(key.toString(), (int) weight);
+            }
+        }
+    }
+
+    public void handleUnixSocket(final JSONObject obj) throws ConfigurationException {
+        final String path = itemAsString(UNIX_SOCKET, obj, false);
+        if (path != null) {
+            if (path.trim().isEmpty()) {
+                throw new ConfigurationException (this.source, HttpConfig.UNIX_SOCKET + " must not be empty.");
+            }
+            this.unixSocketPath = new File(path);
+        }
+        final String permissions = itemAsString(UNIX_SOCKET_PERMISSIONS, obj, false);
+        if (permissions != null) {
+            try {
+                PosixFilePermissions.fromString(permissions);
+            } catch (final IllegalArgumentException e) {
+                throw new ConfigurationException (this.source, HttpConfig.UNIX_SOCKET_PERMISSIONS + " must look like rw-rw----.");
+            }
+            this.unixSocketPermissions = permissions;
+        }
+        final String group = itemAsString(UNIX_SOCKET_GROUP, obj, false);
+        if (group != null) {
+            if (group.trim().isEmpty()) {
+                throw new ConfigurationException (this.source, HttpConfig.UNIX_SOCKET_GROUP + " must not be empty.");
+            }
+            this.unixSocketGroup = group;
+        }
+    }
+
+    public void handleTlsSessions(final JSONObject obj) throws ConfigurationException {
+        final JSONArray protocols = itemAsArray(TLS_PROTOCOLS, obj, false);
+        if (protocols != null) {
+            this.tlsProtocols = new ArrayList<String>();
+            for (final Object o : protocols) {
+                final String protocol = asStringValue(this.source, TLS_PROTOCOLS, o);
+                if (!HttpSubscriberConfig.DEFAULT_TLS_PROTOCOLS.contains(protocol)) {
+                    throw new ConfigurationException (this.source, HttpConfig.TLS_PROTOCOLS + " must only contain " + HttpSubscriberConfig.DEFAULT_TLS_PROTOCOLS);
+                }
+                this.tlsProtocols.add(protocol);
+            }
+            if (this.tlsProtocols.isEmpty()) {
+                throw new ConfigurationException (this.source, HttpConfig.TLS_PROTOCOLS + " must not be empty.");
+            }
+        }
+
+        final long cacheSize = nonNegativeLong(TLS_SESSION_CACHE_SIZE, obj, this.tlsSessionCacheSize);
+        if (cacheSize > Integer.MAX_VALUE) {
+            throw new ConfigurationException (this.source, HttpConfig.TLS_SESSION_CACHE_SIZE + " is too large.");
+        }
+        this.tlsSessionCacheSize = (int) cacheSize;
+
+        final long timeout = nonNegativeLong(TLS_SESSION_TIMEOUT_SECONDS, obj, this.tlsSessionTimeoutSeconds);
+        if (timeout > Integer.MAX_VALUE) {
+            throw new ConfigurationException (this.source, HttpConfig.TLS_SESSION_TIMEOUT_SECONDS + " is too large.");
+        }
+        this.tlsSessionTimeoutSeconds = (int) timeout;
+
+        final String tickets = itemAsString(TLS_SESSION_TICKETS, obj, false);
+        if (tickets != null) {
+            if (!tickets.equals(HttpUtils.MSG_ON) && !tickets.equals(HttpUtils.MSG_OFF)) {
+                throw new ConfigurationException (this.source, HttpConfig.TLS_SESSION_TICKETS + " must only contain " + HttpUtils.MSG_ON + " or " + HttpUtils.MSG_OFF);
+            }
+            this.tlsSessionTickets = tickets;
+        }
+    }
+
+    public void handleTlsProvider(final JSONObject obj) throws ConfigurationException {
+        this.tlsProvider = itemAsString(TLS_PROVIDER, obj, false);
+        if (this.tlsProvider != null && this.tlsProvider.trim().isEmpty()) {
+            throw new ConfigurationException (this.source, HttpConfig.TLS_PROVIDER + " must not be empty.");
+        }
+        this.tlsProviderClass = itemAsString(TLS_PROVIDER_CLASS, obj, false);
+        if (this.tlsProviderClass != null && this.tlsProviderClass.trim().isEmpty()) {
+            throw new ConfigurationException (this.source, HttpConfig.TLS_PROVIDER_CLASS + " must not be empty.");
+        }
+    }
+
+    public void handleDrainTimeout(final JSONObject obj) throws ConfigurationException {
+        this.drainTimeoutMillis = nonNegativeLong(DRAIN_TIMEOUT_MILLIS, obj, this.drainTimeoutMillis);
+    }
+
+    public void handleConfigReloadInterval(final JSONObject obj) throws ConfigurationException {
+        this.configReloadIntervalMillis = nonNegativeLong(CONFIG_RELOAD_INTERVAL_MILLIS, obj, this.configReloadIntervalMillis);
+    }
+
+    private long nonNegativeLong(final String key, final JSONObject obj, final long defaultValue) throws ConfigurationException {
+        final Number value = itemAsNumber(key, obj, false);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.longValue() < 0) {
+            throw new ConfigurationException (this.source, key + " must not be negative.");
+        }
+        return value.longValue();
+    }
+
+    public void handlePayloadCompression(final JSONObject obj) throws ConfigurationException {
+        final JSONObject compressions = asJsonObject(this.source, PAYLOAD_COMPRESSION, obj.get(PAYLOAD_COMPRESSION), false);
+        if (compressions == null) {
+            return;
+        }
+        for (final Object key : compressions.keySet()) {
+            final RecordType recordType = objectToRecordType(key);
+            final String compression = asStringValue(this.source, PAYLOAD_COMPRESSION, compressions.get(key));
+            if (!compression.equals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE)
+                    && !compression.equals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4)
+                    && !compression.equals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_GZIP)) {
+                throw new ConfigurationException (this.source, HttpConfig.PAYLOAD_COMPRESSION + " must only contain " + HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE
+                        + ", " + HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4 + " or " + HttpSubscriberConfig.PAYLOAD_COMPRESSION_GZIP);
+            }
+            this.payloadCompression.put(recordType, compression);
+        }
+    }
+
+    public String getDurability()
+    {
+        return this.durability;
+    }
+
+    public Map<RecordType, String> getPayloadCompression()
+    {
+        return this.payloadCompression;
+    }
+
+    public long getGroupCommitWaitMillis()
+    {
+        return this.groupCommitWaitMillis;
+    }
+
+    public long getReadDeadlineMillis()
+    {
+        return this.readDeadlineMillis;
+    }
+
+    public long getMinReadBytesPerSecond()
+    {
+        return this.minReadBytesPerSecond;
+    }
+
+    public long getReadRateGraceMillis()
+    {
+        return this.readRateGraceMillis;
+    }
+
+    public long getIdleTimeoutMillis()
+    {
+        return this.idleTimeoutMillis;
+    }
+
+    public long getMaxDecodedMetadataBytes()
+    {
+        return this.maxDecodedMetadataBytes;
+    }
+
+    public int getRecentJalIdCapacity()
+    {
+        return this.recentJalIdCapacity;
+    }
+
+    public Map<RecordType, Integer> getMaxConcurrentRecords()
+    {
+        return this.maxConcurrentRecords;
+    }
+
+    public int getRetryAfterSeconds()
+    {
+        return this.retryAfterSeconds;
+    }
+
+    public long getMinFreeBytes()
+    {
+        return this.minFreeBytes;
+    }
+
+    public long getResumeFreeBytes()
+    {
+        return this.resumeFreeBytes;
+    }
+
+    public long getMaxWriteLatencyMillis()
+    {
+        return this.maxWriteLatencyMillis;
+    }
+
+    public long getResumeWriteLatencyMillis()
+    {
+        return this.resumeWriteLatencyMillis;
+    }
+
+    public long getDiskCheckIntervalMillis()
+    {
+        return this.diskCheckIntervalMillis;
+    }
+
+    public Map<RecordType, Long> getPublisherBytesPerSecond()
+    {
+        return this.publisherBytesPerSecond;
+    }
+
+    public long getTotalBytesPerSecond()
+    {
+        return this.totalBytesPerSecond;
+    }
+
+    public Map<String, Integer> getPublisherWeights()
+    {
+        return this.publisherWeights;
+    }
+
+    public File getUnixSocketPath()
+    {
+        return this.unixSocketPath;
+    }
+
+    public String getUnixSocketPermissions()
+    {
+        return this.unixSocketPermissions;
+    }
+
+    public String getUnixSocketGroup()
+    {
+        return this.unixSocketGroup;
+    }
+
+    public List<String> getTlsProtocols()
+    {
+        return this.tlsProtocols;
+    }
+
+    public int getTlsSessionCacheSize()
+    {
+        return this.tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeoutSeconds()
+    {
+        return this.tlsSessionTimeoutSeconds;
+    }
+
+    public String getTlsSessionTickets()
+    {
+        return this.tlsSessionTickets;
+    }
+
+    public String getTlsProvider()
+    {
+        return this.tlsProvider;
+    }
+
+    public String getTlsProviderClass()
+    {
+        return this.tlsProviderClass;
+    }
+
+    public long getDrainTimeoutMillis()
+    {
+        return this.drainTimeoutMillis;
+    }
+
+    /**
+     * @return How often, in milliseconds, the subscriber checks whether the
+     *         configuration file or its key stores changed, or 0 to only
+     *         reload them on SIGHUP.
+     */
+    public long getConfigReloadIntervalMillis()
+    {
+        return this.configReloadIntervalMillis;
+    }
+
     public List<String> getConfigureDigests()
     {
         return this.configureDigests;
@@ -879,6 +1310,35 @@ public class HttpConfig {
         httpSubscriberConfig.setRole(this.getRole());
         httpSubscriberConfig.setMode(this.getMode());
         httpSubscriberConfig.setOutputPath(this.getOutputPath());
+        httpSubscriberConfig.setDurability(this.getDurability());
+        httpSubscriberConfig.setGroupCommitWaitMillis(this.getGroupCommitWaitMillis());
+        httpSubscriberConfig.setReadDeadlineMillis(this.getReadDeadlineMillis());
+        httpSubscriberConfig.setMinReadBytesPerSecond(this.getMinReadBytesPerSecond());
+        httpSubscriberConfig.setReadRateGraceMillis(this.getReadRateGraceMillis());
+        httpSubscriberConfig.setIdleTimeoutMillis(this.getIdleTimeoutMillis());
+        httpSubscriberConfig.setMaxDecodedMetadataBytes(this.getMaxDecodedMetadataBytes());
+        httpSubscriberConfig.setRecentJalIdCapacity(this.getRecentJalIdCapacity());
+        httpSubscriberConfig.setMaxConcurrentRecords(this.getMaxConcurrentRecords());
+        httpSubscriberConfig.setRetryAfterSeconds(this.getRetryAfterSeconds());
+        httpSubscriberConfig.setMinFreeBytes(this.getMinFreeBytes());
+        httpSubscriberConfig.setResumeFreeBytes(this.getResumeFreeBytes());
+        httpSubscriberConfig.setMaxWriteLatencyMillis(this.getMaxWriteLatencyMillis());
+        httpSubscriberConfig.setResumeWriteLatencyMillis(this.getResumeWriteLatencyMillis());
+        httpSubscriberConfig.setDiskCheckIntervalMillis(this.getDiskCheckIntervalMillis());
+        httpSubscriberConfig.setPublisherBytesPerSecond(this.getPublisherBytesPerSecond());
+        httpSubscriberConfig.setTotalBytesPerSecond(this.getTotalBytesPerSecond());
+        httpSubscriberConfig.setPublisherWeights(this.getPublisherWeights());
+        httpSubscriberConfig.setUnixSocketPath(this.getUnixSocketPath());
+        httpSubscriberConfig.setUnixSocketPermissions(this.getUnixSocketPermissions());
+        httpSubscriberConfig.setUnixSocketGroup(this.getUnixSocketGroup());
+        httpSubscriberConfig.setTlsProtocols(this.getTlsProtocols());
+        httpSubscriberConfig.setTlsSessionCacheSize(this.getTlsSessionCacheSize());
+        httpSubscriberConfig.setTlsSessionTimeoutSeconds(this.getTlsSessionTimeoutSeconds());
+        httpSubscriberConfig.setTlsSessionTickets(this.getTlsSessionTickets().equals(HttpUtils.MSG_ON));
+        httpSubscriberConfig.setTlsProvider(this.getTlsProvider());
+        httpSubscriberConfig.setTlsProviderClass(this.getTlsProviderClass());
+        httpSubscriberConfig.setDrainTimeoutMillis(this.getDrainTimeoutMillis());
+        httpSubscriberConfig.setPayloadCompression(this.getPayloadCompression());
 
         if (!this.getTrustStorePath().isEmpty() && !this.getTrustStorePassword().isEmpty())
         {
@@ -0,0 +1,228 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+import com.tresys.jalop.jnl.impl.http.JNLWebServer;
+import com.tresys.jalop.utils.jnltest.Config.HttpConfig;
+
+/**
+ * Reloads the configuration of a running subscriber, through
+ * {@link JNLWebServer#reload(HttpSubscriberConfig)}, when the configuration
+ * file, or the key store or trust store it names, changes, or when the
+ * process is sent a signal such as SIGHUP. Publishers stay connected
+ * throughout. A configuration that fails to parse or load is logged and the
+ * running one is kept.
+ */
+public final class ConfigReloader {
+
+    /** How often, in milliseconds, the files are checked by default. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    /** Told about each configuration that is applied. */
+    public interface Listener {
+        void reloaded(HttpSubscriberConfig config);
+    }
+
+    private static final JNLLog LOGGER =
+            new JNLLogger(Logger.getLogger(ConfigReloader.class));
+
+    private final File configFile;
+    private final JNLWebServer server;
+    private final Listener listener;
+
+    /** When the watched files last changed, to compare with. */
+    private List<Long> stamps;
+    private ScheduledExecutorService poller;
+
+    /**
+     * Create a {@link ConfigReloader}.
+     *
+     * @param configFile
+     *            The configuration file the subscriber was started with.
+     * @param server
+     *            The running subscriber.
+     * @param listener
+     *            Told about each configuration applied, or null.
+     */
+    public ConfigReloader(final File configFile, final JNLWebServer server, final Listener listener) {
+        if (configFile == null) {
+            throw new IllegalArgumentException("'configFile' is required.");
+        }
+        if (server == null) {
+            throw new IllegalArgumentException("'server' is required.");
+        }
+        this.configFile = configFile;
+        this.server = server;
+        this.listener = listener;
+        this.stamps = stamps(server.getConfig());
+    }
+
+    /**
+     * Check the files every <code>intervalMillis</code>, on a daemon
+     * thread.
+     *
+     * @param intervalMillis
+     *            How often to check, or 0 to not check.
+     */
+    public synchronized void start(final long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("'intervalMillis' must not be negative.");
+        }
+        if (intervalMillis == 0 || this.poller != null) {
+            return;
+        }
+        this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("jnltest-config-reload-%d").build());
+        this.poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reloadIfChanged();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop checking the files.
+     */
+    public synchronized void stop() {
+        if (this.poller != null) {
+            this.poller.shutdownNow();
+            this.poller = null;
+        }
+    }
+
+    /**
+     * Reload when the process is sent the signal, rather than taking its
+     * default action. Signals are reached through <code>sun.misc</code>, so
+     * on a JVM without it, or run with -Xrs, nothing is installed.
+     *
+     * @param name
+     *            The signal, such as "HUP".
+     * @return Whether the handler was installed.
+     */
+    public boolean handleSignal(final String name) {
+        try {
+            final Class<?> signalClass = Class.forName("sun.misc.Signal");
+            final Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            final Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(),
+                    new Class<?>[] { handlerClass }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            if ("handle".equals(method.getName())) {
+                                LOGGER.info("Got SIG" + name + ", reloading the configuration");
+                                reload();
+                                return null;
+                            }
+                            if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return "ConfigReloader(SIG" + name + ")";
+                        }
+                    });
+            final Object signal = signalClass.getConstructor(String.class).newInstance(name);
+            signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, handler);
+            return true;
+        } catch (final InvocationTargetException e) {
+            LOGGER.warn("Cannot reload the configuration on SIG" + name + ": " + e.getCause().getMessage());
+            return false;
+        } catch (final ReflectiveOperationException e) {
+            LOGGER.warn("Cannot reload the configuration on SIG" + name + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Reload the configuration if the configuration file or a key store it
+     * names changed since it was last loaded.
+     *
+     * @return Whether a changed configuration was applied.
+     */
+    public synchronized boolean reloadIfChanged() {
+        if (stamps(this.server.getConfig()).equals(this.stamps)) {
+            return false;
+        }
+        return reload();
+    }
+
+    /**
+     * Parse the configuration file and apply it to the subscriber.
+     *
+     * @return Whether it was applied.
+     */
+    public synchronized boolean reload() {
+        final List<Long> current = stamps(this.server.getConfig());
+        final HttpSubscriberConfig updated;
+        try {
+            updated = HttpConfig.parse(this.configFile.getPath()).getHttpSubscriberConfig();
+            this.server.reload(updated);
+        } catch (final Exception e) {
+            LOGGER.error("Keeping the running configuration, failed to reload " + this.configFile + ": " + e);
+            // Not tried again until the files change again.
+            this.stamps = current;
+            return false;
+        }
+        this.stamps = stamps(this.server.getConfig());
+        if (this.listener != null) {
+            this.listener.reloaded(this.server.getConfig());
+        }
+        return true;
+    }
+
+    /**
+     * @return When the configuration file, key store and trust store were
+     *         last changed, and their sizes.
+     */
+    private List<Long> stamps(final HttpSubscriberConfig config) {
+        final List<Long> stamps = new ArrayList<Long>();
+        for (final String path : new String[] { this.configFile.getPath(), config.getKeystorePath(),
+                config.getTrustStorePath() }) {
+            final File file = path == null ? null : new File(path);
+            stamps.add(file == null ? 0 : file.lastModified());
+            stamps.add(file == null ? 0 : file.length());
+        }
+        return stamps;
+    }
+}
@@ -1,10 +1,13 @@
 package com.tresys.jalop.utils.jnltest;
 
+import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.BufferedInputStream;
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,6 +17,7 @@ import org.json.simple.parser.ParseException;
 import com.tresys.jalop.jnl.DigestStatus;
 import com.tresys.jalop.jnl.Mode;
 import com.tresys.jalop.jnl.RecordInfo;
+import com.tresys.jalop.jnl.RecordType;
 import com.tresys.jalop.jnl.Session;
 import com.tresys.jalop.jnl.SubscribeRequest;
 import com.tresys.jalop.jnl.Subscriber;
@@ -22,12 +26,15 @@ import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
 import com.tresys.jalop.jnl.impl.http.JNLTestInterface;
 import com.tresys.jalop.jnl.impl.http.JNLWebServer;
 import com.tresys.jalop.jnl.impl.http.SubscriberAndSession;
+import com.tresys.jalop.jnl.impl.http.WebServerHandle;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
 import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
 import com.tresys.jalop.utils.jnltest.Config.ConfigurationException;
 import com.tresys.jalop.utils.jnltest.Config.HttpConfig;
 
 @SuppressWarnings("serial")
-public class JNLSubscriber implements Subscriber, JNLTestInterface
+public class JNLSubscriber implements Subscriber, JNLTestInterface, Flushable
 {
     public JNLSubscriber(HttpSubscriberConfig config)
     {
@@ -35,22 +42,21 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
     }
 
     /**
-     * Counter to keep track of the last used nonce for log records
+     * Allocators for the local nonces of each record type.
      */
-    private long latestLogNONCE;
-    /**
-     * Counter to keep track of the last used nonce for audit records
-     */
-    private long latestAuditNONCE;
+    private final Map<RecordType, NonceAllocator> nonceAllocators = new EnumMap<RecordType, NonceAllocator>(RecordType.class);
+
     /**
-     * Counter to keep track of the last used nonce for journal records
+     * Shared by every session so confirmations are synced in groups, created
+     * on first use when the configuration asks for durable confirmations.
      */
-    private long latestJournalNONCE;
+    private GroupCommitter groupCommitter;
 
     /**
-     * Configuration for this instance of JNLTest.
+     * Configuration for this instance of JNLTest, replaced when it is
+     * reloaded.
      */
-    private static HttpSubscriberConfig http_config;
+    private static volatile HttpSubscriberConfig http_config;
 
     /**
      * From Sessions to associated {@link SubscriberImpl}
@@ -89,7 +95,47 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
         final JNLWebServer jt = new JNLWebServer(config.getHttpSubscriberConfig());
         System.out.println("Starting Connections");
 
-        jt.start(new JNLSubscriber(http_config));
+        final WebServerHandle handle = jt.startServer(new JNLSubscriber(http_config));
+
+        //Changes to the configuration file or key stores, or a SIGHUP, are
+        //applied without restarting, so publishers stay connected
+        final ConfigReloader reloader = new ConfigReloader(new File(args[0]), jt, new ConfigReloader.Listener() {
+            @Override
+            public void reloaded(final HttpSubscriberConfig updated) {
+                http_config = updated;
+            }
+        });
+        reloader.handleSignal("HUP");
+        reloader.start(config.getConfigReloadIntervalMillis());
+
+        //Stopping the process lets records in progress finish, and saves the
+        //state of the rest, so publishers can pick up where they left off
+        Runtime.getRuntime().addShutdownHook(new Thread("subscriber-shutdown") {
+            @Override
+            public void run() {
+                reloader.stop();
+                try {
+                    handle.stop(http_config.getDrainTimeoutMillis());
+                } catch (final Exception e) {
+                    System.err.println("Failed to shut down cleanly: " + e.getMessage());
+                }
+            }
+        });
+        handle.join();
+    }
+
+    /**
+     * Save the exact last nonce of each record type, and flush the record
+     * indexes, so the next run picks up where this one left off.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (this.nonceAllocators) {
+            for (final NonceAllocator allocator : this.nonceAllocators.values()) {
+                allocator.close();
+            }
+        }
+        RecordIndex.flushAll();
     }
 
     public HttpSubscriberConfig getConfig()
@@ -102,7 +148,7 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public long getLatestLogNONCE() {
-        return latestLogNONCE;
+        return getNonceAllocator(RecordType.Log).current();
     }
 
     /**
@@ -110,7 +156,7 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public void setLatestLogNONCE(final long latestLogNONCE) {
-        this.latestLogNONCE = latestLogNONCE;
+        getNonceAllocator(RecordType.Log).set(latestLogNONCE);
     }
 
     /**
@@ -118,7 +164,7 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public long getLatestAuditNONCE() {
-        return latestAuditNONCE;
+        return getNonceAllocator(RecordType.Audit).current();
     }
 
     /**
@@ -126,7 +172,7 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public void setLatestAuditNONCE(final long latestAuditNONCE) {
-        this.latestAuditNONCE = latestAuditNONCE;
+        getNonceAllocator(RecordType.Audit).set(latestAuditNONCE);
     }
 
     /**
@@ -134,7 +180,7 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public long getLatestJournalNONCE() {
-        return latestJournalNONCE;
+        return getNonceAllocator(RecordType.Journal).current();
     }
 
     /**
@@ -142,7 +188,41 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
      */
     @Override
     public void setLatestJournalNONCE(final long latestJournalNONCE) {
-        this.latestJournalNONCE = latestJournalNONCE;
+        getNonceAllocator(RecordType.Journal).set(latestJournalNONCE);
+    }
+
+    @Override
+    public synchronized GroupCommitter getGroupCommitter() {
+        if (!http_config.isDurable()) {
+            return null;
+        }
+        if (this.groupCommitter == null) {
+            this.groupCommitter = new GroupCommitter(http_config.getGroupCommitWaitMillis(), http_config.getLogger());
+        }
+        return this.groupCommitter;
+    }
+
+    @Override
+    public String getPayloadCompression(final RecordType recordType) {
+        return http_config.getPayloadCompression(recordType);
+    }
+
+    @Override
+    public NonceAllocator getNonceAllocator(final RecordType recordType) {
+        synchronized (this.nonceAllocators) {
+            NonceAllocator allocator = this.nonceAllocators.get(recordType);
+            if (allocator == null) {
+                final File typeRoot = new File(http_config.getOutputPath(), recordType.name().toLowerCase());
+                try {
+                    allocator = new NonceAllocator(new File(typeRoot, NonceAllocator.STATE_FILENAME),
+                            NonceAllocator.DEFAULT_BLOCK_SIZE, http_config.getLogger());
+                } catch (final IOException e) {
+                    throw new RuntimeException("Failed to read the nonce state for " + recordType, e);
+                }
+                this.nonceAllocators.put(recordType, allocator);
+            }
+            return allocator;
+        }
     }
 
     @Override
@@ -245,6 +325,10 @@ public class JNLSubscriber implements Subscriber, JNLTestInterface
             }
             else
             {
+                //Lets another session resume the partial journal this one was offered,
+                //or any record this one left unfinished
+                removedSession.releaseJournalResume();
+                removedSession.abandonRecords();
                 return true;
             }
         }
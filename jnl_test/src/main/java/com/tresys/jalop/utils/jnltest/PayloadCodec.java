@@ -0,0 +1,185 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * The formats payloads can be stored in at rest.
+ *
+ * Compressed payloads are written in a standard container format, with the
+ * format's usual file extension appended to the payload filename, so they
+ * can be read back with common tools (<code>lz4 -d</code>,
+ * <code>gunzip</code>) as well as with {@link #unwrap(InputStream)}. The
+ * LZ4 codec uses the pure Java implementation, so no native library is
+ * loaded.
+ */
+enum PayloadCodec {
+
+    /** Payloads are stored as received. */
+    NONE(HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE, "") {
+        @Override
+        OutputStream wrap(final OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream unwrap(final InputStream in) {
+            return in;
+        }
+    },
+
+    /** The LZ4 frame format, fast enough to keep up with the network. */
+    LZ4(HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4, ".lz4") {
+        @Override
+        OutputStream wrap(final OutputStream out) throws IOException {
+            return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, -1L,
+                    LZ4Factory.safeInstance().fastCompressor(),
+                    XXHashFactory.safeInstance().hash32(),
+                    LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE,
+                    LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM);
+        }
+
+        @Override
+        InputStream unwrap(final InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in, LZ4Factory.safeInstance().safeDecompressor(),
+                    XXHashFactory.safeInstance().hash32());
+        }
+    },
+
+    /** The gzip format, slower than LZ4 but smaller. */
+    GZIP(HttpSubscriberConfig.PAYLOAD_COMPRESSION_GZIP, ".gz") {
+        @Override
+        OutputStream wrap(final OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, 8192);
+        }
+
+        @Override
+        InputStream unwrap(final InputStream in) throws IOException {
+            return new GZIPInputStream(in, 8192);
+        }
+    };
+
+    private final String configName;
+    private final String extension;
+
+    private PayloadCodec(final String configName, final String extension) {
+        this.configName = configName;
+        this.extension = extension;
+    }
+
+    /**
+     * @param compression
+     *          One of the <code>PAYLOAD_COMPRESSION_*</code> values of
+     *          {@link HttpSubscriberConfig}, or <code>null</code>.
+     * @return The matching codec; {@link #NONE} for <code>null</code>.
+     */
+    static PayloadCodec forName(final String compression) {
+        if (compression == null) {
+            return NONE;
+        }
+        for (final PayloadCodec codec : values()) {
+            if (codec.configName.equalsIgnoreCase(compression)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown payload compression '" + compression + "'");
+    }
+
+    /**
+     * @return The name used for this codec in the configuration and in
+     *         record status files.
+     */
+    String configName() {
+        return this.configName;
+    }
+
+    /**
+     * @param filename
+     *          The name of the uncompressed file.
+     * @return The name of the file once stored with this codec.
+     */
+    String filename(final String filename) {
+        return filename + this.extension;
+    }
+
+    /**
+     * Wrap <code>out</code> so data written to the result is compressed.
+     * Closing the result closes <code>out</code>.
+     */
+    abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    /**
+     * Wrap <code>in</code> so data read from the result is decompressed.
+     * Closing the result closes <code>in</code>.
+     */
+    abstract InputStream unwrap(InputStream in) throws IOException;
+
+    /**
+     * Compress <code>src</code> into <code>dest</code>, replacing anything
+     * already in <code>dest</code>.
+     *
+     * @param src
+     *          The uncompressed file.
+     * @param dest
+     *          The file to write.
+     * @param buffer
+     *          Scratch space for the copy.
+     * @throws IOException
+     *          If either file could not be accessed.
+     */
+    void compress(final File src, final File dest, final byte[] buffer) throws IOException {
+        final InputStream in = new FileInputStream(src);
+        try {
+            final OutputStream out = wrap(new FileOutputStream(dest));
+            try {
+                int cnt = in.read(buffer);
+                while (cnt != -1) {
+                    out.write(buffer, 0, cnt);
+                    cnt = in.read(buffer);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+import com.tresys.jalop.jnl.impl.subscriber.BufferPool;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+
+/**
+ * Compresses the payloads of confirmed journal records in the background.
+ * Journal payloads are stored as received while in flight, because a resume
+ * appends to them at a byte offset, and compressing one while confirming it
+ * would hold up the digest response for as long as it takes to read the whole
+ * journal back. Instead the record is confirmed and moved as is, and its
+ * payload is then replaced on a single daemon thread.
+ *
+ * The compressed copy is written to a temporary file and renamed into place
+ * before the status file names the codec, and the raw payload is only deleted
+ * after that, so a confirmed record always has a complete payload that
+ * matches its status file. If the compression fails, or the process exits
+ * before it is done, the record is simply left uncompressed.
+ */
+final class PayloadCompressor {
+
+    /** The single thread that does all of the compression. */
+    private static final ExecutorService COMPRESSOR =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("jnltest-compress-%d").build());
+
+    private static final JNLLog LOGGER =
+            new JNLLogger(Logger.getLogger(PayloadCompressor.class));
+
+    private PayloadCompressor() {
+    }
+
+    /**
+     * Schedule the payload of a confirmed record to be compressed.
+     *
+     * @param recordDir
+     *          The confirmed record directory, holding the raw payload.
+     * @param status
+     *          The status of the record, as written to its status file. A
+     *          copy is taken.
+     * @param codec
+     *          The codec to compress with.
+     * @param committer
+     *          Used to make the compressed copy durable before the raw
+     *          payload is deleted, or <code>null</code>.
+     * @param bufferSize
+     *          The size of the buffer to copy with.
+     */
+    static void schedule(final File recordDir, final Map<?, ?> status, final PayloadCodec codec,
+            final GroupCommitter committer, final int bufferSize) {
+        final Map<Object, Object> copy = new HashMap<Object, Object>(status);
+        COMPRESSOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                compress(recordDir, copy, codec, committer, bufferSize);
+            }
+        });
+    }
+
+    /**
+     * Wait for all scheduled compressions to finish.
+     *
+     * @param timeoutMillis
+     *          The maximum time to wait, in milliseconds.
+     * @return <code>true</code> if every compression scheduled before this
+     *         call has finished.
+     */
+    static boolean drain(final long timeoutMillis) {
+        try {
+            return COMPRESSOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Compressions run in order, so once this runs the
+                    // earlier ones are done.
+                }
+            }).get(timeoutMillis, TimeUnit.MILLISECONDS) == null;
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static void compress(final File recordDir, final Map<Object, Object> status,
+            final PayloadCodec codec, final GroupCommitter committer, final int bufferSize) {
+        final File payloadFile = new File(recordDir, SubscriberImpl.PAYLOAD_FILENAME);
+        final File compressedFile = new File(recordDir, codec.filename(SubscriberImpl.PAYLOAD_FILENAME));
+        final File tmp = new File(recordDir, compressedFile.getName() + ".tmp");
+        final File statusFile = new File(recordDir, SubscriberImpl.STATUS_FILENAME);
+        final ByteBuffer pooled = BufferPool.getShared().acquire(bufferSize);
+        boolean named = false;
+        try {
+            codec.compress(payloadFile, tmp, pooled.array());
+            if (committer != null) {
+                committer.commit(Arrays.asList(tmp), null);
+            }
+            Files.move(tmp.toPath(), compressedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            status.put(SubscriberImpl.PAYLOAD_COMPRESSION, codec.configName());
+            StatusFileWriter.get().write(statusFile, status, committer != null);
+            named = true;
+            if (committer != null) {
+                committer.commit(Arrays.asList(statusFile, recordDir), null);
+            }
+        } catch (final IOException e) {
+            // Most likely the record was removed in the meantime.
+            if (payloadFile.exists()) {
+                LOGGER.error("Failed to compress " + payloadFile.getAbsolutePath() + ": " + e.getMessage());
+            }
+            tmp.delete();
+            if (!named) {
+                compressedFile.delete();
+            }
+            return;
+        } finally {
+            BufferPool.getShared().release(pooled);
+        }
+        if (!payloadFile.delete()) {
+            LOGGER.error("Failed to delete " + payloadFile.getAbsolutePath() + " after compressing it.");
+        }
+    }
+}
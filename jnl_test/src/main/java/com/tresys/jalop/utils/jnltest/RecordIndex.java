@@ -0,0 +1,613 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * Memory-mapped index of the records that have been confirmed and moved into
+ * the output root for a single record type. Every entry has a fixed width and
+ * entry <code>n</code> lives at a fixed position in the file, so looking up a
+ * record by its local nonce, or finding the highest nonce in use, is a single
+ * read of the mapping instead of a listing (and sort) of the output directory.
+ *
+ * The index file is a header followed by the entries:
+ * <pre>
+ *  header (64 bytes):  magic, version, entry size, high-water nonce
+ *  entry  (256 bytes): state, digest length, JAL-Id length,
+ *                      system/application meta-data and payload lengths,
+ *                      digest (up to 64 bytes), JAL-Id (up to 160 bytes)
+ * </pre>
+ *
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes, each
+ * mapped one entry past its end so no entry is split between two mappings,
+ * so the index is not limited to what a single mapping can hold.
+ *
+ * The record directories remain the source of truth. The index is updated
+ * after a record directory has been renamed into place, so if the process
+ * dies between the two the high-water nonce is behind by at most a few
+ * records; {@link #open(File, JNLLog)} probes forward from the high-water
+ * nonce to pick those up. If the index file is missing or unreadable it is
+ * rebuilt from the record directories once. An index whose file is removed
+ * while it is open is rebuilt in place, so every {@link SubscriberImpl}
+ * holding it carries on with the new file.
+ */
+final class RecordIndex implements Flushable {
+
+    /** Name of the index file inside the output root for a record type. */
+    static final String INDEX_FILENAME = "records.idx";
+
+    /** Size, in bytes, of the header at the start of the index file. */
+    static final int HEADER_SIZE = 64;
+
+    /** Size, in bytes, of each entry in the index file. */
+    static final int ENTRY_SIZE = 256;
+
+    /** Maximum number of digest bytes that can be stored in an entry. */
+    static final int MAX_DIGEST_LENGTH = 64;
+
+    /** Maximum number of (UTF-8 encoded) JAL-Id bytes stored in an entry. */
+    static final int MAX_JAL_ID_LENGTH = 160;
+
+    /** Size, in bytes, of each segment of the file that is mapped separately. */
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Highest local nonce whose entry can be addressed in the index. */
+    static final long MAX_NONCE = (Integer.MAX_VALUE - 1L) * (SEGMENT_SIZE / ENTRY_SIZE);
+
+    /** Number of entries the mapping grows by when it needs to be extended. */
+    private static final long GROW_ENTRIES = 4096;
+
+    /** Identifies an index file ("JJNI"). */
+    private static final int MAGIC = 0x4a4a4e49;
+
+    /** Version of the on-disk layout. */
+    private static final int VERSION = 1;
+
+    private static final int HDR_MAGIC = 0;
+    private static final int HDR_VERSION = 4;
+    private static final int HDR_ENTRY_SIZE = 8;
+    private static final int HDR_HIGH_WATER = 16;
+
+    private static final int ENT_STATE = 0;
+    private static final int ENT_DIGEST_LEN = 1;
+    private static final int ENT_JAL_ID_LEN = 2;
+    private static final int ENT_SYS_META_LEN = 8;
+    private static final int ENT_APP_META_LEN = 16;
+    private static final int ENT_PAYLOAD_LEN = 24;
+    private static final int ENT_DIGEST = 32;
+    private static final int ENT_JAL_ID = ENT_DIGEST + MAX_DIGEST_LENGTH;
+
+    /** Entry state for a slot that has never been written. */
+    private static final byte STATE_EMPTY = 0;
+
+    /** Entry state for a confirmed record. */
+    private static final byte STATE_CONFIRMED = 1;
+
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
+    /**
+     * Open indexes, keyed by the canonical path of the index file. Each
+     * record type shares a single output root across all sessions, so all
+     * of the {@link SubscriberImpl} instances for a type share one index.
+     */
+    private static final Map<String, RecordIndex> OPEN_INDEXES =
+            new HashMap<String, RecordIndex>();
+
+    /** The index file. */
+    private final File indexFile;
+
+    /** The output root holding the record directories that are indexed. */
+    private final File outputRoot;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /** The mappings, segment <code>i</code> starting at <code>i * SEGMENT_SIZE</code>. */
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    /** Number of bytes of the file covered by the mappings. */
+    private long mappedSize;
+
+    /** Highest local nonce that has been recorded in the index. */
+    private long highWaterNonce;
+
+    private final JNLLog logger;
+
+    /**
+     * A single entry read back from the index.
+     */
+    static final class Entry {
+        private final long nonce;
+        private final String remoteNonce;
+        private final byte[] digest;
+        private final long sysMetaLength;
+        private final long appMetaLength;
+        private final long payloadLength;
+
+        Entry(final long nonce, final String remoteNonce, final byte[] digest,
+                final long sysMetaLength, final long appMetaLength,
+                final long payloadLength) {
+            this.nonce = nonce;
+            this.remoteNonce = remoteNonce;
+            this.digest = digest;
+            this.sysMetaLength = sysMetaLength;
+            this.appMetaLength = appMetaLength;
+            this.payloadLength = payloadLength;
+        }
+
+        long getNonce() {
+            return this.nonce;
+        }
+
+        /**
+         * @return the JAL-Id the remote used for this record, or
+         *         <code>null</code> if it was too long to be indexed.
+         */
+        String getRemoteNonce() {
+            return this.remoteNonce;
+        }
+
+        /**
+         * @return the calculated digest, or an empty array if no digest was
+         *         calculated for the record.
+         */
+        byte[] getDigest() {
+            return this.digest.clone();
+        }
+
+        long getSysMetaLength() {
+            return this.sysMetaLength;
+        }
+
+        long getAppMetaLength() {
+            return this.appMetaLength;
+        }
+
+        long getPayloadLength() {
+            return this.payloadLength;
+        }
+    }
+
+    /**
+     * Get the index for the records stored under <code>outputRoot</code>,
+     * opening (and if necessary rebuilding) it on first use. If the index
+     * file has been removed since it was opened, for example because the
+     * output directory was cleaned out, the open index is rebuilt in place
+     * from the record directories that are left.
+     *
+     * @param outputRoot
+     *          The output root for a single record type.
+     * @param logger
+     *          The logger to use, may be <code>null</code>.
+     * @return The index.
+     * @throws IOException
+     *          If the index file cannot be opened or mapped.
+     */
+    static RecordIndex open(final File outputRoot, final JNLLog logger)
+            throws IOException {
+        final File indexFile = new File(outputRoot, INDEX_FILENAME);
+        final String key = indexFile.getCanonicalPath();
+        synchronized (OPEN_INDEXES) {
+            RecordIndex index = OPEN_INDEXES.get(key);
+            if (index != null && !indexFile.exists()) {
+                try {
+                    index.reopen();
+                } catch (final IOException e) {
+                    OPEN_INDEXES.remove(key);
+                    throw e;
+                }
+            }
+            if (index == null) {
+                index = new RecordIndex(outputRoot, indexFile, logger);
+                OPEN_INDEXES.put(key, index);
+            }
+            index.probeForward();
+            return index;
+        }
+    }
+
+    private RecordIndex(final File outputRoot, final File indexFile,
+            final JNLLog logger) throws IOException {
+        if (logger == null) {
+            this.logger = new JNLLogger(Logger.getLogger(RecordIndex.class));
+        } else {
+            this.logger = logger;
+        }
+        this.outputRoot = outputRoot;
+        this.indexFile = indexFile;
+        openFile();
+    }
+
+    /**
+     * Open and map the index file, rebuilding it if it is new or not valid.
+     */
+    private void openFile() throws IOException {
+        final boolean existed = this.indexFile.length() >= HEADER_SIZE;
+        this.raf = new RandomAccessFile(this.indexFile, "rw");
+        this.channel = this.raf.getChannel();
+        try {
+            mapFor(Math.max(this.channel.size(), offsetOf(GROW_ENTRIES)));
+
+            final MappedByteBuffer header = this.segments.get(0);
+            if (existed && header.getInt(HDR_MAGIC) == MAGIC
+                    && header.getInt(HDR_VERSION) == VERSION
+                    && header.getInt(HDR_ENTRY_SIZE) == ENTRY_SIZE) {
+                this.highWaterNonce = header.getLong(HDR_HIGH_WATER);
+            } else {
+                if (existed) {
+                    this.logger.warn("Index " + this.indexFile.getAbsolutePath()
+                            + " is not valid, rebuilding it");
+                }
+                rebuild();
+            }
+        } catch (final IOException e) {
+            this.channel.close();
+            unmap();
+            throw e;
+        }
+    }
+
+    /**
+     * Replace the mappings of a removed index file with a new file rebuilt
+     * from the record directories. Entries are only read and written under
+     * this instance's lock, so they all go to the new file.
+     */
+    private synchronized void reopen() throws IOException {
+        if (this.logger.isInfoEnabled()) {
+            this.logger.info("Index " + this.indexFile.getAbsolutePath()
+                    + " was removed, rebuilding it");
+        }
+        close();
+        openFile();
+    }
+
+    /**
+     * @return The highest local nonce that has been recorded in the index,
+     *         or 0 if there are no records.
+     */
+    synchronized long getHighWaterNonce() {
+        return this.highWaterNonce;
+    }
+
+    /**
+     * Record a confirmed record in the index.
+     *
+     * @param nonce
+     *          The local nonce (directory name) of the record.
+     * @param remoteNonce
+     *          The JAL-Id the remote used for the record.
+     * @param digest
+     *          The calculated digest, or <code>null</code> if none was
+     *          calculated.
+     * @param sysMetaLength
+     *          The length, in bytes, of the system meta-data.
+     * @param appMetaLength
+     *          The length, in bytes, of the application meta-data.
+     * @param payloadLength
+     *          The length, in bytes, of the payload.
+     * @throws IOException
+     *          If the index could not be extended, or <code>nonce</code> is
+     *          beyond {@link #MAX_NONCE}.
+     */
+    synchronized void put(final long nonce, final String remoteNonce,
+            final byte[] digest, final long sysMetaLength,
+            final long appMetaLength, final long payloadLength)
+                    throws IOException {
+        if (nonce <= 0) {
+            throw new IllegalArgumentException("nonce must be positive");
+        }
+        if (nonce > MAX_NONCE) {
+            throw new IOException("Index " + this.indexFile.getAbsolutePath()
+                    + " cannot hold record " + nonce);
+        }
+        if (!this.channel.isOpen()) {
+            throw new IOException("Index " + this.indexFile.getAbsolutePath()
+                    + " is closed");
+        }
+        final long end = offsetOf(nonce) + ENTRY_SIZE;
+        if (end > this.mappedSize) {
+            mapFor(end + offsetOf(GROW_ENTRIES) - HEADER_SIZE);
+        }
+
+        byte[] id = remoteNonce != null ? remoteNonce.getBytes(UTF_8) : new byte[0];
+        if (id.length > MAX_JAL_ID_LENGTH) {
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("JAL-Id for record " + nonce
+                        + " is too long to be indexed");
+            }
+            id = new byte[0];
+        }
+        final byte[] dgst = digest != null && digest.length <= MAX_DIGEST_LENGTH
+                ? digest : new byte[0];
+
+        final MappedByteBuffer map = segmentOf(nonce);
+        final int pos = positionOf(nonce);
+        map.put(pos + ENT_STATE, STATE_EMPTY);
+        map.put(pos + ENT_DIGEST_LEN, (byte) dgst.length);
+        map.putShort(pos + ENT_JAL_ID_LEN, (short) id.length);
+        map.putLong(pos + ENT_SYS_META_LEN, sysMetaLength);
+        map.putLong(pos + ENT_APP_META_LEN, appMetaLength);
+        map.putLong(pos + ENT_PAYLOAD_LEN, payloadLength);
+        for (int i = 0; i < dgst.length; i++) {
+            map.put(pos + ENT_DIGEST + i, dgst[i]);
+        }
+        for (int i = 0; i < id.length; i++) {
+            map.put(pos + ENT_JAL_ID + i, id[i]);
+        }
+        // The state byte is written last so a torn entry reads as empty.
+        map.put(pos + ENT_STATE, STATE_CONFIRMED);
+
+        if (nonce > this.highWaterNonce) {
+            this.highWaterNonce = nonce;
+            this.segments.get(0).putLong(HDR_HIGH_WATER, nonce);
+        }
+    }
+
+    /**
+     * Look up a record by its local nonce.
+     *
+     * @param nonce
+     *          The local nonce (directory name) of the record.
+     * @return The entry, or <code>null</code> if the index has no entry for
+     *         <code>nonce</code>.
+     */
+    synchronized Entry get(final long nonce) {
+        if (nonce <= 0 || nonce > MAX_NONCE || offsetOf(nonce) + ENTRY_SIZE > this.mappedSize) {
+            return null;
+        }
+        final MappedByteBuffer map = segmentOf(nonce);
+        final int pos = positionOf(nonce);
+        if (map.get(pos + ENT_STATE) != STATE_CONFIRMED) {
+            return null;
+        }
+        final byte[] dgst = new byte[map.get(pos + ENT_DIGEST_LEN) & 0xff];
+        for (int i = 0; i < dgst.length; i++) {
+            dgst[i] = map.get(pos + ENT_DIGEST + i);
+        }
+        final byte[] id = new byte[map.getShort(pos + ENT_JAL_ID_LEN) & 0xffff];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = map.get(pos + ENT_JAL_ID + i);
+        }
+        return new Entry(nonce, id.length > 0 ? new String(id, UTF_8) : null,
+                dgst, map.getLong(pos + ENT_SYS_META_LEN),
+                map.getLong(pos + ENT_APP_META_LEN),
+                map.getLong(pos + ENT_PAYLOAD_LEN));
+    }
+
+    /**
+     * Flush the mapping to the storage device.
+     */
+    synchronized void force() {
+        for (final MappedByteBuffer map : this.segments) {
+            map.force();
+        }
+    }
+
+    /**
+     * Same as {@link #force()}, so the index can be synced along with the
+     * records it describes.
+     */
+    @Override
+    public void flush() {
+        force();
+    }
+
+    /**
+     * Flush and close the index. Any further use of this instance is an
+     * error; call {@link #open(File, JNLLog)} again instead.
+     */
+    synchronized void close() {
+        try {
+            force();
+            this.channel.close();
+        } catch (final IOException e) {
+            this.logger.error("Failed to close index "
+                    + this.indexFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+        unmap();
+    }
+
+    /**
+     * Drop the mappings, so nothing more is read from or written to them.
+     */
+    private void unmap() {
+        this.segments.clear();
+        this.mappedSize = 0;
+        this.highWaterNonce = 0;
+    }
+
+    /**
+     * Flush every open index.
+     */
+    static void flushAll() {
+        synchronized (OPEN_INDEXES) {
+            for (final RecordIndex index : OPEN_INDEXES.values()) {
+                index.force();
+            }
+        }
+    }
+
+    /**
+     * Close every open index. Used when the subscriber shuts down.
+     */
+    static void closeAll() {
+        synchronized (OPEN_INDEXES) {
+            for (final RecordIndex index : OPEN_INDEXES.values()) {
+                index.close();
+            }
+            OPEN_INDEXES.clear();
+        }
+    }
+
+    /**
+     * Pick up any record directories that were moved into place after the
+     * high-water nonce was last written, e.g. because the process died in
+     * between.
+     */
+    private synchronized void probeForward() {
+        long next = this.highWaterNonce + 1;
+        while (recordDir(next).isDirectory()) {
+            next++;
+        }
+        if (next - 1 > this.highWaterNonce) {
+            if (this.logger.isInfoEnabled()) {
+                this.logger.info("Index " + this.indexFile.getAbsolutePath()
+                        + " was behind, advancing high-water nonce to " + (next - 1));
+            }
+            this.highWaterNonce = next - 1;
+            this.segments.get(0).putLong(HDR_HIGH_WATER, this.highWaterNonce);
+        }
+    }
+
+    /**
+     * Recreate the index from the record directories. This is only done once,
+     * when an index file is first created for an existing output root.
+     */
+    private void rebuild() throws IOException {
+        for (final MappedByteBuffer map : this.segments) {
+            for (int i = 0; i < map.capacity(); i++) {
+                map.put(i, (byte) 0);
+            }
+        }
+        final MappedByteBuffer header = this.segments.get(0);
+        header.putInt(HDR_MAGIC, MAGIC);
+        header.putInt(HDR_VERSION, VERSION);
+        header.putInt(HDR_ENTRY_SIZE, ENTRY_SIZE);
+        header.putLong(HDR_HIGH_WATER, 0);
+        this.highWaterNonce = 0;
+
+        final File[] recordDirs =
+                this.outputRoot.listFiles(SubscriberImpl.FILENAME_FILTER);
+        if (recordDirs == null) {
+            return;
+        }
+        final JSONParser p = new JSONParser();
+        for (final File dir : recordDirs) {
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            final long nonce = Long.parseLong(dir.getName());
+            long sys = 0, app = 0, payload = 0;
+            String remoteNonce = null;
+            byte[] digest = null;
+            final File status = new File(dir, SubscriberImpl.STATUS_FILENAME);
+            if (status.exists()) {
+                final FileReader r = new FileReader(status);
+                try {
+                    final JSONObject json = (JSONObject) p.parse(r);
+                    sys = longValue(json.get(SubscriberImpl.SYS_META_PROGRESS));
+                    app = longValue(json.get(SubscriberImpl.APP_META_PROGRESS));
+                    payload = longValue(json.get(SubscriberImpl.PAYLOAD_PROGRESS));
+                    remoteNonce = (String) json.get(SubscriberImpl.REMOTE_NONCE);
+                    digest = SubscriberImpl.hexToBytes(
+                            (String) json.get(SubscriberImpl.DGST));
+                } catch (final ParseException e) {
+                    this.logger.warn("Failed to parse " + status.getAbsolutePath()
+                            + ", indexing record " + nonce + " without details");
+                } finally {
+                    r.close();
+                }
+            }
+            put(nonce, remoteNonce, digest, sys, app, payload);
+        }
+        if (this.logger.isInfoEnabled()) {
+            this.logger.info("Rebuilt index " + this.indexFile.getAbsolutePath()
+                    + " with high-water nonce " + this.highWaterNonce);
+        }
+    }
+
+    /**
+     * Map the first <code>size</code> bytes of the file, extending it if
+     * needed. Segments already mapped in full are left alone; the last one is
+     * mapped again if it grows.
+     */
+    private void mapFor(final long size) throws IOException {
+        final int count = (int) ((size - 1) / SEGMENT_SIZE) + 1;
+        for (int i = 0; i < count; i++) {
+            final long start = i * SEGMENT_SIZE;
+            final long length = Math.min(size, start + SEGMENT_SIZE + ENTRY_SIZE) - start;
+            if (i < this.segments.size()) {
+                final MappedByteBuffer mapped = this.segments.get(i);
+                if (mapped.capacity() >= length) {
+                    continue;
+                }
+                mapped.force();
+            }
+            final MappedByteBuffer map = this.channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            map.order(ByteOrder.BIG_ENDIAN);
+            if (i < this.segments.size()) {
+                this.segments.set(i, map);
+            } else {
+                this.segments.add(map);
+            }
+        }
+        this.mappedSize = Math.max(this.mappedSize, size);
+    }
+
+    /** @return The mapping holding the whole entry for <code>nonce</code>. */
+    private MappedByteBuffer segmentOf(final long nonce) {
+        return this.segments.get((int) (offsetOf(nonce) / SEGMENT_SIZE));
+    }
+
+    /** @return Where the entry for <code>nonce</code> starts in {@link #segmentOf(long)}. */
+    private static int positionOf(final long nonce) {
+        return (int) (offsetOf(nonce) % SEGMENT_SIZE);
+    }
+
+    private File recordDir(final long nonce) {
+        // DecimalFormat is not thread safe, so the shared formatter is not used here.
+        return new File(this.outputRoot, String.format("%010d", nonce));
+    }
+
+    private static long offsetOf(final long nonce) {
+        return HEADER_SIZE + (nonce - 1) * ENTRY_SIZE;
+    }
+
+    private static long longValue(final Object o) {
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+}
@@ -0,0 +1,261 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Writes the small JSON status files kept alongside each record.
+ *
+ * The status is encoded straight into a buffer that is reused between calls,
+ * rather than going through {@link org.json.simple.JSONObject#toJSONString()}
+ * and {@link String#getBytes(String)}, and is written to a temporary file
+ * that is then renamed over the status file. Readers therefore always see
+ * either the previous or the new status, never a partially written one. When
+ * the status must survive a crash, the temporary file is synced before the
+ * rename, as some file systems may otherwise persist the rename before the
+ * data and leave an empty status file behind. The
+ * output is plain JSON, so status files are still read with
+ * {@link org.json.simple.parser.JSONParser} and files written by earlier
+ * versions remain readable.
+ *
+ * Instances are not thread safe; {@link #get()} returns one per thread.
+ */
+final class StatusFileWriter {
+
+    private static final ThreadLocal<StatusFileWriter> WRITERS =
+            new ThreadLocal<StatusFileWriter>() {
+        @Override
+        protected StatusFileWriter initialValue() {
+            return new StatusFileWriter();
+        }
+    };
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] buf = new byte[512];
+    private int len;
+
+    /** Scratch space for formatting numbers without allocating. */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * @return The writer for the calling thread.
+     */
+    static StatusFileWriter get() {
+        return WRITERS.get();
+    }
+
+    /**
+     * Atomically replace <code>file</code> with the JSON encoding of
+     * <code>status</code>, without syncing it.
+     *
+     * @see #write(File, Map, boolean)
+     */
+    void write(final File file, final Map<?, ?> status) throws IOException {
+        write(file, status, false);
+    }
+
+    /**
+     * Atomically replace <code>file</code> with the JSON encoding of
+     * <code>status</code>.
+     *
+     * @param file
+     *          The status file to write.
+     * @param status
+     *          The status to write. Keys are written as strings; values may
+     *          be numbers, strings, booleans or <code>null</code>.
+     * @param sync
+     *          Whether to sync the new contents to disk before they replace
+     *          the old.
+     * @throws IOException
+     *          If the file could not be written.
+     */
+    void write(final File file, final Map<?, ?> status, final boolean sync) throws IOException {
+        encode(status);
+
+        // Unique per thread, in case two threads write the same file.
+        final File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(this.buf, 0, this.len);
+            if (sync) {
+                out.getChannel().force(true);
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Encode <code>status</code> into the buffer. Visible for testing.
+     */
+    byte[] encode(final Map<?, ?> status) {
+        this.len = 0;
+        put((byte) '{');
+        boolean first = true;
+        for (final Map.Entry<?, ?> e : status.entrySet()) {
+            if (!first) {
+                put((byte) ',');
+            }
+            first = false;
+            putString(String.valueOf(e.getKey()));
+            put((byte) ':');
+            putValue(e.getValue());
+        }
+        put((byte) '}');
+        return this.buf;
+    }
+
+    /**
+     * @return The number of bytes in the buffer after the last
+     *         {@link #encode(Map)}.
+     */
+    int length() {
+        return this.len;
+    }
+
+    private void putValue(final Object v) {
+        if (v == null) {
+            putAscii("null");
+        } else if (v instanceof Long || v instanceof Integer
+                || v instanceof Short || v instanceof Byte) {
+            putLong(((Number) v).longValue());
+        } else if (v instanceof Number || v instanceof Boolean) {
+            putAscii(v.toString());
+        } else {
+            putString(v.toString());
+        }
+    }
+
+    private void putLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            putAscii(Long.toString(v));
+            return;
+        }
+        if (v < 0) {
+            put((byte) '-');
+            v = -v;
+        }
+        int i = this.digits.length;
+        do {
+            this.digits[--i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        ensure(this.digits.length - i);
+        System.arraycopy(this.digits, i, this.buf, this.len, this.digits.length - i);
+        this.len += this.digits.length - i;
+    }
+
+    private void putAscii(final String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            this.buf[this.len++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void putString(final String s) {
+        put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                put((byte) '\\');
+                put((byte) c);
+                break;
+            case '\b':
+                put((byte) '\\');
+                put((byte) 'b');
+                break;
+            case '\f':
+                put((byte) '\\');
+                put((byte) 'f');
+                break;
+            case '\n':
+                put((byte) '\\');
+                put((byte) 'n');
+                break;
+            case '\r':
+                put((byte) '\\');
+                put((byte) 'r');
+                break;
+            case '\t':
+                put((byte) '\\');
+                put((byte) 't');
+                break;
+            default:
+                if (c < 0x20) {
+                    putAscii("\\u00");
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xf]);
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else if (c < 0x800) {
+                    put((byte) (0xc0 | (c >> 6)));
+                    put((byte) (0x80 | (c & 0x3f)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    final int cp = Character.toCodePoint(c, s.charAt(++i));
+                    put((byte) (0xf0 | (cp >> 18)));
+                    put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                    put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                    put((byte) (0x80 | (cp & 0x3f)));
+                } else {
+                    put((byte) (0xe0 | (c >> 12)));
+                    put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                    put((byte) (0x80 | (c & 0x3f)));
+                }
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void put(final byte b) {
+        ensure(1);
+        this.buf[this.len++] = b;
+    }
+
+    private void ensure(final int n) {
+        if (this.len + n > this.buf.length) {
+            final byte[] bigger = new byte[Math.max(this.buf.length * 2, this.len + n)];
+            System.arraycopy(this.buf, 0, bigger, 0, this.len);
+            this.buf = bigger;
+        }
+    }
+}
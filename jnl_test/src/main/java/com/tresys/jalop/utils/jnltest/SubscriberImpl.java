@@ -25,7 +25,6 @@ package com.tresys.jalop.utils.jnltest;
  */
 
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -35,12 +34,17 @@ import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.BufferedInputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -54,6 +58,8 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import com.google.common.io.PatternFilenameFilter;
+import com.tresys.jalop.jnl.CheckpointedSubscribeRequest;
+import com.tresys.jalop.jnl.DigestCheckpoint;
 import com.tresys.jalop.jnl.DigestStatus;
 import com.tresys.jalop.jnl.JNLLog;
 import com.tresys.jalop.jnl.Mode;
@@ -65,6 +71,9 @@ import com.tresys.jalop.jnl.SubscriberSession;
 import com.tresys.jalop.jnl.impl.JNLLogger;
 import com.tresys.jalop.jnl.impl.http.JNLTestInterface;
 import com.tresys.jalop.jnl.impl.http.SubscriberAndSession;
+import com.tresys.jalop.jnl.impl.subscriber.BufferPool;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
 
 /**
  * Sample implementation of a {@link Subscriber}. This {@link Subscriber} simply
@@ -84,11 +93,17 @@ public class SubscriberImpl implements Subscriber {
     private static final String DGST_CONF = "digest_conf";
 
     /** Filename where status information is written to. */
-    private static final String STATUS_FILENAME = "status.js";
+    static final String STATUS_FILENAME = "status.js";
 
     /** Filename where last nonce with a confirmed digest is written to. */
     private static final String LAST_CONFIRMED_FILENAME = "lastConfirmedNonce.js";
 
+    /**
+     * Number of bytes of record data received between rewrites of the
+     * status file.
+     */
+    static final long STATUS_INTERVAL = 64 * 1024;
+
     /**
      * Key in the status file for the expected size of the application
      * meta-data.
@@ -108,25 +123,25 @@ public class SubscriberImpl implements Subscriber {
      * Key in the status file for tracking how many bytes of the system
      * meta-data was actually transfered.
      */
-    private static final String SYS_META_PROGRESS = "sys_meta_progress";
+    static final String SYS_META_PROGRESS = "sys_meta_progress";
 
     /**
      * Key in the status file for tracking how many bytes of the application
      * meta-data was actually transfered.
      */
-    private static final String APP_META_PROGRESS = "app_meta_progress";
+    static final String APP_META_PROGRESS = "app_meta_progress";
 
     /**
      * Key in the status file for tracking how many bytes of the payload was
      * actually transfered.
      */
-    private static final String PAYLOAD_PROGRESS = "payload_progress";
+    static final String PAYLOAD_PROGRESS = "payload_progress";
 
     /**
      * Key in the status file for the nonce the remote uses to identify
      * this record.
      */
-    private static final String REMOTE_NONCE = "remote_nonce";
+    static final String REMOTE_NONCE = "remote_nonce";
 
     /** Key in the status file for the remote IP address for this record */
     private static final String REMOTE_IP = "remote_ip";
@@ -141,7 +156,20 @@ public class SubscriberImpl implements Subscriber {
     private static final String LAST_CONFIRMED_NONCE = "last_confirmed_nonce";
 
     /** Key in the status file for the calculated digest. */
-    private static final Object DGST = "digest";
+    static final String DGST = "digest";
+
+    /**
+     * Key in the status file for the digest checkpoint taken at the payload
+     * progress, so a resumed journal need not be read again for its digest.
+     */
+    static final String DGST_CHECKPOINT = "digest_checkpoint";
+
+    /**
+     * Key in the status file for the hash of the last, incomplete, chunk of
+     * the payload at the payload progress.
+     * @see ChunkHashList
+     */
+    static final String PAYLOAD_TAIL_HASH = "payload_tail_hash";
 
     /** The filename for the system meta-data document. */
     private static final String SYS_META_FILENAME = "sys_metadata.xml";
@@ -150,7 +178,13 @@ public class SubscriberImpl implements Subscriber {
     private static final String APP_META_FILENAME = "app_metadata.xml";
 
     /** The filename for the payload. */
-    private static final String PAYLOAD_FILENAME = "payload";
+    static final String PAYLOAD_FILENAME = "payload";
+
+    /**
+     * Key in the status file for the compression of the stored payload,
+     * absent if it is stored as received.
+     */
+    static final String PAYLOAD_COMPRESSION = "payload_compression";
 
     /** Indicates that both sides agree on the digest value. */
     private static final Object CONFIRMED = "confirmed";
@@ -175,6 +209,9 @@ public class SubscriberImpl implements Subscriber {
      */
     final File outputRoot;
 
+    /** The top level output directory, shared by every record type. */
+    private final File outputBase;
+
     /**
      * Root of the output directories at the ip level. Each record
      * type contains its own sub-directory. Records are transfered here
@@ -205,9 +242,26 @@ public class SubscriberImpl implements Subscriber {
     static final DecimalFormat NONCE_FORMATER =
             new DecimalFormat(NONCE_FORMAT_STRING);
 
-    /** Local nonce counter. */
+    /**
+     * Local nonce counter, the lowest local nonce that may be free for the
+     * next record.
+     */
     private long nonce = 1;
 
+    /** The temporary record directories in use by any session. */
+    private ActiveRecordDirs activeDirs;
+
+    /** This session, as the user of its record directories. */
+    private final ActiveRecordDirs.Owner dirOwner = new ActiveRecordDirs.Owner() {
+        @Override
+        public boolean giveUp(final long nonce) {
+            return giveUpRecord(nonce);
+        }
+    };
+
+    /** Remote nonces of the records given up to a newer session. */
+    private final Set<String> givenUp = new HashSet<String>();
+
     /** Maps remote NONCE to {@link LocalRecordInfo}. */
     private final Map<String, LocalRecordInfo> nonceMap =
             new HashMap<String, SubscriberImpl.LocalRecordInfo>();
@@ -236,12 +290,30 @@ public class SubscriberImpl implements Subscriber {
     /** Stores the local journal resume record that is in progress **/
     LocalRecordInfo journalResumeRecord = null;
 
+    /** The local nonce of the partial journal record offered for resume. */
+    long journalResumeNonce = -1;
+
     /** The input stream to use for a journal resume. */
     InputStream journalInputStream = null;
 
+    /** The digest checkpoint saved with the partial journal record offered for resume. */
+    byte[] journalDigestCheckpoint = null;
+
     /** The JNLTest associated with this SubscriberImpl. */
     private final JNLTestInterface jnlTest;
 
+    /** How payloads are stored once received. */
+    private final PayloadCodec payloadCodec;
+
+    /** Whether status files are synced before they replace the old ones, as they are for durability fsync. */
+    private final boolean syncStatus;
+
+    /** Hands out the local nonces for {@link #recordType}, shared by every session. */
+    private final NonceAllocator nonceAllocator;
+
+    /** Index of the confirmed records in {@link #outputRoot}. */
+    private RecordIndex recordIndex;
+
     /**
      * FileFilter to get all sub-directories that match the nonce
      * pattern.
@@ -261,6 +333,8 @@ public class SubscriberImpl implements Subscriber {
      * This is just an object used to track stats about a specific record.
      */
     private class LocalRecordInfo {
+        /** The nonce this record is tracked by locally. */
+        public final long localNonce;
         /** The directory to store all information regarding this record. */
         public final File recordDir;
         /** The file to write the status information to. */
@@ -276,6 +350,15 @@ public class SubscriberImpl implements Subscriber {
         public long sysMetadataLastModified = 0;
         public long payloadLastModified = 0;
 
+        /** The name of the payload file, which depends on how it is stored. */
+        public String payloadFilename = PAYLOAD_FILENAME;
+
+        /** Where to take digest checkpoints from while the payload is written. */
+        public DigestCheckpoint digestCheckpoint = null;
+
+        /** Whether all of the record has been written, guarded by the nonce map. */
+        public boolean received = false;
+
         /**
          * Create a new {@link LocalRecordInfo} object.
          *
@@ -308,6 +391,7 @@ public class SubscriberImpl implements Subscriber {
                 final long sysMetaLen, final long payloadLen,
                 final long localNonce) {
 
+            this.localNonce = localNonce;
             this.recordDir =
                     new File(SubscriberImpl.this.outputIpRoot,
                             SubscriberImpl.NONCE_FORMATER.format(localNonce));
@@ -367,6 +451,10 @@ public class SubscriberImpl implements Subscriber {
             this.remoteIp = remoteAddr.getHostAddress();
         }
         this.jnlTest = jnlTest;
+        this.payloadCodec = PayloadCodec.forName(jnlTest.getPayloadCompression(recordType));
+        this.syncStatus = jnlTest.getGroupCommitter() != null;
+        this.nonceAllocator = jnlTest.getNonceAllocator(recordType);
+        this.outputBase = outputRoot;
         final File tmp = new File(outputRoot, this.remoteIp);
         final String type;
         switch (recordType) {
@@ -420,11 +508,13 @@ public class SubscriberImpl implements Subscriber {
      * Helper utility to run through all records that have been transferred,
      * but not yet synced. For log & audit records, this will remove all
      * records that are not synced (even if they are completely downloaded).
-     * For journal records, this finds the record after the most recently
-     * synced record record, and deletes all the other unsynced records. For
-     * example, if the journal records 1, 2, 3, and 4 have been downloaded, and
-     * record number 2 is marked as 'synced', then this will remove record
-     * number 4, and try to resume the transfer for record number 3.
+     * For journal records in archive mode, every record that was only
+     * partially downloaded is kept, so each can be resumed at its offset,
+     * and all the other unsynced records are removed. The oldest partial
+     * record that no other session is resuming is offered for resume to
+     * this session; the rest are left for the sessions that follow.
+     * Records another session is still writing are left alone; those it has
+     * received but not had confirmed are given up to this session.
      *
      * @throws IOException If there is an error reading existing files, or an
      *          error removing stale directories.
@@ -436,32 +526,19 @@ public class SubscriberImpl implements Subscriber {
     final void prepareForSubscribe() throws IOException, ParseException,
     java.text.ParseException {
 
-        final File[] outputRecordDirs = this.outputRoot.listFiles(SubscriberImpl.FILE_FILTER);
-        long lastNonce = 0;
-        if(outputRecordDirs.length >= 1) {
-            Arrays.sort(outputRecordDirs);
-            final List<File> sortedOutputRecords = java.util.Arrays.asList(outputRecordDirs);
-            final File lastRecord = sortedOutputRecords.get(sortedOutputRecords.size() - 1);
-            lastNonce = Long.valueOf(lastRecord.getName());
-        }
-
-        switch (this.recordType) {
-        case Audit:
-            this.jnlTest.setLatestAuditNONCE(lastNonce++);
-            break;
-        case Journal:
-            this.jnlTest.setLatestJournalNONCE(lastNonce++);
-            break;
-        case Log:
-            this.jnlTest.setLatestLogNONCE(lastNonce++);
-            break;
-        }
+        // The index tracks the highest nonce in the output root, so there is
+        // no need to list and sort every confirmed record directory.
+        this.recordIndex = RecordIndex.open(this.outputRoot, LOGGER);
+        this.nonceAllocator.seed(this.recordIndex.getHighWaterNonce());
 
         this.lastNonceFromRemote = SubscribeRequest.EPOC;
         this.journalOffset = 0;
         final JSONParser p  = new JSONParser();
-        final File[] recordDirs =
-                this.outputIpRoot.listFiles(SubscriberImpl.FILE_FILTER);
+        this.activeDirs = ActiveRecordDirs.forDir(this.outputIpRoot);
+
+        // Only the names are needed, so avoid a stat per entry.
+        final String[] recordNames =
+                this.outputIpRoot.list(SubscriberImpl.FILENAME_FILTER);
 
         if(this.lastConfirmedFile.length() > 0) {
             final JSONObject lastConfirmedJson = (JSONObject) p.parse(new FileReader(
@@ -470,90 +547,162 @@ public class SubscriberImpl implements Subscriber {
             this.lastNonceFromRemote = (String) lastConfirmedJson.get(LAST_CONFIRMED_NONCE);
         }
 
-        final Set<File> deleteDirs = new HashSet<File>();
-
-        if (this.recordType == RecordType.Journal && recordDirs.length > 0 && Mode.Archive.equals(this.getMode())) {
-            // Checking the first record to see if it can be resumed, the rest will be deleted
-            Arrays.sort(recordDirs);
-            final List<File> sortedRecords = new ArrayList<File>(java.util.Arrays.asList(recordDirs));
-
-            final File firstRecord = sortedRecords.remove(0);
-            deleteDirs.addAll(sortedRecords);
+        final List<File> deleteDirs = new ArrayList<File>();
+        final boolean resumable = this.recordType == RecordType.Journal
+                && Mode.Archive.equals(this.getMode());
+
+        // The names are fixed width, so sorting them sorts by nonce, and the
+        // oldest partial journal is the one offered for resume.
+        Arrays.sort(recordNames);
+        for (final String name : recordNames) {
+            final long recordNonce = NONCE_FORMATER.parse(name).longValue();
+            if (!this.activeDirs.reclaim(recordNonce, this.dirOwner)) {
+                // Another session is writing to or resuming this record.
+                continue;
+            }
+            final File recordDir = new File(this.outputIpRoot, name);
+            if (!resumable) {
+                // Any confirmed record should have been moved so deleting all that are left
+                deleteDirs.add(recordDir);
+                continue;
+            }
 
-            JSONObject status;
-            try {
-                status = (JSONObject) p.parse(new FileReader(
-                        new File(firstRecord,
-                                STATUS_FILENAME)));
-
-                final Number progress = (Number) status.get(PAYLOAD_PROGRESS);
-                final Number originalPayloadSize = (Number) status.get(ORIGINAL_PAYLOAD_SZ);
-
-                //#548 - Special case for journal resume, if the record completely uploaded, but wasn't synced and the publisher sends the same record again.
-                //Only resume if the uploaded payload length is less than the expected length.  Delete the temp record and completely re-upload again if greater than or equal
-                //to expected payload length.
-                File payloadFile = new File(firstRecord, PAYLOAD_FILENAME);
-
-                if (!CONFIRMED.equals(status.get(DGST_CONF)) && progress != null && originalPayloadSize != null && payloadFile.length() < originalPayloadSize.longValue()) {
-                    // journal record can be resumed
-                    this.lastNonceFromRemote =
-                            (String) status.get(REMOTE_NONCE);
-                    this.journalOffset = progress.longValue();
-                    FileUtils.forceDelete(new File(firstRecord, APP_META_FILENAME));
-                    FileUtils.forceDelete(new File(firstRecord, SYS_META_FILENAME));
-                    status.remove(APP_META_PROGRESS);
-                    status.remove(SYS_META_PROGRESS);
-                    this.nonce =
-                            NONCE_FORMATER.parse(firstRecord.getName()).longValue();
-
-                    try
-                    {
-                        this.journalInputStream = new FileInputStream(
-                                new File(firstRecord, PAYLOAD_FILENAME));
-                    }
-                    catch (final FileNotFoundException e) {
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Deleting " + firstRecord + ", because it is missing the '" + PAYLOAD_FILENAME + "' file");
-                        }
-                        //Resets offset back to 0 due to record being deleted
-                        this.journalOffset = 0;
-                        deleteDirs.add(firstRecord);
+            final JSONObject status = readPartialJournalStatus(recordDir);
+            if (status == null) {
+                deleteDirs.add(recordDir);
+            } else if (this.journalOffset == 0 && this.activeDirs.acquire(recordNonce, this.dirOwner)) {
+                final File payloadFile = new File(recordDir, PAYLOAD_FILENAME);
+                if (!payloadFile.exists()) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Deleting " + recordDir + ", because it is missing the '" + PAYLOAD_FILENAME + "' file");
                     }
-                } else {
-                    deleteDirs.add(firstRecord);
+                    this.activeDirs.release(recordNonce);
+                    deleteDirs.add(recordDir);
+                    continue;
                 }
 
-            } catch (final FileNotFoundException e) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Deleting " + firstRecord + ", because it is missing the '" + STATUS_FILENAME + "' file");
+                // Only the part of the payload that matches its chunk hashes
+                // is kept; a damaged tail is received again.
+                final long progress = ((Number) status.get(PAYLOAD_PROGRESS)).longValue();
+                final long verified = ChunkHashList.verify(recordDir, payloadFile, progress,
+                        decodeStatusBytes(status, PAYLOAD_TAIL_HASH));
+                if (verified < progress) {
+                    LOGGER.warn("Only " + verified + " of " + progress + " bytes of the payload in "
+                            + recordDir + " match their chunk hashes, resuming from there");
                 }
-                //Resets offset back to 0 due to record being deleted
-                this.journalOffset = 0;
-                deleteDirs.add(firstRecord);
-            } catch (final ParseException e ) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Deleting " + firstRecord + ", because failed to parse '" + STATUS_FILENAME + "' file");
+                final long offset = resumeOffset(payloadFile, verified);
+                if (offset == 0) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Deleting " + recordDir + ", because none of its payload can be resumed");
+                    }
+                    this.activeDirs.release(recordNonce);
+                    deleteDirs.add(recordDir);
+                    continue;
                 }
-                //Resets offset back to 0 due to record being deleted
-                this.journalOffset = 0;
-                deleteDirs.add(firstRecord);
-            }
 
-        } else {
-            // Any confirmed record should have been moved so deleting all that are left
-            deleteDirs.addAll(java.util.Arrays.asList(recordDirs));
+                // journal record can be resumed
+                this.journalInputStream = new FileInputStream(payloadFile);
+                this.lastNonceFromRemote =
+                        (String) status.get(REMOTE_NONCE);
+                this.journalOffset = offset;
+                this.journalResumeNonce = recordNonce;
+                this.journalDigestCheckpoint = decodeStatusBytes(status, DGST_CHECKPOINT);
+                new File(recordDir, APP_META_FILENAME).delete();
+                new File(recordDir, SYS_META_FILENAME).delete();
+            }
+            // Any other partial journal is kept, so it can be resumed by the
+            // next session from this publisher.
         }
 
-        for (final File f: deleteDirs) {
-            if (LOGGER.isInfoEnabled()) {
+        if (deleteDirs.isEmpty()) {
+            return;
+        }
+        if (LOGGER.isInfoEnabled()) {
+            for (final File f: deleteDirs) {
                 LOGGER.info("Removing directory for unsynced record: "
                         + f.getAbsolutePath());
             }
-            FileUtils.forceDelete(f);
         }
+        // The directories are moved aside and removed in the background so
+        // a large backlog of unsynced records does not delay the initialize.
+        TrashCollector.discard(this.outputBase, deleteDirs);
+    }
+
+    /**
+     * @return The Base64 encoded value of <code>key</code> in a status file,
+     *         or <code>null</code> if there is none or it is not valid.
+     */
+    private byte[] decodeStatusBytes(final JSONObject status, final String key) {
+        final Object value = status.get(key);
+        if (!(value instanceof String)) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode((String) value);
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn("Ignoring invalid '" + key + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the status of a temporary journal record, to see if the record
+     * was only partially received and can be resumed.
+     *
+     * #548 - Special case for journal resume, if the record completely
+     * uploaded, but wasn't synced and the publisher sends the same record
+     * again. Only resume if the uploaded payload length is less than the
+     * expected length.
+     *
+     * @param recordDir
+     *          The directory of the record.
+     * @return The status of the record, or <code>null</code> if it cannot be
+     *         resumed.
+     */
+    private JSONObject readPartialJournalStatus(final File recordDir) {
+        final JSONObject status;
+        try {
+            final FileReader reader = new FileReader(new File(recordDir, STATUS_FILENAME));
+            try {
+                status = (JSONObject) new JSONParser().parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (final FileNotFoundException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Deleting " + recordDir + ", because it is missing the '" + STATUS_FILENAME + "' file");
+            }
+            return null;
+        } catch (final IOException e) {
+            LOGGER.error("Failed to read '" + STATUS_FILENAME + "' in " + recordDir + ": " + e.getMessage());
+            return null;
+        } catch (final ParseException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Deleting " + recordDir + ", because failed to parse '" + STATUS_FILENAME + "' file");
+            }
+            return null;
+        }
+
+        final Number progress = (Number) status.get(PAYLOAD_PROGRESS);
+        final Number originalPayloadSize = (Number) status.get(ORIGINAL_PAYLOAD_SZ);
+        final File payloadFile = new File(recordDir, PAYLOAD_FILENAME);
+        if (!CONFIRMED.equals(status.get(DGST_CONF)) && progress != null && originalPayloadSize != null
+                && payloadFile.length() < originalPayloadSize.longValue()) {
+            return status;
+        }
+        return null;
     }
 
-    private void deleteAllJournalTempRecords()
+    /**
+     * Remove the temporary journal records of this publisher, for example
+     * after a journal-missing. Records other sessions are using, and other
+     * partial journals that can still be resumed, are kept.
+     *
+     * @param jalIds
+     *          The JAL-Ids of the records the publisher no longer has; their
+     *          records are removed even if they could be resumed.
+     */
+    private void deleteJournalTempRecords(final String... jalIds)
     {
         final Set<File> deleteDirs = new HashSet<File>();
 
@@ -568,7 +717,21 @@ public class SubscriberImpl implements Subscriber {
             return;
         }
 
-        deleteDirs.addAll(java.util.Arrays.asList(recordDirs));
+        for (final File f : recordDirs) {
+            final long recordNonce;
+            try {
+                recordNonce = NONCE_FORMATER.parse(f.getName()).longValue();
+            } catch (final java.text.ParseException e) {
+                continue;
+            }
+            if (this.activeDirs.isActive(recordNonce)) {
+                continue;
+            }
+            final JSONObject status = readPartialJournalStatus(f);
+            if (status == null || Arrays.asList(jalIds).contains(status.get(REMOTE_NONCE))) {
+                deleteDirs.add(f);
+            }
+        }
 
         for (final File f: deleteDirs) {
             if (LOGGER.isInfoEnabled()) {
@@ -588,6 +751,61 @@ public class SubscriberImpl implements Subscriber {
         }
     }
 
+    /**
+     * Give up the partial journal record offered for resume, if the
+     * publisher has not resumed it, so another session can.
+     */
+    final void releaseJournalResume() {
+        synchronized (this.nonceMap) {
+            if (this.journalOffset > 0 && !this.journalResumeInProgress) {
+                if (this.journalInputStream != null) {
+                    try {
+                        this.journalInputStream.close();
+                    } catch (final IOException e) {
+                        LOGGER.error("Failed to close the partial journal record: " + e.getMessage());
+                    }
+                    this.journalInputStream = null;
+                }
+                this.activeDirs.release(this.journalResumeNonce);
+                resetJournalResume();
+            }
+        }
+    }
+
+    /**
+     * Give up the records this session was sent but never got a digest
+     * response for, as the session is over and none will come, so another
+     * session can resume or remove their directories.
+     */
+    final void abandonRecords() {
+        synchronized (this.nonceMap) {
+            for (final LocalRecordInfo lri : this.nonceMap.values()) {
+                this.activeDirs.release(lri.localNonce);
+            }
+            this.nonceMap.clear();
+        }
+    }
+
+    /**
+     * Find a local nonce for a new record, whose directory no other record
+     * is using, and create its directory.
+     *
+     * @return The local nonce.
+     */
+    private long allocateNonce() {
+        this.outputIpRoot.mkdirs();
+        while (true) {
+            final long candidate = this.nonce++;
+            if (this.activeDirs.acquire(candidate, this.dirOwner)) {
+                if (new File(this.outputIpRoot, NONCE_FORMATER.format(candidate)).mkdir()) {
+                    return candidate;
+                }
+                // Left over from an earlier session, e.g. a partial journal.
+                this.activeDirs.release(candidate);
+            }
+        }
+    }
+
     @Override
     public final SubscribeRequest
     getSubscribeRequest(final SubscriberSession sess, boolean createConfirmedFile) {
@@ -596,7 +814,7 @@ public class SubscriberImpl implements Subscriber {
             + sess.getRecordType());
             LOGGER.info("nonce: " + this.lastNonceFromRemote);
         }
-        return new SubscribeRequest() {
+        return new CheckpointedSubscribeRequest() {
             @Override
             public String getNonce() {
                 return SubscriberImpl.this.lastNonceFromRemote;
@@ -611,6 +829,11 @@ public class SubscriberImpl implements Subscriber {
             public InputStream getResumeInputStream() {
                 return SubscriberImpl.this.journalInputStream;
             }
+
+            @Override
+            public byte[] getResumeDigestCheckpoint() {
+                return SubscriberImpl.this.journalDigestCheckpoint;
+            }
         };
     }
 
@@ -633,23 +856,29 @@ public class SubscriberImpl implements Subscriber {
                         + recordInfo.getNonce());
                 return false;
             }
-            lri = new LocalRecordInfo(recordInfo, this.nonce);
-            this.nonce += 1;
+            //Only the record with the JAL-Id offered for resume is written to the partial record,
+            //any other record gets a new directory. Once the resumed record completes, the resume
+            //is cleared out to indicate journal resume is complete.
+            if (this.journalOffset > 0 && this.journalResumeInProgress == false
+                    && recordInfo.getOffset() > 0
+                    && recordInfo.getNonce().equals(this.lastNonceFromRemote))
+            {
+                lri = new LocalRecordInfo(recordInfo, this.journalResumeNonce);
+                this.journalResumeRecord = lri;
+                this.journalResumeInProgress = true;
+            }
+            else
+            {
+                lri = new LocalRecordInfo(recordInfo, allocateNonce());
+            }
             this.nonceMap.put(recordInfo.getNonce(), lri);
         }
         lri.statusFile.getParentFile().mkdirs();
         if (!dumpStatus(lri.statusFile, lri.status)) {
+            this.activeDirs.release(lri.localNonce);
             return false;
         }
 
-        //Sets the first record with a journal resume offset as the journal resume record.
-        //Once this record completes, then this is cleared out to indicate journal resume is complete.
-        if (this.journalOffset > 0 && this.journalResumeInProgress == false)
-        {
-            this.journalResumeRecord = lri;
-            this.journalResumeInProgress = true;
-        }
-
         final boolean retVal = handleRecordData(lri, recordInfo.getSysMetaLength(),
                 SYS_META_FILENAME, SYS_META_PROGRESS,
                 sysMetaData, sess, this.journalResumeRecord);
@@ -662,10 +891,14 @@ public class SubscriberImpl implements Subscriber {
             lri.sysMetadataExists = sysMetadataFile.exists();
             lri.sysMetadataLastModified = sysMetadataFile.lastModified();
         }
-        else if (journalResumeRecord == lri)
+        else
         {
-            //reset journal resume since an error occurred on the journal resume record.
-            resetJournalResume();
+            this.activeDirs.release(lri.localNonce);
+            if (journalResumeRecord == lri)
+            {
+                //reset journal resume since an error occurred on the journal resume record.
+                resetJournalResume();
+            }
         }
 
         return retVal;
@@ -676,6 +909,37 @@ public class SubscriberImpl implements Subscriber {
         this.journalOffset = 0;
         this.journalResumeInProgress = false;
         this.journalResumeRecord = null;
+        this.journalResumeNonce = -1;
+        this.journalDigestCheckpoint = null;
+    }
+
+    /**
+     * Store the digest checkpoint for the payload written so far, if the
+     * library can take one for this record.
+     */
+    // suppress warnings about raw types for the JSON map
+    @SuppressWarnings("unchecked")
+    private static void putDigestCheckpoint(final LocalRecordInfo lri) {
+        if (lri.digestCheckpoint == null) {
+            return;
+        }
+        final byte[] checkpoint = lri.digestCheckpoint.getDigestCheckpoint();
+        if (checkpoint == null) {
+            lri.status.remove(DGST_CHECKPOINT);
+        } else {
+            lri.status.put(DGST_CHECKPOINT, Base64.getEncoder().encodeToString(checkpoint));
+        }
+    }
+
+    /**
+     * Store the hash of the incomplete chunk of the payload written so far.
+     */
+    // suppress warnings about raw types for the JSON map
+    @SuppressWarnings("unchecked")
+    private static void putTailHash(final LocalRecordInfo lri, final ChunkHashList chunks) {
+        if (chunks != null) {
+            lri.status.put(PAYLOAD_TAIL_HASH, Base64.getEncoder().encodeToString(chunks.getTailHash()));
+        }
     }
 
     /**
@@ -686,25 +950,41 @@ public class SubscriberImpl implements Subscriber {
      *         <code>false</code> otherwise.
      */
     final boolean dumpStatus(final File file, final JSONObject toWrite) {
-        BufferedOutputStream w;
         try {
-            w = new BufferedOutputStream(new FileOutputStream(file));
-            w.write(toWrite.toJSONString().getBytes("utf-8"));
-            w.close();
-        } catch (final FileNotFoundException e) {
-            LOGGER.error("Failed to open file (" + file.getPath() + ") for writing:"
-                    + e.getMessage());
-            return false;
-        } catch (final UnsupportedEncodingException e) {
-            LOGGER.error("cannot find UTF-8 encoder?");
-            return false;
+            StatusFileWriter.get().write(file, toWrite, this.syncStatus);
         } catch (final IOException e) {
-            LOGGER.error("failed to write to the file (" + file.getPath() + "), aborting");
+            LOGGER.error("failed to write to the file (" + file.getPath() + "), aborting: "
+                    + e.getMessage());
             return false;
         }
         return true;
     }
 
+    /**
+     * Work out where to resume a partially received payload. The status
+     * file is only rewritten every {@link #STATUS_INTERVAL} bytes, so after
+     * a crash the payload may extend past the recorded progress; any such
+     * bytes are cut off so the resumed data is appended in the right place.
+     *
+     * @param payloadFile The partially received payload.
+     * @param progress The payload progress recorded in the status file.
+     * @return The offset to resume from.
+     * @throws IOException If the payload could not be truncated.
+     */
+    static long resumeOffset(final File payloadFile, final long progress) throws IOException {
+        final long length = payloadFile.length();
+        if (length <= progress) {
+            return length;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(payloadFile, "rw");
+        try {
+            raf.setLength(progress);
+        } finally {
+            raf.close();
+        }
+        return progress;
+    }
+
     /**
      * Helper utility to write out different sections of the record data.
      *
@@ -730,15 +1010,21 @@ public class SubscriberImpl implements Subscriber {
             final String statusKey,
             final InputStream incomingData,
             SubscriberSession sess, final LocalRecordInfo journal_resume_record) {
-        final byte[] buffer = new byte[this.bufferSize];
-        BufferedOutputStream w;
-        final File outputFile = new File(lri.recordDir, outputFilename);
+        final ByteBuffer pooled = BufferPool.getShared().acquire(this.bufferSize);
+        final byte[] buffer = pooled.array();
+        OutputStream w = null;
+        // Journal payloads stay uncompressed until they are confirmed, so
+        // an interrupted transfer can be resumed from a byte offset, and are
+        // then compressed by the PayloadCompressor.
+        final boolean compress = PAYLOAD_FILENAME.equals(outputFilename)
+                && this.payloadCodec != PayloadCodec.NONE
+                && this.recordType != RecordType.Journal;
+        final File outputFile = new File(lri.recordDir,
+                compress ? this.payloadCodec.filename(outputFilename) : outputFilename);
         long total = 0;
         long totalDataSize = dataSize;
         boolean isValidJournalResume = false;
         boolean isJournalResume = false;
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(
-          incomingData, this.bufferSize);
 
         //Checks if this is a valid journal resume
         if (this.journalOffset > 0 && journal_resume_record != null && lri == journal_resume_record)
@@ -746,27 +1032,6 @@ public class SubscriberImpl implements Subscriber {
             isValidJournalResume = true;
         }
 
-        //#580 - need one additional check to ensure the record being sent has the exact same jalId of the record that was partially uploaded and being resumed
-        //if jal ids do not match the same destination dir, then delete the current record, and reset journal resume so record being uploaded is treated as a new record.
-        if (isValidJournalResume == true)
-        {
-            LocalRecordInfo checkLri = null;
-            synchronized (this.nonceMap) {
-                checkLri = this.nonceMap.get(this.lastNonceFromRemote);
-            }
-
-            if (checkLri == null || lri == null || (!lri.recordDir.getAbsolutePath().equalsIgnoreCase(checkLri.recordDir.getAbsolutePath())))
-            {
-                //Jal ids do not match between record being uploaded and the existing partial record, therefore delete the partial record and perform a fresh upload instead of resume.
-                this.journalOffset = 0;
-                sess.resetJournalOffset();
-
-                deleteAllJournalTempRecords();
-
-                lri.recordDir.mkdir();
-            }
-        }
-
         if(isValidJournalResume && PAYLOAD_FILENAME.equals(outputFilename)) {
 
             isJournalResume = true;
@@ -774,18 +1039,44 @@ public class SubscriberImpl implements Subscriber {
         }
 
         boolean ret = true;
+        ChunkHashList chunks = null;
         try {
-            w = new BufferedOutputStream(new FileOutputStream(outputFile, true), this.bufferSize);
-            int cnt = bufferedInputStream.read(buffer);
+            // A partial journal is only resumed in archive mode, and only
+            // once it has been checked against these.
+            if (PAYLOAD_FILENAME.equals(outputFilename) && this.recordType == RecordType.Journal
+                    && Mode.Archive.equals(getMode())) {
+                chunks = ChunkHashList.open(lri.recordDir, outputFile, total);
+            }
+            if (compress) {
+                lri.payloadFilename = outputFile.getName();
+                lri.status.put(PAYLOAD_COMPRESSION, this.payloadCodec.configName());
+                w = this.payloadCodec.wrap(new FileOutputStream(outputFile));
+            } else {
+                w = new FileOutputStream(outputFile, true);
+            }
+            long dumped = total;
+            // The data is read and written a whole buffer at a time, so
+            // there is no need for buffered streams on either side.
+            int cnt = incomingData.read(buffer, 0, this.bufferSize);
             while (cnt != -1) {
                 w.write(buffer, 0, cnt);
-                w.flush();
+                if (chunks != null) {
+                    chunks.update(buffer, 0, cnt);
+                }
                 total += cnt;
-                lri.status.put(statusKey, total);
-                ret = dumpStatus(lri.statusFile, lri.status);
-                cnt = bufferedInputStream.read(buffer);
+                if (total - dumped >= STATUS_INTERVAL) {
+                    w.flush();
+                    lri.status.put(statusKey, total);
+                    putDigestCheckpoint(lri);
+                    putTailHash(lri, chunks);
+                    ret = dumpStatus(lri.statusFile, lri.status);
+                    dumped = total;
+                }
+                cnt = incomingData.read(buffer, 0, this.bufferSize);
             }
-            w.close();
+            final OutputStream out = w;
+            w = null;
+            out.close();
         } catch (final FileNotFoundException e) {
             LOGGER.error("Failed to open '" + outputFile.getAbsolutePath()
             + "' for writing");
@@ -796,7 +1087,24 @@ public class SubscriberImpl implements Subscriber {
                     + e.getMessage());
             return false;
         } finally {
+            if (w != null) {
+                try {
+                    w.close();
+                } catch (final IOException e) {
+                    LOGGER.error("Failed to close '" + outputFile.getAbsolutePath() + "': " + e.getMessage());
+                }
+            }
+            BufferPool.getShared().release(pooled);
+            if (chunks != null) {
+                try {
+                    chunks.close();
+                } catch (final IOException e) {
+                    LOGGER.error("Failed to close the chunk hashes in " + lri.recordDir + ": " + e.getMessage());
+                }
+            }
             lri.status.put(statusKey, total);
+            putDigestCheckpoint(lri);
+            putTailHash(lri, chunks);
             ret = dumpStatus(lri.statusFile, lri.status);
         }
 
@@ -843,10 +1151,14 @@ public class SubscriberImpl implements Subscriber {
                 lri.appMetadataExists = appMetadataFile.exists();
                 lri.appMetadataLastModified = appMetadataFile.lastModified();
             }
-            else if (journalResumeRecord == lri)
+            else
             {
-                //reset journal resume since an error occurred on the journal resume record.
-                resetJournalResume();
+                this.activeDirs.release(lri.localNonce);
+                if (journalResumeRecord == lri)
+                {
+                    //reset journal resume since an error occurred on the journal resume record.
+                    resetJournalResume();
+                }
             }
 
             return result;
@@ -859,11 +1171,13 @@ public class SubscriberImpl implements Subscriber {
     public final boolean notifyPayload(final SubscriberSession sess,
             final RecordInfo recordInfo,
             final InputStream payload, Subscriber subscriber) {
+        LocalRecordInfo lri;
+        synchronized (this.nonceMap) {
+            lri = this.nonceMap.get(recordInfo.getNonce());
+        }
+        //The directory stays in use until the record is confirmed or abandoned, so another
+        //session cannot resume or remove it while the payload is written.
         if (recordInfo.getPayloadLength() != 0) {
-            LocalRecordInfo lri;
-            synchronized (this.nonceMap) {
-                lri = this.nonceMap.get(recordInfo.getNonce());
-            }
             if (lri == null) {
                 LOGGER.error("Can't find local status for: "
                         + recordInfo.getNonce());
@@ -873,26 +1187,90 @@ public class SubscriberImpl implements Subscriber {
             //Set exists flag to true since payload is being uploaded.
             lri.payloadExists = true;
 
-            final boolean retVal = handleRecordData(lri, recordInfo.getPayloadLength(),
-                    PAYLOAD_FILENAME, PAYLOAD_PROGRESS,
-                    payload, sess, journalResumeRecord);
+            //Only a partial journal is resumed, so only it needs checkpoints.
+            if (this.recordType == RecordType.Journal && recordInfo instanceof DigestCheckpoint) {
+                lri.digestCheckpoint = (DigestCheckpoint) recordInfo;
+            }
+            final boolean retVal;
+            try {
+                retVal = handleRecordData(lri, recordInfo.getPayloadLength(),
+                        PAYLOAD_FILENAME, PAYLOAD_PROGRESS,
+                        payload, sess, journalResumeRecord);
+            } finally {
+                lri.digestCheckpoint = null;
+            }
 
             //This journal resume record completed, reset journal resume to continue with normal record processing.
             if (journalResumeRecord == lri)
             {
                 resetJournalResume();
             }
+            if (!retVal)
+            {
+                this.activeDirs.release(lri.localNonce);
+            }
 
             //Update local record modified date for future verification
             //before moving to confirmed location.
-            File payloadFile = new File(lri.recordDir, PAYLOAD_FILENAME);
+            File payloadFile = new File(lri.recordDir, lri.payloadFilename);
             lri.payloadLastModified = payloadFile.lastModified();
 
+            if (retVal)
+            {
+                markReceived(lri);
+            }
             return retVal;
         }
+        if (lri != null)
+        {
+            markReceived(lri);
+        }
         return true;
     }
 
+    /**
+     * Note that all of a record has been written, so it only waits for its
+     * digest response.
+     */
+    private void markReceived(final LocalRecordInfo lri) {
+        synchronized (this.nonceMap) {
+            lri.received = true;
+        }
+    }
+
+    /**
+     * Give up a record that has been received but not confirmed, for a newer
+     * session from the publisher to resume or remove. A publisher that
+     * starts a new session will not send the digest response for it, and if
+     * one comes anyway the record is reported as not synced.
+     *
+     * @param localNonce
+     *          The local nonce of the record directory.
+     * @return <code>true</code> if the record was given up.
+     */
+    private boolean giveUpRecord(final long localNonce) {
+        synchronized (this.nonceMap) {
+            for (final Map.Entry<String, LocalRecordInfo> entry : this.nonceMap.entrySet()) {
+                final LocalRecordInfo lri = entry.getValue();
+                if (lri.localNonce != localNonce) {
+                    continue;
+                }
+                if (!lri.received) {
+                    return false;
+                }
+                if (LOGGER.isInfoEnabled()) {
+                    LOGGER.info("Giving up " + entry.getKey() + " in " + lri.recordDir + " to a newer session");
+                }
+                this.givenUp.add(entry.getKey());
+                this.nonceMap.remove(entry.getKey());
+                this.activeDirs.release(localNonce);
+                return true;
+            }
+        }
+        // Being written, confirmed, or offered for resume.
+        return false;
+    }
+
     // suppress warnings about raw types for the JSON map
     @SuppressWarnings("unchecked")
     @Override
@@ -932,14 +1310,26 @@ public class SubscriberImpl implements Subscriber {
 
         LOGGER.debug("notifyJournalMissing for jalId: " + jalId + " and local nonce: " + nonce);
 
-        //Resets journal offset
-        this.journalOffset = 0;
+        //Journal missing answers the resume offered to this session, so the offered record is dropped
+        //even if the publisher sent a different jal id (#614)
+        String offeredJalId = null;
+        synchronized (this.nonceMap) {
+            if (this.journalOffset > 0 && !this.journalResumeInProgress)
+            {
+                offeredJalId = this.lastNonceFromRemote;
+            }
+        }
+        releaseJournalResume();
         sess.resetJournalOffset();
 
-        //Clears out all temp records to allow for fresh jal record uploads
+        //The records this session has not had confirmed are cleared out with the rest
+        abandonRecords();
+
+        //Clears out the missing record and the unsynced temp records to allow for fresh jal record uploads,
+        //other partial records are kept so they can still be resumed
         try
         {
-            deleteAllJournalTempRecords();
+            deleteJournalTempRecords(jalId, offeredJalId);
         }
         catch (RuntimeException re)
         {
@@ -962,45 +1352,56 @@ public class SubscriberImpl implements Subscriber {
             lri = this.nonceMap.remove(nonce);
         }
         if (lri == null) {
+            synchronized (this.nonceMap) {
+                if (this.givenUp.remove(nonce)) {
+                    LOGGER.error("Record " + nonce + " was given up to a newer session and is not synced");
+                    return false;
+                }
+            }
             LOGGER.error("Can't find local status for: " + nonce);
             ret = true;
         } else {
-            switch (status) {
-            case Confirmed:
-                lri.status.put(DGST_CONF, CONFIRMED);
-                break;
-            case Unknown:
-                lri.status.put(DGST_CONF, UNKNOWN);
-                break;
-            case Invalid:
-                lri.status.put(DGST_CONF, INVALID);
-                break;
-            default:
-                LOGGER.error("Undefined confirmation status for nonce: " + nonce);
-                return false;
-            }
-
-            // Store off the status for the record - still in temp
-            if (!dumpStatus(lri.statusFile, lri.status)) {
-                LOGGER.debug("Failed to dump status to " + lri.statusFile.getAbsolutePath());
-                ret = false;
-            }
+            try {
+                switch (status) {
+                case Confirmed:
+                    lri.status.put(DGST_CONF, CONFIRMED);
+                    break;
+                case Unknown:
+                    lri.status.put(DGST_CONF, UNKNOWN);
+                    break;
+                case Invalid:
+                    lri.status.put(DGST_CONF, INVALID);
+                    break;
+                default:
+                    LOGGER.error("Undefined confirmation status for nonce: " + nonce);
+                    return false;
+                }
 
-            // If the digest is confirmed, go ahead and move the record from temp directory
-            // Otherwise delete the record
-            if(DigestStatus.Confirmed.equals(status)) {
-                if(!moveConfirmedRecord(lri)) {
-                    LOGGER.error("Failed to sync record:  " + lri.recordDir.getAbsolutePath());
+                // Store off the status for the record - still in temp
+                if (!dumpStatus(lri.statusFile, lri.status)) {
+                    LOGGER.debug("Failed to dump status to " + lri.statusFile.getAbsolutePath());
                     ret = false;
                 }
-            }
-            else
-            {
-                if (!deleteRecord(lri))
+
+                // If the digest is confirmed, go ahead and move the record from temp directory
+                // Otherwise delete the record
+                if(DigestStatus.Confirmed.equals(status)) {
+                    if(!moveConfirmedRecord(lri)) {
+                        LOGGER.error("Failed to sync record:  " + lri.recordDir.getAbsolutePath());
+                        ret = false;
+                    }
+                }
+                else
                 {
-                    LOGGER.error("Failed to delete record:  " + lri.recordDir.getAbsolutePath());
-                    ret = false;
+                    if (!deleteRecord(lri))
+                    {
+                        LOGGER.error("Failed to delete record:  " + lri.recordDir.getAbsolutePath());
+                        ret = false;
+                    }
                 }
+            } finally {
+                //The directory is no longer in use once the record is kept or thrown away.
+                this.activeDirs.release(lri.localNonce);
             }
         }
 
@@ -1009,16 +1410,16 @@ public class SubscriberImpl implements Subscriber {
 
     private boolean checkFiles(LocalRecordInfo lri)
     {
-        File payloadFile = new File(lri.recordDir, PAYLOAD_FILENAME);
+        File payloadFile = new File(lri.recordDir, lri.payloadFilename);
 
         if (lri.payloadExists != payloadFile.exists())
         {
-            LOGGER.error(PAYLOAD_FILENAME + " file was added or removed since being uploaded.");
+            LOGGER.error(lri.payloadFilename + " file was added or removed since being uploaded.");
             return false;
         }
         else if (lri.payloadLastModified != payloadFile.lastModified())
         {
-            LOGGER.error(PAYLOAD_FILENAME + " file was modified since being uploaded.");
+            LOGGER.error(lri.payloadFilename + " file was modified since being uploaded.");
             return false;
         }
 
@@ -1070,12 +1471,50 @@ public class SubscriberImpl implements Subscriber {
             return false;
         }
 
-        if(lri.recordDir.renameTo(dest)) {
+        //The chunk hashes are only needed to resume the record.
+        new File(lri.recordDir, ChunkHashList.FILENAME).delete();
+
+        final GroupCommitter committer = this.jnlTest.getGroupCommitter();
+        if (committer != null)
+        {
+            // The contents must be durable before the rename can be, otherwise
+            // a crash could leave a confirmed record with missing data.
+            try
+            {
+                committer.commit(Arrays.asList(new File(lri.recordDir, SYS_META_FILENAME),
+                        new File(lri.recordDir, APP_META_FILENAME),
+                        new File(lri.recordDir, lri.payloadFilename),
+                        lri.statusFile), null);
+            }
+            catch (IOException ie)
+            {
+                LOGGER.error("Failed to sync record " + lri.recordDir.getAbsolutePath() + ": " + ie.getMessage());
+                return false;
+            }
+        }
+
+        if(moveRecordDir(lri.recordDir, dest, committer != null)) {
             final JSONObject lastConfirmedStatus = new JSONObject();
             final String remoteNonce = (String) lri.status.get(REMOTE_NONCE);
             lastConfirmedStatus.put(LAST_CONFIRMED_NONCE, remoteNonce);
             dumpStatus(this.lastConfirmedFile, lastConfirmedStatus);
 
+            try
+            {
+                this.recordIndex.put(latestNonce, remoteNonce,
+                        hexToBytes((String) lri.status.get(DGST)),
+                        statusValue(lri.status, SYS_META_PROGRESS),
+                        statusValue(lri.status, APP_META_PROGRESS),
+                        statusValue(lri.status, PAYLOAD_PROGRESS));
+            }
+            catch (IOException ie)
+            {
+                // The record is in place, but is not confirmed to the publisher
+                // rather than leaving an index that silently falls behind.
+                LOGGER.error("Failed to add record " + dest.getAbsolutePath() + " to the index: " + ie.getMessage());
+                return false;
+            }
+
             //Creates confirmed file if configured to be on
             if (this.createConfirmedFile == true)
             {
@@ -1091,6 +1530,29 @@ public class SubscriberImpl implements Subscriber {
                     return false;
                 }
             }
+
+            if (committer != null)
+            {
+                // Makes the rename, the confirmed file, the last confirmed nonce
+                // and the index entry durable before 'sync' is sent.
+                try
+                {
+                    committer.commit(Arrays.asList(dest, this.outputRoot, this.outputIpRoot,
+                            this.lastConfirmedFile), Collections.singleton(this.recordIndex));
+                }
+                catch (IOException ie)
+                {
+                    LOGGER.error("Failed to sync confirmed record " + dest.getAbsolutePath() + ": " + ie.getMessage());
+                    return false;
+                }
+            }
+
+            //Journal payloads are stored as received, and compressed once confirmed
+            if (lri.payloadExists && lri.payloadFilename.equals(PAYLOAD_FILENAME)
+                    && this.payloadCodec != PayloadCodec.NONE)
+            {
+                PayloadCompressor.schedule(dest, lri.status, this.payloadCodec, committer, this.bufferSize);
+            }
         } else {
             LOGGER.error("Error trying to move confirmed file.");
             return false;
@@ -1099,6 +1561,34 @@ public class SubscriberImpl implements Subscriber {
         return true;
     }
 
+    /**
+     * Move a record directory into place.
+     *
+     * @param src
+     *          The record directory to move.
+     * @param dest
+     *          The destination.
+     * @param atomic
+     *          Whether the move must be atomic; if it can't be, it fails
+     *          rather than falling back to a copy.
+     * @return <code>true</code> if the record directory was moved.
+     */
+    private boolean moveRecordDir(final File src, final File dest, final boolean atomic) {
+        if (!atomic) {
+            return src.renameTo(dest);
+        }
+        try
+        {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException ie)
+        {
+            LOGGER.error("Failed to move " + src.getAbsolutePath() + " to " + dest.getAbsolutePath() + ": " + ie.getMessage());
+            return false;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private boolean deleteRecord(final LocalRecordInfo lri) {
 
@@ -1125,31 +1615,52 @@ public class SubscriberImpl implements Subscriber {
         return true;
     }
 
+    /**
+     * Helper to read a numeric value out of a record's status.
+     *
+     * @param status
+     *          The status of the record.
+     * @param key
+     *          The key to look up.
+     * @return The value, or 0 if it was never set.
+     */
+    private static long statusValue(final JSONObject status, final String key) {
+        final Object o = status.get(key);
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
+    /**
+     * Convert a hex string, as written by {@link #notifyDigest}, back in to
+     * the raw digest bytes.
+     *
+     * @param hex
+     *          The hex string, may be <code>null</code>.
+     * @return The bytes, or <code>null</code> if <code>hex</code> is
+     *         <code>null</code> or not a valid hex string.
+     */
+    static byte[] hexToBytes(final String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int hi = Character.digit(hex.charAt(2 * i), 16);
+            final int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
     /**
      * Retrieve the next available nonce for the record type.
      *
      * @return the next unused nonce for the record type
      */
     private long retrieveLatestNonce() {
-        long latestNonce = 1;
-
-        synchronized(this.jnlTest) {
-            switch (this.recordType) {
-            case Audit:
-                latestNonce = this.jnlTest.getLatestAuditNONCE();
-                this.jnlTest.setLatestAuditNONCE(++latestNonce);
-                break;
-            case Journal:
-                latestNonce = this.jnlTest.getLatestJournalNONCE();
-                this.jnlTest.setLatestJournalNONCE(++latestNonce);
-                break;
-            case Log:
-                latestNonce = this.jnlTest.getLatestLogNONCE();
-                this.jnlTest.setLatestLogNONCE(++latestNonce);
-                break;
-            }
-        }
-        return latestNonce;
+        return this.nonceAllocator.next();
     }
 
     @Override
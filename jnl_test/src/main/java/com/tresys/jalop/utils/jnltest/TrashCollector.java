@@ -0,0 +1,168 @@
+package com.tresys.jalop.utils.jnltest;
+
+/*
+ * Source code in 3rd-party is licensed and owned by their respective
+ * copyright holders.
+ *
+ * All other source code is copyright Tresys Technology and licensed as below.
+ *
+ * Copyright (c) 2012,2014 Tresys Technology LLC, Columbia, Maryland, USA
+ *
+ * This software was developed by Tresys Technology LLC
+ * with U.S. Government sponsorship.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tresys.jalop.jnl.JNLLog;
+import com.tresys.jalop.jnl.impl.JNLLogger;
+
+/**
+ * Removes stale record directories in the background. Directories are first
+ * renamed into a trash directory next to the output directories, which is a
+ * cheap metadata operation, and then deleted on a single daemon thread, so
+ * cleaning up after a restart does not hold up the publisher's
+ * <code>initialize</code> message.
+ *
+ * Anything left in the trash directory by a previous run (for example because
+ * the process exited before the deletion finished) is removed the first time
+ * the trash directory is used.
+ */
+final class TrashCollector {
+
+    /** Name of the trash directory inside the output directory. */
+    static final String TRASH_DIRNAME = ".trash";
+
+    /** The single thread that does all of the deletions. */
+    private static final ExecutorService DELETER =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("jnltest-trash-%d").build());
+
+    /** Trash directories that have already been swept for leftovers. */
+    private static final Set<File> SWEPT = new HashSet<File>();
+
+    /** Used to give every batch of trashed directories a unique name. */
+    private static final AtomicLong BATCH = new AtomicLong();
+
+    private static final JNLLog LOGGER =
+            new JNLLogger(Logger.getLogger(TrashCollector.class));
+
+    private TrashCollector() {
+    }
+
+    /**
+     * Move <code>dirs</code> out of the way and schedule them for deletion.
+     * If a directory cannot be renamed into the trash directory (e.g. it is
+     * on a different file system) it is deleted synchronously instead.
+     *
+     * @param outputRoot
+     *          The top level output directory; the trash directory is created
+     *          inside it.
+     * @param dirs
+     *          The directories to remove.
+     * @throws IOException
+     *          If a directory could neither be moved nor deleted.
+     */
+    static void discard(final File outputRoot, final Iterable<File> dirs)
+            throws IOException {
+        final File trash = new File(outputRoot, TRASH_DIRNAME);
+        sweepLeftovers(trash);
+
+        final File batch = new File(trash, System.currentTimeMillis() + "-"
+                + BATCH.incrementAndGet());
+        boolean batchCreated = false;
+        for (final File dir : dirs) {
+            if (!batchCreated) {
+                batchCreated = batch.mkdirs();
+            }
+            if (!batchCreated || !dir.renameTo(new File(batch, dir.getName()))) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Could not move " + dir.getAbsolutePath()
+                            + " to the trash, deleting it now");
+                }
+                FileUtils.forceDelete(dir);
+            }
+        }
+        if (batchCreated) {
+            schedule(batch);
+        }
+    }
+
+    /**
+     * Wait for all scheduled deletions to finish.
+     *
+     * @param timeoutMillis
+     *          The maximum time to wait, in milliseconds.
+     * @return <code>true</code> if every deletion scheduled before this call
+     *         has finished.
+     */
+    static boolean drain(final long timeoutMillis) {
+        try {
+            return DELETER.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Deletions run in order, so once this runs the
+                    // earlier ones are done.
+                }
+            }).get(timeoutMillis, TimeUnit.MILLISECONDS) == null;
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static void sweepLeftovers(final File trash) {
+        synchronized (SWEPT) {
+            if (!SWEPT.add(trash.getAbsoluteFile())) {
+                return;
+            }
+        }
+        final File[] leftovers = trash.listFiles();
+        if (leftovers != null) {
+            for (final File f : leftovers) {
+                schedule(f);
+            }
+        }
+    }
+
+    private static void schedule(final File f) {
+        DELETER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileUtils.forceDelete(f);
+                } catch (final IOException e) {
+                    // Most likely already gone, e.g. the whole output
+                    // directory was removed.
+                    if (f.exists()) {
+                        LOGGER.error("Failed to delete " + f.getAbsolutePath()
+                                + ": " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,196 @@
+package com.tresys.jalop.utils.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.DigestAlgorithms.DigestAlgorithmEnum;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.exceptions.JNLPublishException;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+import com.tresys.jalop.jnl.impl.http.JNLWebServer;
+import com.tresys.jalop.jnl.impl.http.WebServerHandle;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisher;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisherConfig;
+import com.tresys.jalop.jnl.impl.publisher.PublishRecord;
+import com.tresys.jalop.jnl.impl.publisher.PublisherSession;
+import com.tresys.jalop.utils.jnltest.ConfigReloader;
+import com.tresys.jalop.utils.jnltest.JNLSubscriber;
+import com.tresys.jalop.utils.jnltest.Config.HttpConfig;
+
+/**
+ * Tests for reloading the configuration of a running subscriber.
+ */
+public class ConfigReloadTest {
+
+    private static final int SYS_META_LEN = 3083;
+    private static final int APP_META_LEN = 1125;
+
+    private File outputDir;
+    private File configFile;
+    private JNLWebServer server;
+    private WebServerHandle handle;
+    private ConfigReloader reloader;
+    private HttpPublisher publisher;
+    private byte[] sysMetadata;
+    private byte[] appMetadata;
+
+    private final AtomicReference<HttpSubscriberConfig> reloaded = new AtomicReference<HttpSubscriberConfig>();
+    private final CountDownLatch reloadedOnce = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        TestResources.configureLogging(Level.INFO);
+
+        final byte[] record = FileUtils.readFileToByteArray(new File("src/test/resources/unit_test/jal_record1.txt"));
+        sysMetadata = Arrays.copyOfRange(record, 0, SYS_META_LEN);
+        appMetadata = Arrays.copyOfRange(record, SYS_META_LEN + 5, SYS_META_LEN + 5 + APP_META_LEN);
+
+        outputDir = new File("./target/config-reload-test-output");
+        FileUtils.deleteDirectory(outputDir);
+
+        configFile = new File("./target/config-reload-test.json");
+        final String config = FileUtils.readFileToString(
+                new File("../jnl_test/target/test-classes/sampleHttpSubscriberReload.json"), "UTF-8");
+        FileUtils.writeStringToFile(configFile, config.replace("./output", outputDir.getPath()), "UTF-8");
+
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(configFile.getPath()).getHttpSubscriberConfig();
+        server = new JNLWebServer(subscriberConfig);
+        handle = server.startServer(new JNLSubscriber(subscriberConfig));
+        reloader = new ConfigReloader(configFile, server, new ConfigReloader.Listener() {
+            @Override
+            public void reloaded(final HttpSubscriberConfig config) {
+                reloaded.set(config);
+                reloadedOnce.countDown();
+            }
+        });
+
+        publisher = new HttpPublisher(publisherConfig(DigestAlgorithmEnum.JJNL_DIGEST_ALGORITHM_SHA256));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reloader.stop();
+        publisher.close();
+        handle.stop(0);
+        FileUtils.deleteDirectory(outputDir);
+        configFile.delete();
+    }
+
+    private HttpPublisherConfig publisherConfig(final DigestAlgorithmEnum digest) {
+        final HttpPublisherConfig publisherConfig = new HttpPublisherConfig();
+        publisherConfig.setUri("http://127.0.0.1:" + handle.getPort());
+        publisherConfig.setPublisherId(UUID.randomUUID().toString());
+        publisherConfig.setDigestAlgorithms(Arrays.asList(digest.toUri()));
+        return publisherConfig;
+    }
+
+    /**
+     * Change the configuration file, making sure it looks changed even if
+     * it is rewritten within the file system's timestamp resolution.
+     */
+    private void edit(final String from, final String to) throws Exception {
+        final String config = FileUtils.readFileToString(configFile, "UTF-8");
+        assertTrue(from, config.contains(from));
+        final long modified = configFile.lastModified();
+        FileUtils.writeStringToFile(configFile, config.replace(from, to), "UTF-8");
+        configFile.setLastModified(modified + 2000);
+    }
+
+    private void assertSent(final PublisherSession session) throws Exception {
+        final String jalId = UUID.randomUUID().toString();
+        assertEquals(jalId, session.send(new PublishRecord(jalId, sysMetadata, appMetadata, new byte[10])));
+    }
+
+    @Test
+    public void testTunablesAreAppliedWithoutDroppingSessions() throws Exception {
+        final PublisherSession session = publisher.initialize(RecordType.Log);
+        assertSent(session);
+        assertFalse(reloader.reloadIfChanged());
+
+        edit("\"maxSessionLimit\": 100", "\"maxSessionLimit\": 5");
+        edit("\"bufferSize\": 4096", "\"bufferSize\": 8192");
+        edit("\"mode\": \"live\",", "\"mode\": \"live\", \"digestAlgorithms\": [ \"SHA512\" ],");
+        assertTrue(reloader.reloadIfChanged());
+        assertFalse(reloader.reloadIfChanged());
+
+        final HttpSubscriberConfig config = server.getConfig();
+        assertSame(config, reloaded.get());
+        assertEquals(5, config.getMaxSessionLimit());
+        assertEquals(8192, config.getBufferSize());
+
+        //The session already open carries on
+        assertSent(session);
+
+        //New sessions are held to the new digests
+        try {
+            publisher.initialize(RecordType.Audit);
+            fail("SHA256 should no longer be accepted");
+        } catch (final JNLPublishException e) {
+            // Expected.
+        }
+        final HttpPublisher sha512 = new HttpPublisher(publisherConfig(DigestAlgorithmEnum.JJNL_DIGEST_ALGORITHM_SHA512));
+        try {
+            assertSent(sha512.initialize(RecordType.Audit));
+        } finally {
+            sha512.close();
+        }
+    }
+
+    @Test
+    public void testRestartOnlySettingsAreKept() throws Exception {
+        edit("\"port\": 0", "\"port\": 8444");
+        edit("[ \"audit\", \"journal\", \"log\" ]", "[ \"log\" ]");
+        edit("\"bufferSize\": 4096", "\"bufferSize\": 8192");
+        assertTrue(reloader.reloadIfChanged());
+
+        final HttpSubscriberConfig config = server.getConfig();
+        assertEquals(8192, config.getBufferSize());
+        assertEquals(0, config.getPort());
+        assertEquals(3, config.getRecordTypes().size());
+        assertSent(publisher.initialize(RecordType.Audit));
+    }
+
+    @Test
+    public void testBrokenConfigurationIsIgnored() throws Exception {
+        final HttpSubscriberConfig running = server.getConfig();
+        final PublisherSession session = publisher.initialize(RecordType.Log);
+
+        edit("\"maxSessionLimit\": 100", "\"maxSessionLimit\": ");
+        assertFalse(reloader.reloadIfChanged());
+        assertSame(running, server.getConfig());
+
+        //Not tried again until it changes
+        assertFalse(reloader.reloadIfChanged());
+        assertSent(session);
+
+        edit("\"maxSessionLimit\": ", "\"maxSessionLimit\": 5");
+        assertTrue(reloader.reloadIfChanged());
+        assertEquals(5, server.getConfig().getMaxSessionLimit());
+    }
+
+    @Test
+    public void testChangesArePickedUpInTheBackground() throws Exception {
+        reloader.start(20);
+        edit("\"maxSessionLimit\": 100", "\"maxSessionLimit\": 5");
+        assertTrue(reloadedOnce.await(10, TimeUnit.SECONDS));
+        assertNotNull(reloaded.get());
+        assertEquals(5, server.getConfig().getMaxSessionLimit());
+    }
+}
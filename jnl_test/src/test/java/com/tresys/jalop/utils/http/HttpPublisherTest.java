@@ -0,0 +1,497 @@
+package com.tresys.jalop.utils.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Level;
+import org.eclipse.jetty.server.Server;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.exceptions.JNLPublishException;
+import com.tresys.jalop.jnl.impl.http.DiskPressure;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.http.PublisherRateLimits;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisher;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisherConfig;
+import com.tresys.jalop.jnl.impl.publisher.HttpStatusException;
+import com.tresys.jalop.jnl.impl.publisher.PublishRecord;
+import com.tresys.jalop.jnl.impl.publisher.PublisherSession;
+import com.tresys.jalop.utils.jnltest.JNLSubscriber;
+
+/**
+ * Tests for the publisher library, against the test subscriber.
+ */
+public class HttpPublisherTest {
+
+    private static final int SYS_META_LEN = 3083;
+    private static final int APP_META_LEN = 1125;
+    private static final int PAYLOAD_LEN = 19;
+
+    /** The JAL-Id recorded in partial_status.js. */
+    private static final String RESUME_JAL_ID = "deef71ca-16b8-4c9e-b9a4-f2b08f8b9a12";
+
+    private static Server server;
+
+    private static String jjnlDirPath = "";
+    private static String inputDirStr = "";
+    private static String outputDirStr = "";
+    private static File resourcesDirectory;
+
+    private static byte[] sysMetadata;
+    private static byte[] appMetadata;
+    private static byte[] payload;
+
+    @BeforeClass
+    public static void startWebServiceServer() throws Exception {
+        TestResources.configureLogging(Level.INFO);
+
+        resourcesDirectory = new File("src/test/resources/unit_test");
+        jjnlDirPath = resourcesDirectory.getAbsolutePath() + "/../../../../../";
+        inputDirStr = jjnlDirPath + "/input";
+        outputDirStr = jjnlDirPath + "/jnl_test/output";
+
+        //Splits the sample record into its sections
+        final byte[] record = FileUtils.readFileToByteArray(new File(resourcesDirectory, "jal_record1.txt"));
+        int start = 0;
+        sysMetadata = Arrays.copyOfRange(record, start, start + SYS_META_LEN);
+        start += SYS_META_LEN + 5;
+        appMetadata = Arrays.copyOfRange(record, start, start + APP_META_LEN);
+        start += APP_META_LEN + 5;
+        payload = Arrays.copyOfRange(record, start, start + PAYLOAD_LEN);
+
+        //Clears out input and output directories
+        TestResources.cleanAllDirectories(inputDirStr, outputDirStr);
+
+        server = TestResources.getWebServer();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopWebServiceServer() throws Exception {
+        server.stop();
+
+        //Clears out input and output directories
+        TestResources.cleanAllDirectories(inputDirStr, outputDirStr);
+    }
+
+    private static HttpPublisherConfig getConfig(final String publisherId) {
+        final HttpPublisherConfig config = new HttpPublisherConfig();
+        config.setUri("http://localhost:" + TestResources.HTTP_PORT);
+        config.setPublisherId(publisherId);
+        return config;
+    }
+
+    /**
+     * @return The directory of the confirmed record with the given JAL-Id.
+     */
+    private static File findConfirmedRecord(final RecordType recType, final String jalId) throws IOException {
+        final File[] confirmedDirs = new File(outputDirStr + "/" + recType.toString().toLowerCase()).listFiles();
+        assertNotNull(confirmedDirs);
+        for (final File currDir : confirmedDirs) {
+            final File statusFile = new File(currDir, "status.js");
+            if (statusFile.exists() && FileUtils.readFileToString(statusFile).contains(jalId)) {
+                return currDir;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testSendRecordOfEachType() throws Exception {
+        final File payloadFile = new File(outputDirStr, "publisher-payload");
+        FileUtils.writeByteArrayToFile(payloadFile, payload);
+
+        final HttpPublisher publisher = new HttpPublisher(getConfig(UUID.randomUUID().toString()));
+        try {
+            for (final RecordType recType : new RecordType[] { RecordType.Journal, RecordType.Audit, RecordType.Log }) {
+                final PublisherSession session = publisher.initialize(recType);
+                assertNotNull(session.getSessionId());
+                assertTrue(session.getPerformDigest());
+                assertNull(session.getResumeJalId());
+
+                final String jalId = UUID.randomUUID().toString();
+                assertEquals(jalId, session.send(new PublishRecord(jalId, sysMetadata, appMetadata, payloadFile)));
+
+                final File recordDir = findConfirmedRecord(recType, jalId);
+                assertNotNull(recordDir);
+                assertArrayEquals(payload, FileUtils.readFileToByteArray(new File(recordDir, TestResources.PAYLOAD_FILENAME)));
+                assertArrayEquals(sysMetadata, FileUtils.readFileToByteArray(new File(recordDir, TestResources.SYS_META_FILENAME)));
+
+                session.close();
+            }
+        } finally {
+            publisher.close();
+        }
+    }
+
+    @Test
+    public void testSendWithDigestOff() throws Exception {
+        final HttpPublisherConfig config = getConfig(UUID.randomUUID().toString());
+        config.setPerformDigest(false);
+        final HttpPublisher publisher = new HttpPublisher(config);
+        try {
+            final PublisherSession session = publisher.initialize(RecordType.Audit);
+            assertFalse(session.getPerformDigest());
+
+            final String jalId = UUID.randomUUID().toString();
+            session.send(new PublishRecord(jalId, sysMetadata, appMetadata, payload));
+            assertNotNull(findConfirmedRecord(RecordType.Audit, jalId));
+        } finally {
+            publisher.close();
+        }
+    }
+
+    @Test
+    public void testSendAsyncKeepsRecordsInFlight() throws Exception {
+        final HttpPublisherConfig config = getConfig(UUID.randomUUID().toString());
+        config.setMaxConnections(4);
+        final HttpPublisher publisher = new HttpPublisher(config);
+        try {
+            final PublisherSession session = publisher.initialize(RecordType.Log);
+            final List<String> jalIds = new ArrayList<String>();
+            final List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 40; i++) {
+                final String jalId = UUID.randomUUID().toString();
+                jalIds.add(jalId);
+                results.add(session.sendAsync(new PublishRecord(jalId, sysMetadata, appMetadata,
+                        Channels.newChannel(new ByteArrayInputStream(payload)), payload.length)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(jalIds.get(i), results.get(i).get());
+            }
+            for (final String jalId : jalIds) {
+                assertNotNull(findConfirmedRecord(RecordType.Log, jalId));
+            }
+        } finally {
+            publisher.close();
+        }
+    }
+
+    @Test
+    public void testInitializeNackIsReported() throws Exception {
+        final HttpPublisherConfig config = getConfig(UUID.randomUUID().toString());
+        final List<String> digests = new ArrayList<String>();
+        digests.add("http://www.w3.org/2001/04/xmlenc#md5");
+        config.setDigestAlgorithms(digests);
+        final HttpPublisher publisher = new HttpPublisher(config);
+        try {
+            publisher.initialize(RecordType.Audit);
+            fail("Expected initialize-nack");
+        } catch (final JNLPublishException e) {
+            assertEquals(HttpUtils.HDRS_UNSUPPORTED_DIGEST, e.getErrorMessage());
+        } finally {
+            publisher.close();
+        }
+    }
+
+    /**
+     * Leaves the first 13 bytes of a journal at the subscriber, as if the
+     * connection dropped part way through.
+     *
+     * @return The payload file the subscriber is writing to.
+     */
+    private static File leavePartialJournal(final String publisherId, final byte[] partialPayload) throws Exception {
+        final String sessionId = TestResources.sendValidInitialize(RecordType.Journal, true, publisherId, HttpUtils.MSG_ARCHIVE);
+        TestResources.sendValidJalRecord(RecordType.Journal, sessionId, RESUME_JAL_ID);
+        return truncateJournal(publisherId, 1, RESUME_JAL_ID, partialPayload);
+    }
+
+    /**
+     * Cut a journal the subscriber has received, but not synced, down to
+     * <code>partialPayload</code>, as if the connection dropped part way
+     * through.
+     *
+     * @return The payload file the subscriber is writing to.
+     */
+    private static File truncateJournal(final String publisherId, final int localNonce, final String jalId,
+            final byte[] partialPayload) throws Exception {
+        final String recordDirStr = outputDirStr + "/" + publisherId + "/" + RecordType.Journal.toString().toLowerCase()
+                + "/" + TestResources.getAutoNumberDirectoryName(localNonce);
+        final File payloadFile = new File(recordDirStr, TestResources.PAYLOAD_FILENAME);
+        FileUtils.writeByteArrayToFile(payloadFile, partialPayload);
+        final String status = FileUtils.readFileToString(new File(resourcesDirectory, "partial_status.js"))
+                .replace(RESUME_JAL_ID, jalId)
+                .replace("\"payload_progress\":13", "\"payload_progress\":" + partialPayload.length);
+        FileUtils.writeStringToFile(new File(recordDirStr, "status.js"), status);
+        return payloadFile;
+    }
+
+    @Test
+    public void testJournalResumesAtOffset() throws Exception {
+        final JNLSubscriber subscriber = (JNLSubscriber) TestResources.getSubscriber();
+        subscriber.getConfig().setMode(Mode.Archive);
+        try {
+            final String publisherId = UUID.randomUUID().toString();
+            final File payloadFile = leavePartialJournal(publisherId, Arrays.copyOf(payload, 13));
+
+            final HttpPublisherConfig config = getConfig(publisherId);
+            config.setMode(Mode.Archive);
+            final HttpPublisher publisher = new HttpPublisher(config);
+            try {
+                final PublisherSession session = publisher.initialize(RecordType.Journal);
+                assertEquals(RESUME_JAL_ID, session.getResumeJalId());
+                assertEquals(13, session.getResumeOffset());
+
+                //Only the last 6 bytes are sent, the digest covers the whole record
+                session.send(new PublishRecord(RESUME_JAL_ID, sysMetadata, appMetadata,
+                        Channels.newChannel(new ByteArrayInputStream(payload)), payload.length));
+                assertNull(session.getResumeJalId());
+                assertFalse(payloadFile.exists());
+
+                final File recordDir = findConfirmedRecord(RecordType.Journal, RESUME_JAL_ID);
+                assertNotNull(recordDir);
+                assertArrayEquals(payload, FileUtils.readFileToByteArray(new File(recordDir, TestResources.PAYLOAD_FILENAME)));
+            } finally {
+                publisher.close();
+            }
+        } finally {
+            subscriber.getConfig().setMode(Mode.Live);
+        }
+    }
+
+    @Test
+    public void testResumeOfDamagedJournalFailsDigest() throws Exception {
+        final JNLSubscriber subscriber = (JNLSubscriber) TestResources.getSubscriber();
+        subscriber.getConfig().setMode(Mode.Archive);
+        try {
+            final String publisherId = UUID.randomUUID().toString();
+            final byte[] damaged = Arrays.copyOf(payload, 13);
+            damaged[0] ^= 0x20;
+            final File payloadFile = leavePartialJournal(publisherId, damaged);
+
+            final HttpPublisherConfig config = getConfig(publisherId);
+            config.setMode(Mode.Archive);
+            final HttpPublisher publisher = new HttpPublisher(config);
+            try {
+                final PublisherSession session = publisher.initialize(RecordType.Journal);
+                assertEquals(RESUME_JAL_ID, session.getResumeJalId());
+
+                try {
+                    session.send(new PublishRecord(RESUME_JAL_ID, sysMetadata, appMetadata, payload));
+                    fail("Expected a digest mismatch");
+                } catch (final JNLPublishException e) {
+                    assertEquals(RESUME_JAL_ID, e.getJalId());
+                    assertTrue(e.getMessage(), e.getMessage().startsWith("Digest mismatch"));
+                }
+
+                //The subscriber drops the record on an invalid digest-response
+                assertFalse(payloadFile.exists());
+            } finally {
+                publisher.close();
+            }
+        } finally {
+            subscriber.getConfig().setMode(Mode.Live);
+        }
+    }
+
+    @Test
+    public void testEveryPartialJournalIsResumed() throws Exception {
+        final JNLSubscriber subscriber = (JNLSubscriber) TestResources.getSubscriber();
+        subscriber.getConfig().setMode(Mode.Archive);
+        try {
+            final String publisherId = UUID.randomUUID().toString();
+            final String firstJalId = UUID.randomUUID().toString();
+            final String secondJalId = UUID.randomUUID().toString();
+
+            //Two journals are cut off part way through, at different offsets
+            final String sessionId = TestResources.sendValidInitialize(RecordType.Journal, true, publisherId, HttpUtils.MSG_ARCHIVE);
+            TestResources.sendValidJalRecord(RecordType.Journal, sessionId, firstJalId);
+            TestResources.sendValidJalRecord(RecordType.Journal, sessionId, secondJalId);
+            final File firstPayload = truncateJournal(publisherId, 1, firstJalId, Arrays.copyOf(payload, 13));
+            final File secondPayload = truncateJournal(publisherId, 2, secondJalId, Arrays.copyOf(payload, 7));
+
+            final HttpPublisherConfig config = getConfig(publisherId);
+            config.setMode(Mode.Archive);
+            final HttpPublisher publisher = new HttpPublisher(config);
+            try {
+                //Each session is offered a different partial journal
+                final PublisherSession first = publisher.initialize(RecordType.Journal);
+                final PublisherSession second = publisher.initialize(RecordType.Journal);
+                assertEquals(firstJalId, first.getResumeJalId());
+                assertEquals(13, first.getResumeOffset());
+                assertEquals(secondJalId, second.getResumeJalId());
+                assertEquals(7, second.getResumeOffset());
+
+                //A new record sent first does not disturb the partial journals
+                final String newJalId = UUID.randomUUID().toString();
+                first.send(new PublishRecord(newJalId, sysMetadata, appMetadata, payload));
+                assertEquals(13, firstPayload.length());
+                assertEquals(7, secondPayload.length());
+
+                second.send(new PublishRecord(secondJalId, sysMetadata, appMetadata,
+                        Channels.newChannel(new ByteArrayInputStream(payload)), payload.length));
+                first.send(new PublishRecord(firstJalId, sysMetadata, appMetadata,
+                        Channels.newChannel(new ByteArrayInputStream(payload)), payload.length));
+                assertFalse(firstPayload.exists());
+                assertFalse(secondPayload.exists());
+
+                for (final String jalId : new String[] { firstJalId, secondJalId, newJalId }) {
+                    final File recordDir = findConfirmedRecord(RecordType.Journal, jalId);
+                    assertNotNull(recordDir);
+                    assertArrayEquals(payload, FileUtils.readFileToByteArray(new File(recordDir, TestResources.PAYLOAD_FILENAME)));
+                }
+            } finally {
+                publisher.close();
+            }
+        } finally {
+            subscriber.getConfig().setMode(Mode.Live);
+        }
+    }
+
+    @Test
+    public void testRecordTypeOverItsLimitIsTurnedAway() throws Exception {
+        final HttpUtils httpUtils = TestResources.getHttpUtils();
+        httpUtils.setRecordConcurrencyLimit(RecordType.Journal, 1);
+        final HttpPublisher publisher = new HttpPublisher(getConfig(UUID.randomUUID().toString()));
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final PublisherSession journal = publisher.initialize(RecordType.Journal);
+            final PublisherSession audit = publisher.initialize(RecordType.Audit);
+
+            //A journal whose payload is held back part way takes the only place
+            //for journals. Enough is sent first to get past the client's buffer.
+            final byte[] bigPayload = new byte[1024 * 1024];
+            final InputStream heldBack = new ByteArrayInputStream(bigPayload) {
+                @Override
+                public synchronized int read(final byte[] b, final int off, final int len) {
+                    if (pos >= bigPayload.length / 4) {
+                        try {
+                            gate.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+            final String slowJalId = UUID.randomUUID().toString();
+            final Future<String> slow = journal.sendAsync(new PublishRecord(slowJalId, sysMetadata, appMetadata,
+                    Channels.newChannel(heldBack), bigPayload.length));
+            for (int i = 0; i < 500 && httpUtils.getRecordsInProgress(RecordType.Journal) == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, httpUtils.getRecordsInProgress(RecordType.Journal));
+
+            //Another journal is turned away at once
+            try {
+                journal.send(new PublishRecord(UUID.randomUUID().toString(), sysMetadata, appMetadata, payload));
+                fail("Journal over the limit was accepted");
+            } catch (final HttpStatusException e) {
+                assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+                assertEquals(httpUtils.getRetryAfterSeconds(), e.getRetryAfterSeconds());
+            }
+            assertEquals(1, httpUtils.getRejectedRecords(RecordType.Journal));
+
+            //Other types are not held up
+            final String auditJalId = UUID.randomUUID().toString();
+            assertEquals(auditJalId, audit.send(new PublishRecord(auditJalId, sysMetadata, appMetadata, payload)));
+
+            gate.countDown();
+            assertEquals(slowJalId, slow.get());
+            assertEquals(0, httpUtils.getRecordsInProgress(RecordType.Journal));
+        } finally {
+            gate.countDown();
+            publisher.close();
+            httpUtils.setRecordConcurrencyLimit(RecordType.Journal, 0);
+        }
+    }
+
+    @Test
+    public void testNothingNewIsAcceptedWhileOutputIsUnderPressure() throws Exception {
+        final HttpUtils httpUtils = TestResources.getHttpUtils();
+        final HttpPublisher publisher = new HttpPublisher(getConfig(UUID.randomUUID().toString()));
+        try {
+            final PublisherSession session = publisher.initialize(RecordType.Log);
+
+            //No volume has this much free space
+            httpUtils.setDiskPressure(new DiskPressure(new File(outputDirStr), Long.MAX_VALUE, 0, 0, 0, 0, null));
+            try {
+                publisher.initialize(RecordType.Audit);
+                fail("Session was accepted while the output was under pressure");
+            } catch (final HttpStatusException e) {
+                assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+                assertEquals(httpUtils.getRetryAfterSeconds(), e.getRetryAfterSeconds());
+            }
+            try {
+                session.send(new PublishRecord(UUID.randomUUID().toString(), sysMetadata, appMetadata, payload));
+                fail("Record was accepted while the output was under pressure");
+            } catch (final HttpStatusException e) {
+                assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+                assertEquals(httpUtils.getRetryAfterSeconds(), e.getRetryAfterSeconds());
+            }
+            assertEquals(2, httpUtils.getDiskPressureRejections());
+            assertEquals(1, httpUtils.getDiskPressure().getPressureEpisodes());
+
+            httpUtils.setDiskPressure(null);
+            final String jalId = UUID.randomUUID().toString();
+            assertEquals(jalId, session.send(new PublishRecord(jalId, sysMetadata, appMetadata, payload)));
+        } finally {
+            httpUtils.setDiskPressure(null);
+            publisher.close();
+        }
+    }
+
+    @Test
+    public void testPublisherOverItsRateIsTurnedAway() throws Exception {
+        final HttpUtils httpUtils = TestResources.getHttpUtils();
+        final String noisyId = UUID.randomUUID().toString();
+        final HttpPublisher noisy = new HttpPublisher(getConfig(noisyId));
+        final HttpPublisher quiet = new HttpPublisher(getConfig(UUID.randomUUID().toString()));
+        try {
+            //Each publisher may send about one record a minute
+            final long recordLength = sysMetadata.length + appMetadata.length + payload.length;
+            final Map<RecordType, Long> rates = new EnumMap<RecordType, Long>(RecordType.class);
+            rates.put(RecordType.Log, recordLength / 60 + 1);
+            final PublisherRateLimits limits = new PublisherRateLimits(rates, 0, null);
+            httpUtils.setPublisherRateLimits(limits);
+
+            final PublisherSession noisySession = noisy.initialize(RecordType.Log);
+            final PublisherSession quietSession = quiet.initialize(RecordType.Log);
+
+            final String jalId = UUID.randomUUID().toString();
+            assertEquals(jalId, noisySession.send(new PublishRecord(jalId, sysMetadata, appMetadata, payload)));
+            try {
+                noisySession.send(new PublishRecord(UUID.randomUUID().toString(), sysMetadata, appMetadata, payload));
+                fail("Record over the publisher's rate was accepted");
+            } catch (final HttpStatusException e) {
+                assertEquals(HttpUtils.SC_TOO_MANY_REQUESTS, e.getStatusCode());
+                //Told to wait until the minute's allowance comes back
+                assertTrue(e.getRetryAfterSeconds() > 0 && e.getRetryAfterSeconds() <= 60);
+            }
+            assertEquals(1, limits.getThrottledRecords(noisyId));
+
+            //Other publishers are not held up
+            final String quietJalId = UUID.randomUUID().toString();
+            assertEquals(quietJalId, quietSession.send(new PublishRecord(quietJalId, sysMetadata, appMetadata, payload)));
+        } finally {
+            httpUtils.setPublisherRateLimits(null);
+            noisy.close();
+            quiet.close();
+        }
+    }
+}
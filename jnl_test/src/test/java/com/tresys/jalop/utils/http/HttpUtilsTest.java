@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Iterator;
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.log4j.Level;
@@ -23,8 +24,11 @@ import com.tresys.jalop.jnl.Mode;
 import com.tresys.jalop.jnl.RecordType;
 import com.tresys.jalop.jnl.exceptions.MissingMimeHeaderException;
 import com.tresys.jalop.jnl.exceptions.UnexpectedMimeValueException;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
 import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.http.UnixSocketConnector;
 import com.tresys.jalop.jnl.DigestAlgorithms;
+import com.tresys.jalop.utils.jnltest.ConfigReloader;
 import com.tresys.jalop.utils.jnltest.Config.HttpConfig;
 
 import com.tresys.jalop.utils.jnltest.Config.ConfigurationException;
@@ -569,6 +573,210 @@ public class HttpUtilsTest {
         assertEquals(algName, DigestAlgorithms.JJNL_SHA256_ALGORITHM_NAME);
     }
 
+    /**
+     * Checks that the durability mode is parsed and passed on to the subscriber configuration
+     */
+    @Test
+    public void testDurabilityConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberDurability.json";
+        final HttpConfig config = HttpConfig.parse(path);
+        assertEquals(HttpSubscriberConfig.DURABILITY_FSYNC, config.getDurability());
+        assertEquals(5, config.getGroupCommitWaitMillis());
+        assertTrue(config.getHttpSubscriberConfig().isDurable());
+        assertEquals(5, config.getHttpSubscriberConfig().getGroupCommitWaitMillis());
+    }
+
+    /**
+     * Checks that durability defaults to none when not configured
+     */
+    @Test
+    public void testDurabilityDefaultsToNone() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpConfig config = HttpConfig.parse(path);
+        assertEquals(HttpSubscriberConfig.DURABILITY_NONE, config.getDurability());
+        assertFalse(config.getHttpSubscriberConfig().isDurable());
+    }
+
+    /**
+     * Checks that payload compression is parsed per record type and passed on to the subscriber configuration
+     */
+    @Test
+    public void testPayloadCompressionConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberPayloadCompression.json";
+        final HttpConfig config = HttpConfig.parse(path);
+        final HttpSubscriberConfig subscriberConfig = config.getHttpSubscriberConfig();
+        assertEquals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4, subscriberConfig.getPayloadCompression(RecordType.Audit));
+        assertEquals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_GZIP, subscriberConfig.getPayloadCompression(RecordType.Log));
+        assertEquals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE, subscriberConfig.getPayloadCompression(RecordType.Journal));
+    }
+
+    /**
+     * Checks that payloads are stored uncompressed when not configured
+     */
+    @Test
+    public void testPayloadCompressionDefaultsToNone() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpConfig config = HttpConfig.parse(path);
+        assertTrue(config.getPayloadCompression().isEmpty());
+        assertEquals(HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE, config.getHttpSubscriberConfig().getPayloadCompression(RecordType.Audit));
+    }
+
+    /**
+     * Checks that the read limits are parsed and passed on to the subscriber configuration
+     */
+    @Test
+    public void testReadLimitsConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberReadLimits.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(60000, subscriberConfig.getReadDeadlineMillis());
+        assertEquals(1024, subscriberConfig.getMinReadBytesPerSecond());
+        assertEquals(2000, subscriberConfig.getReadRateGraceMillis());
+        assertEquals(30000, subscriberConfig.getIdleTimeoutMillis());
+        assertEquals(1048576, subscriberConfig.getMaxDecodedMetadataBytes());
+    }
+
+    /**
+     * Checks that reads are not limited when not configured
+     */
+    @Test
+    public void testReadLimitsDefaultToOff() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(0, subscriberConfig.getReadDeadlineMillis());
+        assertEquals(0, subscriberConfig.getMinReadBytesPerSecond());
+        assertEquals(HttpSubscriberConfig.DEFAULT_READ_RATE_GRACE_MILLIS, subscriberConfig.getReadRateGraceMillis());
+        assertEquals(HttpSubscriberConfig.DEFAULT_IDLE_TIMEOUT_MILLIS, subscriberConfig.getIdleTimeoutMillis());
+        assertEquals(HttpSubscriberConfig.DEFAULT_MAX_DECODED_METADATA_BYTES, subscriberConfig.getMaxDecodedMetadataBytes());
+    }
+
+    /**
+     * Checks that the number of recent JAL-Ids to keep is parsed and passed on to the subscriber configuration
+     */
+    @Test
+    public void testRecentJalIdCapacityConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberRecentJalIds.json";
+        assertEquals(5000, HttpConfig.parse(path).getHttpSubscriberConfig().getRecentJalIdCapacity());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        assertEquals(0, HttpConfig.parse(noEntryPath).getHttpSubscriberConfig().getRecentJalIdCapacity());
+    }
+
+    /**
+     * Checks that the per record type concurrency limits are parsed and passed on to the subscriber configuration
+     */
+    @Test
+    public void testMaxConcurrentRecordsConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberMaxConcurrentRecords.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(4, subscriberConfig.getMaxConcurrentRecords(RecordType.Journal));
+        assertEquals(16, subscriberConfig.getMaxConcurrentRecords(RecordType.Log));
+        assertEquals(0, subscriberConfig.getMaxConcurrentRecords(RecordType.Audit));
+        assertEquals(5, subscriberConfig.getRetryAfterSeconds());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertEquals(0, defaultConfig.getMaxConcurrentRecords(RecordType.Journal));
+        assertEquals(HttpSubscriberConfig.DEFAULT_RETRY_AFTER_SECONDS, defaultConfig.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void testDiskPressureConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberDiskPressure.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(1073741824L, subscriberConfig.getMinFreeBytes());
+        assertEquals(2147483648L, subscriberConfig.getResumeFreeBytes());
+        assertEquals(500, subscriberConfig.getMaxWriteLatencyMillis());
+        assertEquals(100, subscriberConfig.getResumeWriteLatencyMillis());
+        assertEquals(2000, subscriberConfig.getDiskCheckIntervalMillis());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertEquals(0, defaultConfig.getMinFreeBytes());
+        assertEquals(0, defaultConfig.getMaxWriteLatencyMillis());
+        assertEquals(HttpSubscriberConfig.DEFAULT_DISK_CHECK_INTERVAL_MILLIS, defaultConfig.getDiskCheckIntervalMillis());
+    }
+
+    @Test
+    public void testPublisherRateLimitsConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberPublisherRateLimits.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(Long.valueOf(10485760), subscriberConfig.getPublisherBytesPerSecond().get(RecordType.Journal));
+        assertEquals(Long.valueOf(1048576), subscriberConfig.getPublisherBytesPerSecond().get(RecordType.Audit));
+        assertNull(subscriberConfig.getPublisherBytesPerSecond().get(RecordType.Log));
+        assertEquals(104857600, subscriberConfig.getTotalBytesPerSecond());
+        assertEquals(Integer.valueOf(3), subscriberConfig.getPublisherWeights().get("ae8a54d7-dd7c-4c50-a7e7-f948a140c556"));
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertTrue(defaultConfig.getPublisherBytesPerSecond().isEmpty());
+        assertEquals(0, defaultConfig.getTotalBytesPerSecond());
+        assertTrue(defaultConfig.getPublisherWeights().isEmpty());
+    }
+
+    @Test
+    public void testUnixSocketConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberUnixSocket.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(new File("./output/subscriber.sock"), subscriberConfig.getUnixSocketPath());
+        assertEquals("rw-rw----", subscriberConfig.getUnixSocketPermissions());
+        assertEquals("jalop", subscriberConfig.getUnixSocketGroup());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertNull(defaultConfig.getUnixSocketPath());
+        assertEquals(UnixSocketConnector.DEFAULT_PERMISSIONS, defaultConfig.getUnixSocketPermissions());
+        assertNull(defaultConfig.getUnixSocketGroup());
+    }
+
+    @Test
+    public void testTlsSessionsConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberTlsSessions.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals(Arrays.asList("TLSv1.3"), subscriberConfig.getTlsProtocols());
+        assertEquals(1000, subscriberConfig.getTlsSessionCacheSize());
+        assertEquals(3600, subscriberConfig.getTlsSessionTimeoutSeconds());
+        assertFalse(subscriberConfig.getTlsSessionTickets());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertEquals(HttpSubscriberConfig.DEFAULT_TLS_PROTOCOLS, defaultConfig.getTlsProtocols());
+        assertEquals(HttpSubscriberConfig.DEFAULT_TLS_SESSION_CACHE_SIZE, defaultConfig.getTlsSessionCacheSize());
+        assertEquals(HttpSubscriberConfig.DEFAULT_TLS_SESSION_TIMEOUT_SECONDS, defaultConfig.getTlsSessionTimeoutSeconds());
+        assertTrue(defaultConfig.getTlsSessionTickets());
+    }
+
+    @Test
+    public void testTlsProviderConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberTlsProvider.json";
+        final HttpSubscriberConfig subscriberConfig = HttpConfig.parse(path).getHttpSubscriberConfig();
+        assertEquals("Conscrypt", subscriberConfig.getTlsProvider());
+        assertEquals("org.conscrypt.OpenSSLProvider", subscriberConfig.getTlsProviderClass());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        final HttpSubscriberConfig defaultConfig = HttpConfig.parse(noEntryPath).getHttpSubscriberConfig();
+        assertNull(defaultConfig.getTlsProvider());
+        assertNull(defaultConfig.getTlsProviderClass());
+    }
+
+    @Test
+    public void testDrainTimeoutConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberDrain.json";
+        assertEquals(2000, HttpConfig.parse(path).getHttpSubscriberConfig().getDrainTimeoutMillis());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        assertEquals(HttpSubscriberConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS,
+                HttpConfig.parse(noEntryPath).getHttpSubscriberConfig().getDrainTimeoutMillis());
+    }
+
+    @Test
+    public void testConfigReloadIntervalConfig() throws Exception {
+        final String path = "../jnl_test/target/test-classes/sampleHttpSubscriberReload.json";
+        assertEquals(1000, HttpConfig.parse(path).getConfigReloadIntervalMillis());
+
+        final String noEntryPath = "../jnl_test/target/test-classes/sampleHttpSubscriberNoEntry.json";
+        assertEquals(ConfigReloader.DEFAULT_INTERVAL_MILLIS, HttpConfig.parse(noEntryPath).getConfigReloadIntervalMillis());
+    }
+
     @Test
     public void testValidateXmlCompressionWorksWithNone() {
 
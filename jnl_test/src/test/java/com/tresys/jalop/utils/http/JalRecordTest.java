@@ -6,18 +6,23 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.http.Header;
@@ -38,6 +43,7 @@ import org.junit.rules.ExpectedException;
 
 import com.tresys.jalop.jnl.Mode;
 import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
 import com.tresys.jalop.jnl.impl.http.HttpUtils;
 import com.tresys.jalop.utils.jnltest.JNLSubscriber;
 
@@ -1584,6 +1590,142 @@ public class JalRecordTest {
         System.out.println("----testProcessJALRecordMessageValidRecordDigestChallenge success----\n");
     }
 
+    @Test
+    public void testProcessJALRecordMessageDeflateMetadata() throws ClientProtocolException, IOException, NoSuchAlgorithmException {
+        System.out.println("----testProcessJALRecordMessageDeflateMetadata---");
+        String publisherId = UUID.randomUUID().toString();
+        RecordType recType = RecordType.Audit;
+
+        String sessionId = TestResources.sendValidInitialize(recType, true, publisherId, HttpUtils.MSG_LIVE, HttpUtils.XML_COMPRESSION_DEFLATE);
+
+        //Splits the sample record into its sections and deflates the metadata
+        File resourcesDirectory = new File("src/test/resources/unit_test");
+        byte[] jalRecord = FileUtils.readFileToByteArray(new File(resourcesDirectory, "jal_record1.txt"));
+        byte[] sysMetadata = Arrays.copyOfRange(jalRecord, 0, 3083);
+        byte[] appMetadata = Arrays.copyOfRange(jalRecord, 3088, 3088 + 1125);
+        byte[] payload = Arrays.copyOfRange(jalRecord, 4218, 4218 + 19);
+        byte[] sysWire = deflate(sysMetadata);
+        byte[] appWire = deflate(appMetadata);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] section : new byte[][] {sysWire, appWire, payload})
+        {
+            body.write(section);
+            body.write("BREAK".getBytes("utf-8"));
+        }
+
+        HttpPost httpPost = new HttpPost("http://localhost:" + TestResources.HTTP_PORT + "/" + recType.toString().toLowerCase());
+        String jalId = UUID.randomUUID().toString();
+        HashMap<String, String> headers = TestResources.getJalRecordHeaders(sessionId, jalId, Integer.toString(sysWire.length), Integer.toString(appWire.length), "19", recType);
+        for (Map.Entry<String, String> entry : headers.entrySet())
+        {
+            httpPost.setHeader(entry.getKey(), entry.getValue());
+        }
+        httpPost.setEntity(EntityBuilder.create().setBinary(body.toByteArray()).build());
+
+        HttpClient client = HttpClientBuilder.create().build();
+        final HttpResponse response = client.execute(httpPost);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertNull(response.getFirstHeader(HttpUtils.HDRS_ERROR_MESSAGE));
+
+        //The digest is calculated over the metadata as sent
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(sysWire);
+        md.update(appWire);
+        md.update(payload);
+        String expectedDigest = "";
+        for (byte b : md.digest())
+        {
+            expectedDigest = expectedDigest + String.format("%02x", b);
+        }
+        final Header digestHeader = response.getFirstHeader(HttpUtils.HDRS_DIGEST_VALUE);
+        assertNotNull(digestHeader);
+        assertEquals(expectedDigest, digestHeader.getValue());
+
+        confirmRecord(jalId, recType, sessionId);
+
+        //The subscriber stores the inflated metadata
+        File recordDir = null;
+        File[] confirmedDirs = new File(outputDirStr + "/" + recType.toString().toLowerCase()).listFiles();
+        assertNotNull(confirmedDirs);
+        for (File currDir : confirmedDirs)
+        {
+            File statusFile = new File(currDir, "status.js");
+            if (statusFile.exists() && FileUtils.readFileToString(statusFile).contains(jalId))
+            {
+                recordDir = currDir;
+            }
+        }
+        assertNotNull(recordDir);
+        assertTrue(Arrays.equals(sysMetadata, FileUtils.readFileToByteArray(new File(recordDir, TestResources.SYS_META_FILENAME))));
+        assertTrue(Arrays.equals(appMetadata, FileUtils.readFileToByteArray(new File(recordDir, TestResources.APP_META_FILENAME))));
+        assertTrue(Arrays.equals(payload, FileUtils.readFileToByteArray(new File(recordDir, TestResources.PAYLOAD_FILENAME))));
+
+        cleanOutputDirectoryByPublisherId(publisherId);
+        System.out.println("----testProcessJALRecordMessageDeflateMetadata success----\n");
+    }
+
+    @Test
+    public void testProcessJALRecordMessageDeflateMetadataTooLarge() throws ClientProtocolException, IOException {
+        System.out.println("----testProcessJALRecordMessageDeflateMetadataTooLarge---");
+        String publisherId = UUID.randomUUID().toString();
+        RecordType recType = RecordType.Audit;
+
+        String sessionId = TestResources.sendValidInitialize(recType, true, publisherId, HttpUtils.MSG_LIVE, HttpUtils.XML_COMPRESSION_DEFLATE);
+
+        //A small amount of deflate data that inflates to more than the default limit
+        byte[] sysWire = deflate(new byte[(int) (2 * HttpSubscriberConfig.DEFAULT_MAX_DECODED_METADATA_BYTES)]);
+        byte[] appWire = deflate("<app/>".getBytes("utf-8"));
+        byte[] payload = "<payload>data</payload>".getBytes("utf-8");
+        assertTrue(sysWire.length < HttpSubscriberConfig.DEFAULT_MAX_DECODED_METADATA_BYTES / 100);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] section : new byte[][] {sysWire, appWire, payload})
+        {
+            body.write(section);
+            body.write("BREAK".getBytes("utf-8"));
+        }
+
+        HttpPost httpPost = new HttpPost("http://localhost:" + TestResources.HTTP_PORT + "/" + recType.toString().toLowerCase());
+        String jalId = UUID.randomUUID().toString();
+        HashMap<String, String> headers = TestResources.getJalRecordHeaders(sessionId, jalId, Integer.toString(sysWire.length),
+                Integer.toString(appWire.length), Integer.toString(payload.length), recType);
+        for (Map.Entry<String, String> entry : headers.entrySet())
+        {
+            httpPost.setHeader(entry.getKey(), entry.getValue());
+        }
+        httpPost.setEntity(EntityBuilder.create().setBinary(body.toByteArray()).build());
+
+        HttpClient client = HttpClientBuilder.create().build();
+        final HttpResponse response = client.execute(httpPost);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        final Header errorHeader = response.getFirstHeader(HttpUtils.HDRS_ERROR_MESSAGE);
+        assertNotNull(errorHeader);
+        assertEquals(HttpUtils.HDRS_RECORD_FAILURE, errorHeader.getValue());
+
+        //Nothing of the record is kept
+        File[] recordDirs = new File(outputDirStr + "/" + publisherId + "/" + recType.toString().toLowerCase()).listFiles();
+        if (recordDirs != null)
+        {
+            for (File currDir : recordDirs)
+            {
+                assertFalse(new File(currDir, TestResources.SYS_META_FILENAME).exists());
+            }
+        }
+
+        cleanOutputDirectoryByPublisherId(publisherId);
+        System.out.println("----testProcessJALRecordMessageDeflateMetadataTooLarge success----\n");
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+        deflater.write(data);
+        deflater.close();
+        return out.toByteArray();
+    }
+
     @Test
     public void testProcessJALRecordMessageWithDigestOff() throws ClientProtocolException, IOException {
         String publisherId = UUID.randomUUID().toString();
@@ -675,13 +675,20 @@ public class JournalMissingTest {
             //Resend record, verify that data is appending to existing record in the subscriber, and digest is the expected digest of the original complete record.
             String currJalId = TestResources.sendValidJalRecord(RecordType.Journal, sessionId, jalId, "6", "resume_jal_record1.txt", "c4917368e984b051577ce3191d84362626d77019a3517ae36a065c64f9fdc7c5");
 
-            //Verify size of file to be expected size, it should only be 6 in this case instead of 19 due to jal id being different and record not being resumed.
-            assertEquals(6, payloadFile.length());
+            //Verify the record was not resumed, it should only be 6 in this case instead of 19 due to jal id being different,
+            //and is written to a new record directory.
+            String newRecordDirStr = outputDirStr +  "/" + publisherId + "/" + RecordType.Journal.toString().toLowerCase() + "/" + TestResources.getAutoNumberDirectoryName(2);
+            assertEquals(6, new File(newRecordDirStr, "payload").length());
             assertEquals(jalId, currJalId);
 
-            //Verify that the metadata files were written again
-            assertTrue(sysMetadataFile.exists());
-            assertTrue(appMetadataFile.exists());
+            //Verify that the metadata files were written for the new record
+            assertTrue(new File(newRecordDirStr, "sys_metadata.xml").exists());
+            assertTrue(new File(newRecordDirStr, "app_metadata.xml").exists());
+
+            //Verify the partial record is kept, so it can still be resumed
+            assertEquals(13, payloadFile.length());
+            assertTrue(!sysMetadataFile.exists());
+            assertTrue(!appMetadataFile.exists());
 
             System.out.println("----testJournaResumeMessageDifferentJalIdOnResume success---");
         }
@@ -0,0 +1,222 @@
+package com.tresys.jalop.utils.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.NameFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+import com.tresys.jalop.jnl.impl.http.JNLWebServer;
+import com.tresys.jalop.jnl.impl.http.WebServerHandle;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisher;
+import com.tresys.jalop.jnl.impl.publisher.HttpPublisherConfig;
+import com.tresys.jalop.jnl.impl.publisher.HttpStatusException;
+import com.tresys.jalop.jnl.impl.publisher.PublishRecord;
+import com.tresys.jalop.jnl.impl.publisher.PublisherSession;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
+import com.tresys.jalop.utils.jnltest.JNLSubscriber;
+import com.tresys.jalop.utils.jnltest.Config.HttpConfig;
+
+/**
+ * Tests for starting the subscriber without blocking, and for shutting it
+ * down gracefully.
+ */
+public class ShutdownTest {
+
+    private static final int SYS_META_LEN = 3083;
+    private static final int APP_META_LEN = 1125;
+
+    private File outputDir;
+    private WebServerHandle handle;
+    private HttpPublisher publisher;
+    private byte[] sysMetadata;
+    private byte[] appMetadata;
+
+    @Before
+    public void setUp() throws Exception {
+        TestResources.configureLogging(Level.INFO);
+
+        final byte[] record = FileUtils.readFileToByteArray(new File("src/test/resources/unit_test/jal_record1.txt"));
+        sysMetadata = Arrays.copyOfRange(record, 0, SYS_META_LEN);
+        appMetadata = Arrays.copyOfRange(record, SYS_META_LEN + 5, SYS_META_LEN + 5 + APP_META_LEN);
+
+        outputDir = new File("./target/shutdown-test-output");
+        FileUtils.deleteDirectory(outputDir);
+
+        final HttpSubscriberConfig config = HttpConfig.parse(
+                "../jnl_test/target/test-classes/sampleHttpSubscriberDrain.json").getHttpSubscriberConfig();
+        config.setPort(0);
+        config.setOutputPath(outputDir);
+        handle = new JNLWebServer(config).startServer(new JNLSubscriber(config));
+
+        final HttpPublisherConfig publisherConfig = new HttpPublisherConfig();
+        publisherConfig.setUri("http://127.0.0.1:" + handle.getPort());
+        publisherConfig.setPublisherId(UUID.randomUUID().toString());
+        publisher = new HttpPublisher(publisherConfig);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        publisher.close();
+        handle.stop(0);
+        FileUtils.deleteDirectory(outputDir);
+    }
+
+    /**
+     * @return A journal payload that stops part way through until the gate
+     *         is opened. Enough is sent first to get past the client's
+     *         buffer.
+     */
+    private static InputStream heldBack(final byte[] payload, final CountDownLatch gate) {
+        return new ByteArrayInputStream(payload) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                if (pos >= payload.length / 4) {
+                    try {
+                        gate.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    private Future<String> sendHeldBack(final PublisherSession session, final String jalId, final CountDownLatch gate)
+            throws Exception {
+        //The response to the last message may still be finishing
+        for (int i = 0; i < 500 && handle.getMessagesInProgress() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, handle.getMessagesInProgress());
+
+        final byte[] payload = new byte[1024 * 1024];
+        final Future<String> sent = session.sendAsync(new PublishRecord(jalId, sysMetadata, appMetadata,
+                Channels.newChannel(heldBack(payload, gate)), payload.length));
+        //Wait until the subscriber is writing the record, not just reading its headers
+        for (int i = 0; i < 500 && FileUtils.listFiles(outputDir, new NameFileFilter("payload"),
+                TrueFileFilter.INSTANCE).isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, handle.getMessagesInProgress());
+        return sent;
+    }
+
+    private FutureTask<Boolean> stopInBackground(final long drainMillis) throws InterruptedException {
+        final FutureTask<Boolean> stop = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return handle.stop(drainMillis);
+            }
+        });
+        new Thread(stop).start();
+        for (int i = 0; i < 500 && handle.isRunning(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(handle.isRunning());
+        return stop;
+    }
+
+    private static void assertTurnedAway(final Callable<?> message) throws Exception {
+        try {
+            message.call();
+            fail("Message was accepted while shutting down");
+        } catch (final HttpStatusException e) {
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testRecordInProgressFinishesBeforeShutdown() throws Exception {
+        assertTrue(handle.isRunning());
+        final PublisherSession journal = publisher.initialize(RecordType.Journal);
+        final PublisherSession log = publisher.initialize(RecordType.Log);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final String jalId = UUID.randomUUID().toString();
+            final Future<String> slow = sendHeldBack(journal, jalId, gate);
+            final FutureTask<Boolean> stop = stopInBackground(10000);
+
+            //Nothing new is started
+            assertTurnedAway(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return publisher.initialize(RecordType.Audit);
+                }
+            });
+            assertTurnedAway(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return log.send(new PublishRecord(UUID.randomUUID().toString(), sysMetadata, appMetadata,
+                            new byte[10]));
+                }
+            });
+            assertFalse(stop.isDone());
+
+            //The record in progress is let finish
+            gate.countDown();
+            assertEquals(jalId, slow.get());
+            assertTrue(stop.get());
+            handle.join();
+        } finally {
+            gate.countDown();
+        }
+
+        //The exact last nonce is saved, rather than the block reserved
+        final DataInputStream in = new DataInputStream(new FileInputStream(
+                new File(outputDir, "journal/" + NonceAllocator.STATE_FILENAME)));
+        try {
+            assertEquals(1, in.readLong());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRecordStillInProgressIsCutOffAtTheDeadline() throws Exception {
+        final PublisherSession journal = publisher.initialize(RecordType.Journal);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final Future<String> slow = sendHeldBack(journal, UUID.randomUUID().toString(), gate);
+            final long start = System.nanoTime();
+            assertFalse(stopInBackground(200).get());
+            assertTrue((System.nanoTime() - start) / 1000000 < 10000);
+            assertEquals(0, handle.getMessagesInProgress());
+
+            gate.countDown();
+            try {
+                slow.get();
+                fail("Record was accepted after being cut off");
+            } catch (final ExecutionException e) {
+                // Expected.
+            }
+        } finally {
+            gate.countDown();
+        }
+    }
+}
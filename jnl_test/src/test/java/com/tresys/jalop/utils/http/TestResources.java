@@ -65,6 +65,11 @@ public class TestResources {
         return testHttpUtils.getSubscriber();
     }
 
+    public static HttpUtils getHttpUtils()
+    {
+        return testHttpUtils;
+    }
+
     public static String getAutoNumberDirectoryName(int count)
     {
         return NONCE_FORMATER.format(count);
@@ -255,7 +260,32 @@ public class TestResources {
         if (outputDirStr != null && outputDirStr.contains("output"))
         {
             File outputDir = new File(outputDirStr);
-            FileUtils.deleteDirectory(outputDir);
+            //Discarded records may still be being deleted in the background,
+            //which can race with deleting them here
+            for (int attempt = 1; ; attempt++)
+            {
+                try
+                {
+                    FileUtils.deleteDirectory(outputDir);
+                    return;
+                }
+                catch (IOException ioe)
+                {
+                    if (attempt == 5)
+                    {
+                        throw ioe;
+                    }
+                }
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ie);
+                }
+            }
         }
     }
 
@@ -379,6 +409,22 @@ public class TestResources {
      * @throws IOException
      */
     public static String sendValidInitialize(RecordType recType, boolean performDigest, String publisherId, String mode) throws ClientProtocolException, IOException
+    {
+        return sendValidInitialize(recType, performDigest, publisherId, mode, HttpUtils.SUPPORTED_XML_COMPRESSIONS[0]);
+    }
+
+    /**
+     * This will send a valid initialize message accepting the given xml compression and get back a session id.
+     * @param recType
+     * @param performDigest
+     * @param publisherId
+     * @param mode
+     * @param xmlCompression
+     * @return a valid sessionID
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public static String sendValidInitialize(RecordType recType, boolean performDigest, String publisherId, String mode, String xmlCompression) throws ClientProtocolException, IOException
     {
         final HttpPost httpPost = new HttpPost("http://localhost:" + HTTP_PORT + "/" + recType.toString().toLowerCase());
         httpPost.setHeader(HttpUtils.HDRS_CONTENT_TYPE, HttpUtils.DEFAULT_CONTENT_TYPE);
@@ -386,7 +432,7 @@ public class TestResources {
         httpPost.setHeader(HttpUtils.HDRS_MESSAGE, HttpUtils.MSG_INIT);
         httpPost.setHeader(HttpUtils.HDRS_MODE, mode);
         httpPost.setHeader(HttpUtils.HDRS_ACCEPT_DIGEST, DigestAlgorithms.JJNL_SHA256_ALGORITHM_URI);
-        httpPost.setHeader(HttpUtils.HDRS_ACCEPT_XML_COMPRESSION, HttpUtils.SUPPORTED_XML_COMPRESSIONS[0]);
+        httpPost.setHeader(HttpUtils.HDRS_ACCEPT_XML_COMPRESSION, xmlCompression);
         httpPost.setHeader(HttpUtils.HDRS_RECORD_TYPE, recType.toString().toLowerCase());
         httpPost.setHeader(HttpUtils.HDRS_VERSION, HttpUtils.SUPPORTED_VERSIONS[0]);
 
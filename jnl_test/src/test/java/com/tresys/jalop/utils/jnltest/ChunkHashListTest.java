@@ -0,0 +1,160 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for checking partial journal payloads against their chunk hashes.
+ */
+public class ChunkHashListTest {
+
+    private static final int CHUNK = ChunkHashList.CHUNK_SIZE;
+
+    private File recordDir;
+    private File payloadFile;
+    private byte[] payload;
+
+    @Before
+    public void setUp() throws IOException {
+        recordDir = new File("./output-chunk-test");
+        FileUtils.deleteDirectory(recordDir);
+        assertTrue(recordDir.mkdirs());
+        payloadFile = new File(recordDir, "payload");
+        payload = new byte[2 * CHUNK + CHUNK / 2];
+        new Random(1).nextBytes(payload);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(recordDir);
+    }
+
+    /**
+     * Write <code>payload[from, to)</code> as the subscriber does.
+     *
+     * @return The tail hash after writing it.
+     */
+    private byte[] write(final int from, final int to) throws IOException {
+        final ChunkHashList chunks = ChunkHashList.open(recordDir, payloadFile, from);
+        final FileOutputStream out = new FileOutputStream(payloadFile, true);
+        try {
+            // In pieces that do not line up with the chunks.
+            for (int i = from; i < to; i += 10000) {
+                final int n = Math.min(10000, to - i);
+                out.write(payload, i, n);
+                chunks.update(payload, i, n);
+            }
+            return chunks.getTailHash();
+        } finally {
+            out.close();
+            chunks.close();
+        }
+    }
+
+    private void damage(final long position) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(payloadFile, "rw");
+        try {
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testIntactPayloadIsVerified() throws IOException {
+        final byte[] tail = write(0, payload.length);
+        assertEquals(2 * 32, new File(recordDir, ChunkHashList.FILENAME).length());
+        assertEquals(payload.length, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testOnlyDamagedTailIsDropped() throws IOException {
+        final byte[] tail = write(0, payload.length);
+
+        damage(2 * CHUNK + 5);
+        assertEquals(2 * CHUNK, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+
+        damage(CHUNK + 5);
+        assertEquals(CHUNK, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testOnlyEndOfPayloadIsRead() throws IOException {
+        final byte[] tail = write(0, payload.length);
+
+        // The first chunk is not read again while the last one matches.
+        damage(5);
+        assertEquals(payload.length, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+
+        // It is once the damage reaches back to it.
+        damage(CHUNK + 5);
+        assertEquals(0, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testShortPayloadIsDroppedFromLastWholeChunk() throws IOException {
+        final byte[] tail = write(0, payload.length);
+        final RandomAccessFile raf = new RandomAccessFile(payloadFile, "rw");
+        try {
+            raf.setLength(CHUNK + 100);
+        } finally {
+            raf.close();
+        }
+        assertEquals(CHUNK, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testResumedPayloadCarriesOnHashes() throws IOException {
+        // Received up to part way into the second chunk, then resumed.
+        final int offset = CHUNK + 12345;
+        final byte[] partialTail = write(0, offset);
+        assertEquals(offset, ChunkHashList.verify(recordDir, payloadFile, offset, partialTail));
+
+        final byte[] tail = write(offset, payload.length);
+        assertEquals(payload.length, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testHashesPastOffsetAreDropped() throws IOException {
+        write(0, payload.length);
+        final RandomAccessFile raf = new RandomAccessFile(payloadFile, "rw");
+        try {
+            raf.setLength(CHUNK);
+        } finally {
+            raf.close();
+        }
+
+        // The second chunk is written again, differently.
+        Arrays.fill(payload, CHUNK, payload.length, (byte) 7);
+        final byte[] tail = write(CHUNK, payload.length);
+        assertEquals(payload.length, ChunkHashList.verify(recordDir, payloadFile, payload.length, tail));
+    }
+
+    @Test
+    public void testPayloadWithoutHashesIsTrusted() throws IOException {
+        final FileOutputStream out = new FileOutputStream(payloadFile);
+        try {
+            out.write(payload, 0, CHUNK + 10);
+        } finally {
+            out.close();
+        }
+        assertEquals(CHUNK + 10, ChunkHashList.verify(recordDir, payloadFile, CHUNK + 10, null));
+        assertNull(ChunkHashList.open(recordDir, payloadFile, CHUNK + 10));
+    }
+}
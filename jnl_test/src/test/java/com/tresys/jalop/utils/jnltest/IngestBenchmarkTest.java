@@ -0,0 +1,165 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.http.JNLTestInterface;
+import com.tresys.jalop.jnl.impl.http.SubscriberHttpANSHandler;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
+import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
+
+/**
+ * Measures the ingest path from the record handler through
+ * {@link SubscriberImpl} to disk, without HTTP in between. Only runs with
+ * -Dbenchmark=true, for example:
+ * mvn test -Dtest=IngestBenchmarkTest -Dbenchmark=true -DfailIfNoTests=false
+ */
+public class IngestBenchmarkTest {
+
+    private static final byte[] BREAK = "BREAK".getBytes();
+
+    private File outputRoot;
+
+    /**
+     * Just enough of {@link JNLSubscriber} to run a {@link SubscriberImpl}.
+     */
+    private static class TestInterface implements JNLTestInterface {
+        private final NonceAllocator allocator;
+
+        TestInterface(final File outputRoot) throws IOException {
+            this.allocator = new NonceAllocator(new File(outputRoot, NonceAllocator.STATE_FILENAME),
+                    NonceAllocator.DEFAULT_BLOCK_SIZE, null);
+        }
+
+        @Override
+        public void setLatestLogNONCE(final long latestLogNONCE) {
+        }
+
+        @Override
+        public void setLatestAuditNONCE(final long latestAuditNONCE) {
+        }
+
+        @Override
+        public void setLatestJournalNONCE(final long latestJournalNONCE) {
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.Live;
+        }
+
+        @Override
+        public long getLatestLogNONCE() {
+            return 0;
+        }
+
+        @Override
+        public long getLatestAuditNONCE() {
+            return this.allocator.current();
+        }
+
+        @Override
+        public long getLatestJournalNONCE() {
+            return 0;
+        }
+
+        @Override
+        public NonceAllocator getNonceAllocator(final RecordType recordType) {
+            return this.allocator;
+        }
+
+        @Override
+        public GroupCommitter getGroupCommitter() {
+            return null;
+        }
+
+        @Override
+        public String getPayloadCompression(final RecordType recordType) {
+            return HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        outputRoot = new File("./output-ingest-benchmark");
+        FileUtils.deleteDirectory(outputRoot);
+        assertTrue(outputRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        RecordIndex.closeAll();
+        FileUtils.deleteDirectory(outputRoot);
+    }
+
+    /**
+     * Reports the throughput and the bytes allocated per record by the
+     * thread doing the ingest.
+     */
+    @Test
+    public void benchmarkIngestAllocation() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        final int records = Integer.getInteger("benchmarkRecords", 5000);
+        final byte[] sys = new byte[3083];
+        final byte[] app = new byte[1125];
+        final byte[] payload = new byte[Integer.getInteger("benchmarkPayloadSize", 16384)];
+        final byte[] record = record(sys, app, payload);
+
+        final SubscriberImpl subscriber = new SubscriberImpl(RecordType.Audit, outputRoot, null,
+                new TestInterface(outputRoot), UUID.randomUUID().toString(), false, null, 4096);
+        final SubscriberHttpSessionImpl sess = new SubscriberHttpSessionImpl(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), RecordType.Audit, Mode.Live, subscriber,
+                "http://www.w3.org/2001/04/xmlenc#sha256", HttpUtils.XML_COMPRESSION_NONE, 1, records * 2, true, null);
+        final MessageDigest md = MessageDigest.getInstance("SHA-256");
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(md, sess, true, null);
+                assertNotNull(handler.handleJALRecord(sys.length, app.length, payload.length, "audit",
+                        RecordType.Audit, UUID.randomUUID().toString(), new ByteArrayInputStream(record), subscriber));
+            }
+            final long nanos = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+            if (round == 1) {
+                System.out.println(String.format("%8.0f records/s, %8d bytes allocated/record",
+                        records / (nanos / 1e9), allocated / records));
+            }
+        }
+    }
+
+    private static byte[] record(final byte[]... sections) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] section : sections) {
+            out.write(section, 0, section.length);
+            out.write(BREAK, 0, BREAK.length);
+        }
+        return out.toByteArray();
+    }
+}
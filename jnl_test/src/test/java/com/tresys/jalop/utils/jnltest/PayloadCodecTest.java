@@ -0,0 +1,135 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+
+/**
+ * Tests for the formats payloads are stored in.
+ */
+public class PayloadCodecTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("./output-codec-test");
+        FileUtils.deleteDirectory(dir);
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Audit records are repetitive XML, much like this.
+     */
+    private static byte[] auditXml(final int events) throws IOException {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?><audit>");
+        for (int i = 0; i < events; i++) {
+            sb.append("<event id=\"").append(i).append("\" type=\"SYSCALL\">")
+              .append("<syscall>open</syscall><success>yes</success><uid>").append(i % 7)
+              .append("</uid><exe>/usr/bin/ls</exe></event>");
+        }
+        return sb.append("</audit>").toString().getBytes("utf-8");
+    }
+
+    private static byte[] read(final PayloadCodec codec, final File file) throws IOException {
+        final InputStream in = codec.unwrap(new FileInputStream(file));
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCompressRoundTrips() throws IOException {
+        final byte[] payload = auditXml(10000);
+        final File src = new File(dir, "payload");
+        FileUtils.writeByteArrayToFile(src, payload);
+
+        for (final PayloadCodec codec : PayloadCodec.values()) {
+            final File dest = new File(dir, "copy" + codec.filename(""));
+            codec.compress(src, dest, new byte[1024]);
+            assertArrayEquals(codec.name(), payload, read(codec, dest));
+            if (codec != PayloadCodec.NONE) {
+                assertTrue(codec.name() + " stored " + dest.length() + " bytes",
+                        dest.length() * 5 < payload.length);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyPayloadRoundTrips() throws IOException {
+        final File src = new File(dir, "payload");
+        assertTrue(src.createNewFile());
+
+        for (final PayloadCodec codec : PayloadCodec.values()) {
+            final File dest = new File(dir, "copy" + codec.filename(""));
+            codec.compress(src, dest, new byte[16]);
+            assertEquals(codec.name(), 0, read(codec, dest).length);
+        }
+    }
+
+    @Test
+    public void testGzipIsStandardFormat() throws IOException {
+        final byte[] payload = auditXml(10);
+        final File src = new File(dir, "payload");
+        FileUtils.writeByteArrayToFile(src, payload);
+        final File dest = new File(dir, PayloadCodec.GZIP.filename("payload"));
+        PayloadCodec.GZIP.compress(src, dest, new byte[1024]);
+
+        assertEquals("payload.gz", dest.getName());
+        final InputStream in = new GZIPInputStream(new FileInputStream(dest));
+        try {
+            assertArrayEquals(payload, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testLz4WritesFrameMagic() throws IOException {
+        final File src = new File(dir, "payload");
+        FileUtils.writeByteArrayToFile(src, auditXml(10));
+        final File dest = new File(dir, PayloadCodec.LZ4.filename("payload"));
+        PayloadCodec.LZ4.compress(src, dest, new byte[1024]);
+
+        assertEquals("payload.lz4", dest.getName());
+        final byte[] stored = FileUtils.readFileToByteArray(dest);
+        // The LZ4 frame magic number, 0x184D2204, little endian.
+        assertArrayEquals(new byte[] { 0x04, 0x22, 0x4d, 0x18 },
+                new byte[] { stored[0], stored[1], stored[2], stored[3] });
+    }
+
+    @Test
+    public void testForName() {
+        assertEquals(PayloadCodec.NONE, PayloadCodec.forName(null));
+        assertEquals(PayloadCodec.NONE, PayloadCodec.forName(HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE));
+        assertEquals(PayloadCodec.LZ4, PayloadCodec.forName(HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4));
+        assertEquals(PayloadCodec.GZIP, PayloadCodec.forName(HttpSubscriberConfig.PAYLOAD_COMPRESSION_GZIP));
+        assertEquals(PayloadCodec.NONE.filename("payload"), "payload");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForNameRejectsUnknown() {
+        PayloadCodec.forName("zstd");
+    }
+}
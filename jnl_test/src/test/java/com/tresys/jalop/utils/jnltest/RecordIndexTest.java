@@ -0,0 +1,169 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the memory-mapped index of confirmed records.
+ */
+public class RecordIndexTest {
+
+    private File outputRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        outputRoot = new File("./output-index-test/audit");
+        FileUtils.deleteDirectory(outputRoot.getParentFile());
+        assertTrue(outputRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        RecordIndex.closeAll();
+        FileUtils.deleteDirectory(outputRoot.getParentFile());
+    }
+
+    @Test
+    public void testEmptyIndexHasNoHighWaterNonce() throws IOException {
+        final RecordIndex index = RecordIndex.open(outputRoot, null);
+        assertEquals(0, index.getHighWaterNonce());
+        assertNull(index.get(1));
+        assertTrue(new File(outputRoot, RecordIndex.INDEX_FILENAME).exists());
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        final RecordIndex index = RecordIndex.open(outputRoot, null);
+        final byte[] digest = new byte[] {1, 2, 3, 4};
+        index.put(1, "jal-id-1", digest, 10, 20, 30);
+        index.put(2, "jal-id-2", null, 11, 0, 0);
+
+        assertEquals(2, index.getHighWaterNonce());
+        final RecordIndex.Entry entry = index.get(1);
+        assertNotNull(entry);
+        assertEquals("jal-id-1", entry.getRemoteNonce());
+        assertArrayEquals(digest, entry.getDigest());
+        assertEquals(10, entry.getSysMetaLength());
+        assertEquals(20, entry.getAppMetaLength());
+        assertEquals(30, entry.getPayloadLength());
+        assertEquals(0, index.get(2).getDigest().length);
+        assertNull(index.get(3));
+    }
+
+    @Test
+    public void testIndexGrows() throws IOException {
+        final RecordIndex index = RecordIndex.open(outputRoot, null);
+        index.put(100000, "far", null, 1, 2, 3);
+        assertEquals(100000, index.getHighWaterNonce());
+        assertEquals("far", index.get(100000).getRemoteNonce());
+    }
+
+    @Test
+    public void testIndexGrowsPastOneMapping() throws IOException {
+        // Past what a single mapping can hold, and split by a segment boundary.
+        final long far = Integer.MAX_VALUE / RecordIndex.ENTRY_SIZE + 10;
+        final long split = (RecordIndex.SEGMENT_SIZE - RecordIndex.HEADER_SIZE) / RecordIndex.ENTRY_SIZE + 1;
+        RecordIndex index = RecordIndex.open(outputRoot, null);
+        index.put(split, "split", new byte[] {1, 2}, 1, 2, 3);
+        index.put(far, "far", null, 4, 5, 6);
+        RecordIndex.closeAll();
+
+        index = RecordIndex.open(outputRoot, null);
+        assertEquals(far, index.getHighWaterNonce());
+        assertEquals("split", index.get(split).getRemoteNonce());
+        assertArrayEquals(new byte[] {1, 2}, index.get(split).getDigest());
+        assertEquals(3, index.get(split).getPayloadLength());
+        assertEquals("far", index.get(far).getRemoteNonce());
+        assertEquals(6, index.get(far).getPayloadLength());
+        assertNull(index.get(far + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNonceBeyondIndexFails() throws IOException {
+        RecordIndex.open(outputRoot, null).put(RecordIndex.MAX_NONCE + 1, "too-far", null, 1, 2, 3);
+    }
+
+    @Test
+    public void testIndexSurvivesReopen() throws IOException {
+        RecordIndex index = RecordIndex.open(outputRoot, null);
+        index.put(1, "jal-id-1", null, 1, 2, 3);
+        RecordIndex.closeAll();
+
+        index = RecordIndex.open(outputRoot, null);
+        assertEquals(1, index.getHighWaterNonce());
+        assertEquals("jal-id-1", index.get(1).getRemoteNonce());
+    }
+
+    @Test
+    public void testOpenProbesPastHighWaterNonce() throws IOException {
+        RecordIndex index = RecordIndex.open(outputRoot, null);
+        index.put(1, "jal-id-1", null, 1, 2, 3);
+        // Simulate a record that was moved into place but never indexed.
+        assertTrue(new File(outputRoot, "0000000002").mkdir());
+
+        index = RecordIndex.open(outputRoot, null);
+        assertEquals(2, index.getHighWaterNonce());
+    }
+
+    @Test
+    public void testMissingIndexIsRebuilt() throws IOException {
+        final File record = new File(outputRoot, "0000000007");
+        assertTrue(record.mkdir());
+        final FileOutputStream out = new FileOutputStream(
+                new File(record, SubscriberImpl.STATUS_FILENAME));
+        out.write(("{\"remote_nonce\":\"jal-id-7\",\"digest\":\"0aff\","
+                + "\"sys_meta_progress\":5,\"payload_progress\":9}").getBytes("utf-8"));
+        out.close();
+
+        final RecordIndex index = RecordIndex.open(outputRoot, null);
+        assertEquals(7, index.getHighWaterNonce());
+        final RecordIndex.Entry entry = index.get(7);
+        assertEquals("jal-id-7", entry.getRemoteNonce());
+        assertArrayEquals(new byte[] {0x0a, (byte) 0xff}, entry.getDigest());
+        assertEquals(5, entry.getSysMetaLength());
+        assertEquals(0, entry.getAppMetaLength());
+        assertEquals(9, entry.getPayloadLength());
+    }
+
+    @Test
+    public void testDeletedIndexIsRecreated() throws IOException {
+        final RecordIndex first = RecordIndex.open(outputRoot, null);
+        assertSame(first, RecordIndex.open(outputRoot, null));
+        first.put(3, "jal-id-3", null, 1, 1, 1);
+
+        FileUtils.deleteDirectory(outputRoot);
+        assertTrue(outputRoot.mkdirs());
+
+        // Rebuilt in place, so sessions already holding the index keep using it.
+        final RecordIndex second = RecordIndex.open(outputRoot, null);
+        assertSame(first, second);
+        assertEquals(0, second.getHighWaterNonce());
+
+        first.put(4, "jal-id-4", null, 1, 1, 1);
+        RecordIndex.closeAll();
+        final RecordIndex reopened = RecordIndex.open(outputRoot, null);
+        assertEquals(4, reopened.getHighWaterNonce());
+        assertEquals("jal-id-4", reopened.get(4).getRemoteNonce());
+        assertNull(reopened.get(3));
+    }
+
+    @Test(expected = IOException.class)
+    public void testClosedIndexFailsToPut() throws IOException {
+        final RecordIndex index = RecordIndex.open(outputRoot, null);
+        RecordIndex.closeAll();
+        index.put(1, "jal-id-1", null, 1, 1, 1);
+    }
+}
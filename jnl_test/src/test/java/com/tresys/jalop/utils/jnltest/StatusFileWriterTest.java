@@ -0,0 +1,117 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.apache.commons.io.FileUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for writing record status files.
+ */
+public class StatusFileWriterTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("./output-status-test");
+        FileUtils.deleteDirectory(dir);
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static Reader read(final File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), "utf-8");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWrittenStatusParses() throws Exception {
+        final JSONObject status = new JSONObject();
+        status.put(SubscriberImpl.PAYLOAD_PROGRESS, 1234567890123L);
+        status.put("negative", -42L);
+        status.put(SubscriberImpl.REMOTE_NONCE, "quote\" slash\\ tab\t ctl\u0001 \u00e9\u4e2d\ud83d\ude00");
+        status.put("flag", Boolean.TRUE);
+        status.put("nothing", null);
+
+        final File file = new File(dir, SubscriberImpl.STATUS_FILENAME);
+        StatusFileWriter.get().write(file, status);
+
+        final JSONObject read = (JSONObject) new JSONParser().parse(read(file));
+        assertEquals(status, read);
+        // Only the status file is left behind.
+        assertEquals(1, dir.list().length);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMatchesJsonSimpleOutput() {
+        final JSONObject status = new JSONObject();
+        status.put(SubscriberImpl.SYS_META_PROGRESS, 3083L);
+        status.put(SubscriberImpl.APP_META_PROGRESS, 0L);
+        status.put(SubscriberImpl.DGST, "bbd801ce");
+
+        final StatusFileWriter writer = StatusFileWriter.get();
+        final byte[] buf = writer.encode(status);
+        assertEquals(status.toJSONString(), new String(buf, 0, writer.length()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOverwriteReplacesWholeFile() throws Exception {
+        final File file = new File(dir, SubscriberImpl.STATUS_FILENAME);
+        final JSONObject status = new JSONObject();
+        status.put(SubscriberImpl.REMOTE_NONCE, "a much longer value than the one that follows");
+        StatusFileWriter.get().write(file, status);
+
+        status.put(SubscriberImpl.REMOTE_NONCE, "short");
+        StatusFileWriter.get().write(file, status);
+
+        final JSONObject read = (JSONObject) new JSONParser().parse(read(file));
+        assertEquals("short", read.get(SubscriberImpl.REMOTE_NONCE));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSyncedWriteReplacesWholeFile() throws Exception {
+        final File file = new File(dir, SubscriberImpl.STATUS_FILENAME);
+        final JSONObject status = new JSONObject();
+        status.put(SubscriberImpl.REMOTE_NONCE, "a much longer value than the one that follows");
+        StatusFileWriter.get().write(file, status, true);
+
+        status.put(SubscriberImpl.REMOTE_NONCE, "short");
+        StatusFileWriter.get().write(file, status, true);
+
+        final JSONObject read = (JSONObject) new JSONParser().parse(read(file));
+        assertEquals("short", read.get(SubscriberImpl.REMOTE_NONCE));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void testResumeOffsetTruncatesUnrecordedData() throws IOException {
+        final File payload = new File(dir, "payload");
+        FileUtils.writeStringToFile(payload, "0123456789");
+
+        assertEquals(6, SubscriberImpl.resumeOffset(payload, 6));
+        assertEquals(6, payload.length());
+
+        // Progress past the end of the file resumes from the end.
+        assertEquals(6, SubscriberImpl.resumeOffset(payload, 9));
+        assertEquals(6, payload.length());
+    }
+}
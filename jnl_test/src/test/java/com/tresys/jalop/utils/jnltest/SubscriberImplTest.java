@@ -0,0 +1,261 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tresys.jalop.jnl.DigestStatus;
+import com.tresys.jalop.jnl.Mode;
+import com.tresys.jalop.jnl.RecordType;
+import com.tresys.jalop.jnl.impl.http.HttpSubscriberConfig;
+import com.tresys.jalop.jnl.impl.http.HttpUtils;
+import com.tresys.jalop.jnl.impl.http.JNLTestInterface;
+import com.tresys.jalop.jnl.impl.http.SubscriberHttpANSHandler;
+import com.tresys.jalop.jnl.impl.subscriber.GroupCommitter;
+import com.tresys.jalop.jnl.impl.subscriber.NonceAllocator;
+import com.tresys.jalop.jnl.impl.subscriber.SubscriberHttpSessionImpl;
+
+/**
+ * Tests for sessions from the same publisher sharing its record
+ * directories.
+ */
+public class SubscriberImplTest {
+
+    private static final byte[] BREAK = "BREAK".getBytes();
+    private static final String SHA256 = "http://www.w3.org/2001/04/xmlenc#sha256";
+
+    private File outputRoot;
+    private TestInterface jnlTest;
+    private final String publisherId = UUID.randomUUID().toString();
+
+    /**
+     * Just enough of {@link JNLSubscriber} to run archive mode journal
+     * {@link SubscriberImpl}s.
+     */
+    private static class TestInterface implements JNLTestInterface {
+        private final NonceAllocator allocator;
+        private String payloadCompression = HttpSubscriberConfig.PAYLOAD_COMPRESSION_NONE;
+
+        TestInterface(final File outputRoot) throws IOException {
+            this.allocator = new NonceAllocator(new File(outputRoot, NonceAllocator.STATE_FILENAME),
+                    NonceAllocator.DEFAULT_BLOCK_SIZE, null);
+        }
+
+        @Override
+        public void setLatestLogNONCE(final long latestLogNONCE) {
+        }
+
+        @Override
+        public void setLatestAuditNONCE(final long latestAuditNONCE) {
+        }
+
+        @Override
+        public void setLatestJournalNONCE(final long latestJournalNONCE) {
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.Archive;
+        }
+
+        @Override
+        public long getLatestLogNONCE() {
+            return 0;
+        }
+
+        @Override
+        public long getLatestAuditNONCE() {
+            return 0;
+        }
+
+        @Override
+        public long getLatestJournalNONCE() {
+            return this.allocator.current();
+        }
+
+        @Override
+        public NonceAllocator getNonceAllocator(final RecordType recordType) {
+            return this.allocator;
+        }
+
+        @Override
+        public GroupCommitter getGroupCommitter() {
+            return null;
+        }
+
+        @Override
+        public String getPayloadCompression(final RecordType recordType) {
+            return this.payloadCompression;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        outputRoot = new File("./target/subscriber-impl-test-output");
+        FileUtils.deleteDirectory(outputRoot);
+        assertTrue(outputRoot.mkdirs());
+        jnlTest = new TestInterface(outputRoot);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PayloadCompressor.drain(10000);
+        RecordIndex.closeAll();
+        FileUtils.deleteDirectory(outputRoot);
+    }
+
+    private SubscriberImpl subscriber() {
+        return new SubscriberImpl(RecordType.Journal, outputRoot, null, jnlTest, publisherId, false, null, 4096);
+    }
+
+    private SubscriberHttpSessionImpl session(final SubscriberImpl subscriber) {
+        return new SubscriberHttpSessionImpl(publisherId, UUID.randomUUID().toString(), RecordType.Journal,
+                Mode.Archive, subscriber, SHA256, HttpUtils.XML_COMPRESSION_NONE, 1, 10, true, null);
+    }
+
+    @Test
+    public void testRecordInFlightIsLeftToItsSession() throws Exception {
+        final byte[] sys = new byte[3083];
+        final byte[] app = new byte[1125];
+        final byte[] payload = new byte[(int) (3 * SubscriberImpl.STATUS_INTERVAL)];
+        new Random(1).nextBytes(payload);
+        final byte[] record = record(sys, app, payload);
+
+        final SubscriberImpl first = subscriber();
+        final SubscriberHttpSessionImpl firstSess = session(first);
+        final SubscriberImpl[] second = new SubscriberImpl[1];
+
+        // The second session starts once some of the payload, and its status, is on disk.
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream(record)) {
+            private long read;
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int n = super.read(b, off, len);
+                this.read += Math.max(n, 0);
+                if (second[0] == null && this.read > record.length / 2) {
+                    second[0] = subscriber();
+                }
+                return n;
+            }
+        };
+        final String jalId = UUID.randomUUID().toString();
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), firstSess, true, null);
+        assertNotNull(handler.handleJALRecord(sys.length, app.length, payload.length, "journal",
+                RecordType.Journal, jalId, in, first));
+        assertNotNull(second[0]);
+        assertEquals(0, second[0].getSubscribeRequest(session(second[0]), false).getResumeOffset());
+
+        assertTrue(first.notifyDigestResponse(firstSess, jalId, DigestStatus.Confirmed, first));
+        final File confirmed = new File(new File(outputRoot, "journal"),
+                SubscriberImpl.NONCE_FORMATER.format(jnlTest.allocator.current()));
+        assertArrayEquals(payload, FileUtils.readFileToByteArray(new File(confirmed, "payload")));
+    }
+
+    @Test
+    public void testConfirmedJournalIsCompressedAfterwards() throws Exception {
+        jnlTest.payloadCompression = HttpSubscriberConfig.PAYLOAD_COMPRESSION_LZ4;
+        final byte[] sys = new byte[100];
+        final byte[] app = new byte[100];
+        final byte[] payload = new byte[(int) SubscriberImpl.STATUS_INTERVAL];
+        new Random(2).nextBytes(payload);
+        final SubscriberImpl subscriber = subscriber();
+        final SubscriberHttpSessionImpl sess = session(subscriber);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), sess, true, null);
+        final String jalId = UUID.randomUUID().toString();
+        assertNotNull(handler.handleJALRecord(sys.length, app.length, payload.length, "journal",
+                RecordType.Journal, jalId, new ByteArrayInputStream(record(sys, app, payload)), subscriber));
+        assertTrue(subscriber.notifyDigestResponse(sess, jalId, DigestStatus.Confirmed, subscriber));
+
+        assertTrue(PayloadCompressor.drain(10000));
+        final File confirmed = new File(new File(outputRoot, "journal"),
+                SubscriberImpl.NONCE_FORMATER.format(jnlTest.allocator.current()));
+        assertFalse(new File(confirmed, "payload").exists());
+        final InputStream in = PayloadCodec.LZ4.unwrap(new FileInputStream(new File(confirmed, "payload.lz4")));
+        try {
+            assertArrayEquals(payload, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+        assertTrue(FileUtils.readFileToString(new File(confirmed, "status.js"), "UTF-8")
+                .contains("\"payload_compression\":\"lz4\""));
+    }
+
+    @Test
+    public void testReceivedRecordIsGivenUpToNewerSession() throws Exception {
+        final byte[] sys = new byte[100];
+        final byte[] app = new byte[100];
+        final byte[] payload = new byte[1000];
+        final SubscriberImpl first = subscriber();
+        final SubscriberHttpSessionImpl firstSess = session(first);
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), firstSess, true, null);
+        final String jalId = UUID.randomUUID().toString();
+        assertNotNull(handler.handleJALRecord(sys.length, app.length, payload.length, "journal",
+                RecordType.Journal, jalId, new ByteArrayInputStream(record(sys, app, payload)), first));
+
+        // Only the digest response is missing, which the publisher will not send once it starts over.
+        final File outputIpRoot = new File(new File(outputRoot, publisherId), "journal");
+        assertEquals(1, outputIpRoot.list(SubscriberImpl.FILENAME_FILTER).length);
+        subscriber();
+        assertEquals(0, outputIpRoot.list(SubscriberImpl.FILENAME_FILTER).length);
+        assertFalse(first.notifyDigestResponse(firstSess, jalId, DigestStatus.Confirmed, first));
+        assertEquals(0, new File(outputRoot, "journal").list(SubscriberImpl.FILENAME_FILTER).length);
+    }
+
+    @Test
+    public void testInterruptedRecordCanBeResumed() throws Exception {
+        final SubscriberImpl first = subscriber();
+        final SubscriberHttpANSHandler handler = new SubscriberHttpANSHandler(
+                MessageDigest.getInstance("SHA-256"), session(first), true, null);
+        final byte[] payload = new byte[(int) (2 * SubscriberImpl.STATUS_INTERVAL)];
+        final byte[] record = record(new byte[100], new byte[100], payload);
+
+        // The connection drops part way through the payload, which is kept for resume.
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream(record)) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (available() < payload.length / 4) {
+                    throw new IOException("Connection reset");
+                }
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        assertNull(handler.handleJALRecord(100, 100, payload.length, "journal", RecordType.Journal,
+                UUID.randomUUID().toString(), in, first));
+
+        final SubscriberImpl second = subscriber();
+        assertTrue(second.getSubscribeRequest(session(second), false).getResumeOffset() > 0);
+    }
+
+    private static byte[] record(final byte[]... sections) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] section : sections) {
+            out.write(section, 0, section.length);
+            out.write(BREAK, 0, BREAK.length);
+        }
+        return out.toByteArray();
+    }
+}
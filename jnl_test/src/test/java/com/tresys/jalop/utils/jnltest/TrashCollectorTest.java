@@ -0,0 +1,53 @@
+package com.tresys.jalop.utils.jnltest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for background removal of stale record directories.
+ */
+public class TrashCollectorTest {
+
+    private File outputRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        outputRoot = new File("./output-trash-test");
+        FileUtils.deleteDirectory(outputRoot);
+        assertTrue(outputRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        assertTrue(TrashCollector.drain(10000));
+        FileUtils.deleteDirectory(outputRoot);
+    }
+
+    @Test
+    public void testDiscardMovesAndDeletes() throws IOException {
+        final File first = new File(outputRoot, "pub/journal/0000000001");
+        final File second = new File(outputRoot, "pub/journal/0000000002");
+        assertTrue(first.mkdirs());
+        assertTrue(second.mkdirs());
+        FileUtils.writeStringToFile(new File(first, "payload"), "data");
+
+        TrashCollector.discard(outputRoot, Arrays.asList(first, second));
+
+        // Gone from the record directory as soon as discard returns.
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+
+        assertTrue(TrashCollector.drain(10000));
+        final File trash = new File(outputRoot, TrashCollector.TRASH_DIRNAME);
+        assertTrue(!trash.exists() || trash.list().length == 0);
+    }
+}